@@ -46,6 +46,7 @@ import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.condition.EntityOperator;
 import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.entity.util.EntityUtil;
 import org.ofbiz.party.contact.ContactMechWorker;
 import org.ofbiz.product.product.ProductWorker;
 import org.ofbiz.service.DispatchContext;
@@ -68,6 +69,11 @@ public class TaxAuthorityServices {
     public static final int salestaxCalcDecimals = UtilNumber.getBigDecimalScale("salestax.calc.decimals");
     public static final RoundingMode salestaxRounding = UtilNumber.getRoundingMode("salestax.rounding");
     public static final String resource = "AccountingUiLabels";
+    /**
+     * SCIPIO: If true, TaxAuthorityRateProduct lookups use the entity cache, with date and minimum amount
+     * filtering done in memory (accounting.tax.rate.cache).
+     */
+    private static final boolean TAX_RATE_CACHE = UtilProperties.getPropertyAsBoolean("AccountingConfig", "accounting.tax.rate.cache", true);
 
     public static Map<String, Object> rateProductTaxCalcForDisplay(DispatchContext dctx, Map<String, ? extends Object> context) {
         Delegator delegator = dctx.getDelegator();
@@ -227,6 +233,9 @@ public class TaxAuthorityServices {
         List<GenericValue> orderAdjustments = new LinkedList<>();
         List<List<GenericValue>> itemAdjustments = new LinkedList<>();
 
+        // SCIPIO: Lookups shared by all the items of this calculation are only done once
+        TaxCalcContext calcCtx = new TaxCalcContext();
+
         // Loop through the products; get the taxCategory; and lookup each in the cache.
         for (int i = 0; i < itemProductList.size(); i++) {
             GenericValue product = itemProductList.get(i);
@@ -236,13 +245,13 @@ public class TaxAuthorityServices {
             BigDecimal shippingAmount = itemShippingList != null ? itemShippingList.get(i) : null;
             List<GenericValue> taxList = null;
             if (shippingAddress != null) {
-                taxList = getTaxAdjustments(delegator, product, productStore, payToPartyId, billToPartyId, taxAuthoritySet, itemPrice, itemQuantity, itemAmount, shippingAmount, ZERO_BASE, useCache);
+                taxList = getTaxAdjustments(delegator, product, productStore, payToPartyId, billToPartyId, taxAuthoritySet, itemPrice, itemQuantity, itemAmount, shippingAmount, ZERO_BASE, useCache, calcCtx);
             }
             // this is an add and not an addAll because we want a List of Lists of GenericValues, one List of Adjustments per item
             itemAdjustments.add(taxList);
         }
         if (orderShippingAmount != null && orderShippingAmount.compareTo(BigDecimal.ZERO) > 0) {
-            List<GenericValue> taxList = getTaxAdjustments(delegator, null, productStore, payToPartyId, billToPartyId, taxAuthoritySet, ZERO_BASE, ZERO_BASE, ZERO_BASE, orderShippingAmount, ZERO_BASE, useCache);
+            List<GenericValue> taxList = getTaxAdjustments(delegator, null, productStore, payToPartyId, billToPartyId, taxAuthoritySet, ZERO_BASE, ZERO_BASE, ZERO_BASE, orderShippingAmount, ZERO_BASE, useCache, calcCtx);
             // SCIPIO: if there is no rate for shipping use "majority" rule, i.e. most used rate for order
             if (UtilValidate.isEmpty(taxList)) {
                 //taxList = getShippingTaxAdjustment(itemAdjustments);
@@ -251,7 +260,7 @@ public class TaxAuthorityServices {
             orderAdjustments.addAll(taxList);
         }
         if (orderPromotionsAmount != null && orderPromotionsAmount.compareTo(BigDecimal.ZERO) != 0) {
-            List<GenericValue> taxList = getTaxAdjustments(delegator, null, productStore, payToPartyId, billToPartyId, taxAuthoritySet, ZERO_BASE, ZERO_BASE, ZERO_BASE, ZERO_BASE, orderPromotionsAmount, useCache);
+            List<GenericValue> taxList = getTaxAdjustments(delegator, null, productStore, payToPartyId, billToPartyId, taxAuthoritySet, ZERO_BASE, ZERO_BASE, ZERO_BASE, ZERO_BASE, orderPromotionsAmount, useCache, calcCtx);
             orderAdjustments.addAll(taxList);
         }
 
@@ -314,6 +323,28 @@ public class TaxAuthorityServices {
         return getTaxAdjustmentsDetailed(delegator, product, productStore, payToPartyId, billToPartyId, taxAuthoritySet, itemPrice, itemQuantity, itemAmount, shippingAmount, orderPromotionsAmount, useCache).getAdjustments();
     }
 
+    // SCIPIO: added overload for shared per-call lookups
+    private static List<GenericValue> getTaxAdjustments(Delegator delegator, GenericValue product, GenericValue productStore,
+            String payToPartyId, String billToPartyId, Set<GenericValue> taxAuthoritySet,
+            BigDecimal itemPrice, BigDecimal itemQuantity, BigDecimal itemAmount,
+            BigDecimal shippingAmount, BigDecimal orderPromotionsAmount, boolean useCache, TaxCalcContext calcCtx) {
+        return getTaxAdjustmentsDetailed(delegator, product, productStore, payToPartyId, billToPartyId, taxAuthoritySet, itemPrice, itemQuantity, itemAmount, shippingAmount, orderPromotionsAmount, useCache, calcCtx).getAdjustments();
+    }
+
+    /**
+     * SCIPIO: Lookups memoized across the items of a single tax calculation (rateProductTaxCalc call),
+     * so a cart of N lines does not repeat the same rate, GL account, price and party group queries N times.
+     * Only valid for one call: same store, tax authorities, bill-to party and timestamp.
+     */
+    private static class TaxCalcContext {
+        final Timestamp nowTimestamp = UtilDateTime.nowTimestamp();
+        final Map<String, Set<String>> productCategoryIdSets = new HashMap<>();
+        final Map<EntityCondition, List<GenericValue>> rateProductLists = new HashMap<>();
+        final Map<String, GenericValue> taxAuthorityGlAccounts = new HashMap<>(); // NOTE: may contain null values
+        final Map<String, GenericValue> productPrices = new HashMap<>(); // NOTE: may contain null values
+        Set<String> billToPartyIdSet;
+    }
+
     /**
      * SCIPIO: 2018-07-18
      */
@@ -347,7 +378,15 @@ public class TaxAuthorityServices {
             String payToPartyId, String billToPartyId, Set<GenericValue> taxAuthoritySet,
             BigDecimal itemPrice, BigDecimal itemQuantity, BigDecimal itemAmount,
             BigDecimal shippingAmount, BigDecimal orderPromotionsAmount, boolean useCache) {
-        Timestamp nowTimestamp = UtilDateTime.nowTimestamp();
+        return getTaxAdjustmentsDetailed(delegator, product, productStore, payToPartyId, billToPartyId, taxAuthoritySet, itemPrice, itemQuantity, itemAmount, shippingAmount, orderPromotionsAmount, useCache, new TaxCalcContext());
+    }
+
+    // SCIPIO: added calcCtx for lookups shared across items
+    private static TaxAdjustmentsResult getTaxAdjustmentsDetailed(Delegator delegator, GenericValue product, GenericValue productStore,
+            String payToPartyId, String billToPartyId, Set<GenericValue> taxAuthoritySet,
+            BigDecimal itemPrice, BigDecimal itemQuantity, BigDecimal itemAmount,
+            BigDecimal shippingAmount, BigDecimal orderPromotionsAmount, boolean useCache, TaxCalcContext calcCtx) {
+        Timestamp nowTimestamp = calcCtx.nowTimestamp;
         TaxAdjustmentsResult result = new TaxAdjustmentsResult(); // SCIPIO
         List<GenericValue> adjustments = result.adjustments;
 
@@ -391,26 +430,30 @@ public class TaxAuthorityServices {
                 // find the tax categories associated with the product and filter by those, with an IN clause or some such
                 // if this product is variant, find the virtual product id and consider also the categories of the virtual
                 // question: get all categories, or just a special type? for now let's do all categories...
-                String virtualProductId = null;
-                if ("Y".equals(product.getString("isVariant"))) {
-                    virtualProductId = ProductWorker.getVariantVirtualId(product, useCache);
-                }
-                Set<String> productCategoryIdSet = new HashSet<>();
-                EntityCondition productIdCond = null;
-                if (virtualProductId != null) {
-                    productIdCond = EntityCondition.makeCondition(
-                            EntityCondition.makeCondition("productId", EntityOperator.EQUALS, product.getString("productId")),
-                            EntityOperator.OR,
-                            EntityCondition.makeCondition("productId", EntityOperator.EQUALS, virtualProductId));
+                Set<String> productCategoryIdSet = calcCtx.productCategoryIdSets.get(product.getString("productId")); // SCIPIO: memoized
+                if (productCategoryIdSet == null) {
+                    String virtualProductId = null;
+                    if ("Y".equals(product.getString("isVariant"))) {
+                        virtualProductId = ProductWorker.getVariantVirtualId(product, useCache);
+                    }
+                    productCategoryIdSet = new HashSet<>();
+                    EntityCondition productIdCond = null;
+                    if (virtualProductId != null) {
+                        productIdCond = EntityCondition.makeCondition(
+                                EntityCondition.makeCondition("productId", EntityOperator.EQUALS, product.getString("productId")),
+                                EntityOperator.OR,
+                                EntityCondition.makeCondition("productId", EntityOperator.EQUALS, virtualProductId));
 
-                } else {
-                    productIdCond = EntityCondition.makeCondition("productId", EntityOperator.EQUALS, product.getString("productId"));
-                }
-                List<GenericValue> pcmList = EntityQuery.use(delegator).select("productCategoryId", "fromDate", "thruDate")
-                        .from("ProductCategoryMember")
-                        .where(productIdCond).cache(useCache).filterByDate().queryList();
-                for (GenericValue pcm : pcmList) {
-                    productCategoryIdSet.add(pcm.getString("productCategoryId"));
+                    } else {
+                        productIdCond = EntityCondition.makeCondition("productId", EntityOperator.EQUALS, product.getString("productId"));
+                    }
+                    List<GenericValue> pcmList = EntityQuery.use(delegator).select("productCategoryId", "fromDate", "thruDate")
+                            .from("ProductCategoryMember")
+                            .where(productIdCond).cache(useCache).filterByDate().queryList();
+                    for (GenericValue pcm : pcmList) {
+                        productCategoryIdSet.add(pcm.getString("productCategoryId"));
+                    }
+                    calcCtx.productCategoryIdSets.put(product.getString("productId"), productCategoryIdSet);
                 }
 
                 if (productCategoryIdSet.size() == 0) {
@@ -454,14 +497,36 @@ public class TaxAuthorityServices {
 
             // build the main condition clause
             List<EntityCondition> mainExprs = UtilMisc.toList(storeCond, taxAuthoritiesCond, productCategoryCond);
-            mainExprs.add(EntityCondition.makeCondition(EntityCondition.makeCondition("minItemPrice", EntityOperator.EQUALS, null), EntityOperator.OR, EntityCondition.makeCondition("minItemPrice", EntityOperator.LESS_THAN_EQUAL_TO, itemPrice)));
-            mainExprs.add(EntityCondition.makeCondition(EntityCondition.makeCondition("minPurchase", EntityOperator.EQUALS, null), EntityOperator.OR, EntityCondition.makeCondition("minPurchase", EntityOperator.LESS_THAN_EQUAL_TO, itemAmount)));
-            EntityCondition mainCondition = EntityCondition.makeCondition(mainExprs, EntityOperator.AND);
-
-            // finally ready... do the rate query
-            // SCIPIO: 2017-12-19: not adding useCache here because no cache() call in original code (same below)
-            List<GenericValue> lookupList = EntityQuery.use(delegator).from("TaxAuthorityRateProduct")
-                    .where(mainCondition).orderBy("minItemPrice", "minPurchase", "fromDate").filterByDate().queryList();
+            List<GenericValue> lookupList;
+            EntityCondition mainCondition;
+            if (TAX_RATE_CACHE) {
+                // SCIPIO: Query (and cache) the rates independently of the item amounts and date, so the same list serves
+                // all items, prices and quantity changes; the date and minimum amounts are then filtered in memory (same order)
+                mainCondition = EntityCondition.makeCondition(mainExprs, EntityOperator.AND);
+                List<GenericValue> rateProductList = calcCtx.rateProductLists.get(mainCondition);
+                if (rateProductList == null) {
+                    rateProductList = EntityQuery.use(delegator).from("TaxAuthorityRateProduct")
+                            .where(mainCondition).orderBy("minItemPrice", "minPurchase", "fromDate").cache(useCache).queryList();
+                    rateProductList = EntityUtil.filterByDate(rateProductList, nowTimestamp);
+                    calcCtx.rateProductLists.put(mainCondition, rateProductList);
+                }
+                lookupList = new ArrayList<>(rateProductList.size());
+                for (GenericValue rateProduct : rateProductList) {
+                    if (isRateProductMinApplicable(rateProduct.getBigDecimal("minItemPrice"), itemPrice)
+                            && isRateProductMinApplicable(rateProduct.getBigDecimal("minPurchase"), itemAmount)) {
+                        lookupList.add(rateProduct);
+                    }
+                }
+            } else {
+                mainExprs.add(EntityCondition.makeCondition(EntityCondition.makeCondition("minItemPrice", EntityOperator.EQUALS, null), EntityOperator.OR, EntityCondition.makeCondition("minItemPrice", EntityOperator.LESS_THAN_EQUAL_TO, itemPrice)));
+                mainExprs.add(EntityCondition.makeCondition(EntityCondition.makeCondition("minPurchase", EntityOperator.EQUALS, null), EntityOperator.OR, EntityCondition.makeCondition("minPurchase", EntityOperator.LESS_THAN_EQUAL_TO, itemAmount)));
+                mainCondition = EntityCondition.makeCondition(mainExprs, EntityOperator.AND);
+
+                // finally ready... do the rate query
+                // SCIPIO: 2017-12-19: not adding useCache here because no cache() call in original code (same below)
+                lookupList = EntityQuery.use(delegator).from("TaxAuthorityRateProduct")
+                        .where(mainCondition).orderBy("minItemPrice", "minPurchase", "fromDate").filterByDate().queryList();
+            }
 
             result.resetRateProducts(lookupList); // SCIPIO
             if (lookupList.size() == 0) {
@@ -497,8 +562,16 @@ public class TaxAuthorityServices {
                 String taxAuthPartyId = taxAuthorityRateProduct.getString("taxAuthPartyId");
 
                 // get glAccountId from TaxAuthorityGlAccount entity using the payToPartyId as the organizationPartyId
-                GenericValue taxAuthorityGlAccount = EntityQuery.use(delegator).from("TaxAuthorityGlAccount")
-                        .where("taxAuthPartyId", taxAuthPartyId, "taxAuthGeoId", taxAuthGeoId, "organizationPartyId", payToPartyId).queryOne();
+                // SCIPIO: memoized per calculation
+                String glAccountKey = taxAuthPartyId + "::" + taxAuthGeoId + "::" + payToPartyId;
+                GenericValue taxAuthorityGlAccount;
+                if (calcCtx.taxAuthorityGlAccounts.containsKey(glAccountKey)) {
+                    taxAuthorityGlAccount = calcCtx.taxAuthorityGlAccounts.get(glAccountKey);
+                } else {
+                    taxAuthorityGlAccount = EntityQuery.use(delegator).from("TaxAuthorityGlAccount")
+                            .where("taxAuthPartyId", taxAuthPartyId, "taxAuthGeoId", taxAuthGeoId, "organizationPartyId", payToPartyId).queryOne();
+                    calcCtx.taxAuthorityGlAccounts.put(glAccountKey, taxAuthorityGlAccount);
+                }
                 String taxAuthGlAccountId = null;
                 if (taxAuthorityGlAccount != null) {
                     taxAuthGlAccountId = taxAuthorityGlAccount.getString("glAccountId");
@@ -507,7 +580,10 @@ public class TaxAuthorityServices {
                 }
 
                 GenericValue productPrice = null;
-                if (product != null && taxAuthPartyId != null && taxAuthGeoId != null) {
+                String productPriceKey = (product != null) ? product.getString("productId") + "::" + taxAuthPartyId + "::" + taxAuthGeoId : null;
+                if (product != null && taxAuthPartyId != null && taxAuthGeoId != null && calcCtx.productPrices.containsKey(productPriceKey)) {
+                    productPrice = calcCtx.productPrices.get(productPriceKey); // SCIPIO: memoized per calculation
+                } else if (product != null && taxAuthPartyId != null && taxAuthGeoId != null) {
                     // find a ProductPrice for the productId and taxAuth* values, and see if it has a priceWithTax value
                     productPrice = EntityQuery.use(delegator).from("ProductPrice")
                             .where("productId", product.get("productId"),
@@ -525,6 +601,7 @@ public class TaxAuthorityServices {
                                     .orderBy("-fromDate").filterByDate().queryFirst();
                         }
                     }
+                    calcCtx.productPrices.put(productPriceKey, productPrice);
                 }
                 GenericValue taxAdjValue = delegator.makeValue("OrderAdjustment");
 
@@ -566,14 +643,18 @@ public class TaxAuthorityServices {
                 if (UtilValidate.isNotEmpty(billToPartyId) && UtilValidate.isNotEmpty(taxAuthGeoId)) {
                     // see if partyId is a member of any groups, if so honor their tax exemptions
                     // look for PartyRelationship with partyRelationshipTypeId=GROUP_ROLLUP, the partyIdTo is the group member, so the partyIdFrom is the groupPartyId
-                    Set<String> billToPartyIdSet = new HashSet<>();
-                    billToPartyIdSet.add(billToPartyId);
-                    List<GenericValue> partyRelationshipList = EntityQuery.use(delegator).from("PartyRelationship")
-                            .where("partyIdTo", billToPartyId, "partyRelationshipTypeId", "GROUP_ROLLUP")
-                            .cache(useCache).filterByDate().queryList();
-
-                    for (GenericValue partyRelationship : partyRelationshipList) {
-                        billToPartyIdSet.add(partyRelationship.getString("partyIdFrom"));
+                    Set<String> billToPartyIdSet = calcCtx.billToPartyIdSet; // SCIPIO: memoized per calculation
+                    if (billToPartyIdSet == null) {
+                        billToPartyIdSet = new HashSet<>();
+                        billToPartyIdSet.add(billToPartyId);
+                        List<GenericValue> partyRelationshipList = EntityQuery.use(delegator).from("PartyRelationship")
+                                .where("partyIdTo", billToPartyId, "partyRelationshipTypeId", "GROUP_ROLLUP")
+                                .cache(useCache).filterByDate().queryList();
+
+                        for (GenericValue partyRelationship : partyRelationshipList) {
+                            billToPartyIdSet.add(partyRelationship.getString("partyIdFrom"));
+                        }
+                        calcCtx.billToPartyIdSet = billToPartyIdSet;
                     }
                     handlePartyTaxExempt(taxAdjValue, billToPartyIdSet, taxAuthGeoId, taxAuthPartyId, taxAmount, nowTimestamp, delegator, useCache);
                 } else {
@@ -640,6 +721,13 @@ public class TaxAuthorityServices {
         return result; //return adjustments; // SCIPIO
     }
 
+    /**
+     * SCIPIO: In-memory equivalent of the condition <code>min IS NULL OR min &lt;= amount</code> (a null amount matches no minimum).
+     */
+    private static boolean isRateProductMinApplicable(BigDecimal min, BigDecimal amount) {
+        return (min == null) || (amount != null && min.compareTo(amount) <= 0);
+    }
+
     // SCIPIO: 2017-12-19: added useCache flag
     private static void handlePartyTaxExempt(GenericValue adjValue, Set<String> billToPartyIdSet, String taxAuthGeoId, String taxAuthPartyId, BigDecimal taxAmount, Timestamp nowTimestamp, Delegator delegator, boolean useCache) throws GenericEntityException {
         Debug.logInfo("Checking for tax exemption : " + taxAuthGeoId + " / " + taxAuthPartyId, module);
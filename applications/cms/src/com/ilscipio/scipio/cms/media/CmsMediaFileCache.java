@@ -0,0 +1,177 @@
+package com.ilscipio.scipio.cms.media;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.GeneralException;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.content.data.DataResourceWorker;
+import org.ofbiz.content.data.SpecDataResEntityInfo;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityQuery;
+
+/**
+ * SCIPIO: Local file cache for CMS media, so {@link CmsMediaServlet} can serve media from files (sendfile or
+ * FileChannel.transferTo, byte ranges) instead of loading the whole media data into memory for each request.
+ * <p>
+ * Media stored in the database (ImageDataResource, VideoDataResource, etc.) is written once to a content-addressed
+ * file, named by the SHA-256 of the data, which is also its strong ETag. The file for the current version of a media
+ * record (dataResourceId and lastUpdatedStamp) is remembered in the <code>cms.media.fileCache</code> UtilCache, so the
+ * data is only read from the database again when the record changes or the entry is evicted.
+ * Media stored as files (*_FILE types) is served directly from its file.
+ * <p>
+ * The cache directory (cms.properties: media.serve.fileCache.dir) can be emptied at any time.
+ */
+public final class CmsMediaFileCache {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    private static final boolean ENABLED = UtilProperties.getPropertyAsBoolean("cms", "media.serve.fileCache.enable", true);
+    private static final String CACHE_DIR = UtilProperties.getPropertyValue("cms", "media.serve.fileCache.dir", "runtime/tmp/cms-media");
+
+    private static final UtilCache<String, MediaFile> mediaFileCache = UtilCache.createUtilCache("cms.media.fileCache", 0, 0, 0, false);
+
+    private CmsMediaFileCache() {}
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Returns the local file for the media of the given DataResource (or DataResourceContentRequiredView) value,
+     * writing it to the cache first for media stored in the database; returns null if the media type is not
+     * served from files (text, URL_RESOURCE) or the media has no data.
+     */
+    public static MediaFile getMediaFile(GenericValue dataResource, String contextRoot) throws GeneralException, IOException {
+        String dataResourceTypeId = dataResource.getString("dataResourceTypeId");
+        if (dataResourceTypeId == null) {
+            return null;
+        }
+        if (dataResourceTypeId.endsWith("_FILE") || dataResourceTypeId.endsWith("_FILE_BIN")) {
+            String objectInfo = dataResource.getString("objectInfo");
+            if (UtilValidate.isEmpty(objectInfo)) {
+                return null;
+            }
+            File file = DataResourceWorker.getContentFile(dataResourceTypeId, objectInfo, contextRoot);
+            if (!file.isFile()) {
+                return null;
+            }
+            long length = file.length();
+            long lastModified = file.lastModified();
+            return new MediaFile(file, length, "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"");
+        }
+
+        SpecDataResEntityInfo entityInfo = SpecDataResEntityInfo.fromDataResource(dataResource);
+        if (entityInfo == null) {
+            return null;
+        }
+        Delegator delegator = dataResource.getDelegator();
+        String dataResourceId = dataResource.getString("dataResourceId");
+        // NOTE: only the stamp is selected, so the media data is not loaded for cache hits
+        GenericValue mediaStamp = EntityQuery.use(delegator).select("dataResourceId", "lastUpdatedStamp").from(entityInfo.getEntityName())
+                .where("dataResourceId", dataResourceId).queryOne();
+        if (mediaStamp == null) {
+            return null;
+        }
+        String cacheKey = delegator.getDelegatorName() + "::" + dataResourceId + "::"
+                + (mediaStamp.getTimestamp("lastUpdatedStamp") != null ? mediaStamp.getTimestamp("lastUpdatedStamp").getTime() : 0);
+        MediaFile mediaFile = mediaFileCache.get(cacheKey);
+        if (mediaFile != null && mediaFile.getFile().isFile()) {
+            return mediaFile;
+        }
+
+        GenericValue media = EntityQuery.use(delegator).from(entityInfo.getEntityName()).where("dataResourceId", dataResourceId).queryOne();
+        byte[] data = (media != null) ? media.getBytes(entityInfo.getDataFieldName()) : null;
+        if (data == null) {
+            return null;
+        }
+        mediaFile = writeMediaFile(data);
+        mediaFileCache.put(cacheKey, mediaFile);
+        if (Debug.verboseOn()) {
+            Debug.logVerbose("Cms: Cached media file for dataResourceId [" + dataResourceId + "]: " + mediaFile.getFile(), module);
+        }
+        return mediaFile;
+    }
+
+    private static MediaFile writeMediaFile(byte[] data) throws IOException {
+        String hash = sha256Hex(data);
+        File dir = new File(getCacheDir(), hash.substring(0, 2));
+        File file = new File(dir, hash);
+        if (!file.isFile() || file.length() != data.length) {
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException("Could not create media file cache directory: " + dir);
+            }
+            // write to a temp file then move, so concurrent requests never serve a partial file
+            File tempFile = File.createTempFile(hash, ".tmp", dir);
+            try {
+                Files.write(tempFile.toPath(), data);
+                try {
+                    Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tempFile.toPath());
+            }
+        }
+        return new MediaFile(file, data.length, "\"" + hash + "\"");
+    }
+
+    private static File getCacheDir() {
+        File dir = new File(CACHE_DIR);
+        if (!dir.isAbsolute() && System.getProperty("ofbiz.home") != null) {
+            dir = new File(System.getProperty("ofbiz.home"), CACHE_DIR);
+        }
+        return dir;
+    }
+
+    private static String sha256Hex(byte[] data) throws IOException {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * A media file to serve, with its length and strong ETag (quoted).
+     */
+    public static class MediaFile {
+        private final File file;
+        private final long length;
+        private final String etag;
+
+        public MediaFile(File file, long length, String etag) {
+            this.file = file;
+            this.length = length;
+            this.etag = etag;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+}
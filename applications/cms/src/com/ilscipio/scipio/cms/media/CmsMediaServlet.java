@@ -3,6 +3,10 @@ package com.ilscipio.scipio.cms.media;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Locale;
 import java.util.Map;
 
@@ -284,8 +288,24 @@ public class CmsMediaServlet extends HttpServlet {
             String fileName = (UtilValidate.isNotEmpty(dataResource.getString(fnSrcFieldName))) ? dataResource.getString(fnSrcFieldName)
                     : dataResource.getString(fnSrcFieldNameFallback);
 
-            // see org.ofbiz.content.data.DataEvents#serveImage for reference code
             ServletContext application = request.getServletContext(); // SCIPIO: NOTE: no longer need getSession() for getServletContext(), since servlet API 3.0
+
+            // SCIPIO: serve from a local file if possible: no media data in memory, and supports Range and ETag
+            if (CmsMediaFileCache.isEnabled()) {
+                CmsMediaFileCache.MediaFile mediaFile = null;
+                try {
+                    mediaFile = CmsMediaFileCache.getMediaFile(dataResource, application.getRealPath("/"));
+                } catch (Exception e) {
+                    Debug.logWarning(e, "Cms: Could not get cached media file [effective contentId: " + dataResource.getString("coContentId")
+                            + "]; serving from memory", module);
+                }
+                if (mediaFile != null) {
+                    serveMediaFile(request, response, mediaFile, dataResource.getString("mimeTypeId"), fileName);
+                    return;
+                }
+            }
+
+            // see org.ofbiz.content.data.DataEvents#serveImage for reference code
             Map<String, Object> streamResult = DataResourceWorker.getDataResourceStream(dataResource, "", application.getInitParameter("webSiteId"), locale, application.getRealPath("/"), useCache);
             byte[] mediaData = (byte[]) streamResult.get("streamBytes");
             InputStream mediaStream = (InputStream) streamResult.get("stream");
@@ -310,6 +330,130 @@ public class CmsMediaServlet extends HttpServlet {
         }
     }
 
+    /**
+     * SCIPIO: Serves a media file, with strong ETag (304 for a matching If-None-Match) and single byte range (206) support.
+     * The file is sent using the container's sendfile support if available (Tomcat), otherwise with
+     * {@link FileChannel#transferTo}, so only a fixed-size transfer buffer is used per download, whatever the media size.
+     */
+    protected void serveMediaFile(HttpServletRequest request, HttpServletResponse response, CmsMediaFileCache.MediaFile mediaFile,
+            String contentType, String fileName) throws IOException {
+        long length = mediaFile.getLength();
+        String etag = mediaFile.getEtag();
+
+        response.setHeader("ETag", etag);
+        response.setHeader("Accept-Ranges", "bytes");
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null && etagMatches(ifNoneMatch, etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setContentType(contentType);
+        response.setHeader("Content-Disposition", "inline; filename= " + fileName);
+
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader("Range");
+        String ifRange = request.getHeader("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            long[] byteRange = parseByteRange(range, length);
+            if (byteRange == UNSATISFIABLE_RANGE) {
+                response.setHeader("Content-Range", "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            } else if (byteRange != null) {
+                start = byteRange[0];
+                end = byteRange[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+        long count = end - start + 1;
+        response.setContentLengthLong(count);
+        if (count <= 0) {
+            return;
+        }
+
+        if (Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support"))) {
+            request.setAttribute("org.apache.tomcat.sendfile.filename", mediaFile.getFile().getCanonicalPath());
+            request.setAttribute("org.apache.tomcat.sendfile.start", start);
+            request.setAttribute("org.apache.tomcat.sendfile.end", end + 1);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(mediaFile.getFile().toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long written = channel.transferTo(position, remaining, out);
+                if (written <= 0) {
+                    break;
+                }
+                position += written;
+                remaining -= written;
+            }
+        }
+    }
+
+    /** SCIPIO: The result of {@link #parseByteRange} for a range outside the media (416). */
+    public static final long[] UNSATISFIABLE_RANGE = new long[0];
+
+    /**
+     * SCIPIO: Parses a single "bytes=" range into inclusive [start, end]; returns null to serve the whole media
+     * (malformed or multiple ranges) or {@link #UNSATISFIABLE_RANGE}.
+     */
+    public static long[] parseByteRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            long start;
+            long end;
+            if (dash == 0) { // suffix range: last N bytes
+                long suffixLength = Long.parseLong(spec.substring(1).trim());
+                if (suffixLength <= 0) {
+                    return UNSATISFIABLE_RANGE;
+                }
+                start = Math.max(0, length - suffixLength);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash).trim());
+                String endStr = spec.substring(dash + 1).trim();
+                end = endStr.isEmpty() ? Long.MAX_VALUE : Long.parseLong(endStr);
+                if (end < start) {
+                    return null;
+                }
+                if (start >= length) {
+                    return UNSATISFIABLE_RANGE;
+                }
+            }
+            return new long[] { start, Math.min(end, length - 1) };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * SCIPIO: If-None-Match check (weak comparison, as for GET).
+     */
+    public static boolean etagMatches(String ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if ("*".equals(candidate) || etag.equals(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     protected boolean isUseCache(HttpServletRequest request) {
         if (useCacheParam != null) {
             String value = request.getParameter(useCacheParam);
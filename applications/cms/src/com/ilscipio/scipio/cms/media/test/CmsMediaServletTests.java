@@ -0,0 +1,270 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package com.ilscipio.scipio.cms.media.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.base.util.Debug;
+
+import com.ilscipio.scipio.cms.media.CmsMediaFileCache;
+import com.ilscipio.scipio.cms.media.CmsMediaServlet;
+
+/**
+ * SCIPIO: Tests the media file serving of {@link CmsMediaServlet}: byte range parsing, ETag matching, the 304, 206
+ * and 416 responses, and the memory used to serve a large file.
+ */
+public class CmsMediaServletTests extends GenericTestCaseBase {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    private static final String ETAG = "\"abc123\"";
+
+    private File tempFile;
+
+    public CmsMediaServletTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (tempFile != null) {
+            tempFile.delete();
+        }
+        super.tearDown();
+    }
+
+    /** Exposes {@link CmsMediaServlet#serveMediaFile} to the tests. */
+    private static class TestMediaServlet extends CmsMediaServlet {
+        private static final long serialVersionUID = 1L;
+
+        void serve(HttpServletRequest request, HttpServletResponse response, CmsMediaFileCache.MediaFile mediaFile) throws IOException {
+            serveMediaFile(request, response, mediaFile, "application/octet-stream", "test.bin");
+        }
+    }
+
+    /** The status, headers and body written by the servlet. */
+    private static class TestResponse {
+        int status = HttpServletResponse.SC_OK;
+        long contentLength = -1;
+        final Map<String, String> headers = new HashMap<>();
+        final OutputStream body;
+
+        TestResponse(OutputStream body) {
+            this.body = body;
+        }
+
+        HttpServletResponse toResponse() {
+            final ServletOutputStream out = new ServletOutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    body.write(b);
+                }
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    body.write(b, off, len);
+                }
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+                @Override
+                public void setWriteListener(WriteListener writeListener) {
+                }
+            };
+            return (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { HttpServletResponse.class },
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                        case "setStatus":
+                        case "sendError":
+                            status = (Integer) args[0];
+                            return null;
+                        case "setHeader":
+                            headers.put((String) args[0], (String) args[1]);
+                            return null;
+                        case "setContentLengthLong":
+                            contentLength = (Long) args[0];
+                            return null;
+                        case "getOutputStream":
+                            return out;
+                        default:
+                            return null;
+                        }
+                    });
+        }
+    }
+
+    private static HttpServletRequest makeRequest(String... headerNameValues) {
+        final Map<String, String> headers = new HashMap<>();
+        for (int i = 0; i < headerNameValues.length; i += 2) {
+            headers.put(headerNameValues[i], headerNameValues[i + 1]);
+        }
+        return (HttpServletRequest) Proxy.newProxyInstance(CmsMediaServletTests.class.getClassLoader(), new Class<?>[] { HttpServletRequest.class },
+                (proxy, method, args) -> "getHeader".equals(method.getName()) ? headers.get(args[0]) : null);
+    }
+
+    private CmsMediaFileCache.MediaFile makeMediaFile(byte[] content) throws IOException {
+        tempFile = File.createTempFile("cmsmediaservlettests", ".bin");
+        Files.write(tempFile.toPath(), content);
+        return new CmsMediaFileCache.MediaFile(tempFile, content.length, ETAG);
+    }
+
+    private static byte[] makeContent(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) i;
+        }
+        return content;
+    }
+
+    public void testParseByteRange() {
+        assertTrue("range", Arrays.equals(new long[] { 0, 9 }, CmsMediaServlet.parseByteRange("bytes=0-9", 100)));
+        assertTrue("end capped at the length", Arrays.equals(new long[] { 90, 99 }, CmsMediaServlet.parseByteRange("bytes=90-200", 100)));
+        assertTrue("open-ended", Arrays.equals(new long[] { 40, 99 }, CmsMediaServlet.parseByteRange("bytes=40-", 100)));
+        assertTrue("suffix", Arrays.equals(new long[] { 80, 99 }, CmsMediaServlet.parseByteRange("bytes=-20", 100)));
+        assertTrue("suffix longer than the media", Arrays.equals(new long[] { 0, 99 }, CmsMediaServlet.parseByteRange("bytes=-500", 100)));
+
+        assertSame("start past the end", CmsMediaServlet.UNSATISFIABLE_RANGE, CmsMediaServlet.parseByteRange("bytes=100-", 100));
+        assertSame("start past the end with end", CmsMediaServlet.UNSATISFIABLE_RANGE, CmsMediaServlet.parseByteRange("bytes=150-200", 100));
+        assertSame("empty suffix", CmsMediaServlet.UNSATISFIABLE_RANGE, CmsMediaServlet.parseByteRange("bytes=-0", 100));
+
+        assertNull("other unit", CmsMediaServlet.parseByteRange("items=0-9", 100));
+        assertNull("multiple ranges", CmsMediaServlet.parseByteRange("bytes=0-9,20-29", 100));
+        assertNull("no dash", CmsMediaServlet.parseByteRange("bytes=10", 100));
+        assertNull("not a number", CmsMediaServlet.parseByteRange("bytes=a-b", 100));
+        assertNull("end before start", CmsMediaServlet.parseByteRange("bytes=20-10", 100));
+    }
+
+    public void testEtagMatches() {
+        assertTrue("strong", CmsMediaServlet.etagMatches(ETAG, ETAG));
+        assertTrue("weak", CmsMediaServlet.etagMatches("W/" + ETAG, ETAG));
+        assertTrue("in a list", CmsMediaServlet.etagMatches("\"other\", W/" + ETAG + " , \"more\"", ETAG));
+        assertTrue("any", CmsMediaServlet.etagMatches("*", ETAG));
+        assertFalse("other", CmsMediaServlet.etagMatches("\"other\"", ETAG));
+        assertFalse("unquoted", CmsMediaServlet.etagMatches("abc123", ETAG));
+        assertFalse("other list", CmsMediaServlet.etagMatches("\"a\", W/\"b\"", ETAG));
+    }
+
+    public void testServeStatuses() throws Exception {
+        byte[] content = makeContent(1000);
+        CmsMediaFileCache.MediaFile mediaFile = makeMediaFile(content);
+        TestMediaServlet servlet = new TestMediaServlet();
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        TestResponse response = new TestResponse(body);
+        servlet.serve(makeRequest(), response.toResponse(), mediaFile);
+        assertEquals("200", HttpServletResponse.SC_OK, response.status);
+        assertEquals("ETag", ETAG, response.headers.get("ETag"));
+        assertEquals("content length", 1000L, response.contentLength);
+        assertTrue("full content", Arrays.equals(content, body.toByteArray()));
+
+        body = new ByteArrayOutputStream();
+        response = new TestResponse(body);
+        servlet.serve(makeRequest("If-None-Match", "W/" + ETAG), response.toResponse(), mediaFile);
+        assertEquals("304", HttpServletResponse.SC_NOT_MODIFIED, response.status);
+        assertEquals("no body", 0, body.size());
+
+        body = new ByteArrayOutputStream();
+        response = new TestResponse(body);
+        servlet.serve(makeRequest("Range", "bytes=100-199"), response.toResponse(), mediaFile);
+        assertEquals("206", HttpServletResponse.SC_PARTIAL_CONTENT, response.status);
+        assertEquals("Content-Range", "bytes 100-199/1000", response.headers.get("Content-Range"));
+        assertEquals("range length", 100L, response.contentLength);
+        assertTrue("range content", Arrays.equals(Arrays.copyOfRange(content, 100, 200), body.toByteArray()));
+
+        body = new ByteArrayOutputStream();
+        response = new TestResponse(body);
+        servlet.serve(makeRequest("Range", "bytes=-10"), response.toResponse(), mediaFile);
+        assertEquals("206 suffix", HttpServletResponse.SC_PARTIAL_CONTENT, response.status);
+        assertTrue("suffix content", Arrays.equals(Arrays.copyOfRange(content, 990, 1000), body.toByteArray()));
+
+        body = new ByteArrayOutputStream();
+        response = new TestResponse(body);
+        servlet.serve(makeRequest("Range", "bytes=100-199", "If-Range", "\"stale\""), response.toResponse(), mediaFile);
+        assertEquals("stale If-Range: 200", HttpServletResponse.SC_OK, response.status);
+        assertEquals("stale If-Range: full content", 1000, body.size());
+
+        body = new ByteArrayOutputStream();
+        response = new TestResponse(body);
+        servlet.serve(makeRequest("Range", "bytes=5000-"), response.toResponse(), mediaFile);
+        assertEquals("416", HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.status);
+        assertEquals("416 Content-Range", "bytes */1000", response.headers.get("Content-Range"));
+        assertEquals("no body", 0, body.size());
+    }
+
+    /**
+     * Serving a large file allocates a fixed-size transfer buffer, not the media size, unlike reading it in memory
+     * (the uncached path); logs the allocated bytes of both.
+     */
+    public void testServeMemory() throws Exception {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()) {
+            Debug.logWarning("Thread allocated memory not supported by this JVM; not measuring the media serving memory", module);
+            return;
+        }
+        com.sun.management.ThreadMXBean allocBean = (com.sun.management.ThreadMXBean) threadBean;
+        long threadId = Thread.currentThread().getId();
+        int length = 32 * 1024 * 1024;
+        CmsMediaFileCache.MediaFile mediaFile = makeMediaFile(makeContent(length));
+        TestMediaServlet servlet = new TestMediaServlet();
+        final long[] written = new long[1];
+        OutputStream discard = new OutputStream() {
+            @Override
+            public void write(int b) {
+                written[0]++;
+            }
+            @Override
+            public void write(byte[] b, int off, int len) {
+                written[0] += len;
+            }
+        };
+        servlet.serve(makeRequest(), new TestResponse(discard).toResponse(), mediaFile); // warm-up
+        written[0] = 0;
+
+        long before = allocBean.getThreadAllocatedBytes(threadId);
+        servlet.serve(makeRequest(), new TestResponse(discard).toResponse(), mediaFile);
+        long fileServeAllocated = allocBean.getThreadAllocatedBytes(threadId) - before;
+        assertEquals("all bytes served", length, written[0]);
+
+        before = allocBean.getThreadAllocatedBytes(threadId);
+        byte[] inMemory = Files.readAllBytes(tempFile.toPath());
+        discard.write(inMemory, 0, inMemory.length);
+        long inMemoryAllocated = allocBean.getThreadAllocatedBytes(threadId) - before;
+
+        Debug.logInfo("Serving a " + length + " byte media file allocated " + fileServeAllocated + " bytes from the file cache, "
+                + inMemoryAllocated + " bytes read in memory", module);
+        assertTrue("file serving allocates less than 1 MB (" + fileServeAllocated + ")", fileServeAllocated < 1024 * 1024);
+        assertTrue("in-memory read allocates the media size (" + inMemoryAllocated + ")", inMemoryAllocated >= length);
+    }
+}
@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+
+package org.ofbiz.manufacturing.mrp;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericPK;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.config.model.Datasource;
+import org.ofbiz.entity.config.model.EntityConfig;
+import org.ofbiz.entity.model.ModelEntity;
+import org.ofbiz.entity.model.ModelFieldType;
+import org.ofbiz.entity.util.EntityQuery;
+
+/**
+ * SCIPIO: In-memory MrpEvent store for a single MRP run (bulk mode).
+ * <p>
+ * Applies the same create-or-add semantics as {@link InventoryEventPlannedServices#createOrUpdateMrpEvent},
+ * but against MrpEvent values loaded once for the run, and writes the changed values with a single
+ * {@link Delegator#storeAll(List)} per {@link #flush()} instead of one find and store per event.
+ * <p>
+ * The buffer must be flushed before MrpEvent or MrpEventView is queried again (each BOM level).
+ * <p>
+ * The eventDate of the keys is rounded to the precision of the database column (see {@link #getEventDatePrecision}),
+ * so that two events only get separate records in the buffer if they do in the database.
+ * <p>
+ * NOT thread-safe.
+ */
+public class MrpEventBuffer {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+    private static final Pattern SQL_TYPE_DIGITS_PAT = Pattern.compile("\\((\\d)\\)");
+
+    private final Delegator delegator;
+    private final Map<GenericPK, GenericValue> events = new HashMap<>();
+    private final Map<GenericPK, GenericValue> dirtyEvents = new LinkedHashMap<>();
+    private long flushedCount = 0;
+    private final EventDatePrecision eventDatePrecision;
+
+    protected MrpEventBuffer(Delegator delegator) {
+        this.delegator = delegator;
+        this.eventDatePrecision = getEventDatePrecision(delegator);
+    }
+
+    /**
+     * Creates a buffer preloaded with the existing MrpEvent values of the given run.
+     */
+    public static MrpEventBuffer load(Delegator delegator, String mrpId) throws GenericEntityException {
+        MrpEventBuffer buffer = new MrpEventBuffer(delegator);
+        List<GenericValue> mrpEvents = EntityQuery.use(delegator).from("MrpEvent").where("mrpId", mrpId).queryList();
+        for (GenericValue mrpEvent : mrpEvents) {
+            buffer.events.put(mrpEvent.getPrimaryKey(), mrpEvent);
+        }
+        Debug.logInfo("MRP: Loaded " + mrpEvents.size() + " MrpEvent records for mrpId [" + mrpId + "]", module);
+        return buffer;
+    }
+
+    /**
+     * Create an MrpEvent, or add the quantity to the existing record with the same key; in memory only until {@link #flush()}.
+     */
+    public void createOrUpdateMrpEvent(Map<String, Object> mrpEventKeyMap, BigDecimal newQuantity, String facilityId,
+            String eventName, boolean isLate) {
+        GenericPK key = makeKey(mrpEventKeyMap);
+        GenericValue mrpEvent = events.get(key);
+        if (mrpEvent == null) {
+            mrpEvent = delegator.makeValue("MrpEvent", key);
+            mrpEvent.put("quantity", newQuantity.doubleValue());
+            mrpEvent.put("eventName", eventName);
+            mrpEvent.put("facilityId", facilityId);
+            mrpEvent.put("isLate", (isLate? "Y": "N"));
+            events.put(key, mrpEvent);
+        } else {
+            BigDecimal qties = newQuantity.add(mrpEvent.getBigDecimal("quantity"));
+            mrpEvent.put("quantity", qties.doubleValue());
+            if (UtilValidate.isNotEmpty(eventName)) {
+                String existingEventName = mrpEvent.getString("eventName");
+                mrpEvent.put("eventName", (UtilValidate.isEmpty(existingEventName)? eventName: existingEventName + ", " + eventName));
+            }
+            if (isLate) {
+                mrpEvent.put("isLate", "Y");
+            }
+        }
+        dirtyEvents.put(key, mrpEvent);
+    }
+
+    /**
+     * Writes all events created or changed since the last flush.
+     */
+    public void flush() throws GenericEntityException {
+        if (dirtyEvents.isEmpty()) {
+            return;
+        }
+        List<GenericValue> toStore = new ArrayList<>(dirtyEvents.values());
+        delegator.storeAll(toStore);
+        flushedCount += toStore.size();
+        dirtyEvents.clear();
+    }
+
+    public int getDirtyCount() {
+        return dirtyEvents.size();
+    }
+
+    public long getFlushedCount() {
+        return flushedCount;
+    }
+
+    private GenericPK makeKey(Map<String, Object> mrpEventKeyMap) {
+        Map<String, Object> fields = new HashMap<>(mrpEventKeyMap);
+        Object eventDate = fields.get("eventDate");
+        if (eventDate instanceof Timestamp) {
+            // NOTE: executeMrp adjusts event dates in place (setTime), so the key needs its own copy
+            fields.put("eventDate", eventDatePrecision.normalize((Timestamp) eventDate));
+        }
+        return delegator.makePK("MrpEvent", fields);
+    }
+
+    /**
+     * Returns the precision of the MrpEvent.eventDate column: the fractional second digits of the SQL type
+     * (e.g. <code>TIMESTAMP(3)</code>), or the default of the database (by the datasource field-type-name).
+     */
+    static EventDatePrecision getEventDatePrecision(Delegator delegator) {
+        String fieldTypeName = null;
+        try {
+            ModelEntity modelEntity = delegator.getModelEntity("MrpEvent");
+            ModelFieldType fieldType = delegator.getEntityFieldType(modelEntity, modelEntity.getField("eventDate").getType());
+            if (fieldType != null) {
+                for (String sqlType : new String[] { fieldType.getSqlType(), fieldType.getSqlTypeAlias() }) {
+                    Matcher matcher = (sqlType != null) ? SQL_TYPE_DIGITS_PAT.matcher(sqlType) : null;
+                    if (matcher != null && matcher.find()) {
+                        return EventDatePrecision.ofDigits(Integer.parseInt(matcher.group(1)));
+                    }
+                }
+            }
+            Datasource datasource = EntityConfig.getDatasource(delegator.getGroupHelperInfo(delegator.getEntityGroupName("MrpEvent")).getHelperBaseName());
+            fieldTypeName = (datasource != null) ? datasource.getFieldTypeName() : null;
+        } catch (GenericEntityException | RuntimeException e) {
+            Debug.logWarning("MRP: Could not determine the MrpEvent.eventDate precision, using milliseconds: " + e.toString(), module);
+            return EventDatePrecision.ofDigits(3);
+        }
+        if (fieldTypeName == null) {
+            return EventDatePrecision.ofDigits(3);
+        }
+        switch (fieldTypeName) {
+        case "mysql":
+        case "mariadb":
+            return EventDatePrecision.ofDigits(0); // DATETIME
+        case "mssql":
+            return EventDatePrecision.MSSQL_DATETIME;
+        case "firebird":
+            return EventDatePrecision.ofDigits(4);
+        case "derby":
+            return EventDatePrecision.ofDigits(9);
+        default:
+            return EventDatePrecision.ofDigits(6); // postgres, oracle, hsql...
+        }
+    }
+
+    /**
+     * The precision of a timestamp column; the values are rounded (to the nearest), as the databases do on insert.
+     */
+    static class EventDatePrecision {
+        /** SQL Server DATETIME: rounded to 1/300 second (.000, .003, .007). */
+        static final EventDatePrecision MSSQL_DATETIME = new EventDatePrecision(-1);
+
+        private final int digits;
+
+        private EventDatePrecision(int digits) {
+            this.digits = digits;
+        }
+
+        static EventDatePrecision ofDigits(int digits) {
+            return new EventDatePrecision(Math.max(0, Math.min(9, digits)));
+        }
+
+        /** Returns a rounded copy of the timestamp. */
+        Timestamp normalize(Timestamp timestamp) {
+            long seconds = Math.floorDiv(timestamp.getTime(), 1000L);
+            long nanos = timestamp.getNanos();
+            if (digits < 0) {
+                long ticks = Math.round(nanos * 300.0 / 1000000000.0);
+                nanos = Math.round(ticks * 1000.0 / 300.0) * 1000000L;
+            } else {
+                long unit = 1L;
+                for (int i = digits; i < 9; i++) {
+                    unit *= 10;
+                }
+                nanos = ((nanos + unit / 2) / unit) * unit;
+            }
+            if (nanos >= 1000000000L) {
+                seconds++;
+                nanos -= 1000000000L;
+            }
+            Timestamp result = new Timestamp(seconds * 1000L);
+            result.setNanos((int) nanos);
+            return result;
+        }
+    }
+}
@@ -21,14 +21,22 @@ package org.ofbiz.manufacturing.mrp;
 
 import java.math.BigDecimal;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.GeneralException;
 import org.ofbiz.base.util.UtilDateTime;
 import org.ofbiz.base.util.UtilGenerics;
 import org.ofbiz.base.util.UtilMisc;
@@ -60,6 +68,8 @@ public class MrpServices {
     private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
     public static final String resource = "ManufacturingUiLabels";
 
+    private static final ThreadGroup MRP_THREAD_GROUP = new ThreadGroup("MrpServices");
+
     public static Map<String, Object> initMrpEvents(DispatchContext ctx, Map<String, ? extends Object> context) {
         Delegator delegator = ctx.getDelegator();
         LocalDispatcher dispatcher = ctx.getDispatcher();
@@ -506,22 +516,30 @@ public class MrpServices {
         return findProductMrpQoh(mrpId, product.getString("productId"), facilityId, dispatcher, delegator);
     }
     public static BigDecimal findProductMrpQoh(String mrpId, String productId, String facilityId, LocalDispatcher dispatcher, Delegator delegator) {
-        Map<String, Object> resultMap = null;
         try {
-            if (facilityId == null) {
-                resultMap = dispatcher.runSync("getProductInventoryAvailable", UtilMisc.toMap("productId", productId));
-            } else {
-                resultMap = dispatcher.runSync("getInventoryAvailableByFacility", UtilMisc.toMap("productId", productId, "facilityId", facilityId));
-            }
-            if (ServiceUtil.isError(resultMap)) {
-                String errorMessage = ServiceUtil.getErrorMessage(resultMap);
-                Debug.logError(errorMessage, module);
-            }
+            return findProductMrpQohStrict(productId, facilityId, dispatcher);
         } catch (GenericServiceException e) {
             Debug.logError(e, "Error calling getProductInventoryAvailableByFacility service", module);
             logMrpError(mrpId, productId, "Unable to count inventory", delegator);
             return BigDecimal.ZERO;
         }
+    }
+
+    /**
+     * SCIPIO: Same as {@link #findProductMrpQoh(String, String, String, LocalDispatcher, Delegator)} but throws
+     * instead of logging an MrpEvent error, so it can run outside the MRP transaction.
+     */
+    static BigDecimal findProductMrpQohStrict(String productId, String facilityId, LocalDispatcher dispatcher) throws GenericServiceException {
+        Map<String, Object> resultMap = null;
+        if (facilityId == null) {
+            resultMap = dispatcher.runSync("getProductInventoryAvailable", UtilMisc.toMap("productId", productId));
+        } else {
+            resultMap = dispatcher.runSync("getInventoryAvailableByFacility", UtilMisc.toMap("productId", productId, "facilityId", facilityId));
+        }
+        if (ServiceUtil.isError(resultMap)) {
+            String errorMessage = ServiceUtil.getErrorMessage(resultMap);
+            Debug.logError(errorMessage, module);
+        }
         return ((BigDecimal)resultMap.get("quantityOnHandTotal"));
     }
 
@@ -555,6 +573,14 @@ public class MrpServices {
      */
 
     public static void processBomComponent(String mrpId, GenericValue product, BigDecimal eventQuantity, Timestamp startDate, Map<String, Object> routingTaskStartDate, List<BOMNode> listComponent) {
+        processBomComponent(mrpId, product, eventQuantity, startDate, routingTaskStartDate, listComponent, null);
+    }
+
+    /**
+     * SCIPIO: Process the bill of material, storing the component events in the given eventBuffer if non-null (bulk mode)
+     * instead of directly in the MrpEvent entity.
+     */
+    public static void processBomComponent(String mrpId, GenericValue product, BigDecimal eventQuantity, Timestamp startDate, Map<String, Object> routingTaskStartDate, List<BOMNode> listComponent, MrpEventBuffer eventBuffer) {
         // TODO : change the return type to boolean to be able to test if all is ok or if it have had a exception
         Delegator delegator = product.getDelegator();
 
@@ -572,7 +598,7 @@ public class MrpServices {
                     parameters.put("mrpEventTypeId", "MRP_REQUIREMENT");
                     BigDecimal componentEventQuantity = node.getQuantity();
                     try {
-                        InventoryEventPlannedServices.createOrUpdateMrpEvent(parameters, componentEventQuantity.negate(), null, product.get("productId") + ": " + eventDate, false, delegator);
+                        createOrUpdateMrpEvent(parameters, componentEventQuantity.negate(), null, product.get("productId") + ": " + eventDate, false, delegator, eventBuffer);
                     } catch (GenericEntityException e) {
                         Debug.logError("Error : findOne(\"MrpEvent\", parameters) ="+parameters+"--"+e.getMessage(), module);
                         logMrpError(mrpId, node.getProduct().getString("productId"), "Unable to create event (processBomComponent)", delegator);
@@ -582,6 +608,121 @@ public class MrpServices {
         }
     }
 
+    /**
+     * SCIPIO: Writes the MrpEvent to eventBuffer if non-null, otherwise directly to the entity.
+     */
+    static void createOrUpdateMrpEvent(Map<String, Object> mrpEventKeyMap, BigDecimal newQuantity, String facilityId,
+            String eventName, boolean isLate, Delegator delegator, MrpEventBuffer eventBuffer) throws GenericEntityException {
+        if (eventBuffer != null) {
+            eventBuffer.createOrUpdateMrpEvent(mrpEventKeyMap, newQuantity, facilityId, eventName, isLate);
+        } else {
+            InventoryEventPlannedServices.createOrUpdateMrpEvent(mrpEventKeyMap, newQuantity, facilityId, eventName, isLate, delegator);
+        }
+    }
+
+    /**
+     * SCIPIO: The per-product planning data executeMrp reads once for each product of a BOM level:
+     * the product, its ProductFacility, its quantity on hand and whether it is built (has components).
+     */
+    static class MrpProductData {
+        final GenericValue product;
+        final GenericValue productFacility;
+        final BigDecimal qoh;
+        final boolean qohError;
+        final boolean isBuilt;
+
+        MrpProductData(GenericValue product, GenericValue productFacility, BigDecimal qoh, boolean qohError, boolean isBuilt) {
+            this.product = product;
+            this.productFacility = productFacility;
+            this.qoh = qoh;
+            this.qohError = qohError;
+            this.isBuilt = isBuilt;
+        }
+    }
+
+    /**
+     * SCIPIO: Reads the planning data for the product of the given (first) MrpEventView record of the product.
+     * Does not write anything, so that it can run in parallel outside the MRP transaction (bulk mode);
+     * a failed QOH lookup is reported through {@link MrpProductData#qohError} instead.
+     */
+    static MrpProductData loadMrpProductData(GenericValue inventoryEventForMRP, String facilityId, GenericValue userLogin,
+            LocalDispatcher dispatcher, Locale locale) throws GeneralException {
+        BigDecimal eventQuantity = inventoryEventForMRP.getBigDecimal("quantity");
+        BigDecimal positiveEventQuantity = eventQuantity.compareTo(BigDecimal.ZERO) > 0 ? eventQuantity: eventQuantity.negate();
+        GenericValue product;
+        GenericValue productFacility;
+        try {
+            product = inventoryEventForMRP.getRelatedOne("Product", true);
+            productFacility = EntityUtil.getFirst(product.getRelated("ProductFacility", UtilMisc.toMap("facilityId", facilityId), null, true));
+        } catch (GenericEntityException e) {
+            throw new GeneralException(UtilProperties.getMessage(resource, "ManufacturingMrpCannotFindProductForEvent", locale), e);
+        }
+        BigDecimal qoh;
+        boolean qohError = false;
+        try {
+            qoh = findProductMrpQohStrict(product.getString("productId"), facilityId, dispatcher);
+        } catch (GenericServiceException e) {
+            Debug.logError(e, "Error calling getProductInventoryAvailableByFacility service", module);
+            qoh = BigDecimal.ZERO;
+            qohError = true;
+        }
+        // -----------------------------------------------------
+        // The components are also loaded thru the configurator
+        Map<String, Object> serviceResponse = null;
+        try {
+            serviceResponse = dispatcher.runSync("getManufacturingComponents", UtilMisc.<String, Object>toMap("productId", product.getString("productId"), "quantity", positiveEventQuantity, "excludeWIPs", Boolean.FALSE, "userLogin", userLogin));
+        } catch (Exception e) {
+            throw new GeneralException(UtilProperties.getMessage(resource, "ManufacturingMrpErrorExplodingProduct", UtilMisc.toMap("productId", product.getString("productId")), locale), e);
+        }
+        if (ServiceUtil.isError(serviceResponse)) {
+            throw new GeneralException(ServiceUtil.getErrorMessage(serviceResponse));
+        }
+        List<BOMNode> components = UtilGenerics.checkList(serviceResponse.get("components"));
+        boolean isBuilt = false;
+        if (UtilValidate.isNotEmpty(components)) {
+            BOMNode node = (components.get(0)).getParentNode();
+            isBuilt = node.isManufactured();
+        }
+        return new MrpProductData(product, productFacility, qoh, qohError, isBuilt);
+    }
+
+    /**
+     * SCIPIO: Loads the planning data of all the products of a BOM level in parallel (bulk mode), keyed by productId.
+     * The given events must be ordered by productId (the first event of each product is used, as in the sequential run).
+     */
+    static Map<String, MrpProductData> loadMrpProductDataForLevel(List<GenericValue> listInventoryEventForMRP, final String facilityId,
+            final GenericValue userLogin, final LocalDispatcher dispatcher, final Locale locale, ScheduledExecutorService executor) throws GeneralException {
+        Map<String, Future<MrpProductData>> futures = new LinkedHashMap<>();
+        for (final GenericValue inventoryEventForMRP : listInventoryEventForMRP) {
+            String productId = inventoryEventForMRP.getString("productId");
+            if (futures.containsKey(productId)) {
+                continue;
+            }
+            futures.put(productId, executor.submit(new Callable<MrpProductData>() {
+                @Override
+                public MrpProductData call() throws Exception {
+                    return loadMrpProductData(inventoryEventForMRP, facilityId, userLogin, dispatcher, locale);
+                }
+            }));
+        }
+        Map<String, MrpProductData> productDataMap = new HashMap<>();
+        GeneralException firstError = null;
+        for (Map.Entry<String, Future<MrpProductData>> entry : futures.entrySet()) {
+            try {
+                productDataMap.put(entry.getKey(), entry.getValue().get());
+            } catch (InterruptedException | ExecutionException e) {
+                Throwable cause = (e instanceof ExecutionException && e.getCause() != null) ? e.getCause() : e;
+                if (firstError == null) {
+                    firstError = (cause instanceof GeneralException) ? (GeneralException) cause : new GeneralException(cause.getMessage(), cause);
+                }
+            }
+        }
+        if (firstError != null) {
+            throw firstError;
+        }
+        return productDataMap;
+    }
+
     /**
      * Launch the MRP.
      * <ul>
@@ -606,6 +747,11 @@ public class MrpServices {
         Integer defaultYearsOffset = (Integer)context.get("defaultYearsOffset");
         String facilityGroupId = (String)context.get("facilityGroupId");
         String facilityId = (String)context.get("facilityId");
+        boolean bulkMode = Boolean.TRUE.equals(context.get("bulkMode")); // SCIPIO
+        Integer parallelism = (Integer) context.get("parallelism"); // SCIPIO
+        if (parallelism == null || parallelism <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
         String manufacturingFacilityId = null;
         if (UtilValidate.isEmpty(facilityId) && UtilValidate.isEmpty(facilityGroupId)) {
             return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpFacilityNotAvailable", locale));
@@ -674,173 +820,201 @@ public class MrpServices {
         } catch (GenericServiceException e) {
             return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpErrorRunningInitMrpEvents", UtilMisc.toMap("errorString", e.getMessage()), locale));
         }
-        long bomLevel = 0;
-        do {
-            // Find all products in MrpEventView, ordered by bom and eventDate
-            EntityCondition filterByConditions = null;
-            if (bomLevel == 0) {
-                filterByConditions = EntityCondition.makeCondition(EntityCondition.makeCondition("billOfMaterialLevel", EntityOperator.EQUALS, null),
-                                            EntityOperator.OR,
-                                            EntityCondition.makeCondition("billOfMaterialLevel", EntityOperator.EQUALS, bomLevel));
-            } else {
-                filterByConditions = EntityCondition.makeCondition("billOfMaterialLevel", EntityOperator.EQUALS, bomLevel);
-            }
+        // SCIPIO: In bulk mode, the MrpEvents are kept in memory and written once per BOM level, and the
+        // product data of each level (QOH, ProductFacility, BOM) is loaded in parallel before netting
+        MrpEventBuffer eventBuffer = null;
+        ScheduledExecutorService executor = null;
+        if (bulkMode) {
             try {
-                listInventoryEventForMRP = EntityQuery.use(delegator).from("MrpEventView")
-                        .where(filterByConditions)
-                        .orderBy("productId", "eventDate")
-                        .queryList();
+                eventBuffer = MrpEventBuffer.load(delegator, mrpId);
             } catch (GenericEntityException e) {
-                Long bomLevelToString = bomLevel;
-                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpErrorForBomLevel", UtilMisc.toMap("bomLevel", bomLevelToString.toString(), "errorString", e.getMessage()), locale));
+                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpEventFindError", locale));
             }
+            executor = ExecutionPool.getScheduledExecutor(MRP_THREAD_GROUP, "mrp-" + mrpId, parallelism, 0, true);
+        }
+        try {
+            long bomLevel = 0;
+            do {
+                // Find all products in MrpEventView, ordered by bom and eventDate
+                EntityCondition filterByConditions = null;
+                if (bomLevel == 0) {
+                    filterByConditions = EntityCondition.makeCondition(EntityCondition.makeCondition("billOfMaterialLevel", EntityOperator.EQUALS, null),
+                                                EntityOperator.OR,
+                                                EntityCondition.makeCondition("billOfMaterialLevel", EntityOperator.EQUALS, bomLevel));
+                } else {
+                    filterByConditions = EntityCondition.makeCondition("billOfMaterialLevel", EntityOperator.EQUALS, bomLevel);
+                }
+                try {
+                    listInventoryEventForMRP = EntityQuery.use(delegator).from("MrpEventView")
+                            .where(filterByConditions)
+                            .orderBy("productId", "eventDate")
+                            .queryList();
+                } catch (GenericEntityException e) {
+                    Long bomLevelToString = bomLevel;
+                    return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpErrorForBomLevel", UtilMisc.toMap("bomLevel", bomLevelToString.toString(), "errorString", e.getMessage()), locale));
+                }
 
-            if (UtilValidate.isNotEmpty(listInventoryEventForMRP)) {
-                bomLevelWithNoEvent = 0;
-
-                oldProductId = "";
-                for (GenericValue inventoryEventForMRP : listInventoryEventForMRP) {
-                    productId = inventoryEventForMRP.getString("productId");
-                    eventQuantity = inventoryEventForMRP.getBigDecimal("quantity");
+                if (UtilValidate.isNotEmpty(listInventoryEventForMRP)) {
+                    bomLevelWithNoEvent = 0;
 
-                    if (!productId.equals(oldProductId)) {
-                        BigDecimal positiveEventQuantity = eventQuantity.compareTo(BigDecimal.ZERO) > 0 ? eventQuantity: eventQuantity.negate();
-                        // It's a new product, so it's necessary to  read the MrpQoh
+                    Map<String, MrpProductData> productDataMap = null;
+                    if (bulkMode) {
                         try {
-                            product = inventoryEventForMRP.getRelatedOne("Product", true);
-                            productFacility = EntityUtil.getFirst(product.getRelated("ProductFacility", UtilMisc.toMap("facilityId", facilityId), null, true));
-                        } catch (GenericEntityException e) {
-                            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpCannotFindProductForEvent", locale));
+                            productDataMap = loadMrpProductDataForLevel(listInventoryEventForMRP, facilityId, userLogin, dispatcher, locale, executor);
+                        } catch (GeneralException e) {
+                            return ServiceUtil.returnError(e.getMessage());
                         }
-                        stockTmp = findProductMrpQoh(mrpId, product, facilityId, dispatcher, delegator);
-                        try {
-                            InventoryEventPlannedServices.createOrUpdateMrpEvent(UtilMisc.<String, Object>toMap("mrpId", mrpId,
-                                    "productId", product.getString("productId"),
-                                    "mrpEventTypeId", "INITIAL_QOH", "eventDate", now),
-                                    stockTmp, facilityId, null, false, delegator);
-                        } catch (GenericEntityException e) {
-                            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpCreateOrUpdateEvent", UtilMisc.toMap("parameters", parameters), locale));
-                        }
-                        // days to ship is only relevant for sales order to plan for preparatory days to ship.  Otherwise MRP will push event dates for manufacturing parts
-                        // as well and cause problems
-                        daysToShip = 0;
-                        if (productFacility != null) {
-                            reorderQuantity = (productFacility.getBigDecimal("reorderQuantity") != null ? productFacility.getBigDecimal("reorderQuantity"): BigDecimal.ONE.negate());
-                            minimumStock = (productFacility.getBigDecimal("minimumStock") != null ? productFacility.getBigDecimal("minimumStock"): BigDecimal.ZERO);
-                            if ("SALES_ORDER_SHIP".equals(inventoryEventForMRP.getString("mrpEventTypeId"))) {
-                                daysToShip = (productFacility.getLong("daysToShip") != null? productFacility.getLong("daysToShip").intValue(): 0);
+                    }
+
+                    oldProductId = "";
+                    for (GenericValue inventoryEventForMRP : listInventoryEventForMRP) {
+                        productId = inventoryEventForMRP.getString("productId");
+                        eventQuantity = inventoryEventForMRP.getBigDecimal("quantity");
+
+                        if (!productId.equals(oldProductId)) {
+                            // It's a new product, so it's necessary to  read the MrpQoh
+                            MrpProductData productData;
+                            if (productDataMap != null) {
+                                productData = productDataMap.get(productId);
+                            } else {
+                                try {
+                                    productData = loadMrpProductData(inventoryEventForMRP, facilityId, userLogin, dispatcher, locale);
+                                } catch (GeneralException e) {
+                                    return ServiceUtil.returnError(e.getMessage());
+                                }
                             }
-                        } else {
-                            minimumStock = BigDecimal.ZERO;
-                            reorderQuantity = BigDecimal.ONE.negate();
-                        }
-                        // -----------------------------------------------------
-                        // The components are also loaded thru the configurator
-                        Map<String, Object> serviceResponse = null;
-                        try {
-                            serviceResponse = dispatcher.runSync("getManufacturingComponents", UtilMisc.<String, Object>toMap("productId", product.getString("productId"), "quantity", positiveEventQuantity, "excludeWIPs", Boolean.FALSE, "userLogin", userLogin));
-                            if (ServiceUtil.isError(serviceResponse)) {
-                                return ServiceUtil.returnError(ServiceUtil.getErrorMessage(serviceResponse));
+                            product = productData.product;
+                            productFacility = productData.productFacility;
+                            stockTmp = productData.qoh;
+                            if (productData.qohError) {
+                                logMrpError(mrpId, productId, "Unable to count inventory", delegator);
                             }
-                        } catch (GenericServiceException e) {
-                            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpErrorExplodingProduct", UtilMisc.toMap("productId", product.getString("productId")), locale));
-                        } catch (Exception e) {
-                            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpErrorExplodingProduct", UtilMisc.toMap("productId", product.getString("productId")), locale));
-                        }
-                        components = UtilGenerics.checkList(serviceResponse.get("components"));
-                        if (UtilValidate.isNotEmpty(components)) {
-                            BOMNode node = (components.get(0)).getParentNode();
-                            isBuilt = node.isManufactured();
-                        } else {
-                            isBuilt = false;
+                            try {
+                                createOrUpdateMrpEvent(UtilMisc.<String, Object>toMap("mrpId", mrpId,
+                                        "productId", product.getString("productId"),
+                                        "mrpEventTypeId", "INITIAL_QOH", "eventDate", now),
+                                        stockTmp, facilityId, null, false, delegator, eventBuffer);
+                            } catch (GenericEntityException e) {
+                                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpCreateOrUpdateEvent", UtilMisc.toMap("parameters", parameters), locale));
+                            }
+                            // days to ship is only relevant for sales order to plan for preparatory days to ship.  Otherwise MRP will push event dates for manufacturing parts
+                            // as well and cause problems
+                            daysToShip = 0;
+                            if (productFacility != null) {
+                                reorderQuantity = (productFacility.getBigDecimal("reorderQuantity") != null ? productFacility.getBigDecimal("reorderQuantity"): BigDecimal.ONE.negate());
+                                minimumStock = (productFacility.getBigDecimal("minimumStock") != null ? productFacility.getBigDecimal("minimumStock"): BigDecimal.ZERO);
+                                if ("SALES_ORDER_SHIP".equals(inventoryEventForMRP.getString("mrpEventTypeId"))) {
+                                    daysToShip = (productFacility.getLong("daysToShip") != null? productFacility.getLong("daysToShip").intValue(): 0);
+                                }
+                            } else {
+                                minimumStock = BigDecimal.ZERO;
+                                reorderQuantity = BigDecimal.ONE.negate();
+                            }
+                            // SCIPIO: components are now loaded through the configurator in loadMrpProductData
+                            isBuilt = productData.isBuilt;
+
+                            oldProductId = productId;
                         }
-                        // #####################################################
 
-                        oldProductId = productId;
-                    }
+                        stockTmp = stockTmp.add(eventQuantity);
+                        if (stockTmp.compareTo(minimumStock) < 0) {
+                            BigDecimal qtyToStock = minimumStock.subtract(stockTmp);
+                            //need to buy or build the product as we have not enough stock
+                            eventDate = inventoryEventForMRP.getTimestamp("eventDate");
+                            // to be just before the requirement
+                            eventDate.setTime(eventDate.getTime()-1);
+                            ProposedOrder proposedOrder = new ProposedOrder(product, facilityId, manufacturingFacilityId, isBuilt, eventDate, qtyToStock);
+                            proposedOrder.setMrpName(mrpName);
+                            // calculate the ProposedOrder quantity and update the quantity object property.
+                            proposedOrder.calculateQuantityToSupply(reorderQuantity, minimumStock, iteratorListInventoryEventForMRP);
 
-                    stockTmp = stockTmp.add(eventQuantity);
-                    if (stockTmp.compareTo(minimumStock) < 0) {
-                        BigDecimal qtyToStock = minimumStock.subtract(stockTmp);
-                        //need to buy or build the product as we have not enough stock
-                        eventDate = inventoryEventForMRP.getTimestamp("eventDate");
-                        // to be just before the requirement
-                        eventDate.setTime(eventDate.getTime()-1);
-                        ProposedOrder proposedOrder = new ProposedOrder(product, facilityId, manufacturingFacilityId, isBuilt, eventDate, qtyToStock);
-                        proposedOrder.setMrpName(mrpName);
-                        // calculate the ProposedOrder quantity and update the quantity object property.
-                        proposedOrder.calculateQuantityToSupply(reorderQuantity, minimumStock, iteratorListInventoryEventForMRP);
-
-                        // -----------------------------------------------------
-                        // The components are also loaded thru the configurator
-                        Map<String, Object> serviceResponse = null;
-                        try {
-                            serviceResponse = dispatcher.runSync("getManufacturingComponents", UtilMisc.<String, Object>toMap("productId", product.getString("productId"), "quantity", proposedOrder.getQuantity(), "excludeWIPs", Boolean.FALSE, "userLogin", userLogin));
-                            if (ServiceUtil.isError(serviceResponse)) {
-                                return ServiceUtil.returnError(ServiceUtil.getErrorMessage(serviceResponse));
+                            // -----------------------------------------------------
+                            // The components are also loaded thru the configurator
+                            Map<String, Object> serviceResponse = null;
+                            try {
+                                serviceResponse = dispatcher.runSync("getManufacturingComponents", UtilMisc.<String, Object>toMap("productId", product.getString("productId"), "quantity", proposedOrder.getQuantity(), "excludeWIPs", Boolean.FALSE, "userLogin", userLogin));
+                                if (ServiceUtil.isError(serviceResponse)) {
+                                    return ServiceUtil.returnError(ServiceUtil.getErrorMessage(serviceResponse));
+                                }
+                            } catch (GenericServiceException e) {
+                                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpErrorExplodingProduct", UtilMisc.toMap("productId", product.getString("productId")), locale));
+                            } catch (Exception e) {
+                                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpErrorExplodingProduct", UtilMisc.toMap("productId", product.getString("productId")), locale));
                             }
-                        } catch (GenericServiceException e) {
-                            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpErrorExplodingProduct", UtilMisc.toMap("productId", product.getString("productId")), locale));
-                        } catch (Exception e) {
-                            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpErrorExplodingProduct", UtilMisc.toMap("productId", product.getString("productId")), locale));
-                        }
-                        components = UtilGenerics.checkList(serviceResponse.get("components"));
-                        String routingId = (String)serviceResponse.get("workEffortId");
-                        if (routingId != null) {
+                            components = UtilGenerics.checkList(serviceResponse.get("components"));
+                            String routingId = (String)serviceResponse.get("workEffortId");
+                            if (routingId != null) {
+                                try {
+                                    routing = EntityQuery.use(delegator).from("WorkEffort").where("workEffortId", routingId).queryOne();
+                                } catch (GenericEntityException e) {
+                                    return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpCannotFindProductForEvent", locale));
+                                }
+                            } else {
+                                routing = null;
+                            }
+                            if (UtilValidate.isNotEmpty(components)) {
+                                BOMNode node = (components.get(0)).getParentNode();
+                                isBuilt = node.isManufactured();
+                            } else {
+                                isBuilt = false;
+                            }
+                            // #####################################################
+
+                            // calculate the ProposedOrder requirementStartDate and update the requirementStartDate object property.
+                            Map<String, Object> routingTaskStartDate = proposedOrder.calculateStartDate(daysToShip, routing, delegator, dispatcher, userLogin);
+                            if (isBuilt) {
+                                // process the product components
+                                processBomComponent(mrpId, product, proposedOrder.getQuantity(), proposedOrder.getRequirementStartDate(), routingTaskStartDate, components, eventBuffer);
+                            }
+                            // create the  ProposedOrder (only if the product is warehouse managed), and the MrpEvent associated
+                            String requirementId = null;
+                            if (productFacility != null) {
+                                requirementId = proposedOrder.create(ctx, userLogin);
+                            }
+                            if (UtilValidate.isEmpty(productFacility) && !isBuilt) {
+                                logMrpError(mrpId, productId, now, "No ProductFacility record for [" + facilityId + "]; no requirement created.", delegator);
+                            }
+                            String eventName = null;
+                            if (UtilValidate.isNotEmpty(requirementId)) {
+                                eventName = "*" + requirementId + " (" + proposedOrder.getRequirementStartDate() + ")*";
+                            }
+                            Map<String, Object> eventMap = UtilMisc.<String, Object>toMap("productId", product.getString("productId"),
+                                                          "mrpId", mrpId,
+                                                          "eventDate", eventDate,
+                                                          "mrpEventTypeId", (isBuilt? "PROP_MANUF_O_RECP" : "PROP_PUR_O_RECP"));
                             try {
-                                routing = EntityQuery.use(delegator).from("WorkEffort").where("workEffortId", routingId).queryOne();
+                                createOrUpdateMrpEvent(eventMap, proposedOrder.getQuantity(), null, eventName, (proposedOrder.getRequirementStartDate().compareTo(now) < 0), delegator, eventBuffer);
                             } catch (GenericEntityException e) {
-                                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpCannotFindProductForEvent", locale));
+                                return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpCreateOrUpdateEvent", UtilMisc.toMap("parameters", parameters), locale));
                             }
-                        } else {
-                            routing = null;
-                        }
-                        if (UtilValidate.isNotEmpty(components)) {
-                            BOMNode node = (components.get(0)).getParentNode();
-                            isBuilt = node.isManufactured();
-                        } else {
-                            isBuilt = false;
+                            //
+                            stockTmp = stockTmp.add(proposedOrder.getQuantity());
                         }
-                        // #####################################################
+                    }
+                } else {
+                    bomLevelWithNoEvent += 1;
+                }
 
-                        // calculate the ProposedOrder requirementStartDate and update the requirementStartDate object property.
-                        Map<String, Object> routingTaskStartDate = proposedOrder.calculateStartDate(daysToShip, routing, delegator, dispatcher, userLogin);
-                        if (isBuilt) {
-                            // process the product components
-                            processBomComponent(mrpId, product, proposedOrder.getQuantity(), proposedOrder.getRequirementStartDate(), routingTaskStartDate, components);
-                        }
-                        // create the  ProposedOrder (only if the product is warehouse managed), and the MrpEvent associated
-                        String requirementId = null;
-                        if (productFacility != null) {
-                            requirementId = proposedOrder.create(ctx, userLogin);
-                        }
-                        if (UtilValidate.isEmpty(productFacility) && !isBuilt) {
-                            logMrpError(mrpId, productId, now, "No ProductFacility record for [" + facilityId + "]; no requirement created.", delegator);
-                        }
-                        String eventName = null;
-                        if (UtilValidate.isNotEmpty(requirementId)) {
-                            eventName = "*" + requirementId + " (" + proposedOrder.getRequirementStartDate() + ")*";
-                        }
-                        Map<String, Object> eventMap = UtilMisc.<String, Object>toMap("productId", product.getString("productId"),
-                                                      "mrpId", mrpId,
-                                                      "eventDate", eventDate,
-                                                      "mrpEventTypeId", (isBuilt? "PROP_MANUF_O_RECP" : "PROP_PUR_O_RECP"));
-                        try {
-                            InventoryEventPlannedServices.createOrUpdateMrpEvent(eventMap, proposedOrder.getQuantity(), null, eventName, (proposedOrder.getRequirementStartDate().compareTo(now) < 0), delegator);
-                        } catch (GenericEntityException e) {
-                            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpCreateOrUpdateEvent", UtilMisc.toMap("parameters", parameters), locale));
-                        }
-                        //
-                        stockTmp = stockTmp.add(proposedOrder.getQuantity());
+                // SCIPIO: the next level query must see this level's events
+                if (eventBuffer != null) {
+                    try {
+                        eventBuffer.flush();
+                    } catch (GenericEntityException e) {
+                        return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpCreateOrUpdateEvent", UtilMisc.toMap("parameters", parameters), locale));
                     }
                 }
-            } else {
-                bomLevelWithNoEvent += 1;
-            }
 
-            bomLevel += 1;
-            // if there are 3 levels with no inventoryEvenPanned we stop
-        } while (bomLevelWithNoEvent < 3);
+                bomLevel += 1;
+                // if there are 3 levels with no inventoryEvenPanned we stop
+            } while (bomLevelWithNoEvent < 3);
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+        if (eventBuffer != null) {
+            Debug.logInfo("MRP: bulk mode wrote " + eventBuffer.getFlushedCount() + " MrpEvent records for mrpId [" + mrpId + "]", module);
+        }
 
         result = new HashMap<String, Object>();
         List<Object> msgResult = new LinkedList<Object>();
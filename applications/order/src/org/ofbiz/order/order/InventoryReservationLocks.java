@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.order.order;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionFactoryLoader;
+import org.ofbiz.entity.transaction.TransactionUtil;
+
+/**
+ * SCIPIO: Striped in-JVM locks for inventory reservation, per product/facility, held until the reserving transaction completes.
+ * <p>
+ * Concurrent checkouts of the same product otherwise all reach the InventoryItem rows and wait on the database row locks
+ * of the first transaction until it commits, which under load (flash sales) ends in lock timeouts and deadlocks between
+ * multi-line orders. With this enabled (order.properties: order.reserve.stripedLocks.enable), the transactions of this
+ * server queue on a fair lock instead.
+ * <p>
+ * The stripes are always waited for in ascending order, also across several calls in the same transaction: a stripe
+ * lower than one the transaction already holds is only tried without waiting, so two transactions can never wait on
+ * each other. If a stripe cannot be acquired (timeout, interruption or out-of-order stripe busy), {@link #lockForTransaction}
+ * returns false and the reservation must fail, rather than proceed unlocked.
+ * <p>
+ * The locks only order the reservations of this server; across servers, the database row locks still guarantee
+ * correctness (the ATP is derived from the InventoryItemDetail rows, which allow backorders, so it is not a simple
+ * conditional decrement). Different products may share a stripe, so order.reserve.stripedLocks.stripes should be well
+ * above the number of products reserved concurrently.
+ */
+public final class InventoryReservationLocks {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    private static final boolean ENABLED = UtilProperties.getPropertyAsBoolean("order", "order.reserve.stripedLocks.enable", false);
+    private static final int STRIPE_COUNT = Math.max(1, UtilProperties.getPropertyAsInteger("order", "order.reserve.stripedLocks.stripes", 1024));
+    private static final long TIMEOUT_MS = UtilProperties.getPropertyAsLong("order", "order.reserve.stripedLocks.timeoutMs", 10000L);
+
+    private static final Semaphore[] stripes = makeStripes(STRIPE_COUNT);
+    /** The stripes held by each transaction (NOTE: semaphores, because the transaction may complete in another thread). */
+    private static final Map<Transaction, NavigableSet<Integer>> heldStripes = new ConcurrentHashMap<>();
+
+    private InventoryReservationLocks() {}
+
+    /**
+     * Makes the stripe locks (fair semaphores); the stripe helpers are public for the tests (InventoryReservationLocksTests).
+     */
+    public static Semaphore[] makeStripes(int count) {
+        Semaphore[] stripes = new Semaphore[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Semaphore(1, true);
+        }
+        return stripes;
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Makes the lock key for a product reservation; facilityId may be null when the store determines the facility.
+     */
+    public static String makeKey(String productId, String facilityId) {
+        return productId + "::" + (facilityId != null ? facilityId : "");
+    }
+
+    /**
+     * Acquires the locks for the given keys (see {@link #makeKey}), in stripe order, and holds them until the current
+     * transaction commits or rolls back. Does nothing if not enabled or if there is no transaction in place.
+     * @return false if the locks could not all be acquired, in which case the caller must not reserve (the locks
+     * acquired so far are still released at the end of the transaction)
+     */
+    public static boolean lockForTransaction(Collection<String> keys) {
+        if (!ENABLED || keys.isEmpty()) {
+            return true;
+        }
+        Transaction tx = getActiveTransaction();
+        if (tx == null) {
+            return true;
+        }
+        SortedSet<Integer> stripeIndexes = new TreeSet<>();
+        for (String key : keys) {
+            stripeIndexes.add(getStripeIndex(key, STRIPE_COUNT));
+        }
+
+        NavigableSet<Integer> held = heldStripes.get(tx);
+        if (held == null) {
+            held = new ConcurrentSkipListSet<>();
+            try {
+                TransactionUtil.registerSynchronization(new ReleaseSync(tx, held));
+            } catch (GenericTransactionException e) {
+                Debug.logError(e, "Could not register inventory reservation lock release for transaction", module);
+                return false;
+            }
+            heldStripes.put(tx, held);
+        }
+
+        try {
+            if (!acquireStripes(stripes, held, stripeIndexes, TIMEOUT_MS)) {
+                Debug.logWarning("Could not acquire the inventory reservation locks for " + keys + " within " + TIMEOUT_MS + "ms", module);
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Debug.logWarning("Interrupted while waiting for the inventory reservation locks for " + keys, module);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the stripe of the lock key.
+     */
+    public static int getStripeIndex(String key, int stripeCount) {
+        return (key.hashCode() & 0x7fffffff) % stripeCount;
+    }
+
+    /**
+     * Acquires the given stripes not already held, adding them to the held ones, in ascending order: the stripes
+     * above the highest held one are waited for up to timeoutMs each, the ones below are only tried (waiting for
+     * them while holding a higher one could deadlock). Returns false at the first stripe not acquired.
+     */
+    public static boolean acquireStripes(Semaphore[] stripes, NavigableSet<Integer> held, SortedSet<Integer> stripeIndexes, long timeoutMs) throws InterruptedException {
+        for (Integer stripeIndex : stripeIndexes) {
+            if (held.contains(stripeIndex)) {
+                continue;
+            }
+            boolean acquired;
+            if (held.isEmpty() || stripeIndex > held.last()) {
+                acquired = stripes[stripeIndex].tryAcquire(timeoutMs, TimeUnit.MILLISECONDS);
+            } else {
+                acquired = stripes[stripeIndex].tryAcquire();
+            }
+            if (!acquired) {
+                return false;
+            }
+            held.add(stripeIndex);
+        }
+        return true;
+    }
+
+    /**
+     * Releases the held stripes.
+     */
+    public static void releaseStripes(Semaphore[] stripes, Collection<Integer> held) {
+        for (Integer stripeIndex : held) {
+            stripes[stripeIndex].release();
+        }
+        held.clear();
+    }
+
+    private static Transaction getActiveTransaction() {
+        try {
+            TransactionManager tm = TransactionFactoryLoader.getInstance().getTransactionManager();
+            if (tm != null && tm.getStatus() == Status.STATUS_ACTIVE) {
+                return tm.getTransaction();
+            }
+        } catch (SystemException e) {
+            Debug.logWarning(e, "Could not get current transaction for inventory reservation locks", module);
+        }
+        return null;
+    }
+
+    private static class ReleaseSync implements Synchronization {
+        private final Transaction tx;
+        private final NavigableSet<Integer> held;
+
+        ReleaseSync(Transaction tx, NavigableSet<Integer> held) {
+            this.tx = tx;
+            this.held = held;
+        }
+
+        @Override
+        public void beforeCompletion() {
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            heldStripes.remove(tx);
+            releaseStripes(stripes, held);
+        }
+    }
+}
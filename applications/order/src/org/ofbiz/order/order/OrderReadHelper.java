@@ -102,6 +102,7 @@ public class OrderReadHelper {
     protected List<GenericValue> orderReturnItems = null;
     protected Map<GenericValue, List<GenericValue>> orderSubscriptionItems = null; // SCIPIO
     protected BigDecimal totalPrice = null;
+    private OrderAggregates aggregates = null; // SCIPIO: Memoized item/adjustment indexes and totals, see getAggregates()
     protected LocalDispatcher dispatcher; // SCIPIO: Optional dispatcher
     protected Locale locale; // SCIPIO: Optional locale
 
@@ -1584,7 +1585,7 @@ public class OrderReadHelper {
     }
 
     public List<GenericValue> getOrderHeaderAdjustments() {
-        return getOrderHeaderAdjustments(getAdjustments(), null);
+        return new LinkedList<>(getAggregates().headerAdjustments); // SCIPIO: indexed
     }
 
     public List<GenericValue> getOrderHeaderAdjustments(String shipGroupSeqId) {
@@ -1604,7 +1605,12 @@ public class OrderReadHelper {
     }
 
     public BigDecimal getOrderAdjustmentsTotal() {
-        return getOrderAdjustmentsTotal(getValidOrderItems(), getAdjustments());
+        // SCIPIO: memoized
+        OrderAggregates aggregates = getAggregates();
+        if (aggregates.orderAdjustmentsTotal == null) {
+            aggregates.orderAdjustmentsTotal = calcOrderAdjustments(aggregates.headerAdjustments, getOrderItemsSubTotal(), true, true, true);
+        }
+        return aggregates.orderAdjustmentsTotal;
     }
 
     public BigDecimal getOrderAdjustmentTotal(GenericValue adjustment) {
@@ -1661,10 +1667,7 @@ public class OrderReadHelper {
     }
 
     public List<GenericValue> getValidOrderItems() {
-        List<EntityExpr> exprs = UtilMisc.toList(
-                EntityCondition.makeCondition("statusId", EntityOperator.NOT_EQUAL, "ITEM_CANCELLED"),
-                EntityCondition.makeCondition("statusId", EntityOperator.NOT_EQUAL, "ITEM_REJECTED"));
-        return EntityUtil.filterByAnd(getOrderItems(), exprs);
+        return new ArrayList<>(getAggregates().validItems); // SCIPIO: indexed
     }
 
     public boolean getPastEtaOrderItems(String orderId) {
@@ -1818,7 +1821,7 @@ public class OrderReadHelper {
     }
 
     public List<GenericValue> getOrderItemAdjustments(GenericValue orderItem) {
-        return getOrderItemAdjustmentList(orderItem, getAdjustments());
+        return new ArrayList<>(getAggregates().getItemAdjustments(orderItem)); // SCIPIO: indexed
     }
 
     public String getCurrentOrderItemWorkEffort(GenericValue orderItem) {
@@ -2390,19 +2393,45 @@ public class OrderReadHelper {
     }
 
     public BigDecimal getOrderItemsSubTotal() {
-        return getOrderItemsSubTotal(getValidOrderItems(), getAdjustments());
+        // SCIPIO: memoized, with the item subtotals
+        OrderAggregates aggregates = getAggregates();
+        if (aggregates.orderItemsSubTotal == null) {
+            BigDecimal result = ZERO;
+            for (GenericValue orderItem : aggregates.validItems) {
+                result = result.add(getOrderItemSubTotal(orderItem)).setScale(scale, rounding);
+            }
+            aggregates.orderItemsSubTotal = result.setScale(scale, rounding);
+        }
+        return aggregates.orderItemsSubTotal;
     }
 
     public BigDecimal getOrderItemSubTotal(GenericValue orderItem) {
-        return getOrderItemSubTotal(orderItem, getAdjustments());
+        // SCIPIO: memoized per item, from the item's own adjustments
+        OrderAggregates aggregates = getAggregates();
+        BigDecimal subTotal = aggregates.itemSubTotals.get(orderItem);
+        if (subTotal == null) {
+            subTotal = getOrderItemSubTotal(orderItem, aggregates.getItemAdjustments(orderItem));
+            aggregates.itemSubTotals.put(orderItem, subTotal);
+        }
+        return subTotal;
     }
 
     public BigDecimal getOrderItemsTotal() {
-        return getOrderItemsTotal(getValidOrderItems(), getAdjustments());
+        // SCIPIO: memoized
+        OrderAggregates aggregates = getAggregates();
+        if (aggregates.orderItemsTotal == null) {
+            BigDecimal result = ZERO;
+            for (GenericValue orderItem : aggregates.validItems) {
+                result = result.add(getOrderItemTotal(orderItem));
+            }
+            aggregates.orderItemsTotal = result.setScale(scale, rounding);
+        }
+        return aggregates.orderItemsTotal;
     }
 
     public BigDecimal getOrderItemTotal(GenericValue orderItem) {
-        return getOrderItemTotal(orderItem, getAdjustments());
+        // add tax and shipping to subtotal
+        return getOrderItemSubTotal(orderItem).add(getOrderItemAdjustmentsTotal(orderItem, false, true, true)); // SCIPIO: indexed
     }
 
     public BigDecimal getOrderItemTax(GenericValue orderItem) {
@@ -2414,7 +2443,9 @@ public class OrderReadHelper {
     }
 
     public BigDecimal getOrderItemAdjustmentsTotal(GenericValue orderItem, boolean includeOther, boolean includeTax, boolean includeShipping) {
-        return getOrderItemAdjustmentsTotal(orderItem, getAdjustments(), includeOther, includeTax, includeShipping);
+        // SCIPIO: the item's indexed adjustments instead of filtering all the order adjustments
+        return calcItemAdjustments(getOrderItemQuantity(orderItem), orderItem.getBigDecimal("unitPrice"),
+                getAggregates().getItemAdjustments(orderItem), includeOther, includeTax, includeShipping, false, false);
     }
 
     public BigDecimal getOrderItemAdjustmentsTotal(GenericValue orderItem) {
@@ -2504,6 +2535,94 @@ public class OrderReadHelper {
     // =================== Static Methods ===================
     // ======================================================
 
+    /**
+     * SCIPIO: Returns the memoized indexes and totals of the order items and adjustments, (re)building them in one
+     * pass over the lists if they were not built yet or the lists were replaced or resized since.
+     * <p>
+     * NOTE: The totals assume the item and adjustment values are not modified in place while the helper is in use,
+     * the same as {@link #getOrderGrandTotal()} always has.
+     */
+    private OrderAggregates getAggregates() {
+        List<GenericValue> orderItems = getOrderItems();
+        List<GenericValue> adjustments = getAdjustments();
+        OrderAggregates aggregates = this.aggregates;
+        if (aggregates == null || !aggregates.isFor(orderItems, adjustments)) {
+            aggregates = new OrderAggregates(orderItems, adjustments);
+            this.aggregates = aggregates;
+        }
+        return aggregates;
+    }
+
+    /**
+     * SCIPIO: The valid order items, the adjustments indexed by orderItemSeqId and the header adjustments of an order,
+     * built in one pass, with the totals computed from them so far.
+     */
+    private static final class OrderAggregates {
+        private final List<GenericValue> orderItems;
+        private final int orderItemsSize;
+        private final List<GenericValue> adjustments;
+        private final int adjustmentsSize;
+
+        final List<GenericValue> validItems = new ArrayList<>();
+        final Map<String, List<GenericValue>> itemAdjustments = new HashMap<>();
+        final List<GenericValue> headerAdjustments;
+        final Map<GenericValue, BigDecimal> itemSubTotals = new HashMap<>();
+        BigDecimal orderItemsSubTotal = null;
+        BigDecimal orderItemsTotal = null;
+        BigDecimal orderAdjustmentsTotal = null;
+
+        OrderAggregates(List<GenericValue> orderItems, List<GenericValue> adjustments) {
+            this.orderItems = orderItems;
+            this.orderItemsSize = (orderItems != null) ? orderItems.size() : 0;
+            this.adjustments = adjustments;
+            this.adjustmentsSize = (adjustments != null) ? adjustments.size() : 0;
+            if (orderItems != null) {
+                for (GenericValue orderItem : orderItems) {
+                    String statusId = orderItem.getString("statusId");
+                    if (!"ITEM_CANCELLED".equals(statusId) && !"ITEM_REJECTED".equals(statusId)) {
+                        validItems.add(orderItem);
+                    }
+                }
+            }
+            // NOTE: header adjustments are kept in the order of getOrderHeaderAdjustments(List, String): null, _NA_, then empty orderItemSeqId
+            List<GenericValue> nullItemAdjustments = new ArrayList<>();
+            List<GenericValue> naItemAdjustments = new ArrayList<>();
+            List<GenericValue> emptyItemAdjustments = new ArrayList<>();
+            if (adjustments != null) {
+                for (GenericValue adjustment : adjustments) {
+                    String orderItemSeqId = adjustment.getString("orderItemSeqId");
+                    if (orderItemSeqId == null) {
+                        nullItemAdjustments.add(adjustment);
+                    } else if (DataModelConstants.SEQ_ID_NA.equals(orderItemSeqId)) {
+                        naItemAdjustments.add(adjustment);
+                    } else if (orderItemSeqId.isEmpty()) {
+                        emptyItemAdjustments.add(adjustment);
+                    }
+                    List<GenericValue> itemAdjs = itemAdjustments.get(orderItemSeqId);
+                    if (itemAdjs == null) {
+                        itemAdjs = new ArrayList<>();
+                        itemAdjustments.put(orderItemSeqId, itemAdjs);
+                    }
+                    itemAdjs.add(adjustment);
+                }
+            }
+            headerAdjustments = new ArrayList<>(nullItemAdjustments.size() + naItemAdjustments.size() + emptyItemAdjustments.size());
+            headerAdjustments.addAll(nullItemAdjustments);
+            headerAdjustments.addAll(naItemAdjustments);
+            headerAdjustments.addAll(emptyItemAdjustments);
+        }
+
+        boolean isFor(List<GenericValue> orderItems, List<GenericValue> adjustments) {
+            return this.orderItems == orderItems && orderItemsSize == ((orderItems != null) ? orderItems.size() : 0)
+                    && this.adjustments == adjustments && adjustmentsSize == ((adjustments != null) ? adjustments.size() : 0);
+        }
+
+        List<GenericValue> getItemAdjustments(GenericValue orderItem) {
+            List<GenericValue> itemAdjs = itemAdjustments.get(orderItem.getString("orderItemSeqId"));
+            return (itemAdjs != null) ? itemAdjs : Collections.<GenericValue>emptyList();
+        }
+    }
+
     public static GenericValue getOrderHeader(Delegator delegator, String orderId) {
         GenericValue orderHeader = null;
         if (orderId != null && delegator != null) {
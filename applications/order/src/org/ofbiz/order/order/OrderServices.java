@@ -54,10 +54,12 @@ import org.ofbiz.common.DataModelConstants;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntity;
 import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericPK;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.condition.EntityExpr;
 import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.model.ModelEntity;
 import org.ofbiz.entity.transaction.GenericTransactionException;
 import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.entity.util.EntityFindOptions;
@@ -286,19 +288,23 @@ public class OrderServices {
                     BigDecimal currentQuantity = normalizedItemQuantities.get(currentProductId);
                     normalizedItemQuantities.put(currentProductId, currentQuantity.add(orderItem.getBigDecimal("quantity")));
                 }
+            }
+        }
 
-                try {
-                    // count product ordered quantities
-                    // run this synchronously so it will run in the same transaction
-                    Map<String, Object> result = dispatcher.runSync("countProductQuantityOrdered", UtilMisc.<String, Object>toMap("productId", currentProductId, "quantity", orderItem.getBigDecimal("quantity"), "userLogin", userLogin));
-                    if (ServiceUtil.isError(result)) {
-                        return ServiceUtil.returnError(ServiceUtil.getErrorMessage(result));
-                    }
-                } catch (GenericServiceException e1) {
-                    Debug.logError(e1, "Error calling countProductQuantityOrdered service", module);
-                    return ServiceUtil.returnError(UtilProperties.getMessage(resource_error, 
-                            "OrderErrorCallingCountProductQuantityOrderedService",locale) + e1.toString());
-                }
+        // SCIPIO: count product ordered quantities once per product using the normalized (summed) quantities, instead of
+        // once per order item; the resulting ProductCalculatedInfo.totalQuantityOrdered is the same
+        for (Map.Entry<String, BigDecimal> normalizedItemQuantity : normalizedItemQuantities.entrySet()) {
+            try {
+                // count product ordered quantities
+                // run this synchronously so it will run in the same transaction
+                Map<String, Object> result = dispatcher.runSync("countProductQuantityOrdered", UtilMisc.<String, Object>toMap("productId", normalizedItemQuantity.getKey(), "quantity", normalizedItemQuantity.getValue(), "userLogin", userLogin));
+                if (ServiceUtil.isError(result)) {
+                    return ServiceUtil.returnError(ServiceUtil.getErrorMessage(result));
+                }
+            } catch (GenericServiceException e1) {
+                Debug.logError(e1, "Error calling countProductQuantityOrdered service", module);
+                return ServiceUtil.returnError(UtilProperties.getMessage(resource_error,
+                        "OrderErrorCallingCountProductQuantityOrderedService",locale) + e1.toString());
             }
         }
 
@@ -1041,7 +1047,8 @@ public class OrderServices {
 
         try {
             // store line items, etc so that they will be there for the foreign key checks
-            delegator.storeAll(toBeStored);
+            //delegator.storeAll(toBeStored);
+            storeNewOrderValues(delegator, orderId, toBeStored); // SCIPIO: skip existence lookups for the new order's records
 
             List<String> resErrorMessages = new LinkedList<>();
 
@@ -1049,7 +1056,7 @@ public class OrderServices {
             if (UtilValidate.isNotEmpty(orderItems)) {
                 for (GenericValue orderItem: orderItems) {
                     String productId = (String) orderItem.get("productId");
-                    GenericValue product = delegator.getRelatedOne("Product", orderItem, false);
+                    GenericValue product = delegator.getRelatedOne("Product", orderItem, true); // SCIPIO: cached, as in the checks above
 
                     if (product != null && ("SERVICE_PRODUCT".equals(product.get("productTypeId")) || "AGGREGATEDSERV_CONF".equals(product.get("productTypeId")))) {
                         String inventoryFacilityId = null;
@@ -1125,6 +1132,43 @@ public class OrderServices {
         return successResult;
     }
 
+    /**
+     * SCIPIO: Stores the records of an order whose OrderHeader was just created, in list order and in one transaction,
+     * like {@link Delegator#storeAll(List)}, but inserts the records keyed by the new orderId (and the new OrderStatus
+     * records) directly, without the primary key lookup storeAll does first for each value: these cannot exist yet.
+     * Other records (PartyRole, WorkEffort, ...) still go through storeAll.
+     */
+    private static void storeNewOrderValues(Delegator delegator, String orderId, List<GenericValue> values) throws GenericEntityException {
+        boolean beganTransaction = false;
+        try {
+            beganTransaction = TransactionUtil.begin();
+            List<GenericValue> otherValues = new ArrayList<>();
+            Set<GenericPK> createdPks = new HashSet<>();
+            for (GenericValue value : values) {
+                ModelEntity modelEntity = value.getModelEntity();
+                boolean isNew = "OrderStatus".equals(modelEntity.getEntityName())
+                        || (modelEntity.getPkFieldNames().contains("orderId") && orderId.equals(value.getString("orderId")));
+                // NOTE: the same record may be listed twice (e.g. OrderRole); storeAll handles the repeats as updates
+                if (isNew && createdPks.add(value.getPrimaryKey())) {
+                    if (!otherValues.isEmpty()) {
+                        delegator.storeAll(otherValues); // preserve list order (foreign keys)
+                        otherValues.clear();
+                    }
+                    delegator.create(value);
+                } else {
+                    otherValues.add(value);
+                }
+            }
+            if (!otherValues.isEmpty()) {
+                delegator.storeAll(otherValues);
+            }
+            TransactionUtil.commit(beganTransaction);
+        } catch (GenericEntityException e) {
+            TransactionUtil.rollback(beganTransaction, "Failure storing order records: " + e.toString(), e);
+            throw e;
+        }
+    }
+
     public static Map<String, Object> countProductQuantityOrdered(DispatchContext ctx, Map<String, Object> context) {
         Delegator delegator = ctx.getDelegator();
         Locale locale = (Locale) context.get("locale");
@@ -1197,6 +1241,38 @@ public class OrderServices {
 
         // START inventory reservation
         // decrement inventory available for each OrderItemShipGroupAssoc, within the same transaction
+        Map<String, GenericValue> orderItemShipGroups = new HashMap<>(); // SCIPIO: look up each ship group once
+
+        // SCIPIO: if enabled, lock the products/facilities to reserve up front (in a fixed order), until the transaction ends;
+        // if they can't be acquired, nothing is reserved and the order fails
+        if (reserveInventory && InventoryReservationLocks.isEnabled() && UtilValidate.isNotEmpty(orderItemShipGroupInfo)) {
+            Set<String> lockKeys = new HashSet<>();
+            for (GenericValue orderItemShipGroupAssoc : orderItemShipGroupInfo) {
+                if (!"OrderItemShipGroupAssoc".equals(orderItemShipGroupAssoc.getEntityName())
+                        || (dropShipGroupIds != null && dropShipGroupIds.contains(orderItemShipGroupAssoc.getString("shipGroupSeqId")))) {
+                    continue;
+                }
+                GenericValue orderItem = itemValuesBySeqId.get(orderItemShipGroupAssoc.get("orderItemSeqId"));
+                if (orderItem == null || UtilValidate.isEmpty(orderItem.getString("productId"))) {
+                    continue;
+                }
+                GenericValue orderItemShipGroup = orderItemShipGroups.get(orderItemShipGroupAssoc.getString("shipGroupSeqId"));
+                if (orderItemShipGroup == null) {
+                    orderItemShipGroup = orderItemShipGroupAssoc.getRelatedOne("OrderItemShipGroup", false);
+                    orderItemShipGroups.put(orderItemShipGroupAssoc.getString("shipGroupSeqId"), orderItemShipGroup);
+                }
+                String facilityId = (orderItemShipGroup != null) ? orderItemShipGroup.getString("facilityId") : null;
+                if (facilityId == null && productStore != null && "Y".equals(productStore.getString("oneInventoryFacility"))) {
+                    facilityId = productStore.getString("inventoryFacilityId");
+                }
+                lockKeys.add(InventoryReservationLocks.makeKey(orderItem.getString("productId"), facilityId));
+            }
+            if (!InventoryReservationLocks.lockForTransaction(lockKeys)) {
+                resErrorMessages.add(UtilProperties.getMessage(resource_error, "OrderErrorInventoryReservationLocksNotAcquired", locale));
+                return;
+            }
+        }
+
         if (UtilValidate.isNotEmpty(orderItemShipGroupInfo)) {
             for (GenericValue orderItemShipGroupAssoc : orderItemShipGroupInfo) {
                 if ("OrderItemShipGroupAssoc".equals(orderItemShipGroupAssoc.getEntityName())) {
@@ -1205,7 +1281,11 @@ public class OrderServices {
                         continue;
                     }
                     GenericValue orderItem = itemValuesBySeqId.get(orderItemShipGroupAssoc.get("orderItemSeqId"));
-                    GenericValue orderItemShipGroup = orderItemShipGroupAssoc.getRelatedOne("OrderItemShipGroup", false);
+                    GenericValue orderItemShipGroup = orderItemShipGroups.get(orderItemShipGroupAssoc.getString("shipGroupSeqId"));
+                    if (orderItemShipGroup == null) {
+                        orderItemShipGroup = orderItemShipGroupAssoc.getRelatedOne("OrderItemShipGroup", false);
+                        orderItemShipGroups.put(orderItemShipGroupAssoc.getString("shipGroupSeqId"), orderItemShipGroup);
+                    }
                     String shipGroupFacilityId = orderItemShipGroup.getString("facilityId");
                     String itemStatus = orderItem.getString("statusId");
                     if ("ITEM_REJECTED".equals(itemStatus) || "ITEM_CANCELLED".equals(itemStatus) || "ITEM_COMPLETED".equals(itemStatus)) {
@@ -47,6 +47,7 @@ import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericPK;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.condition.EntityOperator;
@@ -82,8 +83,81 @@ public final class ProductPromoWorker {
 
     public static final MathContext generalRounding = new MathContext(10);
 
+    /**
+     * SCIPIO: If true, doPromotions skips the promotions that cannot apply to the products in the cart
+     * (see {@link #canPromoApply}).
+     */
+    private static volatile boolean promoCalcSkipUnmatched = UtilProperties.getPropertyAsBoolean("order", "order.promotion.calc.skipUnmatched", true);
+
+    /**
+     * SCIPIO: The lookups memoized by the {@link #doPromotions} call running in the current thread.
+     * NOTE: Kept off ShoppingCart on purpose (see cart DEV NOTE on transient caches).
+     */
+    private static final ThreadLocal<PromoCalcContext> currentCalcContext = new ThreadLocal<>();
+
     private ProductPromoWorker() {}
 
+    /**
+     * SCIPIO: Returns true if doPromotions skips the promotions that cannot apply to the products in the cart
+     * (order.promotion.calc.skipUnmatched).
+     */
+    public static boolean isPromoCalcSkipUnmatched() {
+        return promoCalcSkipUnmatched;
+    }
+
+    /**
+     * SCIPIO: Sets whether doPromotions skips the promotions that cannot apply to the products in the cart, overriding
+     * order.promotion.calc.skipUnmatched until the next restart; false evaluates every promotion, for comparison.
+     */
+    public static void setPromoCalcSkipUnmatched(boolean skipUnmatched) {
+        promoCalcSkipUnmatched = skipUnmatched;
+    }
+
+    /**
+     * SCIPIO: Lookups memoized for the duration of one {@link #doPromotions} call (single nowTimestamp): the product IDs
+     * of the promo conditions and actions, which would otherwise be rebuilt from the promo products and categories
+     * for every condition check, every cart pass and every use of a promo, and the promos that can apply to the cart.
+     */
+    private static class PromoCalcContext {
+        final ShoppingCart cart;
+        final Timestamp nowTimestamp;
+        final Map<GenericPK, Set<String>> condProductIds = new HashMap<>();
+        final Map<GenericPK, Set<String>> actionProductIds = new HashMap<>();
+        final Map<String, Boolean> promoApplicable = new HashMap<>();
+        Set<String> cartProductIds;
+
+        PromoCalcContext(ShoppingCart cart, Timestamp nowTimestamp) {
+            this.cart = cart;
+            this.nowTimestamp = nowTimestamp;
+        }
+
+        /** Returns the IDs (and parent IDs) of the products of the non-promo cart items that are included in promotions. */
+        Set<String> getCartProductIds() {
+            if (cartProductIds == null) {
+                Set<String> productIds = new HashSet<>();
+                for (ShoppingCartItem cartItem : cart) {
+                    GenericValue product = cartItem.getProduct();
+                    if (cartItem.getIsPromo() || (product != null && "N".equals(product.getString("includeInPromotions")))) {
+                        continue;
+                    }
+                    if (cartItem.getProductId() != null) {
+                        productIds.add(cartItem.getProductId());
+                    }
+                    if (cartItem.getParentProductId() != null) {
+                        productIds.add(cartItem.getParentProductId());
+                    }
+                }
+                cartProductIds = productIds;
+            }
+            return cartProductIds;
+        }
+
+        static PromoCalcContext get(Timestamp nowTimestamp) {
+            PromoCalcContext calcCtx = currentCalcContext.get();
+            return (calcCtx != null && calcCtx.nowTimestamp.equals(nowTimestamp)) ? calcCtx : null;
+        }
+    }
+
     public static List<GenericValue> getStoreProductPromos(Delegator delegator, LocalDispatcher dispatcher, ServletRequest request) {
         List<GenericValue> productPromos = new LinkedList<>();
         Timestamp nowTimestamp = UtilDateTime.nowTimestamp();
@@ -319,6 +393,9 @@ public final class ProductPromoWorker {
         // start out by clearing all existing promotions, then we can just add all that apply
         cart.clearAllPromotionInformation();
 
+        PromoCalcContext prevCalcContext = currentCalcContext.get(); // SCIPIO
+        currentCalcContext.set(new PromoCalcContext(cart, nowTimestamp));
+
         // there will be a ton of db access, so just do a big catch entity exception block
         try {
             if (productPromoList == null) {
@@ -392,9 +469,75 @@ public final class ProductPromoWorker {
             Debug.logError(e, "Error looking up promotion data while doing promotions", module);
         } catch (Exception e) { // SCIPIO: 2018-10-09: Keeping Exception here instead of GeneralException, for now...
             Debug.logError(e, "Error running promotions, will ignore: " + e.toString(), module);
+        } finally {
+            if (prevCalcContext != null) { // SCIPIO
+                currentCalcContext.set(prevCalcContext);
+            } else {
+                currentCalcContext.remove();
+            }
         }
     }
 
+    /**
+     * SCIPIO: Returns false if none of the rules of the promo can fire for the products in the cart, because every rule
+     * has a product quantity or amount condition (PPIP_PRODUCT_QUANT, PPIP_PRODUCT_AMOUNT) none of whose products are in
+     * the cart; such a rule always fails, so the promo can be skipped instead of evaluated against every cart item.
+     * <p>
+     * Always true outside of {@link #doPromotions} or if order.promotion.calc.skipUnmatched is false.
+     */
+    protected static boolean canPromoApply(GenericValue productPromo, List<GenericValue> productPromoRules, Delegator delegator, Timestamp nowTimestamp) throws GenericEntityException {
+        PromoCalcContext calcCtx = PromoCalcContext.get(nowTimestamp);
+        if (!promoCalcSkipUnmatched || calcCtx == null) {
+            return true;
+        }
+        String productPromoId = productPromo.getString("productPromoId");
+        Boolean applicable = calcCtx.promoApplicable.get(productPromoId);
+        if (applicable == null) {
+            applicable = Boolean.FALSE;
+            List<GenericValue> productPromoCondsAll = EntityQuery.use(delegator).from("ProductPromoCond").where("productPromoId", productPromoId).orderBy("productPromoCondSeqId").cache(true).queryList();
+            for (GenericValue productPromoRule : productPromoRules) {
+                List<GenericValue> productPromoConds = EntityUtil.filterByAnd(productPromoCondsAll, UtilMisc.toMap("productPromoRuleId", productPromoRule.get("productPromoRuleId")));
+                if (!hasUnmatchedProductCondition(productPromoConds, calcCtx, delegator, nowTimestamp)) {
+                    applicable = Boolean.TRUE;
+                    break;
+                }
+            }
+            if (!applicable && Debug.verboseOn()) {
+                Debug.logVerbose("Skipping promotion [" + productPromoId + "]: no rule has its required products in the cart", module);
+            }
+            calcCtx.promoApplicable.put(productPromoId, applicable);
+        }
+        return applicable;
+    }
+
+    private static boolean hasUnmatchedProductCondition(List<GenericValue> productPromoConds, PromoCalcContext calcCtx, Delegator delegator, Timestamp nowTimestamp) throws GenericEntityException {
+        for (GenericValue productPromoCond : productPromoConds) {
+            String inputParamEnumId = productPromoCond.getString("inputParamEnumId");
+            BigDecimal needed;
+            if ("PPIP_PRODUCT_QUANT".equals(inputParamEnumId)) {
+                needed = BigDecimal.ONE;
+            } else if ("PPIP_PRODUCT_AMOUNT".equals(inputParamEnumId)) {
+                needed = BigDecimal.ZERO;
+            } else {
+                continue;
+            }
+            String condValue = productPromoCond.getString("condValue");
+            if (UtilValidate.isNotEmpty(condValue)) {
+                try {
+                    needed = new BigDecimal(condValue);
+                } catch (NumberFormatException e) {
+                    continue; // let checkCondition handle it
+                }
+            }
+            // NOTE: these conditions force PPC_EQ and only pass if the needed quantity or amount is covered by matching items
+            if (needed.compareTo(BigDecimal.ZERO) > 0
+                    && Collections.disjoint(getPromoRuleCondProductIdsMemo(productPromoCond, delegator, nowTimestamp), calcCtx.getCartProductIds())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     protected static boolean hasOrderTotalCondition(GenericValue productPromo, Delegator delegator) throws GenericEntityException {
         boolean hasOtCond = false;
         List<GenericValue> productPromoConds = EntityQuery.use(delegator).from("ProductPromoCond")
@@ -440,7 +583,7 @@ public final class ProductPromoWorker {
                     String productPromoId = productPromo.getString("productPromoId");
 
                     List<GenericValue> productPromoRules = productPromo.getRelated("ProductPromoRule", null, null, true);
-                    if (UtilValidate.isNotEmpty(productPromoRules)) {
+                    if (UtilValidate.isNotEmpty(productPromoRules) && canPromoApply(productPromo, productPromoRules, delegator, nowTimestamp)) { // SCIPIO: canPromoApply
                         // always have a useLimit to avoid unlimited looping, default to 1 if no other is specified
                         Long candidateUseLimit = getProductPromoUseLimit(productPromo, partyId, delegator);
                         Long useLimit = candidateUseLimit;
@@ -981,7 +1124,7 @@ public final class ProductPromoWorker {
                 amountNeeded = new BigDecimal(condValue);
             }
 
-            Set<String> productIds = ProductPromoWorker.getPromoRuleCondProductIds(productPromoCond, delegator, nowTimestamp);
+            Set<String> productIds = ProductPromoWorker.getPromoRuleCondProductIdsMemo(productPromoCond, delegator, nowTimestamp); // SCIPIO: memo
 
             List<ShoppingCartItem> lineOrderedByBasePriceList = cart.getLineListOrderedByBasePrice(false);
             Iterator<ShoppingCartItem> lineOrderedByBasePriceIter = lineOrderedByBasePriceList.iterator();
@@ -1022,7 +1165,7 @@ public final class ProductPromoWorker {
                 BigDecimal amountNeeded = new BigDecimal(condValue);
                 BigDecimal amountAvailable = BigDecimal.ZERO;
 
-                Set<String> productIds = ProductPromoWorker.getPromoRuleCondProductIds(productPromoCond, delegator, nowTimestamp);
+                Set<String> productIds = ProductPromoWorker.getPromoRuleCondProductIdsMemo(productPromoCond, delegator, nowTimestamp); // SCIPIO: memo
 
                 List<ShoppingCartItem> lineOrderedByBasePriceList = cart.getLineListOrderedByBasePrice(false);
                 for (ShoppingCartItem cartItem : lineOrderedByBasePriceList) {
@@ -1050,7 +1193,7 @@ public final class ProductPromoWorker {
                 quantityNeeded = new BigDecimal(condValue);
             }
 
-            Set<String> productIds = ProductPromoWorker.getPromoRuleCondProductIds(productPromoCond, delegator, nowTimestamp);
+            Set<String> productIds = ProductPromoWorker.getPromoRuleCondProductIdsMemo(productPromoCond, delegator, nowTimestamp); // SCIPIO: memo
 
             List<ShoppingCartItem> lineOrderedByBasePriceList = cart.getLineListOrderedByBasePrice(false);
             Iterator<ShoppingCartItem> lineOrderedByBasePriceIter = lineOrderedByBasePriceList.iterator();
@@ -1329,6 +1472,12 @@ public final class ProductPromoWorker {
         String inputParamEnumId = productPromoCond.getString("inputParamEnumId");
         String operatorEnumId = productPromoCond.getString("operatorEnumId");
 
+        // SCIPIO: Only the list price conditions apply to individual items; check this before the (uncached)
+        // list price lookup, which otherwise ran for every condition of the rule for every cart item
+        if (!"PPIP_LPMUP_AMT".equals(inputParamEnumId) && !"PPIP_LPMUP_PER".equals(inputParamEnumId)) {
+            return true;
+        }
+
         // don't get list price from cart because it may have tax included whereas the base price does not: BigDecimal listPrice = cartItem.getListPrice();
         List<GenericValue> listProductPriceList = EntityQuery.use(delegator).from("ProductPrice")
                 .where("productId", cartItem.getProductId(), "productPriceTypeId", "LIST_PRICE", "productPricePurposeId", "PURCHASE")
@@ -1526,7 +1675,7 @@ public final class ProductPromoWorker {
                 }
 
                 // support multiple gift options if products are attached to the action, or if the productId on the action is a virtual product
-                Set<String> productIds = ProductPromoWorker.getPromoRuleActionProductIds(productPromoAction, delegator, nowTimestamp);
+                Set<String> productIds = ProductPromoWorker.getPromoRuleActionProductIdsMemo(productPromoAction, delegator, nowTimestamp); // SCIPIO: memo
                 if (productIds != null) {
                     optionProductIds.addAll(productIds);
                 }
@@ -1631,7 +1780,7 @@ public final class ProductPromoWorker {
             BigDecimal startingQuantity = quantityDesired;
             BigDecimal discountAmountTotal = BigDecimal.ZERO;
 
-            Set<String> productIds = ProductPromoWorker.getPromoRuleActionProductIds(productPromoAction, delegator, nowTimestamp);
+            Set<String> productIds = ProductPromoWorker.getPromoRuleActionProductIdsMemo(productPromoAction, delegator, nowTimestamp); // SCIPIO: memo
 
             List<ShoppingCartItem> lineOrderedByBasePriceList = cart.getLineListOrderedByBasePrice(false);
             Iterator<ShoppingCartItem> lineOrderedByBasePriceIter = lineOrderedByBasePriceList.iterator();
@@ -1677,7 +1826,7 @@ public final class ProductPromoWorker {
             BigDecimal startingQuantity = quantityDesired;
             BigDecimal discountAmountTotal = BigDecimal.ZERO;
 
-            Set<String> productIds = ProductPromoWorker.getPromoRuleActionProductIds(productPromoAction, delegator, nowTimestamp);
+            Set<String> productIds = ProductPromoWorker.getPromoRuleActionProductIdsMemo(productPromoAction, delegator, nowTimestamp); // SCIPIO: memo
 
             List<ShoppingCartItem> lineOrderedByBasePriceList = cart.getLineListOrderedByBasePrice(false);
             Iterator<ShoppingCartItem> lineOrderedByBasePriceIter = lineOrderedByBasePriceList.iterator();
@@ -1723,7 +1872,7 @@ public final class ProductPromoWorker {
             BigDecimal desiredAmount = productPromoAction.get("amount") == null ? BigDecimal.ZERO : productPromoAction.getBigDecimal("amount");
             BigDecimal totalAmount = BigDecimal.ZERO;
 
-            Set<String> productIds = ProductPromoWorker.getPromoRuleActionProductIds(productPromoAction, delegator, nowTimestamp);
+            Set<String> productIds = ProductPromoWorker.getPromoRuleActionProductIdsMemo(productPromoAction, delegator, nowTimestamp); // SCIPIO: memo
 
             List<ShoppingCartItem> cartItemsUsed = new LinkedList<ShoppingCartItem>();
             List<ShoppingCartItem> lineOrderedByBasePriceList = cart.getLineListOrderedByBasePrice(false);
@@ -1779,7 +1928,7 @@ public final class ProductPromoWorker {
             }
         } else if ("PROMO_PROD_SPPRC".equals(productPromoActionEnumId)) {
             // if there are productIds associated with the action then restrict to those productIds, otherwise apply for all products
-            Set<String> productIds = ProductPromoWorker.getPromoRuleActionProductIds(productPromoAction, delegator, nowTimestamp);
+            Set<String> productIds = ProductPromoWorker.getPromoRuleActionProductIdsMemo(productPromoAction, delegator, nowTimestamp); // SCIPIO: memo
 
             // go through the cart items and for each product that has a specialPromoPrice use that price
             for (ShoppingCartItem cartItem : cart.items()) {
@@ -1994,6 +2143,24 @@ public final class ProductPromoWorker {
         return productIds;
     }
 
+    /**
+     * SCIPIO: Same as {@link #getPromoRuleCondProductIds}, but memoized for the current {@link #doPromotions} call;
+     * the returned set must not be modified.
+     */
+    private static Set<String> getPromoRuleCondProductIdsMemo(GenericValue productPromoCond, Delegator delegator, Timestamp nowTimestamp) throws GenericEntityException {
+        PromoCalcContext calcCtx = PromoCalcContext.get(nowTimestamp);
+        if (calcCtx == null) {
+            return getPromoRuleCondProductIds(productPromoCond, delegator, nowTimestamp);
+        }
+        GenericPK key = productPromoCond.getPrimaryKey();
+        Set<String> productIds = calcCtx.condProductIds.get(key);
+        if (productIds == null) {
+            productIds = getPromoRuleCondProductIds(productPromoCond, delegator, nowTimestamp);
+            calcCtx.condProductIds.put(key, productIds);
+        }
+        return productIds;
+    }
+
     public static Set<String> getPromoRuleActionProductIds(GenericValue productPromoAction, Delegator delegator, Timestamp nowTimestamp) throws GenericEntityException {
         // get a cached list for the whole promo and filter it as needed, this for better efficiency in caching
         List<GenericValue> productPromoCategoriesAll = EntityQuery.use(delegator).from("ProductPromoCategory").where("productPromoId", productPromoAction.get("productPromoId")).cache(true).queryList();
@@ -2009,6 +2176,24 @@ public final class ProductPromoWorker {
         return productIds;
     }
 
+    /**
+     * SCIPIO: Same as {@link #getPromoRuleActionProductIds}, but memoized for the current {@link #doPromotions} call;
+     * the returned set must not be modified.
+     */
+    private static Set<String> getPromoRuleActionProductIdsMemo(GenericValue productPromoAction, Delegator delegator, Timestamp nowTimestamp) throws GenericEntityException {
+        PromoCalcContext calcCtx = PromoCalcContext.get(nowTimestamp);
+        if (calcCtx == null) {
+            return getPromoRuleActionProductIds(productPromoAction, delegator, nowTimestamp);
+        }
+        GenericPK key = productPromoAction.getPrimaryKey();
+        Set<String> productIds = calcCtx.actionProductIds.get(key);
+        if (productIds == null) {
+            productIds = getPromoRuleActionProductIds(productPromoAction, delegator, nowTimestamp);
+            calcCtx.actionProductIds.put(key, productIds);
+        }
+        return productIds;
+    }
+
     public static void makeProductPromoIdSet(Set<String> productIds, List<GenericValue> productPromoCategories, List<GenericValue> productPromoProducts, Delegator delegator, Timestamp nowTimestamp, boolean filterOldProducts) throws GenericEntityException {
         // do the includes
         handleProductPromoCategories(productIds, productPromoCategories, "PPPA_INCLUDE", delegator, nowTimestamp);
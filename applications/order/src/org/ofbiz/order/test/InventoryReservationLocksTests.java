@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.order.test;
+
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.order.order.InventoryReservationLocks;
+
+/**
+ * SCIPIO: Tests for the inventory reservation stripe locks ({@link InventoryReservationLocks}).
+ */
+public class InventoryReservationLocksTests extends GenericTestCaseBase {
+
+    private static final int STRIPE_COUNT = 8;
+
+    public InventoryReservationLocksTests(String name) {
+        super(name);
+    }
+
+    /**
+     * Many threads lock random stripe sets in two calls each (like a transaction reserving twice): none may deadlock,
+     * and a stripe is never held by two threads at once.
+     */
+    public void testConcurrentAcquireNoDeadlock() throws Exception {
+        final Semaphore[] stripes = InventoryReservationLocks.makeStripes(STRIPE_COUNT);
+        final AtomicIntegerArray owners = new AtomicIntegerArray(STRIPE_COUNT);
+        final AtomicInteger violations = new AtomicInteger();
+        final AtomicInteger locked = new AtomicInteger();
+        final AtomicInteger notLocked = new AtomicInteger();
+        final int threadCount = 8;
+        final int iterations = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            final long seed = t;
+            executor.execute(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < iterations; i++) {
+                    NavigableSet<Integer> held = new ConcurrentSkipListSet<>();
+                    try {
+                        boolean acquired = InventoryReservationLocks.acquireStripes(stripes, held, randomStripes(random), 5000)
+                                && InventoryReservationLocks.acquireStripes(stripes, held, randomStripes(random), 5000);
+                        if (acquired) {
+                            locked.incrementAndGet();
+                            for (Integer stripeIndex : held) {
+                                if (owners.incrementAndGet(stripeIndex) != 1) {
+                                    violations.incrementAndGet();
+                                }
+                            }
+                            Thread.yield();
+                            for (Integer stripeIndex : held) {
+                                owners.decrementAndGet(stripeIndex);
+                            }
+                        } else {
+                            notLocked.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    } finally {
+                        InventoryReservationLocks.releaseStripes(stripes, held);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue("All lockers completed (no deadlock)", executor.awaitTermination(60, TimeUnit.SECONDS));
+        assertEquals("Stripes held by two threads at once", 0, violations.get());
+        assertEquals("All iterations ran", threadCount * iterations, locked.get() + notLocked.get());
+        assertTrue("Some iterations locked", locked.get() > 0);
+        for (Semaphore stripe : stripes) {
+            assertEquals("All stripes released", 1, stripe.availablePermits());
+        }
+    }
+
+    /**
+     * A busy stripe not acquired within the timeout fails the acquisition.
+     */
+    public void testTimeoutFails() throws Exception {
+        Semaphore[] stripes = InventoryReservationLocks.makeStripes(STRIPE_COUNT);
+        stripes[3].acquire();
+        NavigableSet<Integer> held = new ConcurrentSkipListSet<>();
+        assertFalse("Busy stripe not acquired", InventoryReservationLocks.acquireStripes(stripes, held, new TreeSet<>(list(1, 3)), 50));
+        assertEquals("Stripes acquired before the busy one are held", new TreeSet<>(list(1)), held);
+        InventoryReservationLocks.releaseStripes(stripes, held);
+        assertEquals("Released", 1, stripes[1].availablePermits());
+    }
+
+    /**
+     * A busy stripe lower than a held one is not waited for (which could deadlock), the acquisition fails right away.
+     */
+    public void testLowerStripeNotWaited() throws Exception {
+        Semaphore[] stripes = InventoryReservationLocks.makeStripes(STRIPE_COUNT);
+        NavigableSet<Integer> held = new ConcurrentSkipListSet<>();
+        assertTrue(InventoryReservationLocks.acquireStripes(stripes, held, new TreeSet<>(list(5)), 50));
+        stripes[2].acquire();
+        long startTime = System.nanoTime();
+        assertFalse("Busy lower stripe not acquired", InventoryReservationLocks.acquireStripes(stripes, held, new TreeSet<>(list(2)), 10000));
+        assertTrue("Busy lower stripe not waited for", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) < 5000);
+        stripes[2].release();
+        assertTrue("Free lower stripe acquired", InventoryReservationLocks.acquireStripes(stripes, held, new TreeSet<>(list(2)), 50));
+        InventoryReservationLocks.releaseStripes(stripes, held);
+    }
+
+    private static TreeSet<Integer> randomStripes(Random random) {
+        TreeSet<Integer> stripeIndexes = new TreeSet<>();
+        int count = 1 + random.nextInt(3);
+        for (int i = 0; i < count; i++) {
+            stripeIndexes.add(random.nextInt(STRIPE_COUNT));
+        }
+        return stripeIndexes;
+    }
+}
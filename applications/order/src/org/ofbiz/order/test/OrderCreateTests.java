@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.order.test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.order.order.OrderReadHelper;
+import org.ofbiz.service.ServiceUtil;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: Tests the records created by createOrder (through storeOrder) for an order of several items, two of them for
+ * the same product: the items and their statuses, the ship group assocs, the inventory reservations, the product
+ * ordered quantities and the OrderHeader totals.
+ */
+public class OrderCreateTests extends OFBizTestCase {
+
+    private static final String PRODUCT_STORE_ID = "ScipioShop";
+
+    protected GenericValue userLogin = null;
+
+    public OrderCreateTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        userLogin = EntityQuery.use(delegator).from("UserLogin").where("userLoginId", "system").queryOne();
+    }
+
+    private GenericValue makeItem(String orderItemSeqId, String productId, String quantity, String unitPrice) {
+        GenericValue orderItem = delegator.makeValue("OrderItem", UtilMisc.toMap("orderItemSeqId", orderItemSeqId, "orderItemTypeId", "PRODUCT_ORDER_ITEM",
+                "prodCatalogId", "DemoCatalog", "productId", productId, "quantity", new BigDecimal(quantity), "selectedAmount", BigDecimal.ZERO));
+        orderItem.set("isPromo", "N");
+        orderItem.set("isModifiedPrice", "N");
+        orderItem.set("unitPrice", new BigDecimal(unitPrice));
+        orderItem.set("unitListPrice", new BigDecimal(unitPrice));
+        orderItem.set("statusId", "ITEM_CREATED");
+        return orderItem;
+    }
+
+    private BigDecimal getTotalQuantityOrdered(String productId) throws Exception {
+        GenericValue productCalculatedInfo = EntityQuery.use(delegator).from("ProductCalculatedInfo").where("productId", productId).queryOne();
+        BigDecimal totalQuantityOrdered = (productCalculatedInfo != null) ? productCalculatedInfo.getBigDecimal("totalQuantityOrdered") : null;
+        return (totalQuantityOrdered != null) ? totalQuantityOrdered : BigDecimal.ZERO;
+    }
+
+    private static void assertSameAmount(String message, BigDecimal expected, BigDecimal actual) {
+        assertNotNull(message + " (not null)", actual);
+        assertEquals(message + " (expected " + expected + ", got " + actual + ")", 0, expected.compareTo(actual));
+    }
+
+    public void testCreateMultiItemOrder() throws Exception {
+        List<GenericValue> orderItems = new LinkedList<>();
+        orderItems.add(makeItem("00001", "CAM-2644", "2", "89.99"));
+        orderItems.add(makeItem("00002", "PH-1000", "1", "99.00"));
+        orderItems.add(makeItem("00003", "CAM-2644", "1", "89.99"));
+        Map<String, BigDecimal> quantityByProduct = UtilMisc.toMap("CAM-2644", new BigDecimal("3"), "PH-1000", BigDecimal.ONE);
+        Map<String, BigDecimal> orderedBefore = new HashMap<>();
+        for (String productId : quantityByProduct.keySet()) {
+            orderedBefore.put(productId, getTotalQuantityOrdered(productId));
+        }
+
+        Map<String, Object> ctx = UtilMisc.<String, Object>toMap("partyId", "DemoCustomer", "orderTypeId", "SALES_ORDER", "currencyUom", "USD",
+                "productStoreId", PRODUCT_STORE_ID);
+        List<GenericValue> orderPaymentInfo = new LinkedList<>();
+        orderPaymentInfo.add(delegator.makeValue("OrderContactMech", UtilMisc.toMap("contactMechId", "9015", "contactMechPurposeTypeId", "BILLING_LOCATION")));
+        orderPaymentInfo.add(delegator.makeValue("OrderPaymentPreference", UtilMisc.toMap("paymentMethodTypeId", "EXT_OFFLINE",
+                "statusId", "PAYMENT_NOT_RECEIVED", "overflowFlag", "N", "maxAmount", new BigDecimal("376.42"))));
+        ctx.put("orderPaymentInfo", orderPaymentInfo);
+
+        List<GenericValue> orderItemShipGroupInfo = new LinkedList<>();
+        orderItemShipGroupInfo.add(delegator.makeValue("OrderContactMech", UtilMisc.toMap("contactMechId", "9015", "contactMechPurposeTypeId", "SHIPPING_LOCATION")));
+        orderItemShipGroupInfo.add(delegator.makeValue("OrderItemShipGroup", UtilMisc.toMap("carrierPartyId", "UPS", "contactMechId", "9015", "isGift", "N",
+                "shipGroupSeqId", "00001", "shipmentMethodTypeId", "NEXT_DAY")));
+        for (GenericValue orderItem : orderItems) {
+            orderItemShipGroupInfo.add(delegator.makeValue("OrderItemShipGroupAssoc", UtilMisc.toMap("orderItemSeqId", orderItem.getString("orderItemSeqId"),
+                    "quantity", orderItem.getBigDecimal("quantity"), "shipGroupSeqId", "00001")));
+        }
+        orderItemShipGroupInfo.add(delegator.makeValue("OrderAdjustment", UtilMisc.toMap("orderAdjustmentTypeId", "SHIPPING_CHARGES", "shipGroupSeqId", "00001",
+                "amount", new BigDecimal("12.45"))));
+        ctx.put("orderItemShipGroupInfo", orderItemShipGroupInfo);
+        ctx.put("orderAdjustments", UtilMisc.toList(delegator.makeValue("OrderAdjustment", UtilMisc.toMap("orderAdjustmentTypeId", "DISCOUNT_ADJUSTMENT",
+                "amount", new BigDecimal("-5.00")))));
+        ctx.put("orderItems", orderItems);
+        ctx.put("orderTerms", new LinkedList<GenericValue>());
+        ctx.put("placingCustomerPartyId", "DemoCustomer");
+        ctx.put("endUserCustomerPartyId", "DemoCustomer");
+        ctx.put("shipToCustomerPartyId", "DemoCustomer");
+        ctx.put("billToCustomerPartyId", "DemoCustomer");
+        ctx.put("billFromVendorPartyId", "Company");
+        ctx.put("userLogin", userLogin);
+
+        Map<String, Object> resp = dispatcher.runSync("storeOrder", ctx);
+        assertFalse("storeOrder: " + ServiceUtil.getErrorMessage(resp), ServiceUtil.isError(resp));
+        String orderId = (String) resp.get("orderId");
+        assertNotNull("orderId", orderId);
+
+        GenericValue orderHeader = EntityQuery.use(delegator).from("OrderHeader").where("orderId", orderId).queryOne();
+        assertNotNull("OrderHeader", orderHeader);
+        assertEquals("order status", "ORDER_CREATED", orderHeader.getString("statusId"));
+
+        // items, as given
+        List<GenericValue> createdItems = EntityQuery.use(delegator).from("OrderItem").where("orderId", orderId).orderBy("orderItemSeqId").queryList();
+        assertEquals("item count", orderItems.size(), createdItems.size());
+        for (int i = 0; i < orderItems.size(); i++) {
+            GenericValue expected = orderItems.get(i);
+            GenericValue created = createdItems.get(i);
+            String label = "item " + expected.getString("orderItemSeqId");
+            assertEquals(label + " seq", expected.getString("orderItemSeqId"), created.getString("orderItemSeqId"));
+            assertEquals(label + " product", expected.getString("productId"), created.getString("productId"));
+            assertSameAmount(label + " quantity", expected.getBigDecimal("quantity"), created.getBigDecimal("quantity"));
+            assertSameAmount(label + " unit price", expected.getBigDecimal("unitPrice"), created.getBigDecimal("unitPrice"));
+            assertEquals(label + " status", "ITEM_CREATED", created.getString("statusId"));
+            assertEquals(label + " status history", 1, EntityQuery.use(delegator).from("OrderStatus")
+                    .where("orderId", orderId, "orderItemSeqId", expected.getString("orderItemSeqId")).queryCount());
+
+            // the ship group assoc and the reservations cover the whole item quantity
+            GenericValue assoc = EntityQuery.use(delegator).from("OrderItemShipGroupAssoc")
+                    .where("orderId", orderId, "orderItemSeqId", expected.getString("orderItemSeqId"), "shipGroupSeqId", "00001").queryOne();
+            assertNotNull(label + " ship group assoc", assoc);
+            assertSameAmount(label + " ship group quantity", expected.getBigDecimal("quantity"), assoc.getBigDecimal("quantity"));
+            BigDecimal reserved = BigDecimal.ZERO;
+            for (GenericValue reservation : EntityQuery.use(delegator).from("OrderItemShipGrpInvRes")
+                    .where("orderId", orderId, "orderItemSeqId", expected.getString("orderItemSeqId")).queryList()) {
+                assertEquals(label + " reservation ship group", "00001", reservation.getString("shipGroupSeqId"));
+                reserved = reserved.add(reservation.getBigDecimal("quantity"));
+            }
+            assertSameAmount(label + " reserved quantity", expected.getBigDecimal("quantity"), reserved);
+        }
+        assertEquals("header status history", 1, EntityQuery.use(delegator).from("OrderStatus")
+                .where("orderId", orderId, "orderItemSeqId", null).queryCount());
+
+        // ordered quantities counted once per product, with the summed item quantities
+        for (Map.Entry<String, BigDecimal> entry : quantityByProduct.entrySet()) {
+            assertSameAmount(entry.getKey() + " total quantity ordered", orderedBefore.get(entry.getKey()).add(entry.getValue()),
+                    getTotalQuantityOrdered(entry.getKey()));
+        }
+
+        // totals: 2 x 89.99 + 99.00 + 89.99 + 12.45 shipping - 5.00 discount
+        OrderReadHelper orh = new OrderReadHelper(orderHeader);
+        assertSameAmount("grand total", new BigDecimal("376.42"), orderHeader.getBigDecimal("grandTotal"));
+        assertSameAmount("grand total as read", orh.getOrderGrandTotal(), orderHeader.getBigDecimal("grandTotal"));
+        assertSameAmount("items subtotal", new BigDecimal("368.97"), orh.getOrderItemsSubTotal());
+        assertSameAmount("remaining subtotal", orh.getOrderGrandTotal().subtract(orh.getOrderReturnedTotal()).subtract(orh.getOrderNonReturnedTaxAndShipping()),
+                orderHeader.getBigDecimal("remainingSubTotal"));
+
+        List<String> adjustmentTypes = new ArrayList<>();
+        for (GenericValue adjustment : orh.getAdjustments()) {
+            adjustmentTypes.add(adjustment.getString("orderAdjustmentTypeId"));
+        }
+        assertTrue("shipping adjustment: " + adjustmentTypes, adjustmentTypes.contains("SHIPPING_CHARGES"));
+        assertTrue("discount adjustment: " + adjustmentTypes, adjustmentTypes.contains("DISCOUNT_ADJUSTMENT"));
+    }
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.order.test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.order.order.OrderReadHelper;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: Tests that the memoized and indexed totals of {@link OrderReadHelper} equal the static list-based methods
+ * they replace, including the cancelled/rejected items, the header adjustments of each orderItemSeqId form and the
+ * rebuild of the indexes when the item or adjustment lists change.
+ */
+public class OrderReadHelperTotalsTests extends OFBizTestCase {
+
+    private static final String ORDER_ID = "ORHTOTALSTEST";
+
+    public OrderReadHelperTotalsTests(String name) {
+        super(name);
+    }
+
+    private GenericValue makeItem(String orderItemSeqId, String statusId, String quantity, String unitPrice) {
+        return delegator.makeValue("OrderItem", "orderId", ORDER_ID, "orderItemSeqId", orderItemSeqId,
+                "orderItemTypeId", "PRODUCT_ORDER_ITEM", "statusId", statusId,
+                "quantity", new BigDecimal(quantity), "unitPrice", new BigDecimal(unitPrice));
+    }
+
+    private GenericValue makeAdjustment(String orderAdjustmentId, String orderItemSeqId, String typeId, String amount, String sourcePercentage) {
+        GenericValue adjustment = delegator.makeValue("OrderAdjustment", "orderAdjustmentId", orderAdjustmentId, "orderId", ORDER_ID,
+                "orderItemSeqId", orderItemSeqId, "orderAdjustmentTypeId", typeId, "shipGroupSeqId", "00001");
+        if (amount != null) {
+            adjustment.set("amount", new BigDecimal(amount));
+        }
+        if (sourcePercentage != null) {
+            adjustment.set("sourcePercentage", new BigDecimal(sourcePercentage));
+        }
+        if ("SALES_TAX".equals(typeId)) {
+            adjustment.set("taxAuthGeoId", "USA");
+            adjustment.set("taxAuthPartyId", "USA_IRS");
+        }
+        return adjustment;
+    }
+
+    private List<GenericValue> makeItems() {
+        List<GenericValue> orderItems = new ArrayList<>();
+        orderItems.add(makeItem("00001", "ITEM_APPROVED", "2", "10.50"));
+        orderItems.add(makeItem("00002", "ITEM_CANCELLED", "1", "99.00"));
+        orderItems.add(makeItem("00003", "ITEM_CREATED", "3", "4.33"));
+        orderItems.add(makeItem("00004", "ITEM_REJECTED", "5", "7.00"));
+        GenericValue partlyCancelled = makeItem("00005", "ITEM_APPROVED", "4", "2.25");
+        partlyCancelled.set("cancelQuantity", new BigDecimal("1"));
+        orderItems.add(partlyCancelled);
+        return orderItems;
+    }
+
+    private List<GenericValue> makeAdjustments() {
+        List<GenericValue> adjustments = new ArrayList<>();
+        // header adjustments: null, _NA_ and empty orderItemSeqId
+        adjustments.add(makeAdjustment("T01", null, "SHIPPING_CHARGES", "5.00", null));
+        adjustments.add(makeAdjustment("T02", "_NA_", "PROMOTION_ADJUSTMENT", null, "-10"));
+        adjustments.add(makeAdjustment("T03", "", "DISCOUNT_ADJUSTMENT", "-1.15", null));
+        adjustments.add(makeAdjustment("T04", "_NA_", "SALES_TAX", "1.234", null));
+        // item adjustments, including ones of the cancelled and rejected items
+        adjustments.add(makeAdjustment("T05", "00001", "PROMOTION_ADJUSTMENT", "-2.00", null));
+        adjustments.add(makeAdjustment("T06", "00001", "SALES_TAX", "1.575", null));
+        adjustments.add(makeAdjustment("T07", "00002", "PROMOTION_ADJUSTMENT", "-20.00", null));
+        adjustments.add(makeAdjustment("T08", "00003", "SHIPPING_CHARGES", "3.10", null));
+        adjustments.add(makeAdjustment("T09", "00003", "DISCOUNT_ADJUSTMENT", null, "-5"));
+        adjustments.add(makeAdjustment("T10", "00004", "SALES_TAX", "2.10", null));
+        adjustments.add(makeAdjustment("T11", "00005", "SALES_TAX", "0.4725", null));
+        return adjustments;
+    }
+
+    private static List<GenericValue> getValidItems(List<GenericValue> orderItems) {
+        List<GenericValue> validItems = new ArrayList<>();
+        for (GenericValue orderItem : orderItems) {
+            String statusId = orderItem.getString("statusId");
+            if (!"ITEM_CANCELLED".equals(statusId) && !"ITEM_REJECTED".equals(statusId)) {
+                validItems.add(orderItem);
+            }
+        }
+        return validItems;
+    }
+
+    private static void assertSameAmount(String message, BigDecimal expected, BigDecimal actual) {
+        assertNotNull(message + " (not null)", actual);
+        assertEquals(message + " (expected " + expected + ", got " + actual + ")", 0, expected.compareTo(actual));
+    }
+
+    /** Compares every memoized total of the helper with the static methods on the same lists. */
+    private static void assertParity(String label, OrderReadHelper orh, List<GenericValue> orderItems, List<GenericValue> adjustments) {
+        List<GenericValue> validItems = getValidItems(orderItems);
+        assertEquals(label + ": valid items", validItems, orh.getValidOrderItems());
+        assertEquals(label + ": header adjustments", OrderReadHelper.getOrderHeaderAdjustments(adjustments, null), orh.getOrderHeaderAdjustments());
+        assertSameAmount(label + ": items subtotal", OrderReadHelper.getOrderItemsSubTotal(validItems, adjustments), orh.getOrderItemsSubTotal());
+        assertSameAmount(label + ": adjustments total", OrderReadHelper.getOrderAdjustmentsTotal(validItems, adjustments), orh.getOrderAdjustmentsTotal());
+        assertSameAmount(label + ": items total", OrderReadHelper.getOrderItemsTotal(validItems, adjustments), orh.getOrderItemsTotal());
+        for (GenericValue orderItem : orderItems) {
+            String itemLabel = label + ": item " + orderItem.getString("orderItemSeqId");
+            assertSameAmount(itemLabel + " subtotal", OrderReadHelper.getOrderItemSubTotal(orderItem, adjustments), orh.getOrderItemSubTotal(orderItem));
+            assertSameAmount(itemLabel + " adjustments total", OrderReadHelper.getOrderItemAdjustmentsTotal(orderItem, adjustments, true, false, false),
+                    orh.getOrderItemAdjustmentsTotal(orderItem));
+            assertSameAmount(itemLabel + " tax", OrderReadHelper.getOrderItemAdjustmentsTotal(orderItem, adjustments, false, true, false),
+                    orh.getOrderItemTax(orderItem));
+            assertSameAmount(itemLabel + " shipping", OrderReadHelper.getOrderItemAdjustmentsTotal(orderItem, adjustments, false, false, true),
+                    orh.getOrderItemShipping(orderItem));
+            assertSameAmount(itemLabel + " all adjustments", OrderReadHelper.getOrderItemAdjustmentsTotal(orderItem, adjustments, true, true, true),
+                    orh.getOrderItemAdjustmentsTotal(orderItem, true, true, true));
+        }
+    }
+
+    public void testTotalsParity() throws Exception {
+        List<GenericValue> orderItems = makeItems();
+        List<GenericValue> adjustments = makeAdjustments();
+        OrderReadHelper orh = new OrderReadHelper(adjustments, orderItems);
+        assertParity("initial", orh, orderItems, adjustments);
+        assertSameAmount("grand total", OrderReadHelper.getOrderGrandTotal(getValidItems(orderItems), adjustments), orh.getOrderGrandTotal());
+        // memoized values are stable
+        assertParity("second pass", orh, orderItems, adjustments);
+    }
+
+    public void testTotalsRebuiltOnListChange() throws Exception {
+        List<GenericValue> orderItems = makeItems();
+        List<GenericValue> adjustments = makeAdjustments();
+        OrderReadHelper orh = new OrderReadHelper(adjustments, orderItems);
+        BigDecimal initialSubTotal = orh.getOrderItemsSubTotal();
+        assertParity("initial", orh, orderItems, adjustments);
+
+        orderItems.add(makeItem("00006", "ITEM_APPROVED", "1", "8.00"));
+        assertParity("item added", orh, orderItems, adjustments);
+        assertTrue("Subtotal rebuilt after an item was added", initialSubTotal.compareTo(orh.getOrderItemsSubTotal()) != 0);
+
+        adjustments.add(makeAdjustment("T12", "00006", "PROMOTION_ADJUSTMENT", "-1.00", null));
+        adjustments.add(makeAdjustment("T13", null, "SHIPPING_CHARGES", "2.50", null));
+        assertParity("adjustments added", orh, orderItems, adjustments);
+
+        orderItems.remove(0);
+        adjustments.remove(2);
+        assertParity("item and adjustment removed", orh, orderItems, adjustments);
+
+        // grand total of a new helper on the changed lists
+        OrderReadHelper newOrh = new OrderReadHelper(adjustments, orderItems);
+        assertSameAmount("grand total after changes", OrderReadHelper.getOrderGrandTotal(getValidItems(orderItems), adjustments), newOrh.getOrderGrandTotal());
+    }
+}
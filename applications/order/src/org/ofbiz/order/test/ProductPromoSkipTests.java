@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.order.test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.order.shoppingcart.ShoppingCart;
+import org.ofbiz.order.shoppingcart.ShoppingCartItem;
+import org.ofbiz.order.shoppingcart.product.ProductPromoWorker;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: Tests that skipping the promotions whose required products are not in the cart
+ * (order.promotion.calc.skipUnmatched) gives the same cart items and adjustments as evaluating every promotion.
+ */
+public class ProductPromoSkipTests extends OFBizTestCase {
+
+    private static final String PRODUCT_STORE_ID = "ScipioShop";
+    private static final String MATCH_PROMO_ID = "PPSKIPTEST_MATCH";
+    private static final String NO_MATCH_PROMO_ID = "PPSKIPTEST_NOMATCH";
+    private static final String ORDER_PROMO_ID = "PPSKIPTEST_ORDER";
+
+    public ProductPromoSkipTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // 10% off one PH-1000 when the cart has a PH-1000 (in the cart)
+        createPromo(MATCH_PROMO_ID, "PH-1000", "PROMO_PROD_DISC", "1", "10", "PH-1000");
+        // 5% off the order when the cart has a CL-7000 (not in the cart)
+        createPromo(NO_MATCH_PROMO_ID, "CL-7000", "PROMO_ORDER_PERCENT", null, "5", null);
+        // $3 off the order, no condition
+        createPromo(ORDER_PROMO_ID, null, "PROMO_ORDER_AMOUNT", null, "3", null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ProductPromoWorker.setPromoCalcSkipUnmatched(true);
+        for (String productPromoId : new String[] { MATCH_PROMO_ID, NO_MATCH_PROMO_ID, ORDER_PROMO_ID }) {
+            delegator.removeByAnd("ProductPromoProduct", "productPromoId", productPromoId);
+            delegator.removeByAnd("ProductPromoAction", "productPromoId", productPromoId);
+            delegator.removeByAnd("ProductPromoCond", "productPromoId", productPromoId);
+            delegator.removeByAnd("ProductPromoRule", "productPromoId", productPromoId);
+            delegator.removeByAnd("ProductPromo", "productPromoId", productPromoId);
+        }
+        super.tearDown();
+    }
+
+    private void createPromo(String productPromoId, String condProductId, String actionEnumId, String actionQuantity, String actionAmount,
+            String actionProductId) throws Exception {
+        delegator.create("ProductPromo", "productPromoId", productPromoId, "promoName", productPromoId, "userEntered", "Y",
+                "showToCustomer", "Y", "requireCode", "N", "useLimitPerOrder", 1L);
+        delegator.create("ProductPromoRule", "productPromoId", productPromoId, "productPromoRuleId", "01", "ruleName", productPromoId);
+        if (condProductId != null) {
+            delegator.create("ProductPromoCond", "productPromoId", productPromoId, "productPromoRuleId", "01", "productPromoCondSeqId", "01",
+                    "inputParamEnumId", "PPIP_PRODUCT_QUANT", "operatorEnumId", "PPC_EQ", "condValue", "1");
+            delegator.create("ProductPromoProduct", "productPromoId", productPromoId, "productPromoRuleId", "01", "productPromoActionSeqId", "_NA_",
+                    "productPromoCondSeqId", "01", "productId", condProductId, "productPromoApplEnumId", "PPPA_INCLUDE");
+        }
+        GenericValue action = delegator.makeValue("ProductPromoAction", "productPromoId", productPromoId, "productPromoRuleId", "01",
+                "productPromoActionSeqId", "01", "productPromoActionEnumId", actionEnumId, "orderAdjustmentTypeId", "PROMOTION_ADJUSTMENT",
+                "amount", new BigDecimal(actionAmount));
+        if (actionQuantity != null) {
+            action.set("quantity", new BigDecimal(actionQuantity));
+        }
+        delegator.create(action);
+        if (actionProductId != null) {
+            delegator.create("ProductPromoProduct", "productPromoId", productPromoId, "productPromoRuleId", "01", "productPromoActionSeqId", "01",
+                    "productPromoCondSeqId", "_NA_", "productId", actionProductId, "productPromoApplEnumId", "PPPA_INCLUDE");
+        }
+    }
+
+    private ShoppingCart makeCart() throws Exception {
+        ShoppingCart cart = new ShoppingCart(delegator, PRODUCT_STORE_ID, Locale.US, "USD");
+        cart.setOrderType("SALES_ORDER");
+        cart.setBillToCustomerPartyId("DemoCustomer");
+        cart.setPlacingCustomerPartyId("DemoCustomer");
+        cart.addOrIncreaseItem("PH-1000", null, new BigDecimal("2"), null, null, null, null, null, null, null, null, null, null, null, null, dispatcher);
+        cart.addOrIncreaseItem("CD-2002", null, BigDecimal.ONE, null, null, null, null, null, null, null, null, null, null, null, null, dispatcher);
+        return cart;
+    }
+
+    private static String describeAdjustment(GenericValue adjustment) {
+        BigDecimal amount = adjustment.getBigDecimal("amount");
+        return adjustment.getString("productPromoId") + "/" + adjustment.getString("productPromoRuleId") + "/"
+                + adjustment.getString("productPromoActionSeqId") + "/" + adjustment.getString("orderAdjustmentTypeId") + "="
+                + (amount != null ? amount.stripTrailingZeros().toPlainString() : "null");
+    }
+
+    /** Returns the cart items (with their promo flag and quantity) and the item and order adjustments, in cart order. */
+    private static List<String> describeCart(ShoppingCart cart) {
+        List<String> lines = new ArrayList<>();
+        for (ShoppingCartItem item : cart.items()) {
+            lines.add("item " + item.getProductId() + " x" + item.getQuantity().stripTrailingZeros().toPlainString() + (item.getIsPromo() ? " promo" : ""));
+            for (GenericValue adjustment : item.getAdjustments()) {
+                lines.add("  " + describeAdjustment(adjustment));
+            }
+        }
+        for (GenericValue adjustment : cart.getAdjustments()) {
+            lines.add("order " + describeAdjustment(adjustment));
+        }
+        lines.add("grand total " + cart.getGrandTotal().stripTrailingZeros().toPlainString());
+        return lines;
+    }
+
+    private List<String> runPromotions(List<GenericValue> productPromos, boolean skipUnmatched) throws Exception {
+        ProductPromoWorker.setPromoCalcSkipUnmatched(skipUnmatched);
+        ShoppingCart cart = makeCart();
+        if (productPromos != null) {
+            ProductPromoWorker.doPromotions(cart, productPromos, dispatcher);
+        } else {
+            ProductPromoWorker.doPromotions(cart, dispatcher);
+        }
+        return describeCart(cart);
+    }
+
+    public void testSkipUnmatchedParity() throws Exception {
+        List<GenericValue> productPromos = EntityQuery.use(delegator).from("ProductPromo")
+                .where("productPromoId", MATCH_PROMO_ID).queryList();
+        productPromos.addAll(EntityQuery.use(delegator).from("ProductPromo").where("productPromoId", NO_MATCH_PROMO_ID).queryList());
+        productPromos.addAll(EntityQuery.use(delegator).from("ProductPromo").where("productPromoId", ORDER_PROMO_ID).queryList());
+        assertEquals("test promos", 3, productPromos.size());
+
+        List<String> fullResult = runPromotions(productPromos, false);
+        List<String> skipResult = runPromotions(productPromos, true);
+        assertEquals("same cart with and without skipping unmatched promos", fullResult, skipResult);
+
+        String results = fullResult.toString();
+        assertTrue("matching promo applied: " + results, results.contains(MATCH_PROMO_ID + "/"));
+        assertTrue("order promo applied: " + results, results.contains(ORDER_PROMO_ID + "/"));
+        assertFalse("non-matching promo not applied: " + results, results.contains(NO_MATCH_PROMO_ID + "/"));
+    }
+
+    public void testSkipUnmatchedParityStorePromos() throws Exception {
+        // the store promotions, most of which require products or categories not in the cart
+        List<String> fullResult = runPromotions(null, false);
+        List<String> skipResult = runPromotions(null, true);
+        assertEquals("same cart with and without skipping unmatched store promos", fullResult, skipResult);
+    }
+}
@@ -0,0 +1,479 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.party.party;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.cache.Cache;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityListIterator;
+import org.ofbiz.entity.util.EntityQuery;
+
+/**
+ * SCIPIO: In-memory trigram index of the party names, contact mech info strings (emails, web addresses)
+ * and user login ids, which resolves the candidate ids of the <code>UPPER(field) LIKE '%x%'</code> lookups
+ * of {@link PartyServices} (findParty, getPartyFrom*) so that the database reads those rows by primary key
+ * instead of scanning the whole table.
+ * <p>
+ * The lookups add a <code>field IN (candidate ids)</code> condition to their unchanged <code>LIKE</code>
+ * condition, so the results stay the same when the index has extra ids (e.g. removed rows); the index is
+ * not used (the lookup runs as before) while it is being built, when the searched text has no part of 3 characters
+ * or more between its wildcards, or when it matches more than <code>party.search.index.maxCandidates</code> ids.
+ * <p>
+ * The index of a delegator is built in the background on the first lookup (or loaded from the local file written by the
+ * previous run, <code>party.search.index.persist</code>, then caught up from the rows changed since), and is kept
+ * current by the entity ECAs of the indexed entities (updatePartySearchIndex service), applied when their transaction
+ * commits. The bulk operations on the indexed entities (removeByAnd, storeByCondition...), which don't run the ECAs,
+ * and the distributed cache clears by condition make the lookups run without the index until it is rebuilt, in the
+ * background, once their transaction is over. The changes made value by value by other servers or directly in the
+ * database are only picked up by the periodic refresh (<code>party.search.index.refreshIntervalSeconds</code>), which
+ * reads the rows by <code>lastUpdatedStamp</code>; until then the lookups may miss them.
+ * <p>
+ * The index matches the text upper-cased and without accents ({@link TrigramIndex#normalize}), which finds the rows
+ * matched by the case-sensitive or insensitive, accent-sensitive or insensitive collations, but not those matched by
+ * the collations that expand characters (<code>ß</code> and <code>SS</code>); don't enable it with these.
+ * <p>
+ * Configured by the <code>party.search.index.*</code> settings in party.properties.
+ */
+public final class PartySearchIndex {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    public static final String FIRST_NAME = "firstName";
+    public static final String LAST_NAME = "lastName";
+    public static final String GROUP_NAME = "groupName";
+    public static final String USER_LOGIN_ID = "userLoginId";
+    public static final String INFO_STRING = "infoString";
+
+    private static final boolean ENABLED = UtilProperties.getPropertyAsBoolean("party", "party.search.index.enable", false);
+    private static final int MAX_CANDIDATES = UtilProperties.getPropertyAsInteger("party", "party.search.index.maxCandidates", 1000);
+    private static final long REFRESH_INTERVAL_SECONDS = UtilProperties.getPropertyAsLong("party", "party.search.index.refreshIntervalSeconds", 60L);
+    private static final boolean PERSIST = UtilProperties.getPropertyAsBoolean("party", "party.search.index.persist", false);
+    private static final String PERSIST_DIR = UtilProperties.getPropertyValue("party", "party.search.index.persist.dir", "runtime/data/party-search-index");
+    private static final long PERSIST_INTERVAL_SECONDS = UtilProperties.getPropertyAsLong("party", "party.search.index.persist.intervalSeconds", 600L);
+    private static final int BUILD_TRANSACTION_TIMEOUT = UtilProperties.getPropertyAsInteger("party", "party.search.index.build.transactionTimeout", 7200);
+    /** Catch-up margin for the clock differences between the servers and the transactions still running at the snapshot time. */
+    private static final long REFRESH_MARGIN_MS = 60000;
+    private static final int FILE_VERSION = 2;
+
+    /** The indexed entities: primary key field, then the indexed text fields. */
+    private static final Map<String, List<String>> indexedEntities;
+    static {
+        Map<String, List<String>> entities = new LinkedHashMap<>();
+        entities.put("Person", Arrays.asList("partyId", FIRST_NAME, LAST_NAME));
+        entities.put("PartyGroup", Arrays.asList("partyId", GROUP_NAME));
+        entities.put("UserLogin", Arrays.asList("userLoginId", USER_LOGIN_ID));
+        entities.put("ContactMech", Arrays.asList("contactMechId", INFO_STRING));
+        indexedEntities = Collections.unmodifiableMap(entities);
+        for (String entityName : indexedEntities.keySet()) {
+            Cache.addBulkRemoveHook(entityName, PartySearchIndex::rebuildForTransaction);
+        }
+    }
+
+    private static final ThreadGroup PARTY_SEARCH_INDEX_THREAD_GROUP = new ThreadGroup("PartySearchIndex");
+    private static volatile ScheduledExecutorService executor;
+    private static final Map<String, PartySearchIndex> indexes = new ConcurrentHashMap<>();
+
+    private final Delegator delegator;
+    private final Map<String, TrigramIndex> fieldIndexes = new LinkedHashMap<>();
+    private volatile boolean ready = false;
+    private volatile long refreshFromTime = 0; // rows changed since this time are read again by the next refresh
+    private volatile boolean changed = false; // since the last file write
+    private final AtomicLong rebuildRequests = new AtomicLong(); // bulk changes seen
+    private volatile long rebuiltRequests = 0; // bulk changes included by the last build
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+
+    private PartySearchIndex(Delegator delegator) {
+        this.delegator = delegator;
+        for (List<String> fields : indexedEntities.values()) {
+            for (String fieldName : fields.subList(1, fields.size())) {
+                fieldIndexes.put(fieldName, new TrigramIndex());
+            }
+        }
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Returns the ids (primary keys of the indexed entity) of the rows whose field value contains the searched text,
+     * with the semantics of <code>UPPER(field) LIKE UPPER('%text%')</code>; may contain extra ids, and fewer only for
+     * the changes not yet seen by the index (see the class description).
+     * @param delegator the delegator
+     * @param fieldName the indexed field, one of the constants of this class
+     * @param text the searched text, which may contain the <code>%</code> and <code>_</code> wildcards
+     * @return the ids, or null if the index can't be used for this lookup, in which case the caller must run its LIKE lookup as is
+     */
+    public static Set<String> findIds(Delegator delegator, String fieldName, String text) {
+        if (!ENABLED || text == null) {
+            return null;
+        }
+        PartySearchIndex index = getIndex(delegator);
+        if (!index.ready || index.rebuiltRequests != index.rebuildRequests.get()) {
+            return null;
+        }
+        List<String> segments = TrigramIndex.getSegments(text);
+        if (segments.isEmpty()) {
+            return null;
+        }
+        TrigramIndex fieldIndex = index.fieldIndexes.get(fieldName);
+        if (fieldIndex == null) {
+            throw new IllegalArgumentException("Field [" + fieldName + "] is not indexed by the party search index");
+        }
+        return fieldIndex.find(segments, MAX_CANDIDATES);
+    }
+
+    /**
+     * Returns a <code>idFieldName IN (ids)</code> condition for the ids found by {@link #findIds}, to be added to the
+     * <code>LIKE</code> condition of the lookup, or null if the index can't be used for this lookup.
+     */
+    public static EntityCondition makeCondition(Delegator delegator, String fieldName, String text, String idFieldName) {
+        Set<String> ids = findIds(delegator, fieldName, text);
+        return (ids != null) ? EntityCondition.makeCondition(idFieldName, EntityOperator.IN, ids) : null;
+    }
+
+    /**
+     * Adds the condition of {@link #makeCondition} to the conditions of the lookup, if the index can be used for it.
+     * @return true if added
+     */
+    public static boolean addCondition(List<EntityCondition> conditions, Delegator delegator, String fieldName, String text, String idFieldName) {
+        EntityCondition condition = makeCondition(delegator, fieldName, text, idFieldName);
+        if (condition != null) {
+            conditions.add(condition);
+            return true;
+        }
+        return false;
+    }
+
+    private static PartySearchIndex getIndex(Delegator delegator) {
+        PartySearchIndex index = indexes.get(delegator.getDelegatorName());
+        if (index == null) {
+            PartySearchIndex newIndex = new PartySearchIndex(delegator);
+            index = indexes.putIfAbsent(delegator.getDelegatorName(), newIndex);
+            if (index == null) {
+                index = newIndex;
+                getExecutor().execute(newIndex::start);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Updates the index of the value's delegator, if built, with the indexed fields of the value (entity ECA),
+     * when the current transaction commits.
+     */
+    public static void update(GenericValue value, final boolean remove) {
+        if (!ENABLED || !indexedEntities.containsKey(value.getEntityName())) {
+            return;
+        }
+        final PartySearchIndex index = indexes.get(value.getDelegator().getDelegatorName());
+        if (index == null) {
+            return;
+        }
+        final GenericValue indexedValue = GenericValue.create(value);
+        try {
+            if (TransactionUtil.isTransactionInPlace()) {
+                TransactionUtil.registerSynchronization(new Synchronization() {
+                    @Override
+                    public void beforeCompletion() {
+                    }
+                    @Override
+                    public void afterCompletion(int status) {
+                        if (status == Status.STATUS_COMMITTED) {
+                            index.put(indexedValue, remove);
+                        }
+                    }
+                });
+                return;
+            }
+        } catch (GenericTransactionException e) {
+            Debug.logWarning(e, "Could not register the party search index update for the end of the transaction; updating now", module);
+        }
+        index.put(indexedValue, remove);
+    }
+
+    /**
+     * Makes the lookups run without the index of the delegator, if any, until it is rebuilt, which is scheduled when
+     * the current transaction, if any, is over (bulk change cache hook).
+     */
+    private static void rebuildForTransaction(String delegatorName) {
+        if (!ENABLED) {
+            return;
+        }
+        final PartySearchIndex index = indexes.get(delegatorName);
+        if (index == null) {
+            return;
+        }
+        index.rebuildRequests.incrementAndGet();
+        try {
+            if (TransactionUtil.isTransactionInPlace()) {
+                TransactionUtil.registerSynchronization(new Synchronization() {
+                    @Override
+                    public void beforeCompletion() {
+                    }
+                    @Override
+                    public void afterCompletion(int status) {
+                        index.scheduleRebuild();
+                    }
+                });
+                return;
+            }
+        } catch (GenericTransactionException e) {
+            Debug.logWarning(e, "Could not register the party search index rebuild for the end of the transaction; rebuilding now", module);
+        }
+        index.scheduleRebuild();
+    }
+
+    private void scheduleRebuild() {
+        if (rebuildScheduled.compareAndSet(false, true)) {
+            getExecutor().execute(() -> {
+                rebuildScheduled.set(false);
+                ready = false;
+                for (TrigramIndex fieldIndex : fieldIndexes.values()) {
+                    fieldIndex.clear();
+                }
+                build(false);
+            });
+        }
+    }
+
+    private void put(GenericValue value, boolean remove) {
+        List<String> fields = indexedEntities.get(value.getEntityName());
+        String docId = value.getString(fields.get(0));
+        if (docId == null) {
+            return;
+        }
+        for (String fieldName : fields.subList(1, fields.size())) {
+            // NOTE: a store only updates the fields set in the value
+            if (remove || value.containsKey(fieldName)) {
+                fieldIndexes.get(fieldName).put(docId, remove ? null : value.getString(fieldName));
+            }
+        }
+        changed = true;
+    }
+
+    /**
+     * Returns the size of the indexes of the delegator, by field, and whether they are ready.
+     */
+    public static Map<String, Object> getStats(Delegator delegator) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        PartySearchIndex index = indexes.get(delegator.getDelegatorName());
+        stats.put("ready", index != null && index.ready);
+        if (index != null) {
+            for (Map.Entry<String, TrigramIndex> entry : index.fieldIndexes.entrySet()) {
+                stats.put(entry.getKey(), entry.getValue().size());
+                stats.put(entry.getKey() + "Trigrams", entry.getValue().getTrigramCount());
+            }
+        }
+        return stats;
+    }
+
+    private void start() {
+        build(PERSIST);
+        if (REFRESH_INTERVAL_SECONDS > 0) {
+            getExecutor().scheduleWithFixedDelay(this::refresh, REFRESH_INTERVAL_SECONDS, REFRESH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+        if (PERSIST && PERSIST_INTERVAL_SECONDS > 0) {
+            getExecutor().scheduleWithFixedDelay(() -> {
+                if (ready && changed) {
+                    writeFile();
+                }
+            }, PERSIST_INTERVAL_SECONDS, PERSIST_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private void build(boolean useFile) {
+        long startTime = System.currentTimeMillis();
+        long requests = rebuildRequests.get();
+        try {
+            boolean loaded = useFile && readFile();
+            if (loaded) {
+                readRows(new Timestamp(refreshFromTime - REFRESH_MARGIN_MS));
+            } else {
+                readRows(null);
+                // Rows changed while reading (the ECA updates were already applied, except those read over)
+                readRows(new Timestamp(startTime - REFRESH_MARGIN_MS));
+            }
+            refreshFromTime = startTime;
+            rebuiltRequests = requests;
+            ready = true;
+            Debug.logInfo("Party search index for delegator [" + delegator.getDelegatorName() + "] "
+                    + (loaded ? "loaded" : "built") + " in " + (System.currentTimeMillis() - startTime) + "ms: " + getStats(delegator), module);
+            if (PERSIST && !loaded) {
+                writeFile();
+            }
+        } catch (Exception e) {
+            // Not ready: the lookups run without the index; retried at the next refresh, if any
+            Debug.logError(e, "Could not build the party search index for delegator [" + delegator.getDelegatorName() + "]", module);
+        }
+    }
+
+    private void refresh() {
+        if (!ready) {
+            // NOTE: the file may be older than the bulk changes seen since
+            build(PERSIST && rebuiltRequests == rebuildRequests.get());
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        try {
+            readRows(new Timestamp(refreshFromTime - REFRESH_MARGIN_MS));
+            refreshFromTime = startTime;
+        } catch (Exception e) {
+            Debug.logError(e, "Could not refresh the party search index for delegator [" + delegator.getDelegatorName() + "]", module);
+        }
+    }
+
+    /**
+     * Reads the indexed fields of all the rows, or of the rows changed since the given time.
+     */
+    private void readRows(Timestamp since) throws GenericEntityException {
+        for (Map.Entry<String, List<String>> entry : indexedEntities.entrySet()) {
+            List<String> fields = entry.getValue();
+            EntityCondition condition = (since != null) ? EntityCondition.makeCondition("lastUpdatedStamp", EntityOperator.GREATER_THAN_EQUAL_TO, since) : null;
+            boolean beganTransaction = false;
+            try {
+                beganTransaction = TransactionUtil.begin(BUILD_TRANSACTION_TIMEOUT);
+                try (EntityListIterator eli = EntityQuery.use(delegator).select(fields.toArray(new String[fields.size()]))
+                        .from(entry.getKey()).where(condition).fetchSize(1000).queryIterator()) {
+                    GenericValue value;
+                    while ((value = eli.next()) != null) {
+                        put(value, false);
+                    }
+                }
+                TransactionUtil.commit(beganTransaction);
+            } catch (GenericEntityException e) {
+                TransactionUtil.rollback(beganTransaction, "Error reading " + entry.getKey() + " for the party search index", e);
+                throw e;
+            }
+        }
+    }
+
+    private File getFile() {
+        File dir = new File(PERSIST_DIR);
+        if (!dir.isAbsolute() && System.getProperty("ofbiz.home") != null) {
+            dir = new File(System.getProperty("ofbiz.home"), PERSIST_DIR);
+        }
+        return new File(dir, delegator.getDelegatorName() + ".idx.gz");
+    }
+
+    private boolean readFile() {
+        File file = getFile();
+        if (!file.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != FILE_VERSION) {
+                return false;
+            }
+            long snapshotTime = in.readLong();
+            int fieldCount = in.readInt();
+            for (int i = 0; i < fieldCount; i++) {
+                String fieldName = in.readUTF();
+                TrigramIndex fieldIndex = fieldIndexes.get(fieldName);
+                if (fieldIndex == null) {
+                    throw new IOException("Unknown field [" + fieldName + "]");
+                }
+                fieldIndex.read(in);
+            }
+            refreshFromTime = snapshotTime;
+            return true;
+        } catch (IOException e) {
+            Debug.logWarning("Could not read party search index file [" + file + "], rebuilding the index: " + e.toString(), module);
+            for (TrigramIndex fieldIndex : fieldIndexes.values()) {
+                fieldIndex.clear();
+            }
+            return false;
+        }
+    }
+
+    private void writeFile() {
+        File file = getFile();
+        long snapshotTime = refreshFromTime;
+        // NOTE: the changes applied after this point may be in the file or not; the catch-up at load reads them again
+        changed = false;
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            File tempFile = new File(file.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tempFile))))) {
+                out.writeInt(FILE_VERSION);
+                out.writeLong(snapshotTime);
+                out.writeInt(fieldIndexes.size());
+                for (Map.Entry<String, TrigramIndex> entry : fieldIndexes.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    entry.getValue().write(out);
+                }
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            changed = true;
+            Debug.logWarning("Could not write party search index file [" + file + "]: " + e.toString(), module);
+        }
+    }
+
+    private static ScheduledExecutorService getExecutor() {
+        ScheduledExecutorService executor = PartySearchIndex.executor;
+        if (executor == null) {
+            synchronized (PartySearchIndex.class) {
+                executor = PartySearchIndex.executor;
+                if (executor == null) {
+                    executor = ExecutionPool.getScheduledExecutor(PARTY_SEARCH_INDEX_THREAD_GROUP, "party-search-index", 1, 0, false);
+                    PartySearchIndex.executor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+}
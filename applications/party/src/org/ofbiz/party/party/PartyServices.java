@@ -790,8 +790,12 @@ public class PartyServices {
         }
 
         try {
+            List<EntityCondition> conds = new ArrayList<>();
+            conds.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("infoString"), EntityOperator.LIKE, EntityFunction.UPPER(("%" + email.toUpperCase()) + "%")));
+            // SCIPIO: narrow the LIKE scan down to the contact mechs found by the party search index, if enabled
+            PartySearchIndex.addCondition(conds, delegator, PartySearchIndex.INFO_STRING, email, "contactMechId");
             List<GenericValue> c = EntityQuery.use(delegator).from("PartyAndContactMech")
-                    .where(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("infoString"), EntityOperator.LIKE, EntityFunction.UPPER(("%" + email.toUpperCase()) + "%")))
+                    .where(conds)
                     .orderBy("infoString")
                     .filterByDate()
                     .queryList();
@@ -834,8 +838,11 @@ public class PartyServices {
                     "PartyCannotGetUserLoginFromParty", locale));
 
         try {
+            List<EntityCondition> conds = new ArrayList<>();
+            conds.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("userLoginId"), EntityOperator.LIKE, EntityFunction.UPPER("%" + userLoginId.toUpperCase() + "%")));
+            PartySearchIndex.addCondition(conds, delegator, PartySearchIndex.USER_LOGIN_ID, userLoginId, "userLoginId"); // SCIPIO
             Collection<GenericValue> ulc = EntityQuery.use(delegator).from("PartyAndUserLogin")
-                    .where(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("userLoginId"), EntityOperator.LIKE, EntityFunction.UPPER("%" + userLoginId.toUpperCase() + "%")))
+                    .where(conds)
                     .orderBy("userLoginId")
                     .queryList();
 
@@ -888,7 +895,12 @@ public class PartyServices {
             EntityConditionList<EntityExpr> ecl = EntityCondition.makeCondition(EntityOperator.AND,
                     EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("firstName"), EntityOperator.LIKE, EntityFunction.UPPER("%" + firstName.toUpperCase() + "%")),
                     EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("lastName"), EntityOperator.LIKE, EntityFunction.UPPER("%" + lastName.toUpperCase() + "%")));
-            Collection<GenericValue> pc = EntityQuery.use(delegator).from("Person").where(ecl).orderBy("lastName", "firstName", "partyId").queryList();
+            // SCIPIO: narrow the LIKE scan down to the parties found by the party search index, if enabled
+            List<EntityCondition> conds = new ArrayList<>();
+            conds.add(ecl);
+            PartySearchIndex.addCondition(conds, delegator, PartySearchIndex.FIRST_NAME, firstName, "partyId");
+            PartySearchIndex.addCondition(conds, delegator, PartySearchIndex.LAST_NAME, lastName, "partyId");
+            Collection<GenericValue> pc = EntityQuery.use(delegator).from("Person").where(conds).orderBy("lastName", "firstName", "partyId").queryList();
 
             if (Debug.infoOn()) Debug.logInfo("PartyFromPerson number found: " + pc.size(), module);
             if (pc != null) {
@@ -928,8 +940,11 @@ public class PartyServices {
         }
 
         try {
+            List<EntityCondition> conds = new ArrayList<>();
+            conds.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("groupName"), EntityOperator.LIKE, EntityFunction.UPPER("%" + groupName.toUpperCase() + "%")));
+            PartySearchIndex.addCondition(conds, delegator, PartySearchIndex.GROUP_NAME, groupName, "partyId"); // SCIPIO
             Collection<GenericValue> pc = EntityQuery.use(delegator).from("PartyGroup")
-                    .where(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("groupName"), EntityOperator.LIKE, EntityFunction.UPPER("%" + groupName.toUpperCase() + "%")))
+                    .where(conds)
                     .orderBy("groupName", "partyId")
                     .queryList();
 
@@ -952,6 +967,18 @@ public class PartyServices {
         return result;
     }
 
+    /**
+     * SCIPIO: Updates the party search index with the value of a Person, PartyGroup, UserLogin or ContactMech entity ECA.
+     * @param dctx The DispatchContext that this service is operating in.
+     * @param context Map containing the input parameters.
+     * @return Map with the result of the service, the output parameters.
+     */
+    public static Map<String, Object> updatePartySearchIndex(DispatchContext dctx, Map<String, ? extends Object> context) {
+        GenericValue value = (GenericValue) context.get("value");
+        PartySearchIndex.update(value, "remove".equals(context.get("operation")));
+        return ServiceUtil.returnSuccess();
+    }
+
     public static Map<String, Object> getPerson(DispatchContext dctx, Map<String, ? extends Object> context) {
         Map<String, Object> result = new HashMap<>();
         Delegator delegator = dctx.getDelegator();
@@ -1247,6 +1274,7 @@ public class PartyServices {
 
                     // add the expr
                     andExprs.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("userLoginId"), EntityOperator.LIKE, EntityFunction.UPPER("%"+userLoginId+"%")));
+                    PartySearchIndex.addCondition(andExprs, delegator, PartySearchIndex.USER_LOGIN_ID, userLoginId, "userLoginId"); // SCIPIO
 
                     fieldsToSelect.add("userLoginId");
                 }
@@ -1266,6 +1294,7 @@ public class PartyServices {
 
                     // add the expr
                     andExprs.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("groupName"), EntityOperator.LIKE, EntityFunction.UPPER("%"+groupName+"%")));
+                    PartySearchIndex.addCondition(andExprs, delegator, PartySearchIndex.GROUP_NAME, groupName, "partyId"); // SCIPIO
 
                     fieldsToSelect.add("groupName");
                 }
@@ -1291,12 +1320,14 @@ public class PartyServices {
                 if (UtilValidate.isNotEmpty(firstName)) {
                     paramList = paramList + "&firstName=" + firstName;
                     andExprs.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("firstName"), EntityOperator.LIKE, EntityFunction.UPPER("%"+firstName+"%")));
+                    PartySearchIndex.addCondition(andExprs, delegator, PartySearchIndex.FIRST_NAME, firstName, "partyId"); // SCIPIO
                 }
 
                 // filter on lastName
                 if (UtilValidate.isNotEmpty(lastName)) {
                     paramList = paramList + "&lastName=" + lastName;
                     andExprs.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("lastName"), EntityOperator.LIKE, EntityFunction.UPPER("%"+lastName+"%")));
+                    PartySearchIndex.addCondition(andExprs, delegator, PartySearchIndex.LAST_NAME, lastName, "partyId"); // SCIPIO
                 }
 
                 // ----
@@ -1430,6 +1461,7 @@ public class PartyServices {
                     if (UtilValidate.isNotEmpty(infoString)) {
                         paramList = paramList + "&infoString=" + infoString;
                         andExprs.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("infoString"), EntityOperator.LIKE, EntityFunction.UPPER("%"+infoString+"%")));
+                        PartySearchIndex.addCondition(andExprs, delegator, PartySearchIndex.INFO_STRING, infoString, "contactMechId"); // SCIPIO
                         fieldsToSelect.add("infoString");
                     }
 
@@ -1651,6 +1683,7 @@ public class PartyServices {
 
             // add the expr
             andExprs.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("userLoginId"), EntityOperator.LIKE, EntityFunction.UPPER("%"+userLoginId+"%")));
+            PartySearchIndex.addCondition(andExprs, delegator, PartySearchIndex.USER_LOGIN_ID, userLoginId, "userLoginId"); // SCIPIO
             fieldsToSelect.add("userLoginId");
         }
 
@@ -1668,6 +1701,7 @@ public class PartyServices {
 
             // add the expr
             andExprs.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("groupName"), EntityOperator.LIKE, EntityFunction.UPPER("%"+groupName+"%")));
+            PartySearchIndex.addCondition(andExprs, delegator, PartySearchIndex.GROUP_NAME, groupName, "partyId"); // SCIPIO
             fieldsToSelect.add("groupName");
         }
 
@@ -1691,11 +1725,13 @@ public class PartyServices {
         // filter on firstName
         if (UtilValidate.isNotEmpty(firstName)) {
             andExprs.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("firstName"), EntityOperator.LIKE, EntityFunction.UPPER("%"+firstName+"%")));
+            PartySearchIndex.addCondition(andExprs, delegator, PartySearchIndex.FIRST_NAME, firstName, "partyId"); // SCIPIO
         }
 
         // filter on lastName
         if (UtilValidate.isNotEmpty(lastName)) {
             andExprs.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("lastName"), EntityOperator.LIKE, EntityFunction.UPPER("%"+lastName+"%")));
+            PartySearchIndex.addCondition(andExprs, delegator, PartySearchIndex.LAST_NAME, lastName, "partyId"); // SCIPIO
         }
 
         // ----
@@ -1847,6 +1883,7 @@ public class PartyServices {
             String infoString = (String) context.get("infoString");
             if (UtilValidate.isNotEmpty(infoString)) {
                 andExprs.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("infoString"), EntityOperator.LIKE, EntityFunction.UPPER("%"+infoString+"%")));
+                PartySearchIndex.addCondition(andExprs, delegator, PartySearchIndex.INFO_STRING, infoString, "contactMechId"); // SCIPIO
                 fieldsToSelect.add("infoString");
             }
         }
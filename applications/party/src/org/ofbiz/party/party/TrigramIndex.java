@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.party.party;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * SCIPIO: In-memory trigram index of one text field, mapping the ids of the documents (the primary keys
+ * of the indexed rows) to their upper-cased value without accents ({@link #normalize}), for the <code>LIKE '%x%'</code>
+ * lookups of {@link PartySearchIndex}.
+ * <p>
+ * Each trigram of the values maps to the sorted ordinals of the documents containing it; a lookup intersects
+ * the postings of the trigrams of the searched text, then checks the values of the remaining documents.
+ */
+public final class TrigramIndex {
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> ordinals = new HashMap<>(); // guarded by lock
+    private final List<String> docIds = new ArrayList<>(); // guarded by lock; by ordinal
+    private final List<String> values = new ArrayList<>(); // guarded by lock; by ordinal, null if removed
+    private final Map<Long, Postings> postings = new HashMap<>(); // guarded by lock
+    private int size = 0; // guarded by lock
+
+    /** Sorted ordinals of the documents containing a trigram. */
+    private static final class Postings {
+        private int[] ordinals = new int[4];
+        private int size = 0;
+
+        private void add(int ordinal) {
+            if (size == 0 || ordinals[size - 1] < ordinal) {
+                if (size == ordinals.length) {
+                    ordinals = Arrays.copyOf(ordinals, size * 2);
+                }
+                ordinals[size++] = ordinal;
+                return;
+            }
+            int index = Arrays.binarySearch(ordinals, 0, size, ordinal);
+            if (index >= 0) {
+                return;
+            }
+            index = -index - 1;
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+            }
+            System.arraycopy(ordinals, index, ordinals, index + 1, size - index);
+            ordinals[index] = ordinal;
+            size++;
+        }
+
+        private void remove(int ordinal) {
+            int index = Arrays.binarySearch(ordinals, 0, size, ordinal);
+            if (index >= 0) {
+                System.arraycopy(ordinals, index + 1, ordinals, index, size - index - 1);
+                size--;
+            }
+        }
+
+        private boolean contains(int ordinal) {
+            return Arrays.binarySearch(ordinals, 0, size, ordinal) >= 0;
+        }
+    }
+
+    /**
+     * Upper-cases the text and removes the accents char by char (<code>é</code> -&gt; <code>E</code>), which keeps its length.
+     * <p>
+     * Both the indexed values and the searched text are folded, so the index finds the rows that the database matches
+     * with an accent-sensitive collation as well as with an accent-insensitive one (<code>*_ci</code>, <code>CI_AI</code>),
+     * plus extra rows that the <code>LIKE</code> condition filters out. The collations that match one character with
+     * several (<code>ß</code> and <code>SS</code>, <code>Æ</code> and <code>AE</code>) are not supported: the index
+     * may miss the rows that only match that way.
+     */
+    static String normalize(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            char c = chars[i];
+            if (c >= 0x80 && !Character.isSurrogate(c)) {
+                String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+                if (decomposed.length() > 1) {
+                    c = decomposed.charAt(0); // base char, without the combining marks
+                }
+            }
+            chars[i] = Character.toUpperCase(c);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the normalized parts of the searched text between its <code>%</code> and <code>_</code> wildcards that are
+     * at least 3 characters long, for {@link #find}; empty if none.
+     */
+    public static List<String> getSegments(String text) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : normalize(text).split("[%_]")) {
+            if (segment.length() >= 3) {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+
+    private static Set<Long> getTrigrams(String normalized) {
+        if (normalized == null || normalized.length() < 3) {
+            return new HashSet<>();
+        }
+        Set<Long> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= normalized.length(); i++) {
+            trigrams.add(((long) normalized.charAt(i) << 32) | ((long) normalized.charAt(i + 1) << 16) | normalized.charAt(i + 2));
+        }
+        return trigrams;
+    }
+
+    /**
+     * Sets the value of the document, or removes the document if the value is null or empty.
+     */
+    public void put(String docId, String value) {
+        String normalized = (value != null && !value.isEmpty()) ? normalize(value) : null;
+        lock.writeLock().lock();
+        try {
+            Integer ordinal = ordinals.get(docId);
+            String oldValue = null;
+            if (ordinal == null) {
+                if (normalized == null) {
+                    return;
+                }
+                ordinal = docIds.size();
+                docIds.add(docId);
+                values.add(null);
+                ordinals.put(docId, ordinal);
+            } else {
+                oldValue = values.get(ordinal);
+            }
+            if (Objects.equals(oldValue, normalized)) {
+                return;
+            }
+            Set<Long> oldTrigrams = getTrigrams(oldValue);
+            Set<Long> newTrigrams = getTrigrams(normalized);
+            for (Long trigram : oldTrigrams) {
+                if (!newTrigrams.contains(trigram)) {
+                    Postings trigramPostings = postings.get(trigram);
+                    if (trigramPostings != null) {
+                        trigramPostings.remove(ordinal);
+                        if (trigramPostings.size == 0) {
+                            postings.remove(trigram);
+                        }
+                    }
+                }
+            }
+            for (Long trigram : newTrigrams) {
+                if (!oldTrigrams.contains(trigram)) {
+                    postings.computeIfAbsent(trigram, k -> new Postings()).add(ordinal);
+                }
+            }
+            values.set(ordinal, normalized);
+            if (oldValue == null) {
+                size++;
+            } else if (normalized == null) {
+                size--;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the ids of the documents whose value contains all the given segments, which must be normalized
+     * and at least 3 characters long, or null if there are more than <code>maxResults</code>.
+     */
+    public Set<String> find(List<String> segments, int maxResults) {
+        Set<Long> trigrams = new HashSet<>();
+        for (String segment : segments) {
+            trigrams.addAll(getTrigrams(segment));
+        }
+        Set<String> result = new LinkedHashSet<>();
+        lock.readLock().lock();
+        try {
+            List<Postings> trigramPostings = new ArrayList<>(trigrams.size());
+            for (Long trigram : trigrams) {
+                Postings p = postings.get(trigram);
+                if (p == null) {
+                    return result;
+                }
+                trigramPostings.add(p);
+            }
+            if (trigramPostings.isEmpty()) {
+                return null;
+            }
+            trigramPostings.sort(Comparator.comparingInt(p -> p.size));
+            Postings smallest = trigramPostings.get(0);
+            candidates:
+            for (int i = 0; i < smallest.size; i++) {
+                int ordinal = smallest.ordinals[i];
+                for (int j = 1; j < trigramPostings.size(); j++) {
+                    if (!trigramPostings.get(j).contains(ordinal)) {
+                        continue candidates;
+                    }
+                }
+                String value = values.get(ordinal);
+                for (String segment : segments) {
+                    if (value == null || !value.contains(segment)) {
+                        continue candidates;
+                    }
+                }
+                if (result.size() >= maxResults) {
+                    return null;
+                }
+                result.add(docIds.get(ordinal));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            ordinals.clear();
+            docIds.clear();
+            values.clear();
+            postings.clear();
+            size = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getTrigramCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void write(DataOutput out) throws IOException {
+        lock.readLock().lock();
+        try {
+            out.writeInt(size);
+            for (int ordinal = 0; ordinal < docIds.size(); ordinal++) {
+                String value = values.get(ordinal);
+                if (value != null) {
+                    out.writeUTF(docIds.get(ordinal));
+                    out.writeUTF(value);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void read(DataInput in) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String docId = in.readUTF();
+            put(docId, in.readUTF());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.party.test;
+
+import java.util.List;
+import java.util.Set;
+
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.party.party.TrigramIndex;
+
+/**
+ * SCIPIO: Tests for the trigram index of the party search index ({@link TrigramIndex}).
+ */
+public class TrigramIndexTests extends GenericTestCaseBase {
+
+    public TrigramIndexTests(String name) {
+        super(name);
+    }
+
+    private static Set<String> find(TrigramIndex index, String text, int maxResults) {
+        return index.find(TrigramIndex.getSegments(text), maxResults);
+    }
+
+    public void testSegments() {
+        assertEquals("wildcards", list("JOHN", "SMITH"), TrigramIndex.getSegments("%john%smith%"));
+        assertEquals("single char wildcard", list("ABC", "DEF"), TrigramIndex.getSegments("abc_def"));
+        assertEquals("short parts", list("LONG"), TrigramIndex.getSegments("%ab%long%c_d"));
+        List<String> segments = TrigramIndex.getSegments("%ab%_c%");
+        assertTrue("no part of 3 chars", segments.isEmpty());
+        assertEquals("accents", list("EMILIE"), TrigramIndex.getSegments("Émilie"));
+    }
+
+    public void testFind() {
+        TrigramIndex index = new TrigramIndex();
+        index.put("1", "John Smith");
+        index.put("2", "Jane Smithers");
+        index.put("3", "Johnny Walker");
+        index.put("4", "Émilie Dupré");
+        assertEquals("contains", set("1", "2"), find(index, "%smith%", 10));
+        assertEquals("wildcard parts", set("1"), find(index, "%john%smith%", 10));
+        assertEquals("parts in either order (superset)", set("1"), find(index, "%smith%john%", 10));
+        assertEquals("single char wildcard, short part dropped (superset)", set("1", "3"), find(index, "%john_y%", 10));
+        assertEquals("case and accents", set("4"), find(index, "%EMILIE DUPRE%", 10));
+        assertEquals("case and accents in the text", set("4"), find(index, "%dupré%", 10));
+        assertEquals("missing trigram", set(), find(index, "%xyz%", 10));
+        assertEquals("trigrams present, value doesn't match", set(), find(index, "%smithjohn%", 10));
+        assertNull("no part of 3 chars", index.find(TrigramIndex.getSegments("%jo%"), 10));
+    }
+
+    public void testMaxResults() {
+        TrigramIndex index = new TrigramIndex();
+        for (int i = 0; i < 5; i++) {
+            index.put(String.valueOf(i), "Name " + i);
+        }
+        assertEquals("at the max", 5, find(index, "%name%", 5).size());
+        assertNull("over the max", find(index, "%name%", 4));
+        assertEquals("narrowed under the max", set("3"), find(index, "%name 3%", 4));
+    }
+
+    public void testRemove() {
+        TrigramIndex index = new TrigramIndex();
+        index.put("1", "John Smith");
+        index.put("2", "John Doe");
+        assertEquals("before", set("1", "2"), find(index, "%john%", 10));
+        index.put("1", null);
+        assertEquals("removed", set("2"), find(index, "%john%", 10));
+        assertEquals("size", 1, index.size());
+        index.put("2", "");
+        assertEquals("removed by empty value", set(), find(index, "%john%", 10));
+        assertEquals("empty", 0, index.size());
+        assertEquals("postings removed", 0, index.getTrigramCount());
+        index.put("1", "Jane Smith");
+        assertEquals("re-added", set("1"), find(index, "%jane%", 10));
+        index.put("1", "Jane Doe");
+        assertEquals("updated, old value", set(), find(index, "%smith%", 10));
+        assertEquals("updated, new value", set("1"), find(index, "%doe%", 10));
+    }
+}
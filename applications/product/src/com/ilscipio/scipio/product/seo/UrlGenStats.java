@@ -43,6 +43,30 @@ public class UrlGenStats {
         this.doContent = doContent;
     }
 
+    /**
+     * Adds the counts of another stats instance to this one (for merging results of parallel workers).
+     */
+    public UrlGenStats add(UrlGenStats other) {
+        productSuccess += other.productSuccess;
+        productError += other.productError;
+        productSkipped += other.productSkipped;
+        productDupSkip += other.productDupSkip;
+        productFiltered += other.productFiltered;
+
+        categorySuccess += other.categorySuccess;
+        categoryError += other.categoryError;
+        categorySkipped += other.categorySkipped;
+        categoryDupSkip += other.categoryDupSkip;
+        categoryFiltered += other.categoryFiltered;
+
+        contentSuccess += other.contentSuccess;
+        contentError += other.contentError;
+        contentSkipped += other.contentSkipped;
+        contentDupSkip += other.contentDupSkip;
+        contentFiltered += other.contentFiltered;
+        return this;
+    }
+
     public boolean hasError() {
         return productError > 0 || categoryError > 0 || contentError > 0;
     }
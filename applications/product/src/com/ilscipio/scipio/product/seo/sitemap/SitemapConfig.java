@@ -90,6 +90,11 @@ public class SitemapConfig implements Serializable {
 
     private final List<CatalogFilter> catalogFilters;
 
+    private final int parallelism;
+    private final boolean localeShards;
+    private final boolean reuseShards;
+    private final String shardManifestFile;
+
     public SitemapConfig(Map<String, Object> map, String webSiteId) {
         this.webSiteId = webSiteId;
         this.urlConfPath = asNormString(map.get("urlConfPath"));
@@ -150,6 +155,13 @@ public class SitemapConfig implements Serializable {
         this.includeVariant = asBoolean(map.get("includeVariant"), false);
 
         this.catalogFilters = Collections.unmodifiableList(readCatalogFilters(map.get("catalogFilters")));
+
+        Integer parallelism = asInteger(map.get("parallelism"), 1);
+        if (parallelism <= 0) parallelism = Runtime.getRuntime().availableProcessors(); // explicit 0 or -1 means auto
+        this.parallelism = parallelism;
+        this.localeShards = asBoolean(map.get("localeShards"), false);
+        this.reuseShards = asBoolean(map.get("reuseShards"), false);
+        this.shardManifestFile = asNormString(map.get("shardManifestFile"), "sitemap_shards.properties");
     }
 
     private static List<CatalogFilter> readCatalogFilters(Object catalogFiltersObj) {
@@ -461,6 +473,50 @@ public class SitemapConfig implements Serializable {
         return catalogFilters;
     }
 
+    /**
+     * Number of top-level catalog category traversal tasks to run concurrently (default 1).
+     * <p>
+     * NOTE: If greater than 1 (or if {@link #isLocaleShards()} or {@link #isReuseShards()}), the catalog is
+     * split into one shard per ProdCatalogCategory (and per locale), each written to its own sitemap files.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * If true, each configured locale gets its own shards, so that all {@link #getLocales()} are output
+     * instead of only the first one.
+     */
+    public boolean isLocaleShards() {
+        return localeShards;
+    }
+
+    /**
+     * If true, shards whose categories, members and products have no lastUpdatedStamp newer than the
+     * watermark recorded in {@link #getShardManifestFile()} are not traversed again and their files are
+     * reused as-is in the new index.
+     * <p>
+     * NOTE: Deleted records and changes to other related entities (e.g. alternative URL content) are not
+     * detected; a full rebuild (reuseShards=false) should still be scheduled periodically.
+     */
+    public boolean isReuseShards() {
+        return reuseShards;
+    }
+
+    /**
+     * Name of the file in sitemap directory that records the shard files and watermarks.
+     */
+    public String getShardManifestFile() {
+        return shardManifestFile;
+    }
+
+    /**
+     * True if the catalog should be traversed as separate shards rather than as a single pass.
+     */
+    public boolean isSharded() {
+        return parallelism > 1 || localeShards || reuseShards;
+    }
+
     // ADVANCED GETTERS
 
     public String getSitemapDirUrlLocation(String webappDir) {
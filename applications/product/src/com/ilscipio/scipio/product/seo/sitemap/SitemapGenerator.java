@@ -1,34 +1,64 @@
 package com.ilscipio.scipio.product.seo.sitemap;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import com.ilscipio.scipio.product.category.CatalogAltUrlSanitizer;
+import com.ilscipio.scipio.product.category.CatalogTraversalException.StopCatalogTraversalException;
+import com.ilscipio.scipio.product.category.CategoryRefType;
 import com.ilscipio.scipio.product.seo.SeoConfig;
+import com.ilscipio.scipio.product.seo.UrlGenStats;
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.location.FlexibleLocation;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.GeneralException;
+import org.ofbiz.base.util.StringUtil;
+import org.ofbiz.base.util.UtilDateTime;
 import org.ofbiz.base.util.UtilGenerics;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.model.DynamicViewEntity;
+import org.ofbiz.entity.model.ModelKeyMap;
+import org.ofbiz.entity.util.EntityQuery;
 import org.ofbiz.service.LocalDispatcher;
 import org.ofbiz.service.ModelService;
 import org.ofbiz.service.ServiceUtil;
@@ -42,13 +72,17 @@ import com.ilscipio.scipio.ce.webapp.filter.urlrewrite.ScipioUrlRewriter;
 import com.ilscipio.scipio.product.seo.SeoCatalogTraverser;
 import com.ilscipio.scipio.product.seo.SeoCatalogUrlWorker;
 import com.redfin.sitemapgenerator.SitemapIndexGenerator;
+import com.redfin.sitemapgenerator.W3CDateFormat;
 import com.redfin.sitemapgenerator.WebSitemapGenerator;
 import com.redfin.sitemapgenerator.WebSitemapUrl;
 
 /**
  * Builds sitemap and records stats.
  * <p>
- * NOT thread-safe.
+ * NOT thread-safe. However, if {@link SitemapConfig#isSharded()}, {@link #buildSitemapDeepForWebsite()} splits
+ * the catalog into one shard per top-level ProdCatalogCategory (and per locale, if {@link SitemapConfig#isLocaleShards()}),
+ * each traversed by its own shard worker instance (in parallel, per {@link SitemapConfig#getParallelism()}) and
+ * written to its own sitemap files, which are then merged into the index.
  * <p>
  * TODO: missing multi-locale link support - unclear if library supports - may need to do one-locale-per-index
  * TODO: does not delete old files (minor issue - spiders will simply ignore them in theory)
@@ -59,6 +93,13 @@ public class SitemapGenerator extends SeoCatalogTraverser {
 
     static final String logPrefix = "Seo: Sitemap: ";
 
+    private static final ThreadGroup SITEMAP_THREAD_GROUP = new ThreadGroup("SitemapGenerator");
+
+    /**
+     * Max IDs per IN condition for the shard change queries.
+     */
+    private static final int SHARD_QUERY_CHUNK_SIZE = 500;
+
     protected final List<Locale> locales;
     protected final String webSiteId;
     protected final String baseUrl;
@@ -88,6 +129,11 @@ public class SitemapGenerator extends SeoCatalogTraverser {
 
     protected final Map<String, ?> servCtxOpts;
 
+    protected final String shardKey; // null for the main generator
+    protected final Map<ElemType, Set<String>> sharedSeenUrls; // non-null if sharded; shared by main and shard workers
+    protected Set<String> shardCategoryIds = null; // shard workers only
+    protected List<String> shardSitemapFiles = new ArrayList<>(); // main generator only
+
     protected SitemapGenerator(Delegator delegator, LocalDispatcher dispatcher, List<Locale> locales, String webSiteId, GenericValue webSite, GenericValue productStore, String baseUrl, String sitemapWebappPathPrefix, String sitemapContextPath,
             String webappPathPrefix, String contextPath, SitemapConfig config,
             SeoCatalogUrlWorker urlWorker, OfbizUrlBuilder ofbizUrlBuilder, ScipioUrlRewriter urlRewriteConf, Map<String, Object> urlRewriterCtx, SitemapTraversalConfig travConfig, Map<String, ?> servCtxOpts) throws GeneralException, IOException, URISyntaxException, SAXException {
@@ -109,10 +155,42 @@ public class SitemapGenerator extends SeoCatalogTraverser {
         this.webappInfo = FullWebappInfo.fromWebapp(ExtWebappInfo.fromWebSiteId(webSiteId), delegator, null);
         this.fullSitemapDir = config.getSitemapDirUrlLocation(webappInfo.getWebappInfo().getLocation());
         this.servCtxOpts = servCtxOpts;
+        this.shardKey = null;
+        this.sharedSeenUrls = config.isSharded() ? newSharedSeenUrls() : null;
         getSitemapDirFile(); // test this for exception
         reset();
     }
 
+    /**
+     * Shard worker constructor: copies the main generator settings but has its own traversal state,
+     * stats and sitemap files.
+     */
+    protected SitemapGenerator(SitemapGenerator main, String shardKey, List<Locale> locales, ScipioUrlRewriter urlRewriter, Map<String, Object> urlRewriterCtx) throws GeneralException {
+        super(main.getDelegator(), main.getDispatcher(), main.getTravConfig());
+        this.locales = locales;
+        this.webSiteId = main.webSiteId;
+        this.webSite = main.webSite;
+        this.productStore = main.productStore;
+        this.baseUrl = main.baseUrl;
+        this.sitemapWebappPathPrefix = main.sitemapWebappPathPrefix;
+        this.sitemapContextPath = main.sitemapContextPath;
+        this.webappPathPrefix = main.webappPathPrefix;
+        this.contextPath = main.contextPath;
+        this.config = main.config;
+        this.urlWorker = main.urlWorker;
+        this.ofbizUrlBuilder = main.ofbizUrlBuilder;
+        this.urlRewriter = urlRewriter;
+        this.urlRewriterCtx = urlRewriterCtx;
+        this.webappInfo = main.webappInfo;
+        this.fullSitemapDir = main.fullSitemapDir;
+        this.servCtxOpts = main.servCtxOpts;
+        this.shardKey = shardKey;
+        this.sharedSeenUrls = main.sharedSeenUrls;
+        this.shardCategoryIds = new LinkedHashSet<>();
+        setProductStore(main.productStore);
+        reset();
+    }
+
     public static SitemapGenerator getWorkerForWebsite(Delegator delegator, LocalDispatcher dispatcher, String webSiteId, Map<String, ?> servCtxOpts, boolean useCache) throws GeneralException, IOException, URISyntaxException, SAXException, IllegalArgumentException {
         // TODO: LOCALIZE WITH PROP MESSAGE EXCEPTIONS
 
@@ -345,7 +423,9 @@ public class SitemapGenerator extends SeoCatalogTraverser {
     protected WebSitemapGenerator getSitemapGenerator(String filePrefix) throws IOException, URISyntaxException {
         File myDir = getSitemapDirFile();
         myDir.mkdirs();
-        return WebSitemapGenerator.builder(getBaseUrl(), myDir).fileNamePrefix(filePrefix).dateFormat(config.getDateFormat()).gzip(config.isGzip()).build();
+        // NOTE: W3CDateFormat is a SimpleDateFormat (not thread-safe), so each file gets its own copy
+        W3CDateFormat dateFormat = (W3CDateFormat) config.getDateFormat().clone();
+        return WebSitemapGenerator.builder(getBaseUrl(), myDir).fileNamePrefix(filePrefix).dateFormat(dateFormat).gzip(config.isGzip()).build();
     }
 
     /**
@@ -353,10 +433,449 @@ public class SitemapGenerator extends SeoCatalogTraverser {
      * around {@link #traverseCategoriesDepthFirst(List)}, plus content.
      */
     public void buildSitemapDeepForWebsite() throws GeneralException {
-        traverseProductStoreDfs(productStore);
+        if (config.isSharded()) {
+            buildSitemapShardsForWebsite();
+        } else {
+            traverseProductStoreDfs(productStore);
+        }
         buildSitemapForContent();
     }
 
+    /**
+     * Sharded product/category sitemap generation: traverses each shard (see {@link #makeShards()}) using
+     * its own shard worker, up to {@link SitemapConfig#getParallelism()} at a time, and records the shard
+     * sitemap files for the index, in shard order.
+     * <p>
+     * If {@link SitemapConfig#isReuseShards()}, shards unchanged since the previous run reuse their files.
+     * The shard manifest is rewritten after every run.
+     * <p>
+     * A URL reachable from several shards is written once: the URLs of the reused shards (recorded in a URL file
+     * per shard, see {@link #getShardUrlsFile}) are marked as seen before the other shards are rebuilt, so the reused
+     * shards keep owning their URLs. Among the shards rebuilt in parallel, the first one to reach a URL writes it.
+     */
+    public void buildSitemapShardsForWebsite() throws GeneralException {
+        setProductStore(productStore);
+        List<SitemapShard> shards = makeShards();
+        final Properties prevManifest = config.isReuseShards() ? readShardManifest() : null;
+        int parallelism = Math.max(1, config.getParallelism());
+        Debug.logInfo(getLogMsgPrefix() + "Building " + shards.size() + " sitemap shards (parallelism: " + parallelism + ")", module);
+
+        // Decide the reused shards first and mark their URLs as seen, so the rebuilt shards don't write them again
+        final ShardResult[] shardResults = new ShardResult[shards.size()];
+        List<Integer> buildIndexes = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            ShardResult prevResult = (prevManifest != null) ? getReusableShardResult(shards.get(i), prevManifest) : null;
+            if (prevResult != null) {
+                shardResults[i] = prevResult;
+            } else {
+                buildIndexes.add(i);
+            }
+        }
+        parallelism = Math.max(1, Math.min(parallelism, buildIndexes.size()));
+
+        GeneralException firstError = null;
+        if (parallelism <= 1) {
+            for (int i : buildIndexes) {
+                SitemapShard shard = shards.get(i);
+                try {
+                    shardResults[i] = buildShard(shard);
+                } catch (Exception e) {
+                    Debug.logError(e, getLogErrorPrefix() + "Could not build shard '" + shard.getShardKey() + "': " + e.getMessage(), module);
+                    if (firstError == null) {
+                        firstError = new GeneralException("Could not build sitemap shard '" + shard.getShardKey() + "': " + e.getMessage(), e);
+                    }
+                }
+            }
+        } else {
+            ScheduledExecutorService executor = ExecutionPool.getScheduledExecutor(SITEMAP_THREAD_GROUP, "sitemap-" + webSiteId, parallelism, 0, true);
+            try {
+                List<Future<ShardResult>> futures = new ArrayList<>(buildIndexes.size());
+                for (int i : buildIndexes) {
+                    final SitemapShard shard = shards.get(i);
+                    futures.add(executor.submit(new Callable<ShardResult>() {
+                        @Override
+                        public ShardResult call() throws Exception {
+                            return buildShard(shard);
+                        }
+                    }));
+                }
+                for (int j = 0; j < futures.size(); j++) {
+                    int i = buildIndexes.get(j);
+                    SitemapShard shard = shards.get(i);
+                    try {
+                        shardResults[i] = futures.get(j).get();
+                    } catch (InterruptedException | ExecutionException e) {
+                        Throwable cause = (e instanceof ExecutionException && e.getCause() != null) ? e.getCause() : e;
+                        Debug.logError(cause, getLogErrorPrefix() + "Could not build shard '" + shard.getShardKey() + "': " + cause.getMessage(), module);
+                        if (firstError == null) {
+                            firstError = new GeneralException("Could not build sitemap shard '" + shard.getShardKey() + "': " + cause.getMessage(), cause);
+                        }
+                    }
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+        List<ShardResult> results = new ArrayList<>(shards.size());
+        for (ShardResult result : shardResults) {
+            if (result != null) {
+                results.add(result);
+            }
+        }
+
+        Properties manifest = new Properties();
+        int reused = 0;
+        for (ShardResult result : results) {
+            shardSitemapFiles.addAll(result.getSitemapFiles());
+            if (result.getStats() != null) {
+                getStats().add(result.getStats());
+            }
+            if (result.isReused()) {
+                reused++;
+            }
+            result.toManifest(manifest);
+        }
+        if (firstError != null) {
+            // NOTE: don't write the manifest, so that the failed shards' previous entries are not lost
+            throw firstError;
+        }
+        writeShardManifest(manifest);
+        Debug.logInfo(getLogMsgPrefix() + "Built " + results.size() + " sitemap shards (" + reused + " reused from previous run)", module);
+    }
+
+    /**
+     * Makes the shard list: one per ProdCatalogCategory of the store catalogs (in catalog/sequence order),
+     * times one per locale if {@link SitemapConfig#isLocaleShards()}.
+     */
+    protected List<SitemapShard> makeShards() throws GeneralException {
+        List<Locale> shardLocales = config.isLocaleShards() ? getLocales() : Collections.<Locale>singletonList(null);
+        List<SitemapShard> shards = new ArrayList<>();
+        Set<String> shardKeys = new HashSet<>();
+        for (GenericValue prodCatalog : queryProductStoreCatalogList(productStore)) {
+            for (GenericValue prodCatalogCategory : queryProdCatalogCategoryList(prodCatalog)) {
+                if (!isApplicableCategoryAssoc(prodCatalogCategory)) {
+                    continue;
+                }
+                for (Locale locale : shardLocales) {
+                    String shardKey = makeShardKey(prodCatalogCategory, locale);
+                    if (!shardKeys.add(shardKey)) { // same ProdCatalogCategory listed twice (e.g. date ranges)
+                        continue;
+                    }
+                    shards.add(new SitemapShard(shardKey, prodCatalogCategory, locale));
+                }
+            }
+        }
+        return shards;
+    }
+
+    protected String makeShardKey(GenericValue prodCatalogCategory, Locale locale) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(prodCatalogCategory.getString("prodCatalogId"));
+        sb.append('-');
+        sb.append(prodCatalogCategory.getString("productCategoryId"));
+        if (prodCatalogCategory.get("prodCatalogCategoryTypeId") != null) {
+            sb.append('-');
+            sb.append(prodCatalogCategory.getString("prodCatalogCategoryTypeId"));
+        }
+        if (locale != null) {
+            sb.append('-');
+            sb.append(locale.toString());
+        }
+        // NOTE: used in file names and manifest keys
+        return sb.toString().replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+
+    /**
+     * Returns the previous result of the shard if it can be reused (see {@link #isShardReusable}), after marking
+     * its URLs as seen; or null if the shard must be rebuilt.
+     */
+    protected ShardResult getReusableShardResult(SitemapShard shard, Properties prevManifest) {
+        ShardResult prevResult = ShardResult.fromManifest(shard.getShardKey(), prevManifest);
+        if (prevResult == null) {
+            return null;
+        }
+        try {
+            if (!isShardReusable(shard, prevResult)) {
+                return null;
+            }
+            File urlsFile = getShardUrlsFile(shard.getShardKey());
+            if (!urlsFile.isFile()) {
+                return null;
+            }
+            int urlCount = readShardUrls(urlsFile, sharedSeenUrls);
+            Debug.logInfo(getLogMsgPrefix() + "Shard '" + shard.getShardKey() + "' unchanged since " + prevResult.getWatermark()
+                    + "; reusing " + prevResult.getSitemapFiles().size() + " sitemap files (" + urlCount + " URLs)", module);
+            return prevResult;
+        } catch (Exception e) {
+            Debug.logWarning(getLogMsgPrefix() + "Could not check shard '" + shard.getShardKey() + "' for reuse; rebuilding it: " + e.getMessage(), module);
+            return null;
+        }
+    }
+
+    /**
+     * Builds one shard and records its URLs; runs in a worker thread in parallel mode.
+     */
+    protected ShardResult buildShard(SitemapShard shard) throws GeneralException, IOException, URISyntaxException {
+        Timestamp watermark = UtilDateTime.nowTimestamp();
+        SitemapGenerator worker = newShardWorker(shard);
+        worker.traverseShard(shard);
+        worker.commitSitemaps();
+        if (config.isReuseShards()) {
+            writeShardUrls(getShardUrlsFile(shard.getShardKey()), worker.getShardUrls());
+        }
+        return new ShardResult(shard.getShardKey(), watermark, worker.getAllSitemapFilenames(), worker.shardCategoryIds, worker.getStats(), false);
+    }
+
+    /**
+     * Returns the URLs written by this shard worker, by type.
+     */
+    protected Map<ElemType, List<String>> getShardUrls() {
+        Map<ElemType, List<String>> urls = new EnumMap<>(ElemType.class);
+        for (ElemHandler handler : elemHandlers.values()) {
+            urls.put(handler.getType(), handler.getWrittenUrls());
+        }
+        return urls;
+    }
+
+    /**
+     * The file of the URLs written by a shard, next to the shard manifest: one "TYPE URL" line per URL, gzipped.
+     */
+    protected File getShardUrlsFile(String shardKey) throws IOException, URISyntaxException {
+        return new File(getSitemapDirFile(), config.getShardManifestFile() + "." + shardKey + ".urls.gz");
+    }
+
+    protected static void writeShardUrls(File file, Map<ElemType, List<String>> urls) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)), StandardCharsets.UTF_8))) {
+            for (Map.Entry<ElemType, List<String>> entry : urls.entrySet()) {
+                for (String url : entry.getValue()) {
+                    writer.write(entry.getKey().name());
+                    writer.write(' ');
+                    writer.write(url);
+                    writer.write('\n');
+                }
+            }
+        }
+    }
+
+    protected static int readShardUrls(File file, Map<ElemType, Set<String>> seenUrls) throws IOException {
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int sep = line.indexOf(' ');
+                if (sep <= 0) {
+                    continue;
+                }
+                Set<String> typeSeenUrls = seenUrls.get(ElemType.valueOf(line.substring(0, sep)));
+                if (typeSeenUrls != null) {
+                    typeSeenUrls.add(line.substring(sep + 1));
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    protected SitemapGenerator newShardWorker(SitemapShard shard) throws GeneralException, IOException {
+        List<Locale> locales = (shard.getLocale() != null) ? UtilMisc.toList(shard.getLocale()) : getLocales();
+        Map<String, Object> urlRewriterCtx = new HashMap<>(getUrlRewriterCtx());
+        urlRewriterCtx.put("globalContext", new HashMap<String, Object>());
+        urlRewriterCtx.put("locale", locales.get(0));
+        ScipioUrlRewriter urlRewriter = null;
+        if (config.getUrlConfPath() != null) {
+            urlRewriter = ScipioUrlRewriter.getForContext(getWebappInfo(), config.getUrlConfPath(), urlRewriterCtx);
+        }
+        return new SitemapGenerator(this, shard.getShardKey(), locales, urlRewriter, urlRewriterCtx);
+    }
+
+    protected boolean traverseShard(SitemapShard shard) throws GeneralException {
+        try {
+            traverseCategoriesDepthFirstImpl(UtilMisc.toList(shard.getProdCatalogCategory()), CategoryRefType.CATALOG_ASSOC.getResolver(), newTraversalState());
+            return true;
+        } catch(StopCatalogTraversalException e) {
+            return false; // NOTE: not an error - just stop
+        }
+    }
+
+    /**
+     * Returns true if the previous shard files all still exist and none of the shard's categories, rollups,
+     * members or member products were updated (lastUpdatedStamp) or became effective/expired since the
+     * previous watermark.
+     */
+    protected boolean isShardReusable(SitemapShard shard, ShardResult prevResult) throws GeneralException, IOException, URISyntaxException {
+        File sitemapDir = getSitemapDirFile();
+        for (String filename : prevResult.getSitemapFiles()) {
+            if (!new File(sitemapDir, filename).isFile()) {
+                return false;
+            }
+        }
+        Timestamp watermark = prevResult.getWatermark();
+        if (isUpdatedSince(shard.getProdCatalogCategory().getTimestamp("lastUpdatedStamp"), watermark)) {
+            return false;
+        }
+        Timestamp now = UtilDateTime.nowTimestamp();
+        List<String> categoryIds = new ArrayList<>(prevResult.getCategoryIds());
+        for (int i = 0; i < categoryIds.size(); i += SHARD_QUERY_CHUNK_SIZE) {
+            List<String> chunk = categoryIds.subList(i, Math.min(i + SHARD_QUERY_CHUNK_SIZE, categoryIds.size()));
+            if (queryCountSince("ProductCategory", EntityCondition.makeCondition("productCategoryId", EntityOperator.IN, chunk), "lastUpdatedStamp", watermark, null) > 0
+                || queryCountSince("ProductCategoryRollup", EntityCondition.makeCondition("parentProductCategoryId", EntityOperator.IN, chunk), "lastUpdatedStamp", watermark, now) > 0
+                || queryCountSince("ProductCategoryMember", EntityCondition.makeCondition("productCategoryId", EntityOperator.IN, chunk), "lastUpdatedStamp", watermark, now) > 0
+                || queryCountSince(makeCategoryMemberProductView(), EntityCondition.makeCondition("productCategoryId", EntityOperator.IN, chunk), "productLastUpdatedStamp", watermark, null) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isUpdatedSince(Timestamp stamp, Timestamp watermark) {
+        return stamp == null || stamp.after(watermark);
+    }
+
+    private long queryCountSince(Object entity, EntityCondition cond, String stampField, Timestamp watermark, Timestamp now) throws GenericEntityException {
+        List<EntityCondition> changedConds = new ArrayList<>();
+        changedConds.add(EntityCondition.makeCondition(stampField, EntityOperator.GREATER_THAN, watermark));
+        if (now != null) { // date-filtered assocs that became effective or expired since watermark
+            changedConds.add(EntityCondition.makeCondition(EntityCondition.makeCondition("fromDate", EntityOperator.GREATER_THAN, watermark),
+                    EntityOperator.AND, EntityCondition.makeCondition("fromDate", EntityOperator.LESS_THAN_EQUAL_TO, now)));
+            changedConds.add(EntityCondition.makeCondition(EntityCondition.makeCondition("thruDate", EntityOperator.GREATER_THAN, watermark),
+                    EntityOperator.AND, EntityCondition.makeCondition("thruDate", EntityOperator.LESS_THAN_EQUAL_TO, now)));
+        }
+        EntityCondition fullCond = EntityCondition.makeCondition(cond, EntityOperator.AND, EntityCondition.makeCondition(changedConds, EntityOperator.OR));
+        EntityQuery query = EntityQuery.use(getDelegator());
+        if (entity instanceof DynamicViewEntity) {
+            query.from((DynamicViewEntity) entity);
+        } else {
+            query.from((String) entity);
+        }
+        return query.where(fullCond).queryCount();
+    }
+
+    private static DynamicViewEntity makeCategoryMemberProductView() {
+        DynamicViewEntity dve = new DynamicViewEntity();
+        dve.addMemberEntity("PCM", "ProductCategoryMember");
+        dve.addAlias("PCM", "productCategoryId");
+        dve.addMemberEntity("PR", "Product");
+        dve.addAlias("PR", "productLastUpdatedStamp", "lastUpdatedStamp", null, null, null, null);
+        dve.addViewLink("PCM", "PR", Boolean.FALSE, ModelKeyMap.makeKeyMapList("productId"));
+        return dve;
+    }
+
+    protected File getShardManifestFile() throws IOException, URISyntaxException {
+        return new File(getSitemapDirFile(), config.getShardManifestFile());
+    }
+
+    protected Properties readShardManifest() {
+        Properties manifest = new Properties();
+        try {
+            File manifestFile = getShardManifestFile();
+            if (manifestFile.isFile()) {
+                try (InputStream in = new FileInputStream(manifestFile)) {
+                    manifest.load(in);
+                }
+            }
+        } catch(Exception e) {
+            Debug.logWarning(getLogMsgPrefix() + "Could not read shard manifest; rebuilding all shards: " + e.getMessage(), module);
+        }
+        return manifest;
+    }
+
+    protected void writeShardManifest(Properties manifest) throws GeneralException {
+        try {
+            File manifestFile = getShardManifestFile();
+            try (OutputStream out = new FileOutputStream(manifestFile)) {
+                manifest.store(out, "Sitemap shards for website " + webSiteId);
+            }
+        } catch(Exception e) {
+            throw new GeneralException("Could not write sitemap shard manifest: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * A single top-level ProdCatalogCategory (and locale) traversal unit.
+     */
+    public static class SitemapShard {
+        private final String shardKey;
+        private final GenericValue prodCatalogCategory;
+        private final Locale locale;
+
+        public SitemapShard(String shardKey, GenericValue prodCatalogCategory, Locale locale) {
+            this.shardKey = shardKey;
+            this.prodCatalogCategory = prodCatalogCategory;
+            this.locale = locale;
+        }
+
+        public String getShardKey() { return shardKey; }
+        public GenericValue getProdCatalogCategory() { return prodCatalogCategory; }
+        /** The shard locale, or null if not locale-sharded (uses the configured locales). */
+        public Locale getLocale() { return locale; }
+    }
+
+    /**
+     * Shard output: its sitemap files, the categories it covered and the watermark (start time) of the
+     * traversal that produced the files. Stats are null for reused shards.
+     */
+    public static class ShardResult {
+        private final String shardKey;
+        private final Timestamp watermark;
+        private final List<String> sitemapFiles;
+        private final Collection<String> categoryIds;
+        private final UrlGenStats stats;
+        private final boolean reused;
+
+        public ShardResult(String shardKey, Timestamp watermark, List<String> sitemapFiles, Collection<String> categoryIds, UrlGenStats stats, boolean reused) {
+            this.shardKey = shardKey;
+            this.watermark = watermark;
+            this.sitemapFiles = sitemapFiles;
+            this.categoryIds = categoryIds;
+            this.stats = stats;
+            this.reused = reused;
+        }
+
+        public static ShardResult fromManifest(String shardKey, Properties manifest) {
+            String watermarkStr = manifest.getProperty(shardKey + ".watermark");
+            String filesStr = manifest.getProperty(shardKey + ".files");
+            if (UtilValidate.isEmpty(watermarkStr) || filesStr == null) {
+                return null;
+            }
+            Timestamp watermark;
+            try {
+                watermark = new Timestamp(Long.parseLong(watermarkStr));
+            } catch(NumberFormatException e) {
+                return null;
+            }
+            return new ShardResult(shardKey, watermark, splitManifestList(filesStr),
+                    splitManifestList(manifest.getProperty(shardKey + ".categoryIds")), null, true);
+        }
+
+        private static List<String> splitManifestList(String value) {
+            if (UtilValidate.isEmpty(value)) {
+                return new ArrayList<>();
+            }
+            return StringUtil.split(value, ",");
+        }
+
+        public void toManifest(Properties manifest) {
+            manifest.setProperty(shardKey + ".watermark", String.valueOf(watermark.getTime()));
+            manifest.setProperty(shardKey + ".files", StringUtil.join(sitemapFiles, ","));
+            manifest.setProperty(shardKey + ".categoryIds", StringUtil.join(categoryIds, ","));
+        }
+
+        public String getShardKey() { return shardKey; }
+        public Timestamp getWatermark() { return watermark; }
+        public List<String> getSitemapFiles() { return sitemapFiles; }
+        public Collection<String> getCategoryIds() { return categoryIds; }
+        public UrlGenStats getStats() { return stats; }
+        public boolean isReused() { return reused; }
+    }
+
+    protected static Map<ElemType, Set<String>> newSharedSeenUrls() {
+        Map<ElemType, Set<String>> seenUrls = new EnumMap<>(ElemType.class);
+        for (ElemType elemType : ElemType.values()) {
+            seenUrls.put(elemType, Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+        }
+        return seenUrls;
+    }
+
     /**
      * Content link generation.
      */
@@ -446,6 +965,9 @@ public class SitemapGenerator extends SeoCatalogTraverser {
 
     @Override
     public void pushCategory(GenericValue productCategory, TraversalState state) throws GeneralException {
+        if (shardCategoryIds != null) {
+            shardCategoryIds.add(productCategory.getString("productCategoryId"));
+        }
         CatalogAltUrlSanitizer.SanitizeContext sanitizeCtx = new CatalogAltUrlSanitizer.SanitizeContext().setNameIndex(state.getPhysicalDepth());
         Map<Locale, List<String>> trailNames = getTrailNames(state);
         if (getConfig().isPreProcessTrail()) {
@@ -608,17 +1130,19 @@ public class SitemapGenerator extends SeoCatalogTraverser {
         private long urlCount = 0;
         private long sitemapFileIndex = 0;
 
-        private Set<String> seenUrls = new LinkedHashSet<>();
+        private Set<String> seenUrls = (sharedSeenUrls != null) ? sharedSeenUrls.get(getType()) : new LinkedHashSet<String>();
+        private List<String> writtenUrls = (shardKey != null) ? new ArrayList<>() : null; // shard workers only
 
         public WebSitemapGenerator getWsg() { return wsg; }
         public List<String> getSitemapFiles() { return sitemapFiles; }
         public long getUrlCount() { return urlCount; }
         public long getSitemapFileIndex() { return sitemapFileIndex; }
+        public List<String> getWrittenUrls() { return (writtenUrls != null) ? writtenUrls : Collections.<String>emptyList(); }
 
         public abstract String getTypeFilenamePrefix();
 
         public String getNumberedSitemapFilenamePrefix() {
-            return getTypeFilenamePrefix() + sitemapFileIndex;
+            return getTypeFilenamePrefix() + (shardKey != null ? shardKey + "_" : "") + sitemapFileIndex;
         }
 
         public String getSitemapFilename() {
@@ -633,9 +1157,11 @@ public class SitemapGenerator extends SeoCatalogTraverser {
                 beginSitemapFile();
             }
             String urlStr = url.getUrl().toString();
-            if (!seenUrls.contains(urlStr)) {
+            if (seenUrls.add(urlStr)) {
                 wsg.addUrl(url);
-                seenUrls.add(urlStr);
+                if (writtenUrls != null) {
+                    writtenUrls.add(urlStr);
+                }
                 urlCount++;
                 updateStatsCount();
             }
@@ -689,16 +1215,22 @@ public class SitemapGenerator extends SeoCatalogTraverser {
     }
 
     protected List<String> getAllSitemapFilenames() {
-        List<String> sitemapFiles = new ArrayList<>();
+        List<String> sitemapFiles = new ArrayList<>(shardSitemapFiles);
         for(ElemType elemType : ElemType.values()) { // always same order
-            sitemapFiles.addAll(elemHandlers.get(elemType).getSitemapFiles());
+            ElemHandler elemHandler = elemHandlers.get(elemType);
+            if (elemHandler != null) {
+                sitemapFiles.addAll(elemHandler.getSitemapFiles());
+            }
         }
         return sitemapFiles;
     }
 
     public void commitSitemaps() {
         for(ElemType elemType : ElemType.values()) { // always same order
-            elemHandlers.get(elemType).commitSitemapFile();
+            ElemHandler elemHandler = elemHandlers.get(elemType);
+            if (elemHandler != null) {
+                elemHandler.commitSitemapFile();
+            }
         }
     }
 
@@ -1,9 +1,16 @@
 package org.ofbiz.product.image;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilGenerics;
 import org.ofbiz.base.util.UtilMisc;
@@ -27,6 +34,7 @@ public abstract class ProductImageServices {
 
     private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
     private static final String resource = "ProductErrorUiLabels";
+    private static final ThreadGroup IMAGE_BULK_THREAD_GROUP = new ThreadGroup("ProductImageBulk");
 
     protected ProductImageServices() {
     }
@@ -107,6 +115,117 @@ public abstract class ProductImageServices {
         return result;
     }
 
+    /**
+     * SCIPIO: Scales the images of many products in all sizes, using {@link ScaleImage#scaleImageInAllSize}; the images
+     * are scaled in parallel (each on one thread, with its variants scaled serially). Implements productImageScaleInAllSizeBulk.
+     */
+    public static Map<String, Object> productImageScaleInAllSizeBulk(DispatchContext dctx, Map<String, ?> context) {
+        List<Map<String, Object>> images = UtilGenerics.checkList(context.get("images"));
+        Integer parallelism = (Integer) context.get("parallelism");
+        if (parallelism == null) {
+            parallelism = UtilProperties.getPropertyAsInteger("catalog", "image.variants.threads", Math.min(4, Runtime.getRuntime().availableProcessors()));
+        }
+        final Map<String, Object> scaleContext = new HashMap<>();
+        scaleContext.put("delegator", dctx.getDelegator());
+        scaleContext.put("locale", context.get("locale") != null ? context.get("locale") : Locale.getDefault());
+        scaleContext.put("returnOriginalImage", false); // not returned; don't decode the originals of unchanged variants
+
+        long startTime = System.currentTimeMillis();
+        List<Map<String, Object>> imageResults = new ArrayList<>(images.size());
+        ScheduledExecutorService executor = (parallelism > 1) ? ExecutionPool.getScheduledExecutor(IMAGE_BULK_THREAD_GROUP,
+                "product-image-bulk", parallelism, 0, true) : null;
+        try {
+            List<Future<Map<String, Object>>> futures = new ArrayList<>(images.size());
+            for (final Map<String, Object> image : images) {
+                Callable<Map<String, Object>> task = new Callable<Map<String, Object>>() {
+                    @Override
+                    public Map<String, Object> call() {
+                        return scaleProductImage(scaleContext, image);
+                    }
+                };
+                if (executor != null) {
+                    futures.add(executor.submit(task));
+                } else {
+                    imageResults.add(scaleProductImage(scaleContext, image));
+                }
+            }
+            // NOTE: each failed or interrupted task is recorded as an error result of its image, so none is dropped
+            boolean interrupted = false;
+            for (int i = 0; i < futures.size(); i++) {
+                Future<Map<String, Object>> future = futures.get(i);
+                Map<String, Object> image = images.get(i);
+                if (interrupted) {
+                    future.cancel(true);
+                    imageResults.add(makeImageErrorResult(image, "Interrupted before the image was scaled"));
+                    continue;
+                }
+                try {
+                    imageResults.add(future.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+                    Debug.logError(cause, "Could not scale image [" + image.get("filenameToUse") + "] of product [" + image.get("productId") + "]", module);
+                    imageResults.add(makeImageErrorResult(image, cause.toString()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    interrupted = true;
+                    future.cancel(true);
+                    imageResults.add(makeImageErrorResult(image, "Interrupted before the image was scaled"));
+                }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+
+        int errorCount = 0;
+        for (Map<String, Object> imageResult : imageResults) {
+            if (imageResult.containsKey("errorMessage")) {
+                errorCount++;
+            }
+        }
+        Debug.logInfo("Scaled " + (imageResults.size() - errorCount) + " product images in all sizes (" + errorCount + " errors) in "
+                + (System.currentTimeMillis() - startTime) + " ms", module);
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("imageResults", imageResults);
+        result.put("errorCount", errorCount);
+        return result;
+    }
+
+    private static Map<String, Object> makeImageResult(Map<String, Object> image) {
+        String viewType = UtilValidate.isNotEmpty((String) image.get("viewType")) ? (String) image.get("viewType") : "main";
+        String viewNumber = UtilValidate.isNotEmpty((String) image.get("viewNumber")) ? (String) image.get("viewNumber") : "0";
+        return UtilMisc.toMap("productId", image.get("productId"), "viewType", viewType, "viewNumber", viewNumber);
+    }
+
+    private static Map<String, Object> makeImageErrorResult(Map<String, Object> image, String errorMessage) {
+        Map<String, Object> imageResult = makeImageResult(image);
+        imageResult.put("errorMessage", errorMessage);
+        return imageResult;
+    }
+
+    private static Map<String, Object> scaleProductImage(Map<String, Object> scaleContext, Map<String, Object> image) {
+        String productId = (String) image.get("productId");
+        Map<String, Object> imageResult = makeImageResult(image);
+        String viewType = (String) imageResult.get("viewType");
+        String viewNumber = (String) imageResult.get("viewNumber");
+        Map<String, Object> ctx = new HashMap<>(scaleContext);
+        ctx.put("productId", productId);
+        try {
+            // NOTE: variants scaled serially, this task already runs on the bulk pool
+            Map<String, Object> scaleResult = ScaleImage.scaleImageInAllSize(ctx, (String) image.get("filenameToUse"), viewType, viewNumber, false);
+            if ("success".equals(scaleResult.get("responseMessage"))) {
+                imageResult.put("imageUrlMap", scaleResult.get("imageUrlMap"));
+            } else {
+                imageResult.put("errorMessage", ServiceUtil.getErrorMessage(scaleResult));
+            }
+        } catch (Exception e) {
+            Debug.logError(e, "Could not scale image [" + image.get("filenameToUse") + "] of product [" + productId + "]", module);
+            imageResult.put("errorMessage", e.toString());
+        }
+        return imageResult;
+    }
+
     private static boolean isStrArgEmpty(Map<String, ?> context, String argName) {
         return UtilValidate.isEmpty((String) context.get(argName));
     }
@@ -21,15 +21,36 @@ package org.ofbiz.product.image;
 import java.awt.image.BufferedImage;
 import java.awt.image.ImagingOpException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilGenerics;
 import org.ofbiz.base.util.UtilMisc;
@@ -61,6 +82,14 @@ public class ScaleImage {
     /* public so that other code can easily use the imageUrlMap returned by scaleImageInAllSize */
     public static final List<String> sizeTypeList = UtilMisc.toList("small", "medium", "large", "detail");
 
+    // SCIPIO: variant generation settings
+    private static final int VARIANTS_THREADS = UtilProperties.getPropertyAsInteger("catalog", "image.variants.threads", Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final boolean VARIANTS_SKIP_UNCHANGED = UtilProperties.getPropertyAsBoolean("catalog", "image.variants.skipUnchanged", true);
+    private static final int VARIANTS_DECODE_SUBSAMPLING_HEADROOM = UtilProperties.getPropertyAsInteger("catalog", "image.variants.decodeSubsampling.headroom", 2);
+    private static final String VARIANTS_HASHES_DIR = UtilProperties.getPropertyValue("catalog", "image.variants.hashes.dir", "runtime/data/image-variants");
+    private static final ThreadGroup VARIANTS_THREAD_GROUP = new ThreadGroup("ScaleImage");
+    private static volatile ExecutorService sharedVariantExecutor = null;
+
 
     public ScaleImage() {
     }
@@ -84,18 +113,31 @@ public class ScaleImage {
      */
     public static Map<String, Object> scaleImageInAllSize(Map<String, ? extends Object> context, String filenameToUse, String viewType, String viewNumber)
         throws IllegalArgumentException, ImagingOpException, IOException {
+        return scaleImageInAllSize(context, filenameToUse, viewType, viewNumber, true);
+    }
+
+    /**
+     * SCIPIO: scaleImageInAllSize, with the variants scaled in parallel on the shared bounded pool
+     * (catalog.properties image.variants.threads) if parallelVariants is true, otherwise serially in the caller thread.
+     * <p>
+     * The "original" result map contains the decoded original (bufferedImage), which is subsampled for the large
+     * originals (subsampling), and the width and height of the original image file. It is also decoded when all the
+     * variants are unchanged, unless the context has <code>returnOriginalImage</code> false, in which case the map
+     * only has the width and height.
+     */
+    public static Map<String, Object> scaleImageInAllSize(Map<String, ? extends Object> context, String filenameToUse, String viewType, String viewNumber,
+            boolean parallelVariants) throws IllegalArgumentException, ImagingOpException, IOException {
 
         /* VARIABLES */
         Locale locale = (Locale) context.get("locale");
 
         int index;
         Map<String, Map<String, String>> imgPropertyMap = new HashMap<>();
-        BufferedImage bufImg, bufNewImg;
+        BufferedImage bufImg;
         double imgHeight, imgWidth;
         Map<String, String> imgUrlMap = new HashMap<>();
         Map<String, Object> resultXMLMap = new LinkedHashMap<>();
         Map<String, Object> resultBufImgMap = new HashMap<>();
-        Map<String, Object> resultScaleImgMap = new HashMap<>();
         Map<String, Object> result = new HashMap<>();
 
         /* ImageProperties.xml */
@@ -149,8 +191,60 @@ public class ScaleImage {
 //            fileLocation = fileLocation.substring(0, fileLocation.lastIndexOf('/') + 1); // adding 1 to include the trailing slash
         }
 
+        // SCIPIO: the variants are now prepared first (paths, directories, unchanged check), then the original is decoded
+        // (subsampled if possible) only if a variant needs to be written, and the variants scaled and written in parallel
+        String originalPath = imageServerPath + "/" + fileLocation + "." + imgExtension;
+        VariantSourceHashes sourceHashes = VARIANTS_SKIP_UNCHANGED ? VariantSourceHashes.load(originalPath) : null;
+        List<VariantTask> variantTasks = new ArrayList<>();
+        for (Map.Entry<String, Map<String, String>> entry : imgPropertyMap.entrySet()) {
+            String sizeType = entry.getKey();
+
+            // Build full path for the new scaled image
+            String newFileLocation = null;
+            if (viewType.toLowerCase(Locale.getDefault()).contains("main")) {
+                newFileLocation = filenameExpander.expandString(UtilMisc.toMap("location", "products", "id", id, "type", sizeType));
+            } else if (viewType.toLowerCase(Locale.getDefault()).contains("additional")) {
+                newFileLocation = filenameExpander.expandString(UtilMisc.toMap("location", "products", "id", id, "viewtype", viewType, "sizetype", sizeType));
+            }
+            String newFilePath = imageServerPath + "/" + newFileLocation + "." + imgExtension;
+            String variantHash = (sourceHashes != null) ? sourceHashes.getVariantHash(entry.getValue()) : null;
+            if (sourceHashes != null && sourceHashes.isUnchanged(sizeType, variantHash, new File(newFilePath))) {
+                if (Debug.verboseOn()) {
+                    Debug.logVerbose("Image variant [" + sizeType + "] of " + originalPath + " unchanged; not rescaling", module);
+                }
+            } else {
+                Map<String, Object> errorResult = prepareVariantDirectory(imageServerPath, newFileLocation, id, locale);
+                if (errorResult != null) {
+                    return errorResult;
+                }
+                variantTasks.add(new VariantTask(sizeType, newFilePath, variantHash));
+            }
+
+            // Save each Url
+            if (sizeTypeList.contains(sizeType)) {
+                String imageUrl = imageUrlPrefix + "/" + newFileLocation + "." + imgExtension;
+                imgUrlMap.put(sizeType, imageUrl);
+            }
+        }
+        if (variantTasks.isEmpty() && Boolean.FALSE.equals(context.get("returnOriginalImage"))) {
+            Map<String, Object> original = UtilMisc.toMap("responseMessage", "success");
+            original.putAll(getImageDimensions(originalPath));
+            result.put("responseMessage", "success");
+            result.put("imageUrlMap", imgUrlMap);
+            result.put("original", original);
+            return result;
+        }
+
         /* get original BUFFERED IMAGE */
-        resultBufImgMap.putAll(ImageTransform.getBufferedImage(imageServerPath + "/" + fileLocation + "." + imgExtension, locale));
+        // SCIPIO: also read when all the variants are unchanged, for the "original" result
+        List<String> sourceSizeTypes = new ArrayList<>();
+        for (VariantTask task : variantTasks) {
+            sourceSizeTypes.add(task.sizeType);
+        }
+        if (sourceSizeTypes.isEmpty()) {
+            sourceSizeTypes.addAll(imgPropertyMap.keySet());
+        }
+        resultBufImgMap.putAll(getVariantSourceImage(originalPath, imgPropertyMap, sourceSizeTypes, locale));
 
         if (resultBufImgMap.containsKey("responseMessage") && "success".equals(resultBufImgMap.get("responseMessage"))) {
             bufImg = (BufferedImage) resultBufImgMap.get("bufferedImage");
@@ -166,94 +260,396 @@ public class ScaleImage {
             }
 
             /* Scale image for each size from ImageProperties.xml */
-            for (Map.Entry<String, Map<String, String>> entry : imgPropertyMap.entrySet()) {
-                String sizeType = entry.getKey();
+            Map<String, Object> errorResult = scaleVariants(bufImg, imgHeight, imgWidth, imgPropertyMap, imgExtension, variantTasks,
+                    parallelVariants ? getVariantExecutor() : null, locale);
+            if (errorResult != null) {
+                return errorResult;
+            }
+            if (sourceHashes != null && !variantTasks.isEmpty()) {
+                for (VariantTask task : variantTasks) {
+                    sourceHashes.setStoredHash(task.sizeType, task.variantHash);
+                }
+                sourceHashes.store();
+            }
 
-                // Scale
-                resultScaleImgMap.putAll(ImageTransform.scaleImage(bufImg, imgHeight, imgWidth, imgPropertyMap, sizeType, locale));
+            result.put("responseMessage", "success");
+            result.put("imageUrlMap", imgUrlMap);
+            result.put("original", resultBufImgMap);
+            return result;
 
-                /* Write the new image file */
-                if (resultScaleImgMap.containsKey("responseMessage") && "success".equals(resultScaleImgMap.get("responseMessage"))) {
-                    bufNewImg = (BufferedImage) resultScaleImgMap.get("bufferedImage");
+        } else {
+            String errMsg = UtilProperties.getMessage(resource, "ScaleImage.unable_to_scale_original_image", locale) + " : " + filenameToUse;
+            Debug.logError(errMsg, module);
+            result.put(ModelService.ERROR_MESSAGE, errMsg);
+            return ServiceUtil.returnError(errMsg);
+        }
+    }
 
-                    // Build full path for the new scaled image
-                    String newFileLocation = null;
-                    filenameToUse = sizeType + filenameToUse.substring(filenameToUse.lastIndexOf('.'));
-                    if (viewType.toLowerCase(Locale.getDefault()).contains("main")) {
-                        newFileLocation = filenameExpander.expandString(UtilMisc.toMap("location", "products", "id", id, "type", sizeType));
-                    } else if (viewType.toLowerCase(Locale.getDefault()).contains("additional")) {
-                        newFileLocation = filenameExpander.expandString(UtilMisc.toMap("location", "products", "id", id, "viewtype", viewType, "sizetype", sizeType));
-                    }
-                    String newFilePathPrefix = "";
-                    if (newFileLocation != null && newFileLocation.lastIndexOf('/') != -1) {
-                        newFilePathPrefix = newFileLocation.substring(0, newFileLocation.lastIndexOf('/') + 1); // adding 1 to include the trailing slash
-                    }
-                    // Directory
-                    String targetDirectory = imageServerPath + "/" + newFilePathPrefix;
-                    try {
-                        // Create the new directory
-                        File targetDir = new File(targetDirectory);
-                        if (!targetDir.exists()) {
-                            boolean created = targetDir.mkdirs();
-                            if (!created) {
-                                String errMsg = UtilProperties.getMessage(resource, "ScaleImage.unable_to_create_target_directory", locale) + " - " + targetDirectory;
-                                Debug.logFatal(errMsg, module);
-                                return ServiceUtil.returnError(errMsg);
+    /**
+     * SCIPIO: Creates the directory of an image variant, or deletes the existing image files of the product in it
+     * (stock behavior). Returns an error result, or null if successful.
+     */
+    private static Map<String, Object> prepareVariantDirectory(String imageServerPath, String newFileLocation, String id, Locale locale) {
+        String newFilePathPrefix = "";
+        if (newFileLocation != null && newFileLocation.lastIndexOf('/') != -1) {
+            newFilePathPrefix = newFileLocation.substring(0, newFileLocation.lastIndexOf('/') + 1); // adding 1 to include the trailing slash
+        }
+        // Directory
+        String targetDirectory = imageServerPath + "/" + newFilePathPrefix;
+        try {
+            // Create the new directory
+            File targetDir = new File(targetDirectory);
+            if (!targetDir.exists()) {
+                boolean created = targetDir.mkdirs();
+                if (!created) {
+                    String errMsg = UtilProperties.getMessage(resource, "ScaleImage.unable_to_create_target_directory", locale) + " - " + targetDirectory;
+                    Debug.logFatal(errMsg, module);
+                    return ServiceUtil.returnError(errMsg);
+                }
+            // Delete existing image files
+            // Images aren't ordered by productId (${location}/${viewtype}/${sizetype}/${id}) !!! BE CAREFUL !!!
+            } else if (newFileLocation.endsWith("/" + id)) {
+                try {
+                    File[] files = targetDir.listFiles();
+                    for (File file : files) {
+                        if (file.isFile() && file.getName().startsWith(id)) {
+                            if (!file.delete()) {
+                                Debug.logError("File :" + file.getName() + ", couldn't be deleted", module);
                             }
-                        // Delete existing image files
-                        // Images aren't ordered by productId (${location}/${viewtype}/${sizetype}/${id}) !!! BE CAREFUL !!!
-                        } else if (newFileLocation.endsWith("/" + id)) {
-                            try {
-                                File[] files = targetDir.listFiles();
-                                for (File file : files) {
-                                    if (file.isFile() && file.getName().startsWith(id)) {
-                                        if (!file.delete()) {
-                                            Debug.logError("File :" + file.getName() + ", couldn't be deleted", module);
-                                        }
+                        }
+                    }
+                } catch (SecurityException e) {
+                    Debug.logError(e,module);
+                }
+            }
+        } catch (NullPointerException e) {
+            Debug.logError(e,module);
+        }
+        return null;
+    }
+
+    /**
+     * SCIPIO: Scales and writes the image variants, in parallel on the executor if non-null. Returns an error result
+     * (of the first variant that failed), or null if successful.
+     */
+    private static Map<String, Object> scaleVariants(final BufferedImage bufImg, final double imgHeight, final double imgWidth,
+            final Map<String, Map<String, String>> imgPropertyMap, final String imgExtension, List<VariantTask> variantTasks,
+            ExecutorService executor, final Locale locale) {
+        if (executor == null || variantTasks.size() <= 1) {
+            for (VariantTask task : variantTasks) {
+                Map<String, Object> errorResult = scaleVariant(bufImg, imgHeight, imgWidth, imgPropertyMap, imgExtension, task, locale);
+                if (errorResult != null) {
+                    return errorResult;
+                }
+            }
+            return null;
+        }
+        List<Future<Map<String, Object>>> futures = new ArrayList<>(variantTasks.size());
+        for (final VariantTask task : variantTasks) {
+            futures.add(executor.submit(new Callable<Map<String, Object>>() {
+                @Override
+                public Map<String, Object> call() {
+                    return scaleVariant(bufImg, imgHeight, imgWidth, imgPropertyMap, imgExtension, task, locale);
+                }
+            }));
+        }
+        Map<String, Object> firstErrorResult = null;
+        for (Future<Map<String, Object>> future : futures) {
+            Map<String, Object> errorResult;
+            try {
+                errorResult = future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                Throwable cause = (e instanceof ExecutionException && e.getCause() != null) ? e.getCause() : e;
+                String errMsg = UtilProperties.getMessage(resource, "ScaleImage.unable_to_scale_original_image", locale) + " : " + cause.toString();
+                Debug.logError(cause, errMsg, module);
+                errorResult = ServiceUtil.returnError(errMsg);
+            }
+            if (errorResult != null && firstErrorResult == null) {
+                firstErrorResult = errorResult;
+            }
+        }
+        return firstErrorResult;
+    }
+
+    private static Map<String, Object> scaleVariant(BufferedImage bufImg, double imgHeight, double imgWidth,
+            Map<String, Map<String, String>> imgPropertyMap, String imgExtension, VariantTask task, Locale locale) {
+        Map<String, Object> result = new HashMap<>();
+        long startTime = System.currentTimeMillis();
+
+        // Scale
+        Map<String, Object> resultScaleImgMap = ImageTransform.scaleImage(bufImg, imgHeight, imgWidth, imgPropertyMap, task.sizeType, locale);
+
+        /* Write the new image file */
+        if (resultScaleImgMap.containsKey("responseMessage") && "success".equals(resultScaleImgMap.get("responseMessage"))) {
+            BufferedImage bufNewImg = (BufferedImage) resultScaleImgMap.get("bufferedImage");
+
+            // write new image
+            try {
+                ImageIO.write(bufNewImg, imgExtension, new File(task.newFilePath));
+            } catch (IllegalArgumentException e) {
+                String errMsg = UtilProperties.getMessage(resource, "ScaleImage.one_parameter_is_null", locale) + e.toString();
+                Debug.logError(errMsg, module);
+                result.put(ModelService.ERROR_MESSAGE, errMsg);
+                return result;
+            } catch (IOException e) {
+                String errMsg = UtilProperties.getMessage(resource, "ScaleImage.error_occurs_during_writing", locale) + e.toString();
+                Debug.logError(errMsg, module);
+                result.put(ModelService.ERROR_MESSAGE, errMsg);
+                return result;
+            }
+            if (Debug.verboseOn()) {
+                Debug.logVerbose("Scaled image variant [" + task.sizeType + "] (" + bufNewImg.getWidth() + "x" + bufNewImg.getHeight()
+                        + ") in " + (System.currentTimeMillis() - startTime) + " ms: " + task.newFilePath, module);
+            }
+        } // scaleImgMap
+        return null;
+    }
+
+    /**
+     * SCIPIO: Reads the original image for the variants. If the largest variant to produce is at least
+     * {@link #VARIANTS_DECODE_SUBSAMPLING_HEADROOM} times smaller than the original in both dimensions, the image is
+     * decoded with source subsampling (keeping at least that headroom for the scaler), which cuts the decode memory and
+     * time for very large originals; otherwise, or if the subsampled read fails, it is read in full as before.
+     */
+    public static Map<String, Object> getVariantSourceImage(String originalPath, Map<String, Map<String, String>> imgPropertyMap,
+            List<String> sizeTypes, Locale locale) throws IOException {
+        if (VARIANTS_DECODE_SUBSAMPLING_HEADROOM > 0) {
+            int maxWidth = 0;
+            int maxHeight = 0;
+            for (String sizeType : sizeTypes) {
+                Map<String, String> dimensions = imgPropertyMap.get(sizeType);
+                if (dimensions == null || !dimensions.containsKey("width") || !dimensions.containsKey("height")) {
+                    maxWidth = -1;
+                    break;
+                }
+                try {
+                    maxWidth = Math.max(maxWidth, (int) Double.parseDouble(dimensions.get("width")));
+                    maxHeight = Math.max(maxHeight, (int) Double.parseDouble(dimensions.get("height")));
+                } catch (NumberFormatException e) {
+                    maxWidth = -1;
+                    break;
+                }
+            }
+            if (maxWidth > 0 && maxHeight > 0) {
+                try (ImageInputStream iis = ImageIO.createImageInputStream(new File(originalPath))) {
+                    Iterator<ImageReader> readers = (iis != null) ? ImageIO.getImageReaders(iis) : null;
+                    if (readers != null && readers.hasNext()) {
+                        ImageReader reader = readers.next();
+                        try {
+                            reader.setInput(iis, true, true);
+                            int subsampling = Math.min(reader.getWidth(0) / (maxWidth * VARIANTS_DECODE_SUBSAMPLING_HEADROOM),
+                                    reader.getHeight(0) / (maxHeight * VARIANTS_DECODE_SUBSAMPLING_HEADROOM));
+                            if (subsampling >= 2) {
+                                ImageReadParam param = reader.getDefaultReadParam();
+                                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                                BufferedImage bufImg = reader.read(0, param);
+                                if (bufImg != null) {
+                                    if (Debug.verboseOn()) {
+                                        Debug.logVerbose("Read " + originalPath + " with subsampling " + subsampling + " ("
+                                                + bufImg.getWidth() + "x" + bufImg.getHeight() + ")", module);
                                     }
+                                    return UtilMisc.toMap("responseMessage", "success", "bufferedImage", bufImg,
+                                            "width", reader.getWidth(0), "height", reader.getHeight(0), "subsampling", subsampling);
                                 }
-                            } catch (SecurityException e) {
-                                Debug.logError(e,module);
                             }
+                        } finally {
+                            reader.dispose();
                         }
-                    } catch (NullPointerException e) {
-                        Debug.logError(e,module);
                     }
+                } catch (IOException | RuntimeException e) {
+                    Debug.logWarning("Could not read " + originalPath + " with subsampling (" + e.toString() + "); reading in full", module);
+                }
+            }
+        }
+        Map<String, Object> result = ImageTransform.getBufferedImage(originalPath, locale);
+        BufferedImage bufImg = (BufferedImage) result.get("bufferedImage");
+        if (bufImg != null) {
+            result.put("width", bufImg.getWidth());
+            result.put("height", bufImg.getHeight());
+            result.put("subsampling", 1);
+        }
+        return result;
+    }
 
-                    // write new image
-                    try {
-                        ImageIO.write(bufNewImg, imgExtension, new File(imageServerPath + "/" + newFileLocation + "." + imgExtension));
-                    } catch (IllegalArgumentException e) {
-                        String errMsg = UtilProperties.getMessage(resource, "ScaleImage.one_parameter_is_null", locale) + e.toString();
-                        Debug.logError(errMsg, module);
-                        result.put(ModelService.ERROR_MESSAGE, errMsg);
-                        return result;
-                    } catch (IOException e) {
-                        String errMsg = UtilProperties.getMessage(resource, "ScaleImage.error_occurs_during_writing", locale) + e.toString();
-                        Debug.logError(errMsg, module);
-                        result.put(ModelService.ERROR_MESSAGE, errMsg);
-                        return result;
-                    }
+    /**
+     * SCIPIO: Returns the width and height of the image from its header, without decoding it; empty if unreadable.
+     */
+    private static Map<String, Object> getImageDimensions(String path) {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(new File(path))) {
+            Iterator<ImageReader> readers = (iis != null) ? ImageIO.getImageReaders(iis) : null;
+            if (readers != null && readers.hasNext()) {
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(iis, true, true);
+                    return UtilMisc.toMap("width", reader.getWidth(0), "height", reader.getHeight(0));
+                } finally {
+                    reader.dispose();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Debug.logWarning("Could not read the dimensions of " + path + ": " + e.toString(), module);
+        }
+        return new HashMap<>();
+    }
 
-                    // Save each Url
-                    if (sizeTypeList.contains(sizeType)) {
-                        String imageUrl = imageUrlPrefix + "/" + newFileLocation + "." + imgExtension;
-                        imgUrlMap.put(sizeType, imageUrl);
+    private static ExecutorService getVariantExecutor() {
+        if (VARIANTS_THREADS <= 1) {
+            return null;
+        }
+        ExecutorService executor = sharedVariantExecutor;
+        if (executor == null) {
+            synchronized (ScaleImage.class) {
+                executor = sharedVariantExecutor;
+                if (executor == null) {
+                    executor = ExecutionPool.getScheduledExecutor(VARIANTS_THREAD_GROUP, "image-variants", VARIANTS_THREADS, 60, false);
+                    sharedVariantExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * SCIPIO: An image variant to scale and write.
+     */
+    private static class VariantTask {
+        final String sizeType;
+        final String newFilePath;
+        final String variantHash;
+
+        VariantTask(String sizeType, String newFilePath, String variantHash) {
+            this.sizeType = sizeType;
+            this.newFilePath = newFilePath;
+            this.variantHash = variantHash;
+        }
+    }
+
+    /**
+     * SCIPIO: The hashes of the sources the variants of an original image were last made from, stored next to the
+     * original (as [original file].variants); the hash of a variant covers the original file contents and the
+     * variant dimensions, so a variant is rescaled if either changes.
+     */
+    public static class VariantSourceHashes {
+        private final String originalPath;
+        private final File hashFile;
+        private final String originalHash;
+        private final Properties storedHashes;
+
+        private VariantSourceHashes(String originalPath, File hashFile, String originalHash, Properties storedHashes) {
+            this.originalPath = originalPath;
+            this.hashFile = hashFile;
+            this.originalHash = originalHash;
+            this.storedHashes = storedHashes;
+        }
+
+        /**
+         * Loads the stored hashes of the variants of the original and hashes it; null if the original can't be read.
+         */
+        public static VariantSourceHashes load(String originalPath) {
+            return load(originalPath, null);
+        }
+
+        /**
+         * Loads the stored hashes of the variants of the original from the given directory (null: the configured one).
+         */
+        public static VariantSourceHashes load(String originalPath, File hashesDir) {
+            File originalFile = new File(originalPath);
+            if (!originalFile.isFile()) {
+                return null;
+            }
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                try (InputStream in = new DigestInputStream(new FileInputStream(originalFile), digest)) {
+                    byte[] buffer = new byte[8192];
+                    while (in.read(buffer) >= 0) {
+                        ;
+                    }
+                }
+                File hashFile = getHashFile(originalFile, hashesDir);
+                File legacyHashFile = new File(originalPath + ".variants");
+                if (legacyHashFile.isFile() && !legacyHashFile.delete()) { // was kept next to the original, in the public image dir
+                    Debug.logWarning("Could not delete image variant hashes " + legacyHashFile, module);
+                }
+                Properties storedHashes = new Properties();
+                if (hashFile.isFile()) {
+                    try (InputStream in = new FileInputStream(hashFile)) {
+                        storedHashes.load(in);
                     }
+                }
+                return new VariantSourceHashes(originalPath, hashFile, toHex(digest.digest()), storedHashes);
+            } catch (IOException | NoSuchAlgorithmException e) {
+                Debug.logWarning("Could not hash image " + originalPath + " (" + e.toString() + "); rescaling all variants", module);
+                return null;
+            }
+        }
 
-                } // scaleImgMap
-            } // Loop over sizeType
+        /**
+         * The hashes are kept under {@link #VARIANTS_HASHES_DIR} (not served), in a file named from the hash of the
+         * original's path.
+         */
+        private static File getHashFile(File originalFile, File hashesDir) throws IOException, NoSuchAlgorithmException {
+            File dir = (hashesDir != null) ? hashesDir : new File(VARIANTS_HASHES_DIR);
+            if (!dir.isAbsolute() && System.getProperty("ofbiz.home") != null) {
+                dir = new File(System.getProperty("ofbiz.home"), VARIANTS_HASHES_DIR);
+            }
+            byte[] pathHash = MessageDigest.getInstance("SHA-256").digest(originalFile.getCanonicalPath().getBytes(StandardCharsets.UTF_8));
+            String name = toHex(pathHash);
+            return new File(new File(dir, name.substring(0, 2)), name + ".properties");
+        }
 
-            result.put("responseMessage", "success");
-            result.put("imageUrlMap", imgUrlMap);
-            result.put("original", resultBufImgMap);
-            return result;
+        /**
+         * Returns the hash of the variant of the given dimensions of the current original, or null if it can't be computed.
+         */
+        public String getVariantHash(Map<String, String> dimensions) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                digest.update(originalHash.getBytes(StandardCharsets.UTF_8));
+                digest.update(String.valueOf(new TreeMap<>(dimensions)).getBytes(StandardCharsets.UTF_8));
+                return toHex(digest.digest());
+            } catch (NoSuchAlgorithmException e) {
+                return null;
+            }
+        }
 
-        } else {
-            String errMsg = UtilProperties.getMessage(resource, "ScaleImage.unable_to_scale_original_image", locale) + " : " + filenameToUse;
-            Debug.logError(errMsg, module);
-            result.put(ModelService.ERROR_MESSAGE, errMsg);
-            return ServiceUtil.returnError(errMsg);
+        /**
+         * Returns true if the variant file exists and was made from the source of the given hash, so it needs no rescaling.
+         */
+        public boolean isUnchanged(String sizeType, String variantHash, File variantFile) {
+            return variantHash != null && variantHash.equals(storedHashes.getProperty(sizeType)) && variantFile.isFile();
+        }
+
+        /**
+         * Records the source hash of a written variant; {@link #store()} saves them.
+         */
+        public void setStoredHash(String sizeType, String variantHash) {
+            if (variantHash != null) {
+                storedHashes.setProperty(sizeType, variantHash);
+            } else {
+                storedHashes.remove(sizeType);
+            }
+        }
+
+        public void store() {
+            try {
+                Files.createDirectories(hashFile.getParentFile().toPath());
+            } catch (IOException e) {
+                Debug.logWarning("Could not create image variant hashes directory " + hashFile.getParentFile() + ": " + e.toString(), module);
+                return;
+            }
+            try (OutputStream out = new FileOutputStream(hashFile)) {
+                storedHashes.store(out, originalPath);
+            } catch (IOException e) {
+                Debug.logWarning("Could not store image variant hashes " + hashFile + ": " + e.toString(), module);
+            }
+        }
+
+        private static String toHex(byte[] bytes) {
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
         }
     }
 
@@ -20,23 +20,40 @@ package org.ofbiz.product.product;
 
 import java.io.IOException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.GeneralException;
 import org.ofbiz.base.util.UtilDateTime;
 import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilObject;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.common.KeywordSearchUtil;
 import org.ofbiz.content.data.DataResourceWorker;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericPK;
 import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.entity.util.EntityQuery;
 import org.ofbiz.entity.util.EntityUtil;
 import org.ofbiz.entity.util.EntityUtilProperties;
@@ -47,6 +64,7 @@ import org.ofbiz.entity.util.EntityUtilProperties;
 public class KeywordIndex {
 
     private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+    private static final ThreadGroup KEYWORD_INDEX_THREAD_GROUP = new ThreadGroup("KeywordIndex"); // SCIPIO
 
     public static void forceIndexKeywords(GenericValue product) throws GenericEntityException {
         KeywordIndex.indexKeywords(product, true);
@@ -79,6 +97,29 @@ public class KeywordIndex {
         if (delegator == null) {
             return;
         }
+        // SCIPIO: keyword extraction factored into makeKeywords, shared with the bulk indexing
+        Map<String, Long> keywords = makeKeywords(product, null, delegator);
+
+        List<GenericValue> toBeStored = makeProductKeywordValues(product.getString("productId"), keywords, delegator);
+        if (toBeStored.size() > 0) {
+            if (Debug.verboseOn()) {
+                Debug.logVerbose("[KeywordIndex.indexKeywords] Storing " + toBeStored.size() + " keywords for productId " + product.getString("productId"), module);
+            }
+
+            if ("true".equals(EntityUtilProperties.getPropertyValue("prodsearch", "index.delete.on_index", "false", delegator))) {
+                // delete all keywords if the properties file says to
+                delegator.removeByAnd("ProductKeyword", UtilMisc.toMap("productId", product.getString("productId")));
+            }
+
+            delegator.storeAll(toBeStored);
+        }
+    }
+
+    /**
+     * SCIPIO: Extracts the weighted keywords of a product from its fields, features, attributes, identifications,
+     * variants and content. If sources is non-null, the related records are taken from it instead of queried.
+     */
+    private static Map<String, Long> makeKeywords(GenericValue product, ProductKeywordSources sources, Delegator delegator) throws GenericEntityException {
         String productId = product.getString("productId");
 
         // get these in advance just once since they will be used many times for the multiple strings to index
@@ -121,7 +162,8 @@ public class KeywordIndex {
             !"0".equals(EntityUtilProperties.getPropertyValue("prodsearch", "index.weight.ProductFeatureAndAppl.abbrev", "0", delegator)) ||
             !"0".equals(EntityUtilProperties.getPropertyValue("prodsearch", "index.weight.ProductFeatureAndAppl.idCode", "0", delegator))) {
             // get strings from attributes and features
-            List<GenericValue> productFeatureAndAppls = EntityQuery.use(delegator).from("ProductFeatureAndAppl").where("productId", productId).queryList();
+            List<GenericValue> productFeatureAndAppls = (sources != null) ? sources.getProductFeatureAndAppls(productId)
+                    : EntityQuery.use(delegator).from("ProductFeatureAndAppl").where("productId", productId).queryList();
             for (GenericValue productFeatureAndAppl: productFeatureAndAppls) {
                 addWeightedKeywordSourceString(productFeatureAndAppl, "description", strings);
                 addWeightedKeywordSourceString(productFeatureAndAppl, "abbrev", strings);
@@ -132,7 +174,8 @@ public class KeywordIndex {
         // ProductAttribute
         if (!"0".equals(EntityUtilProperties.getPropertyValue("prodsearch", "index.weight.ProductAttribute.attrName", "0", delegator)) ||
                 !"0".equals(EntityUtilProperties.getPropertyValue("prodsearch", "index.weight.ProductAttribute.attrValue", "0", delegator))) {
-            List<GenericValue> productAttributes = EntityQuery.use(delegator).from("ProductAttribute").where("productId", productId).queryList();
+            List<GenericValue> productAttributes = (sources != null) ? sources.getProductAttributes(productId)
+                    : EntityQuery.use(delegator).from("ProductAttribute").where("productId", productId).queryList();
             for (GenericValue productAttribute: productAttributes) {
                 addWeightedKeywordSourceString(productAttribute, "attrName", strings);
                 addWeightedKeywordSourceString(productAttribute, "attrValue", strings);
@@ -141,7 +184,8 @@ public class KeywordIndex {
 
         // GoodIdentification
         if (!"0".equals(EntityUtilProperties.getPropertyValue("prodsearch", "index.weight.GoodIdentification.idValue", "0", delegator))) {
-            List<GenericValue> goodIdentifications = EntityQuery.use(delegator).from("GoodIdentification").where("productId", productId).queryList();
+            List<GenericValue> goodIdentifications = (sources != null) ? sources.getGoodIdentifications(productId)
+                    : EntityQuery.use(delegator).from("GoodIdentification").where("productId", productId).queryList();
             for (GenericValue goodIdentification: goodIdentifications) {
                 addWeightedKeywordSourceString(goodIdentification, "idValue", strings);
             }
@@ -150,7 +194,8 @@ public class KeywordIndex {
         // Variant Product IDs
         if ("Y".equals(product.getString("isVirtual"))) {
             if (!"0".equals(EntityUtilProperties.getPropertyValue("prodsearch", "index.weight.Variant.Product.productId", "0", delegator))) {
-                List<GenericValue> variantProductAssocs = EntityQuery.use(delegator).from("ProductAssoc").where("productId", productId, "productAssocTypeId", "PRODUCT_VARIANT").filterByDate().queryList();
+                List<GenericValue> variantProductAssocs = (sources != null) ? sources.getVariantProductAssocs(productId)
+                        : EntityQuery.use(delegator).from("ProductAssoc").where("productId", productId, "productAssocTypeId", "PRODUCT_VARIANT").filterByDate().queryList();
                 for (GenericValue variantProductAssoc: variantProductAssocs) {
                     int weight = 1;
                     try {
@@ -175,7 +220,8 @@ public class KeywordIndex {
                 Debug.logWarning("Could not parse weight number: " + e.toString(), module);
             }
 
-            List<GenericValue> productContentAndInfos = EntityQuery.use(delegator).from("ProductContentAndInfo").where("productId", productId, "productContentTypeId", productContentTypeId).queryList();
+            List<GenericValue> productContentAndInfos = (sources != null) ? sources.getProductContentAndInfos(productId, productContentTypeId)
+                    : EntityQuery.use(delegator).from("ProductContentAndInfo").where("productId", productId, "productContentTypeId", productContentTypeId).queryList();
             for (GenericValue productContentAndInfo: productContentAndInfos) {
                 addWeightedDataResourceString(productContentAndInfo, weight, strings, delegator, product);
 
@@ -192,26 +238,357 @@ public class KeywordIndex {
                 KeywordSearchUtil.processKeywordsForIndex(str, keywords, separators, stopWordBagAnd, stopWordBagOr, removeStems, stemSet);
             }
         }
+        return keywords;
+    }
 
+    private static List<GenericValue> makeProductKeywordValues(String productId, Map<String, Long> keywords, Delegator delegator) {
         List<GenericValue> toBeStored = new LinkedList<>();
         int keywordMaxLength = EntityUtilProperties.getPropertyAsInteger("prodsearch", "product.keyword.max.length", 0);
         for (Map.Entry<String, Long> entry: keywords.entrySet()) {
             if (entry.getKey().length() <= keywordMaxLength) {
-                GenericValue productKeyword = delegator.makeValue("ProductKeyword", UtilMisc.toMap("productId", product.getString("productId"), "keyword", entry.getKey(), "keywordTypeId", "KWT_KEYWORD", "relevancyWeight", entry.getValue()));
+                GenericValue productKeyword = delegator.makeValue("ProductKeyword", UtilMisc.toMap("productId", productId, "keyword", entry.getKey(), "keywordTypeId", "KWT_KEYWORD", "relevancyWeight", entry.getValue()));
                 toBeStored.add(productKeyword);
             }
         }
-        if (toBeStored.size() > 0) {
-            if (Debug.verboseOn()) {
-                Debug.logVerbose("[KeywordIndex.indexKeywords] Storing " + toBeStored.size() + " keywords for productId " + product.getString("productId"), module);
+        return toBeStored;
+    }
+
+    /**
+     * SCIPIO: Makes the condition for the products to index, the same that {@link #indexKeywords(GenericValue, boolean)}
+     * checks for each product when doAll is false.
+     */
+    public static EntityCondition makeIndexProductCondition(Delegator delegator, boolean doAll, Timestamp nowTimestamp) {
+        EntityCondition autoCreateCond = EntityCondition.makeCondition(EntityCondition.makeCondition("autoCreateKeywords", EntityOperator.EQUALS, null), EntityOperator.OR, EntityCondition.makeCondition("autoCreateKeywords", EntityOperator.NOT_EQUAL, "N"));
+        if (doAll) {
+            return autoCreateCond;
+        }
+        List<EntityCondition> condList = new LinkedList<>();
+        condList.add(autoCreateCond);
+        if ("true".equals(EntityUtilProperties.getPropertyValue("prodsearch", "index.ignore.variants", delegator))) {
+            condList.add(EntityCondition.makeCondition(EntityCondition.makeCondition("isVariant", EntityOperator.EQUALS, null), EntityOperator.OR, EntityCondition.makeCondition("isVariant", EntityOperator.NOT_EQUAL, "Y")));
+        }
+        if ("true".equals(EntityUtilProperties.getPropertyValue("prodsearch", "index.ignore.discontinued.sales", delegator))) {
+            condList.add(EntityCondition.makeCondition(EntityCondition.makeCondition("salesDiscontinuationDate", EntityOperator.EQUALS, null), EntityOperator.OR, EntityCondition.makeCondition("salesDiscontinuationDate", EntityOperator.GREATER_THAN_EQUAL_TO, nowTimestamp)));
+        }
+        return EntityCondition.makeCondition(condList, EntityOperator.AND);
+    }
+
+    /**
+     * SCIPIO: Indexes the keywords of all the products matching the condition (see {@link #makeIndexProductCondition}), in batches.
+     * <p>
+     * For each batch of batchSize products, the features, attributes, identifications, variants and content records
+     * are loaded with one query per entity; the keywords are extracted on parallelism worker threads; and the
+     * ProductKeyword records are written in one transaction per batch, comparing against the existing keywords
+     * loaded for the batch so that only new keywords are inserted and only changed weights updated.
+     * <p>
+     * If changedSince is non-null, only the products whose Product, ProductFeatureAppl, ProductAttribute,
+     * GoodIdentification, ProductContent or variant ProductAssoc records were updated since then are indexed.
+     * <p>
+     * NOTE: Must not be called within a transaction, so that each batch is committed on its own.
+     */
+    public static BulkIndexResult indexKeywordsBulk(Delegator delegator, EntityCondition condition, Timestamp changedSince,
+            int batchSize, int parallelism) throws GenericEntityException {
+        BulkIndexResult result = new BulkIndexResult();
+        batchSize = Math.max(1, batchSize);
+        List<String> changedProductIds = null;
+        if (changedSince != null) {
+            changedProductIds = new ArrayList<>(getChangedProductIds(delegator, changedSince));
+            Debug.logInfo("Keyword index: found " + changedProductIds.size() + " products changed since " + changedSince, module);
+        }
+
+        ScheduledExecutorService executor = (parallelism > 1) ? ExecutionPool.getScheduledExecutor(KEYWORD_INDEX_THREAD_GROUP, "keyword-index", parallelism, 0, true) : null;
+        try {
+            String lastProductId = null;
+            int changedIndex = 0;
+            while (true) {
+                List<GenericValue> products;
+                if (changedProductIds != null) {
+                    if (changedIndex >= changedProductIds.size()) {
+                        break;
+                    }
+                    List<String> batchIds = changedProductIds.subList(changedIndex, Math.min(changedIndex + batchSize, changedProductIds.size()));
+                    changedIndex += batchIds.size();
+                    products = EntityQuery.use(delegator).from("Product").where(EntityCondition.makeCondition(condition, EntityOperator.AND,
+                            EntityCondition.makeCondition("productId", EntityOperator.IN, batchIds))).orderBy("productId").queryList();
+                } else {
+                    // keyset pagination, so no cursor is held open across the batch transactions
+                    EntityCondition batchCond = (lastProductId != null) ? EntityCondition.makeCondition(condition, EntityOperator.AND,
+                            EntityCondition.makeCondition("productId", EntityOperator.GREATER_THAN, lastProductId)) : condition;
+                    products = EntityQuery.use(delegator).from("Product").where(batchCond).orderBy("productId").maxRows(batchSize).queryList();
+                    if (products.isEmpty()) {
+                        break;
+                    }
+                    lastProductId = products.get(products.size() - 1).getString("productId");
+                }
+                if (!products.isEmpty()) {
+                    indexKeywordsBatch(delegator, products, executor, result);
+                }
+                if (changedProductIds == null && products.size() < batchSize) {
+                    break;
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    Debug.logWarning("Keyword index: interrupted, stopping after " + result.productCount + " products", module);
+                    break;
+                }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
             }
+        }
+        return result;
+    }
 
-            if ("true".equals(EntityUtilProperties.getPropertyValue("prodsearch", "index.delete.on_index", "false", delegator))) {
-                // delete all keywords if the properties file says to
-                delegator.removeByAnd("ProductKeyword", UtilMisc.toMap("productId", product.getString("productId")));
+    private static void indexKeywordsBatch(final Delegator delegator, List<GenericValue> products, ScheduledExecutorService executor,
+            BulkIndexResult result) {
+        long startTime = System.currentTimeMillis();
+        List<String> productIds = EntityUtil.getFieldListFromEntityList(products, "productId", false);
+        final ProductKeywordSources sources;
+        try {
+            sources = ProductKeywordSources.load(delegator, productIds);
+        } catch (GenericEntityException e) {
+            Debug.logWarning(e, "Keyword index: could not load the keyword sources for " + products.size() + " products starting at ["
+                    + productIds.get(0) + "]", module);
+            result.errorCount += products.size();
+            result.productCount += products.size();
+            return;
+        }
+
+        // extract the keywords (tokenize and stem), in parallel if there is an executor
+        Map<String, List<GenericValue>> productKeywords = new LinkedHashMap<>();
+        if (executor != null) {
+            Map<String, Future<Map<String, Long>>> futures = new LinkedHashMap<>();
+            for (final GenericValue product : products) {
+                futures.put(product.getString("productId"), executor.submit(new Callable<Map<String, Long>>() {
+                    @Override
+                    public Map<String, Long> call() throws Exception {
+                        return makeKeywords(product, sources, delegator);
+                    }
+                }));
             }
+            for (Map.Entry<String, Future<Map<String, Long>>> entry : futures.entrySet()) {
+                try {
+                    productKeywords.put(entry.getKey(), makeProductKeywordValues(entry.getKey(), entry.getValue().get(), delegator));
+                } catch (InterruptedException e) {
+                    for (Future<Map<String, Long>> future : futures.values()) {
+                        future.cancel(true);
+                    }
+                    Thread.currentThread().interrupt();
+                    Debug.logWarning("Keyword index: interrupted, the batch starting at [" + productIds.get(0) + "] is not written", module);
+                    result.errorCount += products.size();
+                    result.productCount += products.size();
+                    return;
+                } catch (ExecutionException e) {
+                    Debug.logWarning(e, "Keyword index: could not extract keywords for product [" + entry.getKey() + "]", module);
+                    result.errorCount++;
+                }
+            }
+        } else {
+            for (GenericValue product : products) {
+                String productId = product.getString("productId");
+                try {
+                    productKeywords.put(productId, makeProductKeywordValues(productId, makeKeywords(product, sources, delegator), delegator));
+                } catch (GenericEntityException e) {
+                    Debug.logWarning(e, "Keyword index: could not extract keywords for product [" + productId + "]", module);
+                    result.errorCount++;
+                }
+            }
+        }
+        result.productCount += products.size();
 
-            delegator.storeAll(toBeStored);
+        // write the keywords of the batch
+        boolean beganTransaction = false;
+        try {
+            beganTransaction = TransactionUtil.begin();
+            result.keywordCount += storeProductKeywords(delegator, productKeywords);
+            TransactionUtil.commit(beganTransaction);
+        } catch (GenericEntityException e) {
+            String errMsg = "Keyword index: could not store the keywords for " + productKeywords.size() + " products starting at ["
+                    + productIds.get(0) + "]";
+            Debug.logWarning(e, errMsg, module);
+            try {
+                TransactionUtil.rollback(beganTransaction, errMsg, e);
+            } catch (GenericTransactionException e2) {
+                Debug.logError(e2, module);
+            }
+            result.errorCount += productKeywords.size();
+        }
+        if (Debug.infoOn()) {
+            Debug.logInfo("Keyword index: indexed " + products.size() + " products in " + (System.currentTimeMillis() - startTime)
+                    + " ms (" + result.productCount + " so far)", module);
+        }
+    }
+
+    /**
+     * SCIPIO: Writes the keywords of a batch of products, with the same results as storeAll per product in
+     * {@link #indexKeywords(GenericValue, boolean)}, but comparing against the existing keywords of the batch,
+     * loaded in one query, instead of one lookup per keyword.
+     */
+    private static int storeProductKeywords(Delegator delegator, Map<String, List<GenericValue>> productKeywords) throws GenericEntityException {
+        boolean deleteOnIndex = "true".equals(EntityUtilProperties.getPropertyValue("prodsearch", "index.delete.on_index", "false", delegator));
+        List<String> productIds = new ArrayList<>(productKeywords.size());
+        for (Map.Entry<String, List<GenericValue>> entry : productKeywords.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                productIds.add(entry.getKey());
+            }
+        }
+        if (productIds.isEmpty()) {
+            return 0;
+        }
+        EntityCondition productIdCond = EntityCondition.makeCondition("productId", EntityOperator.IN, productIds);
+        Map<GenericPK, GenericValue> existingKeywords = new HashMap<>();
+        if (deleteOnIndex) {
+            // delete all keywords if the properties file says to
+            delegator.removeByCondition("ProductKeyword", productIdCond);
+        } else {
+            for (GenericValue existingKeyword : EntityQuery.use(delegator).from("ProductKeyword").where(productIdCond).queryList()) {
+                existingKeywords.put(existingKeyword.getPrimaryKey(), existingKeyword);
+            }
+        }
+        int numberChanged = 0;
+        for (String productId : productIds) {
+            for (GenericValue productKeyword : productKeywords.get(productId)) {
+                GenericValue existingKeyword = existingKeywords.get(productKeyword.getPrimaryKey());
+                if (existingKeyword == null) {
+                    delegator.create(productKeyword);
+                    numberChanged++;
+                } else if (!UtilObject.equalsHelper(existingKeyword.get("relevancyWeight"), productKeyword.get("relevancyWeight"))) {
+                    GenericValue toStore = delegator.makeValue("ProductKeyword", productKeyword.getPrimaryKey());
+                    toStore.put("relevancyWeight", productKeyword.get("relevancyWeight"));
+                    numberChanged += delegator.store(toStore);
+                }
+            }
+        }
+        return numberChanged;
+    }
+
+    private static Set<String> getChangedProductIds(Delegator delegator, Timestamp changedSince) throws GenericEntityException {
+        Set<String> productIds = new TreeSet<>();
+        EntityCondition changedCond = EntityCondition.makeCondition("lastUpdatedStamp", EntityOperator.GREATER_THAN_EQUAL_TO, changedSince);
+        for (String entityName : new String[] { "Product", "ProductFeatureAppl", "ProductAttribute", "GoodIdentification", "ProductContent" }) {
+            List<GenericValue> values = EntityQuery.use(delegator).select("productId").from(entityName).where(changedCond).distinct().queryList();
+            productIds.addAll(EntityUtil.getFieldListFromEntityList(values, "productId", false));
+        }
+        List<GenericValue> variantAssocs = EntityQuery.use(delegator).select("productId").from("ProductAssoc")
+                .where(changedCond, EntityCondition.makeCondition("productAssocTypeId", "PRODUCT_VARIANT")).distinct().queryList();
+        productIds.addAll(EntityUtil.getFieldListFromEntityList(variantAssocs, "productId", false));
+        return productIds;
+    }
+
+    /**
+     * SCIPIO: Result counts of {@link #indexKeywordsBulk}.
+     */
+    public static class BulkIndexResult {
+        private long productCount = 0;
+        private long errorCount = 0;
+        private long keywordCount = 0;
+
+        public long getProductCount() {
+            return productCount;
+        }
+
+        public long getErrorCount() {
+            return errorCount;
+        }
+
+        /** The number of ProductKeyword records created or updated. */
+        public long getKeywordCount() {
+            return keywordCount;
+        }
+    }
+
+    /**
+     * SCIPIO: The related records indexed for a batch of products, loaded with one query per entity and grouped by productId.
+     * Read-only once loaded, so shared by the worker threads.
+     */
+    private static class ProductKeywordSources {
+        private final Map<String, List<GenericValue>> productFeatureAndAppls;
+        private final Map<String, List<GenericValue>> productAttributes;
+        private final Map<String, List<GenericValue>> goodIdentifications;
+        private final Map<String, List<GenericValue>> variantProductAssocs;
+        private final Map<String, List<GenericValue>> productContentAndInfos;
+
+        private ProductKeywordSources(Map<String, List<GenericValue>> productFeatureAndAppls, Map<String, List<GenericValue>> productAttributes,
+                Map<String, List<GenericValue>> goodIdentifications, Map<String, List<GenericValue>> variantProductAssocs,
+                Map<String, List<GenericValue>> productContentAndInfos) {
+            this.productFeatureAndAppls = productFeatureAndAppls;
+            this.productAttributes = productAttributes;
+            this.goodIdentifications = goodIdentifications;
+            this.variantProductAssocs = variantProductAssocs;
+            this.productContentAndInfos = productContentAndInfos;
+        }
+
+        static ProductKeywordSources load(Delegator delegator, List<String> productIds) throws GenericEntityException {
+            EntityCondition productIdCond = EntityCondition.makeCondition("productId", EntityOperator.IN, productIds);
+            Map<String, List<GenericValue>> productFeatureAndAppls = Collections.emptyMap();
+            if (!"0".equals(EntityUtilProperties.getPropertyValue("prodsearch", "index.weight.ProductFeatureAndAppl.description", "0", delegator)) ||
+                !"0".equals(EntityUtilProperties.getPropertyValue("prodsearch", "index.weight.ProductFeatureAndAppl.abbrev", "0", delegator)) ||
+                !"0".equals(EntityUtilProperties.getPropertyValue("prodsearch", "index.weight.ProductFeatureAndAppl.idCode", "0", delegator))) {
+                productFeatureAndAppls = groupByProductId(EntityQuery.use(delegator).from("ProductFeatureAndAppl").where(productIdCond).queryList(), "productId");
+            }
+            Map<String, List<GenericValue>> productAttributes = Collections.emptyMap();
+            if (!"0".equals(EntityUtilProperties.getPropertyValue("prodsearch", "index.weight.ProductAttribute.attrName", "0", delegator)) ||
+                    !"0".equals(EntityUtilProperties.getPropertyValue("prodsearch", "index.weight.ProductAttribute.attrValue", "0", delegator))) {
+                productAttributes = groupByProductId(EntityQuery.use(delegator).from("ProductAttribute").where(productIdCond).queryList(), "productId");
+            }
+            Map<String, List<GenericValue>> goodIdentifications = Collections.emptyMap();
+            if (!"0".equals(EntityUtilProperties.getPropertyValue("prodsearch", "index.weight.GoodIdentification.idValue", "0", delegator))) {
+                goodIdentifications = groupByProductId(EntityQuery.use(delegator).from("GoodIdentification").where(productIdCond).queryList(), "productId");
+            }
+            Map<String, List<GenericValue>> variantProductAssocs = Collections.emptyMap();
+            if (!"0".equals(EntityUtilProperties.getPropertyValue("prodsearch", "index.weight.Variant.Product.productId", "0", delegator))) {
+                variantProductAssocs = groupByProductId(EntityQuery.use(delegator).from("ProductAssoc")
+                        .where(productIdCond, EntityCondition.makeCondition("productAssocTypeId", "PRODUCT_VARIANT")).filterByDate().queryList(), "productId");
+            }
+            List<String> productContentTypeIds = Arrays.asList(EntityUtilProperties.getPropertyValue("prodsearch", "index.include.ProductContentTypes", delegator).split(","));
+            Map<String, List<GenericValue>> productContentAndInfos = groupByProductId(EntityQuery.use(delegator).from("ProductContentAndInfo")
+                    .where(productIdCond, EntityCondition.makeCondition("productContentTypeId", EntityOperator.IN, productContentTypeIds)).queryList(), "productId");
+            return new ProductKeywordSources(productFeatureAndAppls, productAttributes, goodIdentifications, variantProductAssocs, productContentAndInfos);
+        }
+
+        private static Map<String, List<GenericValue>> groupByProductId(List<GenericValue> values, String fieldName) {
+            Map<String, List<GenericValue>> grouped = new HashMap<>();
+            for (GenericValue value : values) {
+                String productId = value.getString(fieldName);
+                List<GenericValue> productValues = grouped.get(productId);
+                if (productValues == null) {
+                    productValues = new ArrayList<>();
+                    grouped.put(productId, productValues);
+                }
+                productValues.add(value);
+            }
+            return grouped;
+        }
+
+        private static List<GenericValue> get(Map<String, List<GenericValue>> map, String productId) {
+            List<GenericValue> values = map.get(productId);
+            return (values != null) ? values : Collections.<GenericValue>emptyList();
+        }
+
+        List<GenericValue> getProductFeatureAndAppls(String productId) {
+            return get(productFeatureAndAppls, productId);
+        }
+
+        List<GenericValue> getProductAttributes(String productId) {
+            return get(productAttributes, productId);
+        }
+
+        List<GenericValue> getGoodIdentifications(String productId) {
+            return get(goodIdentifications, productId);
+        }
+
+        List<GenericValue> getVariantProductAssocs(String productId) {
+            return get(variantProductAssocs, productId);
+        }
+
+        List<GenericValue> getProductContentAndInfos(String productId, String productContentTypeId) {
+            List<GenericValue> values = new ArrayList<>();
+            for (GenericValue value : get(productContentAndInfos, productId)) {
+                if (productContentTypeId.equals(value.getString("productContentTypeId"))) {
+                    values.add(value);
+                }
+            }
+            return values;
         }
     }
 
@@ -51,7 +51,6 @@ import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.condition.EntityOperator;
 import org.ofbiz.entity.transaction.GenericTransactionException;
 import org.ofbiz.entity.transaction.TransactionUtil;
-import org.ofbiz.entity.util.EntityListIterator;
 import org.ofbiz.entity.util.EntityQuery;
 import org.ofbiz.entity.util.EntityUtil;
 import org.ofbiz.entity.util.EntityUtilProperties;
@@ -94,91 +93,37 @@ public class ProductEvents {
             return "error";
         }
 
-        EntityCondition condition = null;
-        if (!"Y".equals(doAll)) {
-            List<EntityCondition> condList = new LinkedList<>();
-            condList.add(EntityCondition.makeCondition(EntityCondition.makeCondition("autoCreateKeywords", EntityOperator.EQUALS, null), EntityOperator.OR, EntityCondition.makeCondition("autoCreateKeywords", EntityOperator.NOT_EQUAL, "N")));
-            if ("true".equals(EntityUtilProperties.getPropertyValue("prodsearch", "index.ignore.variants", delegator))) {
-                condList.add(EntityCondition.makeCondition(EntityCondition.makeCondition("isVariant", EntityOperator.EQUALS, null), EntityOperator.OR, EntityCondition.makeCondition("isVariant", EntityOperator.NOT_EQUAL, "Y")));
-            }
-            if ("true".equals(EntityUtilProperties.getPropertyValue("prodsearch", "index.ignore.discontinued.sales", delegator))) {
-                condList.add(EntityCondition.makeCondition(EntityCondition.makeCondition("salesDiscontinuationDate", EntityOperator.EQUALS, null), EntityOperator.OR, EntityCondition.makeCondition("salesDiscontinuationDate", EntityOperator.GREATER_THAN_EQUAL_TO, nowTimestamp)));
-            }
-            condition = EntityCondition.makeCondition(condList, EntityOperator.AND);
-        } else {
-            condition = EntityCondition.makeCondition(EntityCondition.makeCondition("autoCreateKeywords", EntityOperator.EQUALS, null), EntityOperator.OR, EntityCondition.makeCondition("autoCreateKeywords", EntityOperator.NOT_EQUAL, "N"));
-        }
+        // SCIPIO: products are now indexed in batches, with the keyword extraction on worker threads (see KeywordIndex.indexKeywordsBulk)
+        EntityCondition condition = KeywordIndex.makeIndexProductCondition(delegator, "Y".equals(doAll), nowTimestamp);
 
-
-        int numProds = 0;
-        int errProds = 0;
-
-        boolean beganTx = false;
+        long numProds = 0;
+        long errProds = 0;
         try {
-            // begin the transaction
-            beganTx = TransactionUtil.begin(7200);
-        } catch (GenericTransactionException gte) {
-            Debug.logError(gte, "Unable to begin transaction", module);
-        }
-        try (EntityListIterator  entityListIterator = EntityQuery.use(delegator).from("Product").where(condition).queryIterator()) {
-            try {
-                if (Debug.infoOn()) {
-                    long count = EntityQuery.use(delegator).from("Product").where(condition).queryCount();
-                    Debug.logInfo("========== Found " + count + " products to index ==========", module);
-                }
-            } catch (GenericEntityException gee) {
-                Debug.logWarning(gee, gee.getMessage(), module);
-                Map<String, String> messageMap = UtilMisc.toMap("gee", gee.toString());
-                errMsg = UtilProperties.getMessage(resource,"productevents.error_getting_product_list", messageMap, UtilHttp.getLocale(request));
-                request.setAttribute("_ERROR_MESSAGE_", errMsg);
-                return "error";
-            }
-
-            GenericValue product;
-            while ((product = entityListIterator.next()) != null) {
-                try {
-                    KeywordIndex.indexKeywords(product, "Y".equals(doAll));
-                } catch (GenericEntityException e) {
-                    Debug.logWarning("[ProductEvents.updateAllKeywords] Could not create product-keyword (write error); message: " + e.getMessage(), module);
-                    errProds++;
-                }
-                numProds++;
-                if (numProds % 500 == 0) {
-                    Debug.logInfo("Keywords indexed for " + numProds + " so far", module);
-                }
-            }
-        } catch (GenericEntityException e) {
-            try {
-                TransactionUtil.rollback(beganTx, e.getMessage(), e);
-            } catch (GenericTransactionException e1) {
-                Debug.logError(e1, module);
-            }
-            return "error";
-        } catch (Throwable t) {
-            Debug.logError(t, module);
-            request.setAttribute("_ERROR_MESSAGE_", t.getMessage());
-            try {
-                TransactionUtil.rollback(beganTx, t.getMessage(), t);
-            } catch (GenericTransactionException e2) {
-                Debug.logError(e2, module);
+            if (Debug.infoOn()) {
+                long count = EntityQuery.use(delegator).from("Product").where(condition).queryCount();
+                Debug.logInfo("========== Found " + count + " products to index ==========", module);
             }
+            KeywordIndex.BulkIndexResult result = KeywordIndex.indexKeywordsBulk(delegator, condition, null,
+                    EntityUtilProperties.getPropertyAsInteger("prodsearch", "index.bulk.batchSize", 200),
+                    EntityUtilProperties.getPropertyAsInteger("prodsearch", "index.bulk.parallelism", 4));
+            numProds = result.getProductCount();
+            errProds = result.getErrorCount();
+        } catch (GenericEntityException gee) {
+            Debug.logWarning(gee, gee.getMessage(), module);
+            Map<String, String> messageMap = UtilMisc.toMap("gee", gee.toString());
+            errMsg = UtilProperties.getMessage(resource,"productevents.error_getting_product_list", messageMap, UtilHttp.getLocale(request));
+            request.setAttribute("_ERROR_MESSAGE_", errMsg);
             return "error";
         }
-        // commit the transaction
-        try {
-            TransactionUtil.commit(beganTx);
-        } catch (GenericTransactionException e) {
-            Debug.logError(e, module);
-        }
 
         if (errProds == 0) {
-            Map<String, String> messageMap = UtilMisc.toMap("numProds", Integer.toString(numProds));
+            Map<String, String> messageMap = UtilMisc.toMap("numProds", Long.toString(numProds));
             errMsg = UtilProperties.getMessage(resource,"productevents.keyword_creation_complete_for_products", messageMap, UtilHttp.getLocale(request));
             request.setAttribute("_EVENT_MESSAGE_", errMsg);
             return "success";
         } else {
-            Map<String, String> messageMap = UtilMisc.toMap("numProds", Integer.toString(numProds));
-            messageMap.put("errProds", Integer.toString(errProds));
+            Map<String, String> messageMap = UtilMisc.toMap("numProds", Long.toString(numProds));
+            messageMap.put("errProds", Long.toString(errProds));
             errMsg = UtilProperties.getMessage(resource,"productevents.keyword_creation_complete_for_products_with_errors", messageMap, UtilHttp.getLocale(request));
             request.setAttribute("_ERROR_MESSAGE_", errMsg);
             return "error";
@@ -1648,4 +1648,35 @@ public class ProductServices {
         return UtilProperties.getMessage("ProductErrorUiLabels", "productservices.error_updating_ProductContent_simple_texts_for_alternate_locale_for_product",
                 context, locale);
     }
+
+    /**
+     * SCIPIO: Indexes the keywords of all products in batches (see {@link KeywordIndex#indexKeywordsBulk}).
+     */
+    public static Map<String, Object> indexProductKeywordsBulk(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Delegator delegator = dctx.getDelegator();
+        boolean doAll = Boolean.TRUE.equals(context.get("doAll"));
+        Timestamp changedSince = (Timestamp) context.get("changedSince");
+        Integer batchSize = (Integer) context.get("batchSize");
+        if (batchSize == null) {
+            batchSize = EntityUtilProperties.getPropertyAsInteger("prodsearch", "index.bulk.batchSize", 200);
+        }
+        Integer parallelism = (Integer) context.get("parallelism");
+        if (parallelism == null) {
+            parallelism = EntityUtilProperties.getPropertyAsInteger("prodsearch", "index.bulk.parallelism", 4);
+        }
+        KeywordIndex.BulkIndexResult result;
+        try {
+            result = KeywordIndex.indexKeywordsBulk(delegator, KeywordIndex.makeIndexProductCondition(delegator, doAll, UtilDateTime.nowTimestamp()),
+                    changedSince, batchSize, parallelism);
+        } catch (GenericEntityException e) {
+            Debug.logError(e, module);
+            return ServiceUtil.returnError(e.getMessage());
+        }
+        Map<String, Object> serviceResult = ServiceUtil.returnSuccess("Indexed " + result.getProductCount() + " products ("
+                + result.getErrorCount() + " errors, " + result.getKeywordCount() + " keywords written)");
+        serviceResult.put("productCount", result.getProductCount());
+        serviceResult.put("errorCount", result.getErrorCount());
+        serviceResult.put("keywordCount", result.getKeywordCount());
+        return serviceResult;
+    }
 }
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.product.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.product.product.KeywordIndex;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: Tests that the bulk keyword indexing ({@link KeywordIndex#indexKeywordsBulk}) writes the same ProductKeyword
+ * records as indexing each product with {@link KeywordIndex#forceIndexKeywords}.
+ */
+public class KeywordIndexBulkTests extends OFBizTestCase {
+
+    /** Demo products with features, attributes, content, a virtual product and its variant. */
+    private static final List<String> PRODUCT_IDS = Arrays.asList("PH-1000", "CL-7000", "CL-1000", "SW-1006", "GC-001",
+            "VH-9943", "VH-9943-B3-BX2");
+
+    public KeywordIndexBulkTests(String name) {
+        super(name);
+    }
+
+    private EntityCondition makeProductIdsCond() {
+        return EntityCondition.makeCondition("productId", EntityOperator.IN, PRODUCT_IDS);
+    }
+
+    private List<GenericValue> findKeywords() throws Exception {
+        return EntityQuery.use(delegator).from("ProductKeyword").where(makeProductIdsCond()).queryList();
+    }
+
+    /** Returns the keyword records by primary key, with their weight and status. */
+    private Map<String, String> describeKeywords() throws Exception {
+        Map<String, String> keywords = new TreeMap<>();
+        for (GenericValue keyword : findKeywords()) {
+            keywords.put(keyword.getString("productId") + "/" + keyword.getString("keyword") + "/" + keyword.getString("keywordTypeId"),
+                    keyword.get("relevancyWeight") + "/" + keyword.getString("statusId"));
+        }
+        return keywords;
+    }
+
+    public void testBulkIndexParity() throws Exception {
+        List<GenericValue> originalKeywords = new ArrayList<>(findKeywords());
+        try {
+            delegator.removeByCondition("ProductKeyword", makeProductIdsCond());
+            List<GenericValue> products = EntityQuery.use(delegator).from("Product").where(makeProductIdsCond()).queryList();
+            assertEquals("demo products", PRODUCT_IDS.size(), products.size());
+            for (GenericValue product : products) {
+                KeywordIndex.forceIndexKeywords(product);
+            }
+            Map<String, String> singleKeywords = describeKeywords();
+            assertFalse("keywords indexed", singleKeywords.isEmpty());
+
+            delegator.removeByCondition("ProductKeyword", makeProductIdsCond());
+            // batches smaller than the product count, and more than one worker
+            EntityCondition condition = EntityCondition.makeCondition(KeywordIndex.makeIndexProductCondition(delegator, true, UtilDateTime.nowTimestamp()),
+                    EntityOperator.AND, makeProductIdsCond());
+            KeywordIndex.BulkIndexResult result = KeywordIndex.indexKeywordsBulk(delegator, condition, null, 3, 2);
+            assertEquals("bulk errors", 0, result.getErrorCount());
+            assertEquals("bulk products", PRODUCT_IDS.size(), result.getProductCount());
+            assertEquals("same keywords as the single product indexing", singleKeywords, describeKeywords());
+            assertEquals("keyword count", singleKeywords.size(), result.getKeywordCount());
+
+            // a second bulk run finds every keyword unchanged
+            result = KeywordIndex.indexKeywordsBulk(delegator, condition, null, 3, 2);
+            assertEquals("unchanged keywords not rewritten", 0, result.getKeywordCount());
+            assertEquals("same keywords after a second run", singleKeywords, describeKeywords());
+        } finally {
+            delegator.removeByCondition("ProductKeyword", makeProductIdsCond());
+            delegator.storeAll(originalKeywords);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.product.test;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.common.image.ImageTransform;
+import org.ofbiz.product.image.ScaleImage;
+import org.ofbiz.product.image.ScaleImage.VariantSourceHashes;
+
+/**
+ * SCIPIO: Tests the image variant generation of {@link ScaleImage}: the unchanged variants are skipped using the
+ * source hashes ({@link VariantSourceHashes}), the changed ones are rescaled, and the variants scaled from a
+ * subsampled original have the requested dimensions.
+ */
+public class ScaleImageTests extends GenericTestCaseBase {
+
+    private File tempDir;
+
+    public ScaleImageTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        tempDir = Files.createTempDirectory("scaleimagetests").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursive(tempDir);
+        super.tearDown();
+    }
+
+    private static void deleteRecursive(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static File writeImage(File file, int width, int height, int shade) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setColor(new java.awt.Color(shade, 255 - shade, 128));
+            graphics.fillRect(0, 0, width, height);
+            graphics.setColor(java.awt.Color.BLACK);
+            graphics.drawLine(0, 0, width - 1, height - 1);
+        } finally {
+            graphics.dispose();
+        }
+        ImageIO.write(image, "png", file);
+        return file;
+    }
+
+    private static Map<String, String> dimensions(int width, int height) {
+        return UtilMisc.toMap("width", String.valueOf(width), "height", String.valueOf(height));
+    }
+
+    public void testUnchangedVariantSkipped() throws Exception {
+        File original = writeImage(new File(tempDir, "original.png"), 400, 300, 10);
+        File variant = new File(tempDir, "small.png");
+        File hashesDir = new File(tempDir, "hashes");
+        Map<String, String> smallDimensions = dimensions(100, 75);
+
+        VariantSourceHashes hashes = VariantSourceHashes.load(original.getPath(), hashesDir);
+        String variantHash = hashes.getVariantHash(smallDimensions);
+        assertNotNull("variant hash", variantHash);
+        assertFalse("never scaled: rescaled", hashes.isUnchanged("small", variantHash, variant));
+
+        // variant written and its source recorded
+        writeImage(variant, 100, 75, 10);
+        hashes.setStoredHash("small", variantHash);
+        hashes.store();
+
+        hashes = VariantSourceHashes.load(original.getPath(), hashesDir);
+        variantHash = hashes.getVariantHash(smallDimensions);
+        assertTrue("same original and dimensions: skipped", hashes.isUnchanged("small", variantHash, variant));
+        assertFalse("other dimensions: rescaled", hashes.isUnchanged("small", hashes.getVariantHash(dimensions(120, 90)), variant));
+        assertFalse("other size type: rescaled", hashes.isUnchanged("medium", variantHash, variant));
+
+        variant.delete();
+        assertFalse("variant file deleted: rescaled", hashes.isUnchanged("small", variantHash, variant));
+    }
+
+    public void testChangedOriginalRescaled() throws Exception {
+        File original = writeImage(new File(tempDir, "original.png"), 400, 300, 10);
+        File variant = writeImage(new File(tempDir, "small.png"), 100, 75, 10);
+        File hashesDir = new File(tempDir, "hashes");
+        Map<String, String> smallDimensions = dimensions(100, 75);
+
+        VariantSourceHashes hashes = VariantSourceHashes.load(original.getPath(), hashesDir);
+        hashes.setStoredHash("small", hashes.getVariantHash(smallDimensions));
+        hashes.store();
+
+        // new original uploaded at the same path
+        writeImage(original, 400, 300, 200);
+        hashes = VariantSourceHashes.load(original.getPath(), hashesDir);
+        assertFalse("changed original: rescaled", hashes.isUnchanged("small", hashes.getVariantHash(smallDimensions), variant));
+    }
+
+    public void testSubsampledVariantDimensions() throws Exception {
+        File original = writeImage(new File(tempDir, "large.png"), 2000, 1500, 60);
+        Map<String, Map<String, String>> imgPropertyMap = new HashMap<>();
+        imgPropertyMap.put("small", dimensions(100, 75));
+        imgPropertyMap.put("medium", dimensions(200, 150));
+
+        Map<String, Object> source = ScaleImage.getVariantSourceImage(original.getPath(), imgPropertyMap,
+                UtilMisc.toList("small", "medium"), Locale.ENGLISH);
+        assertEquals("read", "success", source.get("responseMessage"));
+        BufferedImage bufImg = (BufferedImage) source.get("bufferedImage");
+        int subsampling = (Integer) source.get("subsampling");
+        assertTrue("large original subsampled (" + subsampling + ")", subsampling >= 2);
+        assertEquals("original width reported", 2000, source.get("width"));
+        assertEquals("original height reported", 1500, source.get("height"));
+        assertTrue("subsampled image keeps the headroom over the largest variant", bufImg.getWidth() >= 200 && bufImg.getHeight() >= 150);
+        assertTrue("subsampled image smaller than the original", bufImg.getWidth() < 2000);
+
+        for (Map.Entry<String, Map<String, String>> entry : imgPropertyMap.entrySet()) {
+            Map<String, Object> scaled = ImageTransform.scaleImage(bufImg, bufImg.getHeight(), bufImg.getWidth(), imgPropertyMap, entry.getKey(), Locale.ENGLISH);
+            assertEquals(entry.getKey() + " scaled", "success", scaled.get("responseMessage"));
+            BufferedImage variant = (BufferedImage) scaled.get("bufferedImage");
+            assertEquals(entry.getKey() + " width", Integer.parseInt(entry.getValue().get("width")), variant.getWidth());
+            assertEquals(entry.getKey() + " height", Integer.parseInt(entry.getValue().get("height")), variant.getHeight());
+        }
+    }
+}
@@ -21,6 +21,7 @@ package org.ofbiz.base.concurrent;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.ExecutionException;
@@ -76,6 +77,19 @@ public final class ExecutionPool {
         return executor;
     }
 
+    /**
+     * SCIPIO: Returns a fixed-size executor with a bounded queue, which rejects the tasks submitted when the queue is full
+     * with a {@link java.util.concurrent.RejectedExecutionException}, for work that must be shed rather than queued under load.
+     */
+    public static ThreadPoolExecutor getBoundedExecutor(ThreadGroup group, String namePrefix, int threadCount, int queueSize, long keepAliveSeconds) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, keepAliveSeconds, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(queueSize, 1)), new ExecutionPoolThreadFactory(group, namePrefix), new ThreadPoolExecutor.AbortPolicy());
+        if (keepAliveSeconds > 0) {
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
     public static <F> List<F> getAllFutures(Collection<Future<F>> futureList) {
         List<F> result = new LinkedList<>();
         for (Future<F> future: futureList) {
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.container;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.GroovyScriptClassCache;
+import org.ofbiz.base.util.GroovyUtil;
+import org.ofbiz.base.util.UtilProperties;
+
+/**
+ * SCIPIO: Preloads the Groovy script classes at startup, in parallel and in the background, from the persistent
+ * {@link GroovyScriptClassCache}: the scripts loaded by the previous runs (<code>scriptClassCache.preload</code>) and,
+ * with <code>scriptClassCache.precompileAll</code> (groovy.properties), all the Groovy scripts of the components,
+ * which are compiled into the cache directory if not already there (e.g. once when building a server image).
+ */
+public class GroovyScriptCacheContainer implements Container {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    private static final ThreadGroup GROOVY_PRELOAD_THREAD_GROUP = new ThreadGroup("GroovyScriptPreload");
+
+    private String name;
+    private volatile Thread preloadThread;
+
+    @Override
+    public void init(String[] args, String name, String configFile) throws ContainerException {
+        this.name = name;
+    }
+
+    @Override
+    public boolean start() throws ContainerException {
+        if (!GroovyScriptClassCache.isEnabled()) {
+            return true;
+        }
+        final boolean preload = UtilProperties.getPropertyAsBoolean("groovy", "scriptClassCache.preload", true);
+        final boolean precompileAll = UtilProperties.getPropertyAsBoolean("groovy", "scriptClassCache.precompileAll", false);
+        if (!preload && !precompileAll) {
+            return true;
+        }
+        Thread thread = new Thread(GROOVY_PRELOAD_THREAD_GROUP, new Runnable() {
+            @Override
+            public void run() {
+                preloadScripts(preload, precompileAll);
+            }
+        }, "groovy-script-preload");
+        thread.setDaemon(true);
+        preloadThread = thread;
+        thread.start();
+        return true;
+    }
+
+    protected void preloadScripts(boolean preload, boolean precompileAll) {
+        long startTime = System.currentTimeMillis();
+        Set<String> locations = new LinkedHashSet<>();
+        if (preload) {
+            locations.addAll(GroovyScriptClassCache.getIndexedLocations());
+        }
+        if (precompileAll) {
+            locations.addAll(GroovyScriptClassCache.findComponentScriptLocations());
+        }
+        if (locations.isEmpty()) {
+            return;
+        }
+        int threadCount = UtilProperties.getPropertyAsInteger("groovy", "scriptClassCache.preloadThreads", 0);
+        if (threadCount <= 0) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+        }
+        long loadCountBefore = GroovyScriptClassCache.getLoadCount();
+        long compileCountBefore = GroovyScriptClassCache.getCompileCount();
+        final AtomicInteger errorCount = new AtomicInteger();
+        ScheduledExecutorService executor = ExecutionPool.getScheduledExecutor(GROOVY_PRELOAD_THREAD_GROUP, "groovy-script-preload", threadCount, 0, true);
+        try {
+            List<Future<Class<?>>> futures = new ArrayList<>(locations.size());
+            for (final String location : locations) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        return GroovyUtil.getScriptClassFromLocation(location);
+                    } catch (Throwable t) {
+                        // NOTE: scripts that fail here fail the same way when used; not an error for the startup
+                        errorCount.incrementAndGet();
+                        if (Debug.verboseOn()) {
+                            Debug.logVerbose(t, "Could not preload Groovy script [" + location + "]", module);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            ExecutionPool.getAllFutures(futures);
+        } finally {
+            executor.shutdown();
+        }
+        Debug.logInfo("Preloaded " + locations.size() + " Groovy scripts in " + (System.currentTimeMillis() - startTime) + "ms ("
+                + (GroovyScriptClassCache.getLoadCount() - loadCountBefore) + " from class cache, "
+                + (GroovyScriptClassCache.getCompileCount() - compileCountBefore) + " compiled, " + errorCount.get() + " failed)", module);
+    }
+
+    @Override
+    public void stop() throws ContainerException {
+        Thread thread = preloadThread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
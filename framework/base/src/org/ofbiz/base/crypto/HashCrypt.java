@@ -24,6 +24,7 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Map;
 
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
@@ -31,12 +32,15 @@ import javax.crypto.spec.PBEKeySpec;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.lang3.RandomStringUtils;
+import org.ofbiz.base.metrics.Metrics;
+import org.ofbiz.base.metrics.MetricsFactory;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.GeneralRuntimeException;
 import org.ofbiz.base.util.StringUtil;
 import org.ofbiz.base.util.UtilIO;
 import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.base.util.cache.UtilCache;
 
 /**
  * Utility class for doing SHA-1/PBKDF2 One-Way Hash Encryption
@@ -55,6 +59,16 @@ public class HashCrypt {
 
     private static Boolean systemCharsetUtf8 = null; // SCIPIO
 
+    /*
+     * SCIPIO: PBKDF2 password verification (password.verify.* in security.properties), see PasswordVerifier.
+     */
+    private static final int VERIFY_THREADS = getVerifyThreadCount();
+    private static final int VERIFY_QUEUE_SIZE = UtilProperties.getPropertyAsInteger("security", "password.verify.queueSize", 100);
+    private static final long VERIFY_TIMEOUT_MS = UtilProperties.getPropertyAsLong("security", "password.verify.timeoutMs", 10000L);
+    private static final long VERIFIED_CACHE_TTL_MS = UtilProperties.getPropertyAsLong("security", "password.verify.cache.ttlSeconds", 60L) * 1000;
+    private static final int VERIFIED_CACHE_MAX_SIZE = UtilProperties.getPropertyAsInteger("security", "password.verify.cache.maxSize", 10000);
+    private static volatile PasswordVerifier passwordVerifier = createPasswordVerifier();
+
     public static MessageDigest getMessageDigest(String type) {
         try {
             return MessageDigest.getInstance(type);
@@ -74,7 +88,7 @@ public class HashCrypt {
      */
     public static boolean comparePassword(String crypted, String defaultCrypt, String password) {
         if (crypted.startsWith("{PBKDF2")) {
-            return doComparePbkdf2(crypted, password);
+            return verifyPbkdf2(crypted, password); // SCIPIO: bounded executor and verified-credential cache
         } else if (crypted.startsWith("{")) {
             // SCIPIO: 2018-09-13: Check with UTF-8 first, then fallback to system charset (for backward-compat)
             if (doCompareTypePrefix(crypted, defaultCrypt, password.getBytes(UtilIO.getUtf8()))) {
@@ -270,6 +284,55 @@ public class HashCrypt {
         }
     }
 
+    /**
+     * SCIPIO: Verifies the password against the PBKDF2 hash like {@link #doComparePbkdf2(String, String)}, using the
+     * verified-credential cache and computing the hash on the bounded password verification executor.
+     * @throws PasswordVerificationRejectedException if the executor queue is full or the verification times out
+     */
+    public static boolean verifyPbkdf2(final String crypted, final String password) {
+        return passwordVerifier.verify(crypted, password);
+    }
+
+    private static PasswordVerifier createPasswordVerifier() {
+        UtilCache<String, Boolean> verifiedCredentialCache = (VERIFIED_CACHE_TTL_MS > 0)
+                ? UtilCache.createUtilCache("security.VerifiedCredentialCache", VERIFIED_CACHE_MAX_SIZE, VERIFIED_CACHE_TTL_MS, false) : null;
+        Metrics verifyMetrics = MetricsFactory.getInstance("HashCrypt.verifyPbkdf2",
+                UtilProperties.getPropertyAsInteger("serverstats", "metrics.estimation.size", 100),
+                UtilProperties.getPropertyAsLong("serverstats", "metrics.estimation.time", 1000),
+                UtilProperties.getPropertyNumber("serverstats", "metrics.smoothing.factor", 0.7), 0.0);
+        return new PasswordVerifier(VERIFY_THREADS, VERIFY_QUEUE_SIZE, VERIFY_TIMEOUT_MS, verifiedCredentialCache, verifyMetrics);
+    }
+
+    private static int getVerifyThreadCount() {
+        int threadCount = UtilProperties.getPropertyAsInteger("security", "password.verify.threads", 0);
+        return (threadCount == 0) ? Runtime.getRuntime().availableProcessors() : threadCount;
+    }
+
+    /**
+     * SCIPIO: Returns the verifier used for the PBKDF2 hashes by {@link #comparePassword}.
+     */
+    public static PasswordVerifier getPasswordVerifier() {
+        return passwordVerifier;
+    }
+
+    /**
+     * SCIPIO: Replaces the verifier used for the PBKDF2 hashes, returning the previous one; for tests.
+     */
+    public static PasswordVerifier setPasswordVerifier(PasswordVerifier verifier) {
+        PasswordVerifier previous = passwordVerifier;
+        passwordVerifier = verifier;
+        return previous;
+    }
+
+    /**
+     * SCIPIO: Returns the PBKDF2 password verification counters: verifications, verified-credential cache hits,
+     * rejected (queue full) and timed out verifications, average hashing and queue wait times, and current queue size.
+     * The hashing rate is also recorded in the <code>HashCrypt.verifyPbkdf2</code> metric. See {@link PasswordVerifier#getStats()}.
+     */
+    public static Map<String, Object> getPasswordVerifyStats() {
+        return passwordVerifier.getStats();
+    }
+
     public static boolean doComparePbkdf2(String crypted, String password){
         try {
             int typeEnd = crypted.indexOf("}");
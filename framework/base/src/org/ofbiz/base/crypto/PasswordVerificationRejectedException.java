@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.crypto;
+
+import org.ofbiz.base.util.GeneralRuntimeException;
+
+/**
+ * SCIPIO: Thrown by {@link HashCrypt#comparePassword} when a password hash could not be verified because
+ * the password verification executor is saturated or the verification timed out; the password was
+ * neither accepted nor refused, so this must not count as a failed login.
+ */
+@SuppressWarnings("serial")
+public class PasswordVerificationRejectedException extends GeneralRuntimeException {
+
+    public PasswordVerificationRejectedException(String msg) {
+        super(msg);
+    }
+
+    public PasswordVerificationRejectedException(String msg, Throwable nested) {
+        super(msg, nested);
+    }
+}
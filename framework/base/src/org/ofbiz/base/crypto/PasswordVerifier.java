@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.crypto;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.metrics.Metrics;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.GeneralRuntimeException;
+import org.ofbiz.base.util.UtilIO;
+import org.ofbiz.base.util.cache.UtilCache;
+
+/**
+ * SCIPIO: PBKDF2 password verification on a bounded executor, with a cache of the successful verifications.
+ * <p>
+ * The hashes are computed on a bounded executor, so that a burst of logins (e.g. credential stuffing against
+ * header/basic auth) is rejected fast, with {@link PasswordVerificationRejectedException}, instead of holding all the
+ * request threads; and the successful verifications are cached for a short time, so that the repeated API calls with
+ * the same credentials are not hashed again. The cache keys are a keyed hash (per-verifier random key) of the stored
+ * hash and the password, so a password change (new stored hash) misses the cache.
+ * <p>
+ * The verifier used by {@link HashCrypt#comparePassword} is configured by the password.verify.* settings of
+ * security.properties, see {@link HashCrypt#getPasswordVerifier()}.
+ */
+public class PasswordVerifier {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    private static final ThreadGroup PASSWORD_VERIFY_THREAD_GROUP = new ThreadGroup("PasswordVerify");
+    private static final String CACHE_KEY_ALGORITHM = "HmacSHA256";
+
+    private final int threads;
+    private final int queueSize;
+    private final long timeoutMs;
+    /** Keys: keyed hash of the stored hash and the password; only the successful verifications are cached. */
+    private final UtilCache<String, Boolean> verifiedCredentialCache;
+    /** Random key of the cache keys, so they can't be matched against the stored hashes or precomputed. */
+    private final byte[] cacheKeySecret = createCacheKeySecret();
+    private final Metrics metrics;
+    private volatile ThreadPoolExecutor executor;
+
+    private final AtomicLong verifyCount = new AtomicLong();
+    private final AtomicLong verifyNanos = new AtomicLong();
+    private final AtomicLong verifyWaitNanos = new AtomicLong();
+    private final AtomicLong cacheHitCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    /**
+     * Creates a verifier hashing on an executor of the given threads and queue size, created on first use;
+     * with threads below 0, the hashes are computed in the calling thread. The cache and metrics may be null.
+     */
+    public PasswordVerifier(int threads, int queueSize, long timeoutMs, UtilCache<String, Boolean> verifiedCredentialCache, Metrics metrics) {
+        this.threads = threads;
+        this.queueSize = queueSize;
+        this.timeoutMs = timeoutMs;
+        this.verifiedCredentialCache = verifiedCredentialCache;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Creates a verifier hashing on the given executor (null: in the calling thread), which the caller shuts down.
+     */
+    public PasswordVerifier(ThreadPoolExecutor executor, long timeoutMs, UtilCache<String, Boolean> verifiedCredentialCache) {
+        this.threads = (executor != null) ? executor.getMaximumPoolSize() : -1;
+        this.queueSize = (executor != null) ? executor.getQueue().remainingCapacity() + executor.getQueue().size() : 0;
+        this.timeoutMs = timeoutMs;
+        this.verifiedCredentialCache = verifiedCredentialCache;
+        this.metrics = null;
+        this.executor = executor;
+    }
+
+    /**
+     * Verifies the password against the PBKDF2 hash like {@link HashCrypt#doComparePbkdf2(String, String)}, using the
+     * verified-credential cache and computing the hash on the bounded executor.
+     * @throws PasswordVerificationRejectedException if the executor queue is full or the verification times out
+     */
+    public boolean verify(final String crypted, final String password) {
+        String cacheKey = null;
+        if (verifiedCredentialCache != null) {
+            cacheKey = getCacheKey(crypted, password);
+            if (cacheKey != null && verifiedCredentialCache.get(cacheKey) != null) {
+                cacheHitCount.incrementAndGet();
+                return true;
+            }
+        }
+        final long submitTime = System.nanoTime();
+        boolean result;
+        ThreadPoolExecutor executor = getExecutor();
+        if (executor == null) {
+            result = timedCompare(crypted, password, submitTime);
+        } else {
+            Future<Boolean> future;
+            try {
+                future = executor.submit(() -> timedCompare(crypted, password, submitTime));
+            } catch (RejectedExecutionException e) {
+                rejectedCount.incrementAndGet();
+                throw new PasswordVerificationRejectedException("Password verification rejected: "
+                        + executor.getQueue().size() + " verifications already queued");
+            }
+            try {
+                result = future.get(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                timeoutCount.incrementAndGet();
+                throw new PasswordVerificationRejectedException("Password verification timed out after " + timeoutMs + "ms");
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new PasswordVerificationRejectedException("Password verification interrupted", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new GeneralRuntimeException("Error while verifying password", e.getCause());
+            }
+        }
+        if (result && cacheKey != null) {
+            verifiedCredentialCache.put(cacheKey, Boolean.TRUE);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the counters: verifications, verified-credential cache hits, rejected (queue full) and timed out
+     * verifications, average hashing and queue wait times, current queue size, and the hashing rate if there are metrics.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long count = verifyCount.get();
+        stats.put("verified", count);
+        stats.put("cacheHits", cacheHitCount.get());
+        stats.put("rejected", rejectedCount.get());
+        stats.put("timedOut", timeoutCount.get());
+        stats.put("avgHashMs", (count > 0) ? TimeUnit.NANOSECONDS.toMillis(verifyNanos.get() / count) : 0L);
+        stats.put("avgWaitMs", (count > 0) ? TimeUnit.NANOSECONDS.toMillis(verifyWaitNanos.get() / count) : 0L);
+        ThreadPoolExecutor executor = this.executor;
+        stats.put("queueSize", (executor != null) ? executor.getQueue().size() : 0);
+        stats.put("activeThreads", (executor != null) ? executor.getActiveCount() : 0);
+        if (metrics != null) {
+            stats.put("serviceRate", metrics.getServiceRate());
+        }
+        return stats;
+    }
+
+    private boolean timedCompare(String crypted, String password, long submitTime) {
+        long startTime = System.nanoTime();
+        try {
+            return HashCrypt.doComparePbkdf2(crypted, password);
+        } finally {
+            long endTime = System.nanoTime();
+            verifyCount.incrementAndGet();
+            verifyNanos.addAndGet(endTime - startTime);
+            verifyWaitNanos.addAndGet(startTime - submitTime);
+            if (metrics != null) {
+                metrics.recordServiceRate(1, TimeUnit.NANOSECONDS.toMillis(endTime - startTime));
+            }
+        }
+    }
+
+    private String getCacheKey(String crypted, String password) {
+        try {
+            Mac mac = Mac.getInstance(CACHE_KEY_ALGORITHM);
+            mac.init(new SecretKeySpec(cacheKeySecret, CACHE_KEY_ALGORITHM));
+            mac.update(crypted.getBytes(UtilIO.getUtf8()));
+            mac.update((byte) 0);
+            return Base64.encodeBase64String(mac.doFinal(password.getBytes(UtilIO.getUtf8())));
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            Debug.logError("Could not compute verified credential cache key: " + e.toString(), module);
+            return null;
+        }
+    }
+
+    private static byte[] createCacheKeySecret() {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        return secret;
+    }
+
+    private ThreadPoolExecutor getExecutor() {
+        if (threads < 0) {
+            return null;
+        }
+        ThreadPoolExecutor executor = this.executor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = this.executor;
+                if (executor == null) {
+                    executor = ExecutionPool.getBoundedExecutor(PASSWORD_VERIFY_THREAD_GROUP, "password-verify", threads, queueSize, 60);
+                    this.executor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+}
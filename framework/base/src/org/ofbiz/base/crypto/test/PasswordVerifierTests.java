@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.crypto.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.crypto.HashCrypt;
+import org.ofbiz.base.crypto.PasswordVerificationRejectedException;
+import org.ofbiz.base.crypto.PasswordVerifier;
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.base.util.cache.UtilCache;
+
+/**
+ * SCIPIO: Tests the {@link PasswordVerifier} verified-credential cache and its rejection of the verifications
+ * when its executor is saturated or too slow.
+ */
+public class PasswordVerifierTests extends GenericTestCaseBase {
+
+    private static final ThreadGroup TEST_THREAD_GROUP = new ThreadGroup("PasswordVerifierTests");
+
+    public PasswordVerifierTests(String name) {
+        super(name);
+    }
+
+    private static String hash(String password) {
+        return HashCrypt.pbkdf2HashCrypt("PBKDF2WithHmacSHA256", (byte[]) null, password);
+    }
+
+    private static long getStat(PasswordVerifier verifier, String name) {
+        return ((Number) verifier.getStats().get(name)).longValue();
+    }
+
+    public void testVerifiedCredentialCache() throws Exception {
+        UtilCache<String, Boolean> cache = UtilCache.createUtilCache("test.PasswordVerifierTests.cache", 100, 60000, false);
+        PasswordVerifier verifier = new PasswordVerifier(null, 10000, cache);
+        String crypted = hash("secret1");
+
+        assertFalse("Wrong password refused", verifier.verify(crypted, "wrong"));
+        assertFalse("Wrong password refused again (not cached)", verifier.verify(crypted, "wrong"));
+        assertEquals("Refusals are hashed each time", 2, getStat(verifier, "verified"));
+
+        assertTrue("Password verified", verifier.verify(crypted, "secret1"));
+        assertEquals("First verification is a cache miss", 0, getStat(verifier, "cacheHits"));
+        assertTrue("Password verified again", verifier.verify(crypted, "secret1"));
+        assertEquals("Second verification is a cache hit", 1, getStat(verifier, "cacheHits"));
+        assertEquals("Cache hit is not hashed", 3, getStat(verifier, "verified"));
+        assertEquals("Cache does not hold the password or hash", 1, cache.size());
+        for (String key : cache.getCacheLineKeys()) {
+            assertFalse("Cache key is not the password", key.contains("secret1"));
+            assertFalse("Cache key is not the stored hash", crypted.contains(key));
+        }
+
+        // password changed: new stored hash (new salt), even for the same password
+        String changedCrypted = hash("secret1");
+        assertTrue("Password verified against the new hash", verifier.verify(changedCrypted, "secret1"));
+        assertEquals("New hash is a cache miss", 1, getStat(verifier, "cacheHits"));
+        assertEquals("New hash is hashed", 4, getStat(verifier, "verified"));
+        assertFalse("Old password refused against the changed hash", verifier.verify(hash("secret2"), "secret1"));
+
+        // another verifier has another cache key secret
+        PasswordVerifier otherVerifier = new PasswordVerifier(null, 10000, cache);
+        assertTrue("Password verified by another verifier", otherVerifier.verify(crypted, "secret1"));
+        assertEquals("Other verifier key is a cache miss", 0, getStat(otherVerifier, "cacheHits"));
+        cache.clear();
+    }
+
+    public void testRejectedWhenExecutorFull() throws Exception {
+        ThreadPoolExecutor executor = ExecutionPool.getBoundedExecutor(TEST_THREAD_GROUP, "password-verify-test", 1, 1, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.submit(() -> release.await(10, TimeUnit.SECONDS)); // busy thread
+            executor.submit(() -> release.await(10, TimeUnit.SECONDS)); // full queue
+            PasswordVerifier verifier = new PasswordVerifier(executor, 10000, null);
+            try {
+                verifier.verify(hash("secret1"), "secret1");
+                fail("Verification rejected when the executor is full");
+            } catch (PasswordVerificationRejectedException e) {
+                // expected
+            }
+            assertEquals("Rejection counted", 1, getStat(verifier, "rejected"));
+            assertEquals("Nothing hashed", 0, getStat(verifier, "verified"));
+
+            release.countDown();
+            assertTrue("Verification after the executor drained", verifier.verify(hash("secret1"), "secret1"));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    public void testTimeout() throws Exception {
+        ThreadPoolExecutor executor = ExecutionPool.getBoundedExecutor(TEST_THREAD_GROUP, "password-verify-test", 1, 10, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.submit(() -> release.await(10, TimeUnit.SECONDS)); // busy thread, the verification waits in the queue
+            PasswordVerifier verifier = new PasswordVerifier(executor, 200, null);
+            long startTime = System.currentTimeMillis();
+            try {
+                verifier.verify(hash("secret1"), "secret1");
+                fail("Verification times out");
+            } catch (PasswordVerificationRejectedException e) {
+                // expected
+            }
+            assertTrue("Timed out after the timeout", System.currentTimeMillis() - startTime >= 200);
+            assertEquals("Timeout counted", 1, getStat(verifier, "timedOut"));
+            release.countDown();
+            executor.shutdown();
+            assertTrue("Executor stopped", executor.awaitTermination(10, TimeUnit.SECONDS));
+            assertEquals("Timed out verification cancelled, not hashed", 0, getStat(verifier, "verified"));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
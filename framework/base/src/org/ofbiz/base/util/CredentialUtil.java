@@ -23,6 +23,12 @@ import org.ofbiz.base.crypto.HashCrypt;
 
 public class CredentialUtil {
 
+    /**
+     * Checks the password against the stored one.
+     * SCIPIO: Callers must handle {@link org.ofbiz.base.crypto.PasswordVerificationRejectedException}, thrown when
+     * the password hash could not be verified (verification executor saturated); the password is then neither
+     * accepted nor refused.
+     */
     public static boolean checkPassword(String oldPassword, boolean useEncryption, String currentPassword) {
         boolean passwordMatches = false;
         if (oldPassword != null) {
@@ -0,0 +1,382 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.tools.GroovyClass;
+import org.ofbiz.base.component.ComponentConfig;
+
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovySystem;
+
+/**
+ * SCIPIO: Persistent class cache for the Groovy scripts loaded by location ({@link GroovyUtil#getScriptClassFromLocation(String)},
+ * used by the screen, service, event and minilang script calls).
+ * <p>
+ * The classes compiled for a script are saved in the cache directory (groovy.properties <code>scriptClassCache.dir</code>,
+ * default <code>runtime/groovy-classes</code>) under the hash of the script location, its source, the Groovy version,
+ * the compiler configuration and the classpath jars, so a script is only compiled again when one of those changes,
+ * and not again by every new server. The locations loaded are also recorded in an index, which
+ * {@link org.ofbiz.base.container.GroovyScriptCacheContainer} preloads in parallel at startup, so the first
+ * renders do not pay for the Groovy compilation.
+ * <p>
+ * The cache directory can be deleted at any time; bump {@link #CACHE_FORMAT} when the compiler customizers
+ * set in {@link GroovyUtil} change.
+ */
+public final class GroovyScriptClassCache {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    /** Version of the cache file format and of the compiler customizers; part of the hash. */
+    public static final String CACHE_FORMAT = "1";
+
+    private static final int FILE_MAGIC = 0x53474331; // "SGC1"
+    private static final String FILE_SUFFIX = ".classes";
+    private static final String INDEX_FILE = "locations.txt";
+
+    private static final boolean ENABLED = UtilProperties.getPropertyAsBoolean("groovy", "scriptClassCache.enable", true);
+    private static final File CACHE_DIR = resolveCacheDir(UtilProperties.getPropertyValue("groovy", "scriptClassCache.dir", "runtime/groovy-classes"));
+
+    private static final Set<String> indexedLocations = ConcurrentHashMap.newKeySet();
+    private static volatile boolean indexRead = false;
+    private static volatile String classpathStamp;
+
+    private static final AtomicLong loadCount = new AtomicLong();
+    private static final AtomicLong compileCount = new AtomicLong();
+
+    private GroovyScriptClassCache() {}
+
+    public static boolean isEnabled() {
+        return ENABLED && CACHE_DIR != null;
+    }
+
+    public static File getCacheDir() {
+        return CACHE_DIR;
+    }
+
+    /** Returns the number of script classes loaded from the cache directory since startup. */
+    public static long getLoadCount() {
+        return loadCount.get();
+    }
+
+    /** Returns the number of scripts compiled (and saved to the cache directory) since startup. */
+    public static long getCompileCount() {
+        return compileCount.get();
+    }
+
+    private static File resolveCacheDir(String dirName) {
+        if (dirName.isEmpty()) {
+            return null;
+        }
+        File dir = new File(dirName);
+        if (!dir.isAbsolute() && System.getProperty("ofbiz.home") != null) {
+            dir = new File(System.getProperty("ofbiz.home"), dirName);
+        }
+        return dir;
+    }
+
+    /**
+     * Returns the main class of the script at the location, loaded from the cache directory if it was compiled before,
+     * otherwise compiled and saved there; the location is recorded in the index for the next startup preload.
+     */
+    public static Class<?> getScriptClass(String location, String source, CompilerConfiguration conf, ClassLoader parent) throws IOException, CompilationFailedException {
+        Class<?> scriptClass = getScriptClass(CACHE_DIR, location, source, conf, parent);
+        addIndexedLocation(location);
+        return scriptClass;
+    }
+
+    /**
+     * Returns the main class of the script at the location, using the given cache directory.
+     */
+    public static Class<?> getScriptClass(File cacheDir, String location, String source, CompilerConfiguration conf, ClassLoader parent) throws IOException, CompilationFailedException {
+        String key = makeKey(location, source, conf, parent);
+        File file = new File(cacheDir, key + FILE_SUFFIX);
+        if (file.isFile()) {
+            try {
+                Class<?> scriptClass = readClasses(file, conf, parent);
+                loadCount.incrementAndGet();
+                return scriptClass;
+            } catch (IOException | ClassNotFoundException | LinkageError e) {
+                Debug.logWarning("Invalid Groovy class cache file [" + file + "] for script [" + location + "], compiling again: " + e.toString(), module);
+                file.delete();
+            }
+        }
+        Map<String, byte[]> classBytes = new HashMap<>();
+        String mainClassName = compile(location, source, conf, parent, classBytes);
+        compileCount.incrementAndGet();
+        try {
+            writeClasses(file, mainClassName, classBytes);
+        } catch (IOException e) {
+            Debug.logWarning("Could not write Groovy class cache file [" + file + "] for script [" + location + "]: " + e.toString(), module);
+        }
+        try {
+            return new CachedScriptClassLoader(parent, conf, classBytes).loadClass(mainClassName);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Compiled Groovy script [" + location + "] has no main class [" + mainClassName + "]", e);
+        }
+    }
+
+    /**
+     * Compiles the script into classBytes, the same way as GroovyClassLoader.parseClass(String, String); returns the main class name.
+     */
+    private static String compile(String location, String source, CompilerConfiguration conf, ClassLoader parent, Map<String, byte[]> classBytes) throws CompilationFailedException {
+        GroovyClassLoader compileLoader = (parent instanceof GroovyClassLoader) ? (GroovyClassLoader) parent : new GroovyClassLoader(parent, conf);
+        CompilationUnit unit = new CompilationUnit(conf, null, compileLoader);
+        SourceUnit sourceUnit = unit.addSource(location, source);
+        unit.compile(Phases.CLASS_GENERATION);
+        for (Object groovyClass : unit.getClasses()) {
+            classBytes.put(((GroovyClass) groovyClass).getName(), ((GroovyClass) groovyClass).getBytes());
+        }
+        // NOTE: same main class as GroovyClassLoader: the first class of the module
+        return sourceUnit.getAST().getClasses().get(0).getName();
+    }
+
+    private static Class<?> readClasses(File file, CompilerConfiguration conf, ClassLoader parent) throws IOException, ClassNotFoundException {
+        Map<String, byte[]> classBytes = new HashMap<>();
+        String mainClassName;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a Groovy class cache file");
+            }
+            mainClassName = in.readUTF();
+            int classCount = in.readInt();
+            for (int i = 0; i < classCount; i++) {
+                String name = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                classBytes.put(name, bytes);
+            }
+        }
+        return new CachedScriptClassLoader(parent, conf, classBytes).loadClass(mainClassName);
+    }
+
+    private static void writeClasses(File file, String mainClassName, Map<String, byte[]> classBytes) throws IOException {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Could not create directory [" + dir + "]");
+        }
+        // NOTE: written to a temporary file then moved, so concurrent servers or threads never read a partial file
+        File tempFile = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeUTF(mainClassName);
+                out.writeInt(classBytes.size());
+                for (Map.Entry<String, byte[]> entry : classBytes.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().length);
+                    out.write(entry.getValue());
+                }
+            }
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    private static String makeKey(String location, String source, CompilerConfiguration conf, ClassLoader parent) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        String header = CACHE_FORMAT + "|" + GroovySystem.getVersion() + "|" + conf.getScriptBaseClass() + "|" + conf.getTargetBytecode()
+                + "|" + conf.getCompilationCustomizers().size() + "|" + getClasspathStamp(parent) + "|" + location + "|";
+        digest.update(header.getBytes(StandardCharsets.UTF_8));
+        digest.update(source.getBytes(StandardCharsets.UTF_8));
+        byte[] hash = digest.digest();
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns a stamp of the jars visible to the scripts, so that the classes compiled against an older build are not reused.
+     */
+    private static String getClasspathStamp(ClassLoader loader) {
+        String stamp = classpathStamp;
+        if (stamp == null) {
+            long hash = 17;
+            for (ClassLoader cl = loader; cl != null; cl = cl.getParent()) {
+                if (cl instanceof URLClassLoader) {
+                    for (URL url : ((URLClassLoader) cl).getURLs()) {
+                        hash = 31 * hash + url.toString().hashCode();
+                        if ("file".equals(url.getProtocol())) {
+                            File file = new File(url.getPath());
+                            hash = 31 * hash + file.lastModified();
+                            hash = 31 * hash + file.length();
+                        }
+                    }
+                }
+            }
+            stamp = Long.toHexString(hash);
+            classpathStamp = stamp;
+        }
+        return stamp;
+    }
+
+    /**
+     * Returns the script locations loaded by the previous runs, for the startup preload.
+     */
+    public static List<String> getIndexedLocations() {
+        readIndex();
+        return new ArrayList<>(indexedLocations);
+    }
+
+    private static void readIndex() {
+        if (indexRead) {
+            return;
+        }
+        synchronized (indexedLocations) {
+            if (indexRead) {
+                return;
+            }
+            File indexFile = new File(CACHE_DIR, INDEX_FILE);
+            if (indexFile.isFile()) {
+                try {
+                    for (String line : Files.readAllLines(indexFile.toPath(), StandardCharsets.UTF_8)) {
+                        if (!line.trim().isEmpty()) {
+                            indexedLocations.add(line.trim());
+                        }
+                    }
+                } catch (IOException e) {
+                    Debug.logWarning("Could not read Groovy class cache index [" + indexFile + "]: " + e.toString(), module);
+                }
+            }
+            indexRead = true;
+        }
+    }
+
+    private static void addIndexedLocation(String location) {
+        readIndex();
+        if (!indexedLocations.add(location)) {
+            return;
+        }
+        File indexFile = new File(CACHE_DIR, INDEX_FILE);
+        synchronized (indexedLocations) {
+            try {
+                Files.write(indexFile.toPath(), (location + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                Debug.logWarning("Could not write Groovy class cache index [" + indexFile + "]: " + e.toString(), module);
+            }
+        }
+    }
+
+    /**
+     * Returns the locations (<code>component://</code>) of all the Groovy scripts of the loaded components, excluding
+     * their compiled source (src) and build directories, for a complete precompile.
+     */
+    public static List<String> findComponentScriptLocations() {
+        Set<String> locations = new LinkedHashSet<>();
+        for (ComponentConfig component : ComponentConfig.getAllComponents()) {
+            File rootDir = new File(component.getRootLocation());
+            if (rootDir.isDirectory()) {
+                addScriptLocations(rootDir, "component://" + component.getComponentName() + "/", locations);
+            }
+        }
+        return new ArrayList<>(locations);
+    }
+
+    private static void addScriptLocations(File dir, String locationPrefix, Set<String> locations) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isDirectory()) {
+                if (!"src".equals(name) && !"build".equals(name) && !"lib".equals(name) && !name.startsWith(".")) {
+                    addScriptLocations(file, locationPrefix + name + "/", locations);
+                }
+            } else if (name.endsWith(".groovy")) {
+                locations.add(locationPrefix + name);
+            }
+        }
+    }
+
+    /**
+     * Defines the classes of one cached script, on first use, like the GroovyClassLoader inner loader of a compiled script.
+     */
+    private static final class CachedScriptClassLoader extends GroovyClassLoader {
+        private final Map<String, byte[]> classBytes;
+
+        CachedScriptClassLoader(ClassLoader parent, CompilerConfiguration conf, Map<String, byte[]> classBytes) {
+            super(parent, conf);
+            this.classBytes = Collections.synchronizedMap(new HashMap<>(classBytes));
+        }
+
+        @Override
+        public Class loadClass(String name, boolean lookupScriptFiles, boolean preferClassOverScript, boolean resolve) throws ClassNotFoundException, CompilationFailedException {
+            synchronized (this) {
+                Class<?> cls = findLoadedClass(name);
+                if (cls == null) {
+                    byte[] bytes = classBytes.remove(name);
+                    if (bytes != null) {
+                        cls = defineClass(name, bytes, 0, bytes.length, (ProtectionDomain) null);
+                    }
+                }
+                if (cls != null) {
+                    if (resolve) {
+                        resolveClass(cls);
+                    }
+                    return cls;
+                }
+            }
+            return super.loadClass(name, lookupScriptFiles, preferClassOverScript, resolve);
+        }
+    }
+}
@@ -336,7 +336,15 @@ public class GroovyUtil {
                 if (scriptUrl == null) {
                     throw new GeneralException("Script not found at location [" + location + "]");
                 }
-                if (groovyScriptClassLoader != null) {
+                if (GroovyScriptClassCache.isEnabled()) {
+                    // SCIPIO: persistent class cache, compiled with the same loader and configuration as below
+                    String source = UtilIO.readString(scriptUrl.openStream());
+                    if (groovyScriptClassLoader != null) {
+                        scriptClass = GroovyScriptClassCache.getScriptClass(location, source, groovyScriptCompilerConfig, groovyScriptClassLoader);
+                    } else {
+                        scriptClass = GroovyScriptClassCache.getScriptClass(location, source, CompilerConfiguration.DEFAULT, Thread.currentThread().getContextClassLoader());
+                    }
+                } else if (groovyScriptClassLoader != null) {
                     scriptClass = parseClass(scriptUrl.openStream(), location, groovyScriptClassLoader);
                 } else {
                     scriptClass = parseClass(scriptUrl.openStream(), location);
@@ -81,6 +81,11 @@ public final class UtilProperties implements Serializable {
      */
     private static final UtilCache<String, Properties> urlCache = UtilCache.createUtilCache("properties.UtilPropertiesUrlCache");
 
+    /**
+     * SCIPIO: Parsed MessageFormat patterns of messages, by pattern.
+     */
+    private static final UtilCache<String, MessageFormat> messageFormatCache = UtilCache.createUtilCache("properties.UtilPropertiesMessageFormatCache", 0, 10000, 0, false);
+
     /**
      * SCIPIO: A lightweight cache for storing Properties instances. Each Properties instance is keyed by its resource name.
      * Mainly intended for *.properties files (not localized resource bundles). This is a lightweight second-layer cache
@@ -1079,6 +1084,18 @@ public final class UtilProperties implements Serializable {
         }
         return value == null ? name : value;
         */
+        // SCIPIO: Look up in the flattened message table of the bundle (one map lookup, no parent chain walk or exception)
+        if (bundle instanceof UtilResourceBundle) {
+            String value = ((UtilResourceBundle) bundle).getMessageOrNull(name);
+            if (value != null) {
+                return value;
+            }
+            if (optional) {
+                return "";
+            }
+            Debug.logInfo(name + " misses in " + resource + " for locale " + locale, module);
+            return name;
+        }
         try {
             return bundle.getString(name);
         } catch(MissingResourceException e) {
@@ -1120,7 +1137,7 @@ public final class UtilProperties implements Serializable {
             return "";
         }
         if (arguments != null && arguments.length > 0) {
-            value = MessageFormat.format(value, arguments);
+            value = formatMessage(value, arguments); // SCIPIO: pre-parsed pattern
         }
         return value;
     }
@@ -1153,7 +1170,7 @@ public final class UtilProperties implements Serializable {
             return "";
         }
         if (UtilValidate.isNotEmpty(arguments)) {
-            value = MessageFormat.format(value, arguments.toArray());
+            value = formatMessage(value, arguments.toArray()); // SCIPIO: pre-parsed pattern
         }
         return value;
     }
@@ -1189,7 +1206,7 @@ public final class UtilProperties implements Serializable {
             return "";
         }
         if (UtilValidate.isNotEmpty(arguments)) {
-            value = MessageFormat.format(value, arguments.toArray());
+            value = formatMessage(value, arguments.toArray()); // SCIPIO: pre-parsed pattern
         }
         return value;
     }
@@ -1210,6 +1227,20 @@ public final class UtilProperties implements Serializable {
 
     }
     
+    /**
+     * SCIPIO: Formats the message pattern with the given arguments, like {@link MessageFormat#format(String, Object...)},
+     * but parsing each distinct pattern only once (parsed patterns kept in properties.UtilPropertiesMessageFormatCache).
+     */
+    public static String formatMessage(String pattern, Object[] arguments) {
+        MessageFormat messageFormat = messageFormatCache.get(pattern);
+        if (messageFormat == null) {
+            messageFormat = new MessageFormat(pattern);
+            messageFormatCache.put(pattern, messageFormat);
+        }
+        // NOTE: MessageFormat is not thread-safe; the clone shares the parsed pattern but not the formatting state
+        return ((MessageFormat) messageFormat.clone()).format(arguments, new StringBuffer(), null).toString();
+    }
+
     public static String getMessageList(String resource, String name, Locale locale, Object... arguments) {
         return getMessage(resource, name, arguments, locale);
     }
@@ -2317,6 +2348,8 @@ public final class UtilProperties implements Serializable {
         protected Properties properties = null;
         protected Locale locale = null;
         protected int hashCode = hashCode();
+        /** SCIPIO: The messages of this bundle and its parents, flattened on first use (see {@link #getMessageOrNull}). */
+        private volatile Map<String, String> flatMessages = null;
 
         protected UtilResourceBundle() {}
 
@@ -2420,6 +2453,49 @@ public final class UtilProperties implements Serializable {
             return properties.get(key);
         }
 
+        /**
+         * SCIPIO: Returns the message for the key from this bundle or its parents, or null if missing.
+         * <p>
+         * The messages of the whole parent chain (locale fallbacks) are flattened into one table on first use, so this
+         * is a single map lookup, instead of {@link #getString} walking the chain of synchronized Properties lookups
+         * and throwing MissingResourceException for missing keys. The table goes away with the bundle when the
+         * bundle cache is cleared.
+         */
+        public String getMessageOrNull(String key) {
+            Map<String, String> messages = flatMessages;
+            if (messages == null) {
+                messages = makeFlatMessages();
+                flatMessages = messages;
+            }
+            return messages.get(key);
+        }
+
+        private Map<String, String> makeFlatMessages() {
+            List<Properties> chain = new ArrayList<>();
+            for (ResourceBundle bundle = this; bundle != null; bundle = ((UtilResourceBundle) bundle).parent) {
+                if (!(bundle instanceof UtilResourceBundle)) {
+                    break;
+                }
+                chain.add(((UtilResourceBundle) bundle).properties);
+            }
+            int size = 0;
+            for (Properties props : chain) {
+                size += props.size();
+            }
+            Map<String, String> messages = new HashMap<>(size * 4 / 3 + 1);
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                Properties props = chain.get(i);
+                synchronized (props) {
+                    for (Map.Entry<Object, Object> entry : props.entrySet()) {
+                        if (entry.getKey() instanceof String && entry.getValue() instanceof String) {
+                            messages.put((String) entry.getKey(), (String) entry.getValue());
+                        }
+                    }
+                }
+            }
+            return messages;
+        }
+
         @Override
         public Enumeration<String> getKeys() {
             return new Enumeration<String>() {
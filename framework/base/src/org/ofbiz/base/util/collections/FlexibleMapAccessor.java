@@ -31,6 +31,7 @@ import org.ofbiz.base.util.UtilGenerics;
 import org.ofbiz.base.util.UtilObject;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.base.util.string.CompiledUelExpression;
 import org.ofbiz.base.util.string.FlexibleStringExpander;
 import org.ofbiz.base.util.string.UelUtil;
 
@@ -49,6 +50,7 @@ public final class FlexibleMapAccessor<T> implements Serializable, IsEmpty {
     private final boolean isEmpty;
     private final String original;
     private final String bracketedOriginal;
+    private final CompiledUelExpression compiled; // SCIPIO: null if not a plain property path
     private final FlexibleStringExpander fse;
     private final boolean isAscending;
 
@@ -57,6 +59,7 @@ public final class FlexibleMapAccessor<T> implements Serializable, IsEmpty {
         this.isEmpty = name.isEmpty();
         FlexibleStringExpander fse = null;
         String bracketedOriginal = null;
+        CompiledUelExpression compiled = null;
         boolean isAscending = true;
         if (UtilValidate.isNotEmpty(name)) {
             if (name.charAt(0) == '-') {
@@ -69,10 +72,13 @@ public final class FlexibleMapAccessor<T> implements Serializable, IsEmpty {
             if (name.contains(FlexibleStringExpander.openBracket)) {
                 fse = FlexibleStringExpander.getInstance(name);
             } else {
-                bracketedOriginal = FlexibleStringExpander.openBracket.concat(UelUtil.prepareExpression(name).concat(FlexibleStringExpander.closeBracket));
+                String expression = UelUtil.prepareExpression(name);
+                bracketedOriginal = FlexibleStringExpander.openBracket.concat(expression.concat(FlexibleStringExpander.closeBracket));
+                compiled = CompiledUelExpression.compile(expression);
             }
         }
         this.bracketedOriginal = bracketedOriginal;
+        this.compiled = compiled;
         this.isAscending = isAscending;
         this.fse = fse;
         if (Debug.verboseOn()) {
@@ -145,7 +151,8 @@ public final class FlexibleMapAccessor<T> implements Serializable, IsEmpty {
         }
         Object obj = null;
         try {
-            obj = UelUtil.evaluate(base, getExpression(base));
+            // SCIPIO: Plain property paths are resolved directly, without building the UEL expression tree
+            obj = (this.compiled != null) ? this.compiled.getValue(base) : UelUtil.evaluate(base, getExpression(base));
         } catch (PropertyNotFoundException e) {
             // PropertyNotFound exceptions are common, so log verbose.
             if (Debug.verboseOn()) {
@@ -174,7 +181,11 @@ public final class FlexibleMapAccessor<T> implements Serializable, IsEmpty {
             throw new IllegalArgumentException("Cannot put a value in a null base Map");
         }
         try {
-            UelUtil.setValue(base, getExpression(base), value == null ? Object.class : value.getClass(), value);
+            if (this.compiled != null) { // SCIPIO
+                this.compiled.setValue(base, value);
+            } else {
+                UelUtil.setValue(base, getExpression(base), value == null ? Object.class : value.getClass(), value);
+            }
         } catch (Exception e) {
             Debug.logError("UEL exception while setting value: " + e + ", original = " + this.original, module);
         }
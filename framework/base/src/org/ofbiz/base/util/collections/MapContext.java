@@ -650,6 +650,14 @@ public class MapContext<K, V> implements Map<K, V>, LocalizedMap<V> {
         return stackList.size();
     }
 
+    /**
+     * SCIPIO: Returns the map at the given stack level, where 0 is the bottom and {@link #stackSize()} - 1 the top.
+     * WARN: Client code should not modify the returned map! Only implementations could do this.
+     */
+    protected Map<K, V> getStackMap(int index) {
+        return stackList.get(index);
+    }
+
     /**
      * SCIPIO: Returns the current level's context map, or null if none.
      * WARN: Client code should not modify the returned map! Only implementations could do this.
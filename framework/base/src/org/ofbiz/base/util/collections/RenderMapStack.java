@@ -21,9 +21,17 @@ package org.ofbiz.base.util.collections;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.ObjectType;
 import org.ofbiz.base.util.UtilIO;
+import org.ofbiz.base.util.UtilProperties;
 
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * SCIPIO: A {@link MapStack} with render-only features.
@@ -34,6 +42,13 @@ import java.util.Map;
  * <ul>
  * <li>{@link org.ofbiz.entity.util.EntityListIterator} instances found in current level map values on {@link #pop()} are automatically closed.
  *     This can be bypassed by adding field names to the context field ArrayList, "scpCtxAutoCloseExcl" ({@link #AUTO_CLOSE_EXCL_FIELD}).</li>
+ * <li>Indexed lookups: {@link #get(Object)} remembers, per key, the stack level that holds it (a slot), so that deeply
+ *     nested screens, includes and iterated rows do not walk every level of the stack for each lookup.
+ *     The levels pushed by the stack itself are {@link RenderLayer} maps, which report key additions and removals
+ *     to the stacks that share them (standalone stacks included), so a slot is only recomputed when its key changes
+ *     or the stack is pushed or popped. Levels that are plain maps (initial base map, {@link #push(Map)},
+ *     {@link #addToBottom(Map)}) cannot report changes, so lookups below them walk the levels as before.
+ *     Can be disabled using widget.properties: widget.render.context.slotIndex.enable.</li>
  * </ul>
  */
 public class RenderMapStack extends MapStack<String> {
@@ -46,6 +61,13 @@ public class RenderMapStack extends MapStack<String> {
     @SuppressWarnings("unchecked")
     private static final Class<? extends AutoCloseable> ENTITY_CLS = (Class<? extends AutoCloseable>) ObjectType.loadClassOrRuntimeEx("org.ofbiz.entity.GenericEntity"); // SCIPIO
     private static final int LOG_DEBUG = Debug.INFO; // SCIPIO: TODO: SWITCH TO VERBOSE
+    private static final boolean SLOT_INDEX = UtilProperties.getPropertyAsBoolean("widget", "widget.render.context.slotIndex.enable", true); // SCIPIO
+
+    /** SCIPIO: The change stamps shared with standalone stacks; null if slot index disabled. */
+    private final RenderFamily family;
+    /** SCIPIO: The stack level holding each key looked up, valid from slotsStamp. */
+    private Map<Object, Slot> slots;
+    private long slotsStamp;
 
     public static RenderMapStack createRenderContext() {
         RenderMapStack newValue = new RenderMapStack();
@@ -86,6 +108,7 @@ public class RenderMapStack extends MapStack<String> {
 
     protected RenderMapStack() {
         super();
+        this.family = SLOT_INDEX ? new RenderFamily() : null;
     }
 
     /**
@@ -93,6 +116,7 @@ public class RenderMapStack extends MapStack<String> {
      */
     protected RenderMapStack(RenderMapStack source) {
         super(source);
+        this.family = source.family;
     }
 
     /**
@@ -100,6 +124,7 @@ public class RenderMapStack extends MapStack<String> {
      */
     protected RenderMapStack(Map<String, Object> baseMap) {
         super(baseMap);
+        this.family = SLOT_INDEX ? new RenderFamily() : null;
     }
 
     /**
@@ -141,6 +166,128 @@ public class RenderMapStack extends MapStack<String> {
         return super.pop();
     }
 
+    @Override
+    protected void pushOnly() {
+        if (family != null) {
+            pushOnly(new RenderLayer(family));
+        } else {
+            super.pushOnly();
+        }
+    }
+
+    @Override
+    protected void pushOnly(Map<String, Object> existingMap) {
+        super.pushOnly(existingMap);
+        if (family != null) {
+            family.structureChanged();
+        }
+    }
+
+    @Override
+    protected Map<String, Object> popOnly() {
+        Map<String, Object> result = super.popOnly();
+        if (result != null && family != null) {
+            family.structureChanged();
+        }
+        return result;
+    }
+
+    @Override
+    public void addToBottom(Map<String, Object> existingMap) {
+        super.addToBottom(existingMap);
+        if (family != null) {
+            family.structureChanged();
+        }
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        if (family != null) {
+            family.structureChanged();
+        }
+    }
+
+    /**
+     * SCIPIO: Gets the value from the stack level found using the key's slot (see class description).
+     */
+    @Override
+    public Object get(Object key) {
+        if (family == null) {
+            return super.get(key);
+        }
+        if ("context".equals(key)) {
+            return this;
+        }
+        Slot slot = getSlot(key);
+        if (slot.map != null) {
+            return slot.map.get(key);
+        }
+        for (int i = slot.walkFrom; i >= 0; i--) {
+            Map<String, Object> curMap = getStackMap(i);
+            if (curMap.containsKey(key)) {
+                return curMap.get(key);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (family == null) {
+            return super.containsKey(key);
+        }
+        Slot slot = getSlot(key);
+        if (slot.map != null) {
+            return true;
+        }
+        for (int i = slot.walkFrom; i >= 0; i--) {
+            if (getStackMap(i).containsKey(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * SCIPIO: Returns the slot of the key, recomputing it if the key or the stack changed since it was computed.
+     */
+    private Slot getSlot(Object key) {
+        RenderFamily family = this.family;
+        if (slots == null) {
+            slots = new HashMap<>();
+            slotsStamp = family.counter;
+        } else if (slotsStamp < family.structureStamp) {
+            slots.clear();
+            slotsStamp = family.counter;
+        }
+        Slot slot = slots.get(key);
+        if (slot != null && slot.stamp >= family.getKeyStamp(key)) {
+            return slot;
+        }
+        if (slot == null) {
+            slot = new Slot();
+            slots.put(key, slot);
+        }
+        // walk down the levels of this family; stop at the first level that cannot report changes
+        Map<String, Object> map = null;
+        int i = stackSize() - 1;
+        for (; i >= 0; i--) {
+            Map<String, Object> curMap = getStackMap(i);
+            if (!(curMap instanceof RenderLayer) || ((RenderLayer) curMap).family != family) {
+                break;
+            }
+            if (curMap.containsKey(key)) {
+                map = curMap;
+                break;
+            }
+        }
+        slot.map = map;
+        slot.walkFrom = i;
+        slot.stamp = family.counter;
+        return slot;
+    }
+
     @SuppressWarnings("unchecked")
     protected Collection<String> getAutoCloseExclFieldList() {
         if (getCurrentMap() == null || ENTITY_CLS.isAssignableFrom(getCurrentMap().getClass())) {
@@ -148,4 +295,227 @@ public class RenderMapStack extends MapStack<String> {
         }
         return (Collection<String>) getCurrentMap().get(AUTO_CLOSE_EXCL_FIELD);
     }
+
+    /**
+     * SCIPIO: The stack level holding a key: map if in a level of the family, otherwise the level to walk down from
+     * (-1 if none), as of stamp.
+     */
+    private static final class Slot {
+        Map<String, Object> map;
+        int walkFrom;
+        long stamp;
+    }
+
+    /**
+     * SCIPIO: Change stamps shared by a render context and its standalone stacks; every change gets the next stamp.
+     * NOTE: Not thread-safe, like the stack maps themselves.
+     */
+    private static final class RenderFamily {
+        long counter;
+        long structureStamp;
+        final Map<Object, long[]> keyStamps = new HashMap<>();
+
+        void structureChanged() {
+            structureStamp = ++counter;
+        }
+
+        void keyChanged(Object key) {
+            long stamp = ++counter;
+            long[] keyStamp = keyStamps.get(key);
+            if (keyStamp != null) {
+                keyStamp[0] = stamp;
+            } else {
+                keyStamps.put(key, new long[] { stamp });
+            }
+        }
+
+        long getKeyStamp(Object key) {
+            long[] keyStamp = keyStamps.get(key);
+            return (keyStamp != null) ? keyStamp[0] : 0;
+        }
+    }
+
+    /**
+     * SCIPIO: Stack level map pushed by a render context, which reports key additions and removals (including through
+     * its views) to its family, for the slot index.
+     */
+    @SuppressWarnings("serial")
+    private static final class RenderLayer extends HashMap<String, Object> {
+        private final transient RenderFamily family;
+
+        private RenderLayer(RenderFamily family) {
+            this.family = family;
+        }
+
+        private void keyChanged(Object key) {
+            if (family != null) {
+                family.keyChanged(key);
+            }
+        }
+
+        private void structureChanged() {
+            if (family != null) {
+                family.structureChanged();
+            }
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            int size = size();
+            Object result = super.put(key, value);
+            if (size() != size) {
+                keyChanged(key);
+            }
+            return result;
+        }
+
+        @Override
+        public void putAll(Map<? extends String, ? extends Object> m) {
+            for (Map.Entry<? extends String, ? extends Object> entry : m.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        @Override
+        public Object putIfAbsent(String key, Object value) {
+            int size = size();
+            Object result = super.putIfAbsent(key, value);
+            if (size() != size) {
+                keyChanged(key);
+            }
+            return result;
+        }
+
+        @Override
+        public Object remove(Object key) {
+            int size = size();
+            Object result = super.remove(key);
+            if (size() != size) {
+                keyChanged(key);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean remove(Object key, Object value) {
+            boolean result = super.remove(key, value);
+            if (result) {
+                keyChanged(key);
+            }
+            return result;
+        }
+
+        @Override
+        public void clear() {
+            if (!isEmpty()) {
+                super.clear();
+                structureChanged();
+            }
+        }
+
+        @Override
+        public Object computeIfAbsent(String key, Function<? super String, ? extends Object> mappingFunction) {
+            int size = size();
+            Object result = super.computeIfAbsent(key, mappingFunction);
+            if (size() != size) {
+                keyChanged(key);
+            }
+            return result;
+        }
+
+        @Override
+        public Object computeIfPresent(String key, BiFunction<? super String, ? super Object, ? extends Object> remappingFunction) {
+            int size = size();
+            Object result = super.computeIfPresent(key, remappingFunction);
+            if (size() != size) {
+                keyChanged(key);
+            }
+            return result;
+        }
+
+        @Override
+        public Object compute(String key, BiFunction<? super String, ? super Object, ? extends Object> remappingFunction) {
+            int size = size();
+            Object result = super.compute(key, remappingFunction);
+            if (size() != size) {
+                keyChanged(key);
+            }
+            return result;
+        }
+
+        @Override
+        public Object merge(String key, Object value, BiFunction<? super Object, ? super Object, ? extends Object> remappingFunction) {
+            int size = size();
+            Object result = super.merge(key, value, remappingFunction);
+            if (size() != size) {
+                keyChanged(key);
+            }
+            return result;
+        }
+
+        @Override
+        public Set<String> keySet() {
+            final Set<String> keySet = super.keySet();
+            return new AbstractSet<String>() {
+                @Override public Iterator<String> iterator() { return new LayerIterator<>(keySet.iterator()); }
+                @Override public int size() { return RenderLayer.this.size(); }
+                @Override public boolean contains(Object o) { return RenderLayer.this.containsKey(o); }
+                @Override public boolean remove(Object o) {
+                    if (!RenderLayer.this.containsKey(o)) {
+                        return false;
+                    }
+                    RenderLayer.this.remove(o);
+                    return true;
+                }
+                @Override public void clear() { RenderLayer.this.clear(); }
+            };
+        }
+
+        @Override
+        public Collection<Object> values() {
+            final Collection<Object> values = super.values();
+            return new AbstractCollection<Object>() {
+                @Override public Iterator<Object> iterator() { return new LayerIterator<>(values.iterator()); }
+                @Override public int size() { return RenderLayer.this.size(); }
+                @Override public boolean contains(Object o) { return RenderLayer.this.containsValue(o); }
+                @Override public void clear() { RenderLayer.this.clear(); }
+            };
+        }
+
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            final Set<Map.Entry<String, Object>> entrySet = super.entrySet();
+            return new AbstractSet<Map.Entry<String, Object>>() {
+                @Override public Iterator<Map.Entry<String, Object>> iterator() { return new LayerIterator<>(entrySet.iterator()); }
+                @Override public int size() { return RenderLayer.this.size(); }
+                @Override public boolean contains(Object o) { return entrySet.contains(o); }
+                @Override public void clear() { RenderLayer.this.clear(); }
+            };
+        }
+
+        /** Iterator of a view, which reports removals (as structure changes, since the key is not known). */
+        private final class LayerIterator<E> implements Iterator<E> {
+            private final Iterator<E> it;
+
+            LayerIterator(Iterator<E> it) {
+                this.it = it;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return it.next();
+            }
+
+            @Override
+            public void remove() {
+                it.remove();
+                structureChanged();
+            }
+        }
+    }
 }
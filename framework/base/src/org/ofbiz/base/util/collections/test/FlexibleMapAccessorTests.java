@@ -21,6 +21,8 @@ package org.ofbiz.base.util.collections.test;
 import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
@@ -28,7 +30,10 @@ import java.util.Set;
 import org.ofbiz.base.lang.SourceMonitored;
 import org.ofbiz.base.test.GenericTestCaseBase;
 import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.collections.FlexibleMapAccessor;
+import org.ofbiz.base.util.collections.LocalizedMap;
+import org.ofbiz.base.util.string.CompiledUelExpression;
 import org.ofbiz.base.util.string.FlexibleStringExpander;
 
 @SourceMonitored
@@ -169,6 +174,52 @@ public class FlexibleMapAccessorTests extends GenericTestCaseBase {
         }
     }
 
+    @SuppressWarnings("serial")
+    public static class TestLocalizedMap extends HashMap<String, Object> implements LocalizedMap<Object> {
+        @Override
+        public Object get(String name, Locale locale) {
+            return name + "-" + locale;
+        }
+    }
+
+    public static class TestBean {
+        public Object getValue() {
+            return "beanValue";
+        }
+    }
+
+    public void testCompiledExpressions() {
+        assertNotNull("dotted path compiled", CompiledUelExpression.compile("parameters.var"));
+        assertNotNull("bracket path compiled", CompiledUelExpression.compile("parameters['var'].list[2]"));
+        assertNull("operator not compiled", CompiledUelExpression.compile("a + b"));
+        assertNull("method not compiled", CompiledUelExpression.compile("a.b()"));
+        assertNull("reserved word not compiled", CompiledUelExpression.compile("empty.a"));
+        assertNull("expression key not compiled", CompiledUelExpression.compile("a[b]"));
+
+        Map<String, Object> testMap = new HashMap<String, Object>();
+        List<Object> list = new LinkedList<Object>();
+        list.add(UtilMisc.toMap("name", "first"));
+        testMap.put("parameters", UtilMisc.toMap("list", list, "localized", new TestLocalizedMap(), "bean", new TestBean()));
+        testMap.put("locale", Locale.FRANCE);
+        assertEquals("list index", "first", FlexibleMapAccessor.getInstance("parameters.list[0].name").get(testMap));
+        assertNull("list index out of range", FlexibleMapAccessor.getInstance("parameters.list[1].name").get(testMap));
+        assertEquals("bracket key", "first", FlexibleMapAccessor.getInstance("parameters['list'][0]['name']").get(testMap));
+        assertEquals("localized map", "productName-" + Locale.FRANCE, FlexibleMapAccessor.getInstance("parameters.localized.productName").get(testMap));
+        assertEquals("localized map explicit locale", "productName-" + Locale.GERMANY,
+                FlexibleMapAccessor.getInstance("parameters.localized.productName").get(testMap, Locale.GERMANY));
+        assertEquals("type suffix", "", FlexibleMapAccessor.getInstance("parameters.missing$string").get(testMap));
+        assertEquals("bean property (UEL fallback)", "beanValue", FlexibleStringExpander.expandString("${parameters.bean.value}", testMap));
+        assertEquals("fse localized map", "productName-" + Locale.GERMANY,
+                FlexibleStringExpander.expandString("${parameters.localized.productName}", testMap, Locale.GERMANY));
+
+        FlexibleMapAccessor<Object> fma = FlexibleMapAccessor.getInstance("newMap.sub.value");
+        fma.put(testMap, "set");
+        assertEquals("auto-vivify", "set", fma.get(testMap));
+        assertTrue("auto-vivify map", testMap.get("newMap") instanceof Map);
+        FlexibleMapAccessor.getInstance("parameters.list[+0]").put(testMap, "inserted");
+        assertEquals("list insert (UEL fallback)", "inserted", list.get(0));
+    }
+
     public void testVerbosityAndErrors() {
         boolean isVerbose = Debug.isOn(Debug.VERBOSE);
         try {
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util.collections.test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.base.util.collections.RenderMapStack;
+
+/**
+ * SCIPIO: Tests for the {@link RenderMapStack} lookups, which must keep the MapStack semantics.
+ */
+public class RenderMapStackTests extends GenericTestCaseBase {
+
+    public RenderMapStackTests(String name) {
+        super(name);
+    }
+
+    public void testPushPopShadowing() {
+        RenderMapStack context = RenderMapStack.createRenderContext();
+        context.put("a", "1");
+        assertEquals("bottom", "1", context.get("a"));
+        context.push();
+        assertEquals("inherited", "1", context.get("a"));
+        context.put("a", "2");
+        assertEquals("shadowed", "2", context.get("a"));
+        context.put("a", null);
+        assertTrue("null shadow contained", context.containsKey("a"));
+        assertNull("null shadows lower level", context.get("a"));
+        context.remove("a");
+        assertEquals("removed shadow", "1", context.get("a"));
+        context.push();
+        context.put("a", "3");
+        assertEquals("shadowed again", "3", context.get("a"));
+        context.pop();
+        assertEquals("popped", "1", context.get("a"));
+        assertNull("missing", context.get("b"));
+        context.pop();
+        context.put("b", "4");
+        assertEquals("added after miss", "4", context.get("b"));
+        assertSame("context self-reference", context, context.get("context"));
+    }
+
+    public void testBaseMapChanges() {
+        Map<String, Object> baseMap = new HashMap<>();
+        baseMap.put("a", "1");
+        RenderMapStack context = RenderMapStack.createRenderContext(baseMap);
+        context.push();
+        assertEquals("from base map", "1", context.get("a"));
+        baseMap.put("a", "2");
+        baseMap.put("b", "3");
+        assertEquals("base map changed", "2", context.get("a"));
+        assertEquals("base map added", "3", context.get("b"));
+        Map<String, Object> pushedMap = new HashMap<>();
+        context.push(pushedMap);
+        context.push();
+        assertEquals("below pushed map", "2", context.get("a"));
+        pushedMap.put("a", "4");
+        assertEquals("pushed map changed", "4", context.get("a"));
+    }
+
+    public void testStandAloneStacks() {
+        RenderMapStack context = RenderMapStack.createRenderContext();
+        context.put("a", "1");
+        RenderMapStack child = context.standAloneChildStack();
+        assertEquals("child inherited", "1", child.get("a"));
+        context.put("a", "2");
+        context.put("b", "3");
+        assertEquals("parent changed", "2", child.get("a"));
+        assertEquals("parent added", "3", child.get("b"));
+        child.put("b", "4");
+        assertEquals("child shadowed", "4", child.get("b"));
+        assertEquals("parent unchanged", "3", context.get("b"));
+        context.remove("b");
+        assertEquals("parent removed", "4", child.get("b"));
+        assertNull("parent removed, own", context.get("b"));
+    }
+
+    public void testViewRemovals() {
+        RenderMapStack context = RenderMapStack.createRenderContext();
+        context.put("a", "1");
+        context.put("b", "2");
+        context.push();
+        context.put("a", "3");
+        assertEquals("shadowed", "3", context.get("a"));
+        Map<String, Object> top = context.pop();
+        context.push(top);
+        for (Iterator<String> it = top.keySet().iterator(); it.hasNext();) {
+            it.next();
+            it.remove();
+        }
+        assertEquals("removed through iterator", "1", context.get("a"));
+        context.put("a", "5");
+        top.entrySet().clear();
+        assertEquals("cleared through entry set", "1", context.get("a"));
+        context.put("b", "6");
+        top.keySet().remove("b");
+        assertEquals("removed through key set", "2", context.get("b"));
+        top.putAll(java.util.Collections.singletonMap("b", "7"));
+        assertEquals("put all", "7", context.get("b"));
+    }
+}
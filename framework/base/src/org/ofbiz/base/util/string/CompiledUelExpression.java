@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util.string;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.ofbiz.base.util.UtilGenerics;
+import org.ofbiz.base.util.collections.LocalizedMap;
+
+/**
+ * SCIPIO: A UEL expression pre-compiled into a property path, used by {@link FlexibleStringExpander}
+ * and {@link org.ofbiz.base.util.collections.FlexibleMapAccessor} for their simple expressions.
+ * <p>
+ * Only the plain paths are compiled: an identifier followed by any number of <code>.name</code>,
+ * <code>['name']</code> and <code>[index]</code> accessors, like <code>product.productName</code>
+ * or <code>orderItems[0].quantity</code>. These are resolved by direct <code>Map</code> and
+ * <code>List</code> lookups, with the same results as {@link UelUtil} (including <code>LocalizedMap</code>
+ * locale lookup, the <code>$string</code>-type suffixes and the auto-vivify of sub-maps on set);
+ * any other base object (beans, arrays, DOM nodes...) falls back to the full UEL evaluation
+ * of the expression, as do the expressions that are not plain paths ({@link #compile} returns null).
+ */
+@SuppressWarnings("serial")
+public final class CompiledUelExpression implements Serializable {
+
+    /** The reserved words of the UEL grammar, which can't be identifiers. */
+    private static final Set<String> reservedWords = new HashSet<>(Arrays.asList("and", "or", "not", "eq", "ne", "lt", "gt",
+            "le", "ge", "true", "false", "null", "instanceof", "empty", "div", "mod"));
+
+    private final String expression;
+    private final Object[] path; // String map keys and Integer list indexes
+    private final boolean settable;
+
+    private CompiledUelExpression(String expression, Object[] path, boolean settable) {
+        this.expression = expression;
+        this.path = path;
+        this.settable = settable;
+    }
+
+    /**
+     * Compiles the given expression, already prepared by {@link UelUtil#prepareExpression}, without
+     * the <code>${}</code> brackets.
+     * @param preparedExpression the expression
+     * @return the compiled expression, or null if the expression is not a plain property path
+     */
+    public static CompiledUelExpression compile(String preparedExpression) {
+        if (preparedExpression == null || preparedExpression.isEmpty()) {
+            return null;
+        }
+        List<Object> path = new ArrayList<>();
+        int length = preparedExpression.length();
+        int pos = parseIdentifier(preparedExpression, 0, path);
+        if (pos < 0) {
+            return null;
+        }
+        while (pos < length) {
+            char c = preparedExpression.charAt(pos);
+            if (c == '.') {
+                pos = parseIdentifier(preparedExpression, pos + 1, path);
+            } else if (c == '[') {
+                pos = parseBracket(preparedExpression, pos + 1, path);
+            } else {
+                return null;
+            }
+            if (pos < 0) {
+                return null;
+            }
+        }
+        // Paths with list indexes, list operations ('add', 'insert@') or variable type suffixes are set through UEL
+        boolean settable = true;
+        for (Object key : path) {
+            if (!(key instanceof String) || ((String) key).indexOf('$') >= 0 || "add".equals(key) || ((String) key).startsWith("insert@")) {
+                settable = false;
+                break;
+            }
+        }
+        return new CompiledUelExpression(FlexibleStringExpander.openBracket.concat(preparedExpression).concat(FlexibleStringExpander.closeBracket),
+                path.toArray(), settable);
+    }
+
+    private static int parseIdentifier(String expression, int start, List<Object> path) {
+        int length = expression.length();
+        if (start >= length || !Character.isJavaIdentifierStart(expression.charAt(start))) {
+            return -1;
+        }
+        int pos = start + 1;
+        while (pos < length && Character.isJavaIdentifierPart(expression.charAt(pos))) {
+            pos++;
+        }
+        String name = expression.substring(start, pos);
+        if (reservedWords.contains(name)) {
+            return -1;
+        }
+        path.add(name);
+        return pos;
+    }
+
+    private static int parseBracket(String expression, int start, List<Object> path) {
+        int length = expression.length();
+        if (start >= length) {
+            return -1;
+        }
+        char c = expression.charAt(start);
+        int end;
+        if (c == '\'' || c == '"') {
+            end = expression.indexOf(c, start + 1);
+            if (end < 0 || end + 1 >= length || expression.charAt(end + 1) != ']') {
+                return -1;
+            }
+            String key = expression.substring(start + 1, end);
+            if (key.indexOf('\\') >= 0) {
+                return -1;
+            }
+            path.add(key);
+            return end + 2;
+        }
+        end = start;
+        while (end < length && end - start < 9 && expression.charAt(end) >= '0' && expression.charAt(end) <= '9') {
+            end++;
+        }
+        if (end == start || end >= length || expression.charAt(end) != ']') {
+            return -1;
+        }
+        path.add(Integer.valueOf(expression.substring(start, end)));
+        return end + 1;
+    }
+
+    /**
+     * Returns the bracketed UEL expression, as evaluated by the fallback.
+     * @return the expression
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * Evaluates the expression against the context, like {@link UelUtil#evaluate(Map, String)},
+     * except that an unresolved variable returns null instead of throwing a <code>PropertyNotFoundException</code>.
+     * @param context the evaluation context
+     * @return the result
+     */
+    public Object getValue(Map<String, ? extends Object> context) {
+        Object base = UelUtil.resolveVariable((String) path[0], context, null);
+        for (int i = 1; i < path.length; i++) {
+            if (base == null) {
+                return null;
+            }
+            Object key = path[i];
+            if (key instanceof String && base instanceof Map) {
+                base = getMapValue(context, base, (String) key);
+            } else if (key instanceof Integer && base instanceof List && !(base instanceof Map)) {
+                List<?> list = (List<?>) base;
+                int index = (Integer) key;
+                base = (index < list.size()) ? list.get(index) : null;
+            } else {
+                return UelUtil.evaluate(context, expression);
+            }
+        }
+        return base;
+    }
+
+    /**
+     * Sets the value in the context, like {@link UelUtil#setValue}, creating the missing sub-maps.
+     * @param context the evaluation context
+     * @param value the value
+     */
+    public void setValue(Map<String, Object> context, Object value) {
+        if (settable) {
+            Map<String, Object> map = context;
+            int last = path.length - 1;
+            for (int i = 0; i < last; i++) {
+                String key = (String) path[i];
+                Object next = (i == 0) ? UelUtil.resolveVariable(key, context, null) : getMapValue(context, map, key);
+                if (next == null) {
+                    next = new HashMap<String, Object>();
+                    map.put(key, next);
+                } else if (!(next instanceof Map)) {
+                    map = null;
+                    break;
+                }
+                map = UtilGenerics.cast(next);
+            }
+            if (map != null) {
+                map.put((String) path[last], value);
+                return;
+            }
+        }
+        UelUtil.setValue(context, expression, value == null ? Object.class : value.getClass(), value);
+    }
+
+    private static Object getMapValue(Map<String, ? extends Object> context, Object base, String key) {
+        Map<String, ?> map = UtilGenerics.cast(base);
+        if (base instanceof LocalizedMap) {
+            // Same locale lookup as UelUtil.ExtendedMapResolver
+            Object locale = UelUtil.resolveVariable(UelUtil.getLocalizedMapLocaleKey(), context, null);
+            if (locale == null) {
+                locale = UelUtil.resolveVariable("locale", context, null);
+            }
+            return UelUtil.resolveVariable(key, map, (locale instanceof Locale) ? (Locale) locale : Locale.getDefault());
+        }
+        return UelUtil.resolveVariable(key, map, null);
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
@@ -644,6 +644,7 @@ public abstract class FlexibleStringExpander implements Serializable, IsEmpty {
     protected static class CurrElem extends ArrayOffsetString {
         protected final char[] valueStr;
         protected final FlexibleStringExpander codeExpr;
+        protected final CompiledUelExpression compiledValue; // SCIPIO: null if not a plain property path
 
         protected CurrElem(char[] chars, int offset, int length, int parseStart, int parseLength) {
             super(chars, offset, length);
@@ -652,12 +653,13 @@ public abstract class FlexibleStringExpander implements Serializable, IsEmpty {
             int closeParen = parse.indexOf(")", currencyPos + 10);
             this.codeExpr = FlexibleStringExpander.getInstance(parse, chars, parseStart + currencyPos + 10, closeParen - currencyPos - 10, true);
             this.valueStr = openBracket.concat(parse.substring(0, currencyPos)).concat(closeBracket).toCharArray();
+            this.compiledValue = CompiledUelExpression.compile(parse.substring(0, currencyPos));
         }
 
         @Override
         protected Object get(Map<String, ? extends Object> context, TimeZone timeZone, Locale locale) {
             try {
-                Object obj = UelUtil.evaluate(context, new String(this.valueStr));
+                Object obj = (this.compiledValue != null) ? this.compiledValue.getValue(context) : UelUtil.evaluate(context, new String(this.valueStr));
                 if (obj != null) {
                     String currencyCode = this.codeExpr.expandString(context, timeZone, locale);
                     // SCIPIO: 2017-01-13: added BigDecimal instanceof check to avoid string overhead and potential loss of information
@@ -769,17 +771,21 @@ public abstract class FlexibleStringExpander implements Serializable, IsEmpty {
     /** An object that represents a simple, non-nested expression. */
     protected static class VarElem extends ArrayOffsetString {
         protected final char[] bracketedOriginal;
+        protected final CompiledUelExpression compiled; // SCIPIO: null if not a plain property path
 
         protected VarElem(char[] chars, int offset, int length, int parseStart, int parseLength) {
             super(chars, offset, length);
-            this.bracketedOriginal = openBracket.concat(UelUtil.prepareExpression(new String(chars, parseStart, parseLength))).concat(closeBracket).toCharArray();
+            String expression = UelUtil.prepareExpression(new String(chars, parseStart, parseLength));
+            this.bracketedOriginal = openBracket.concat(expression).concat(closeBracket).toCharArray();
+            this.compiled = CompiledUelExpression.compile(expression);
         }
 
         @Override
         protected Object get(Map<String, ? extends Object> context, TimeZone timeZone, Locale locale) {
             Object obj = null;
             try {
-                obj = UelUtil.evaluate(context, new String(this.bracketedOriginal));
+                // SCIPIO: Plain property paths are resolved directly, without building the UEL expression tree
+                obj = (this.compiled != null) ? this.compiled.getValue(context) : UelUtil.evaluate(context, new String(this.bracketedOriginal));
             } catch (PropertyNotFoundException e) {
                 if (Debug.verboseOn()) {
                     Debug.logVerbose("Error evaluating expression " + this + ": " + e, module);
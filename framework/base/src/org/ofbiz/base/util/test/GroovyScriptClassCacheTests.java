@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util.test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.base.util.GroovyScriptClassCache;
+
+import groovy.lang.Binding;
+
+/**
+ * SCIPIO: Tests for the {@link GroovyScriptClassCache} persistent script classes.
+ */
+public class GroovyScriptClassCacheTests extends GenericTestCaseBase {
+
+    private static final String LOCATION = "component://base/script/test/ClassCacheTest.groovy";
+    private static final String SOURCE = "class Helper { static int twice(int i) { i * 2 } }\n"
+            + "return [1, 2, 3].collect { Helper.twice(it) + offset }";
+
+    private File cacheDir;
+
+    public GroovyScriptClassCacheTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cacheDir = Files.createTempDirectory("groovy-classes").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheDir.delete();
+        super.tearDown();
+    }
+
+    private Object run(Class<?> scriptClass) {
+        Binding binding = new Binding();
+        binding.setVariable("offset", 1);
+        return InvokerHelper.createScript(scriptClass, binding).run();
+    }
+
+    public void testCompileAndLoad() throws Exception {
+        ClassLoader parent = getClass().getClassLoader();
+        long compileCount = GroovyScriptClassCache.getCompileCount();
+        Class<?> compiled = GroovyScriptClassCache.getScriptClass(cacheDir, LOCATION, SOURCE, CompilerConfiguration.DEFAULT, parent);
+        assertEquals("compiled", compileCount + 1, GroovyScriptClassCache.getCompileCount());
+        assertEquals("script class name", "ClassCacheTest", compiled.getName());
+        assertEquals("compiled result", list(3, 5, 7), run(compiled));
+        assertEquals("one cache file", 1, cacheDir.listFiles().length);
+
+        long loadCount = GroovyScriptClassCache.getLoadCount();
+        Class<?> loaded = GroovyScriptClassCache.getScriptClass(cacheDir, LOCATION, SOURCE, CompilerConfiguration.DEFAULT, parent);
+        assertEquals("loaded from cache", loadCount + 1, GroovyScriptClassCache.getLoadCount());
+        assertNotSame("new class", compiled, loaded);
+        assertEquals("loaded result (closure and inner class)", list(3, 5, 7), run(loaded));
+
+        Class<?> changed = GroovyScriptClassCache.getScriptClass(cacheDir, LOCATION, SOURCE.replace("+ offset", "- offset"), CompilerConfiguration.DEFAULT, parent);
+        assertEquals("changed source compiled", list(1, 3, 5), run(changed));
+        assertEquals("two cache files", 2, cacheDir.listFiles().length);
+    }
+
+    public void testInvalidFile() throws Exception {
+        ClassLoader parent = getClass().getClassLoader();
+        GroovyScriptClassCache.getScriptClass(cacheDir, LOCATION, SOURCE, CompilerConfiguration.DEFAULT, parent);
+        File cacheFile = cacheDir.listFiles()[0];
+        Files.write(cacheFile.toPath(), new byte[] { 1, 2, 3 });
+        long compileCount = GroovyScriptClassCache.getCompileCount();
+        Class<?> recompiled = GroovyScriptClassCache.getScriptClass(cacheDir, LOCATION, SOURCE, CompilerConfiguration.DEFAULT, parent);
+        assertEquals("invalid file compiled again", compileCount + 1, GroovyScriptClassCache.getCompileCount());
+        assertEquals("recompiled result", list(3, 5, 7), run(recompiled));
+    }
+}
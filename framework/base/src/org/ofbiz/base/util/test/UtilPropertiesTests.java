@@ -22,6 +22,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.text.MessageFormat;
 import java.util.Locale;
 import java.util.Properties;
 
@@ -65,6 +66,31 @@ public class UtilPropertiesTests extends GenericTestCaseBase {
 
     }
 
+    /**
+     * The flattened message table of a bundle must resolve like the bundle's parent chain.
+     */
+    public void testBundleMessagesFlattened() throws Exception {
+        Properties baseProps = new Properties();
+        baseProps.setProperty("Greeting", "Hello");
+        baseProps.setProperty("Farewell", "Goodbye");
+        Properties localeProps = new Properties();
+        localeProps.setProperty("Greeting", "G'day");
+        UtilProperties.UtilResourceBundle baseBundle = new UtilProperties.UtilResourceBundle(baseProps, Locale.ENGLISH, null);
+        UtilProperties.UtilResourceBundle localeBundle = new UtilProperties.UtilResourceBundle(localeProps, locale, baseBundle);
+        assertEquals("G'day", localeBundle.getMessageOrNull("Greeting"));
+        assertEquals("Goodbye", localeBundle.getMessageOrNull("Farewell"));
+        assertEquals("Hello", baseBundle.getMessageOrNull("Greeting"));
+        assertNull(localeBundle.getMessageOrNull("Missing"));
+    }
+
+    public void testFormatMessage() throws Exception {
+        String pattern = "Found {0} items in {1}";
+        Object[] arguments = new Object[] {3, "cart"};
+        assertEquals(MessageFormat.format(pattern, arguments), UtilProperties.formatMessage(pattern, arguments));
+        // second call uses the parsed pattern
+        assertEquals(MessageFormat.format(pattern, arguments), UtilProperties.formatMessage(pattern, arguments));
+    }
+
     private Properties xmlToProperties(String separator) throws IOException {
         String xmlData = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
                 "<resource xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n" +
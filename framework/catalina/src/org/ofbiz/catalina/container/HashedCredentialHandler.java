@@ -21,12 +21,23 @@ package org.ofbiz.catalina.container;
 
 import org.apache.catalina.CredentialHandler;
 import org.ofbiz.base.crypto.HashCrypt;
+import org.ofbiz.base.crypto.PasswordVerificationRejectedException;
 import org.ofbiz.base.util.CredentialUtil;
+import org.ofbiz.base.util.Debug;
 
 public class HashedCredentialHandler implements CredentialHandler {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
     @Override
     public boolean matches(String inputCredentials, String storedCredentials) {
-        return CredentialUtil.checkPassword(storedCredentials, true, inputCredentials);
+        try {
+            return CredentialUtil.checkPassword(storedCredentials, true, inputCredentials);
+        } catch (PasswordVerificationRejectedException e) {
+            // SCIPIO: the password verification executor is saturated: refuse, the client can retry
+            Debug.logWarning("Credential check refused: " + e.getMessage(), module);
+            return false;
+        }
     }
 
     @Override
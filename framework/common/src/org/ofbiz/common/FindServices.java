@@ -22,6 +22,7 @@ import static org.ofbiz.base.util.UtilGenerics.checkList;
 import static org.ofbiz.base.util.UtilGenerics.checkMap;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -54,6 +55,7 @@ import org.ofbiz.entity.condition.EntityFunction;
 import org.ofbiz.entity.condition.EntityOperator;
 import org.ofbiz.entity.model.ModelEntity;
 import org.ofbiz.entity.model.ModelField;
+import org.ofbiz.entity.util.EntityKeyset;
 import org.ofbiz.entity.util.EntityListIterator;
 import org.ofbiz.entity.util.EntityQuery;
 import org.ofbiz.entity.util.EntityUtil;
@@ -457,6 +459,8 @@ public class FindServices {
      *                              viewSize: the length of the page (number of records)
      *  Extra output parameter: listSize: size of the totallist
      *                                         list : the list itself.
+     *  SCIPIO: With keyset=Y, the page after the seekAfter key is selected instead of the viewIndex page
+     *  (see performFind), and seekNext returns the key of the page after the returned one.
      *
      * @param dctx
      * @param context
@@ -476,18 +480,26 @@ public class FindServices {
 
         Map<String, Object> result = performFind(dctx,context);
 
-        int start = viewIndex * viewSize;
+        // SCIPIO: with a keyset seek the iterator starts at the requested page
+        int start = Boolean.TRUE.equals(result.get("seekApplied")) ? 0 : viewIndex * viewSize;
         List<GenericValue> list = null;
         Integer listSize = 0;
+        boolean listSizeExact = true;
         try (EntityListIterator it = (EntityListIterator) result.get("listIt")) {
             list = it.getPartialList(start+1, viewSize); // list starts at '1'
             listSize = it.getResultsSizeAfterPartialList();
+            listSizeExact = it.isResultSizeExact();
         } catch (ClassCastException | NullPointerException | GenericEntityException e) {
             Debug.logInfo("Problem getting partial list" + e, module);
         }
 
         result.put("listSize", listSize);
+        result.put("listSizeExact", listSizeExact);
         result.put("list",list);
+        List<String> keysetOrderByList = checkList(result.get("keysetOrderByList"), String.class);
+        if (keysetOrderByList != null && list != null && list.size() == viewSize && viewSize > 0) {
+            result.put("seekNext", EntityKeyset.makeSeekKey(keysetOrderByList, list.get(list.size() - 1)));
+        }
         result.remove("listIt");
         return result;
     }
@@ -497,6 +509,14 @@ public class FindServices {
      *
      * This is a generic method that expects entity data affixed with special suffixes
      * to indicate their purpose in formulating an SQL query statement.
+     * <p>
+     * SCIPIO: With keyset=Y, the order-by is made total with the primary key fields (keysetOrderByList) and, if
+     * seekAfter (the order-by field values of the last row of the previous page) is set, the iterator starts
+     * after it instead of at the viewIndex page (seekApplied), so deep pages don't scroll the cursor over the previous
+     * ones; listSize then counts the rows from the seek key. Without seekAfter, the key is read from the
+     * seekAfter_* inputFields of the form paginator next link (see {@link EntityKeyset#getSeekAfterParams}). For the order-by not supported by keyset paging
+     * (see {@link EntityKeyset}), viewIndex paging is used. countMode selects the listSize count, see
+     * {@link org.ofbiz.entity.util.EntityFindOptions#setCountMode}.
      */
     public static Map<String, Object> performFind(DispatchContext dctx, Map<String, ?> context) {
         String entityName = (String) context.get("entityName");
@@ -535,10 +555,9 @@ public class FindServices {
 
         Integer viewSize = (Integer) context.get("viewSize");
         Integer viewIndex = (Integer) context.get("viewIndex");
-        Integer maxRows = null;
-        if (viewSize != null && viewIndex != null) {
-            maxRows = viewSize * (viewIndex + 1);
-        }
+        boolean keyset = "Y".equals(context.get("keyset")); // SCIPIO
+        Map<String, Object> seekAfter = UtilGenerics.checkMap(context.get("seekAfter"));
+        String countMode = (String) context.get("countMode");
 
         LocalDispatcher dispatcher = dctx.getDispatcher();
 
@@ -554,13 +573,42 @@ public class FindServices {
         EntityConditionList<EntityCondition> exprList = UtilGenerics.cast(prepareResult.get("entityConditionList"));
         List<String> orderByList = checkList(prepareResult.get("orderByList"), String.class);
 
+        // SCIPIO: keyset pagination: total order-by and seek condition
+        List<String> keysetOrderByList = null;
+        boolean seekApplied = false;
+        if (keyset) {
+            ModelEntity modelEntity = delegator.getModelEntity(entityName);
+            keysetOrderByList = EntityKeyset.makeOrderBy(modelEntity, orderByList);
+            if (keysetOrderByList != null) {
+                orderByList = keysetOrderByList;
+                if (seekAfter == null && viewIndex != null) {
+                    // the seek key of the form paginator next link, see Paginator.getListLimits
+                    seekAfter = EntityKeyset.getSeekAfterParams(inputFields, viewIndex);
+                }
+                EntityCondition seekCondition = EntityKeyset.makeSeekCondition(modelEntity, keysetOrderByList, seekAfter, delegator);
+                if (seekCondition != null && (exprList != null || "Y".equals(noConditionFind))) {
+                    List<EntityCondition> conditions = new ArrayList<>(2);
+                    if (exprList != null) {
+                        conditions.add(exprList);
+                    }
+                    conditions.add(seekCondition);
+                    exprList = EntityCondition.makeCondition(conditions);
+                    seekApplied = true;
+                }
+            }
+        }
+        Integer maxRows = null;
+        if (viewSize != null && viewIndex != null) {
+            maxRows = seekApplied ? viewSize : viewSize * (viewIndex + 1);
+        }
+
         Map<String, Object> executeResult = null;
         try {
             executeResult = dispatcher.runSync("executeFind", UtilMisc.toMap("entityName", entityName, "orderByList", orderByList,
                                                                              "fieldList", fieldList, "entityConditionList", exprList,
                                                                              "noConditionFind", noConditionFind, "distinct", distinct,
                                                                              "locale", context.get("locale"), "timeZone", context.get("timeZone"),
-                                                                             "maxRows", maxRows));
+                                                                             "maxRows", maxRows, "countMode", countMode));
         } catch (GenericServiceException gse) {
             return ServiceUtil.returnError(UtilProperties.getMessage(resource, "CommonFindErrorRetrieveIterator", UtilMisc.toMap("errorString", gse.getMessage()), locale));
         }
@@ -571,9 +619,17 @@ public class FindServices {
             }
         }
 
+        if (keysetOrderByList != null && executeResult.get("listIt") instanceof EntityListIterator) { // SCIPIO
+            ((EntityListIterator) executeResult.get("listIt")).setKeysetPaging(keysetOrderByList,
+                    (seekApplied && viewSize != null && viewIndex != null) ? viewIndex * viewSize : 0);
+        }
+
         Map<String, Object> results = ServiceUtil.returnSuccess();
         results.put("listIt", executeResult.get("listIt"));
         results.put("listSize", executeResult.get("listSize"));
+        results.put("listSizeExact", executeResult.get("listSizeExact"));
+        results.put("keysetOrderByList", keysetOrderByList);
+        results.put("seekApplied", seekApplied);
         results.put("queryString", prepareResult.get("queryString"));
         results.put("queryStringMap", prepareResult.get("queryStringMap"));
         return results;
@@ -681,10 +737,12 @@ public class FindServices {
         }
         Integer maxRows = (Integer) context.get("maxRows");
         maxRows = maxRows != null ? maxRows : -1;
+        String countMode = (String) context.get("countMode"); // SCIPIO
         Delegator delegator = dctx.getDelegator();
         // Retrieve entities  - an iterator over all the values
         EntityListIterator listIt = null;
         int listSize = 0;
+        boolean listSizeExact = true;
         try {
             if (noConditionFind || (entityConditionList != null && entityConditionList.getConditionListSize() > 0)) {
                 listIt = EntityQuery.use(delegator)
@@ -695,8 +753,10 @@ public class FindServices {
                                     .cursorScrollInsensitive()
                                     .maxRows(maxRows)
                                     .distinct(distinct)
+                                    .countMode(countMode)
                                     .queryIterator();
                 listSize = listIt.getResultsSizeAfterPartialList();
+                listSizeExact = listIt.isResultSizeExact();
             }
         } catch (GenericEntityException e) {
             return ServiceUtil.returnError(UtilProperties.getMessage(resource, "CommonFindErrorRunning", UtilMisc.toMap("entityName", entityName, "errorString", e.getMessage()), locale));
@@ -705,6 +765,7 @@ public class FindServices {
         Map<String, Object> results = ServiceUtil.returnSuccess();
         results.put("listIt", listIt);
         results.put("listSize", listSize);
+        results.put("listSizeExact", listSizeExact);
         return results;
     }
 
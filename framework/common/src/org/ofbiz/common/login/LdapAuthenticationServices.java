@@ -29,6 +29,7 @@ import javax.naming.directory.InitialDirContext;
 import javax.transaction.Transaction;
 
 import org.ofbiz.base.crypto.HashCrypt;
+import org.ofbiz.base.crypto.PasswordVerificationRejectedException;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
@@ -99,7 +100,13 @@ public class LdapAuthenticationServices {
             String currentPassword = userLogin.getString("currentPassword");
             boolean samePassword;
             if (useEncryption) {
-                samePassword = HashCrypt.comparePassword(currentPassword, LoginServices.getHashType(), password);
+                try {
+                    samePassword = HashCrypt.comparePassword(currentPassword, LoginServices.getHashType(), password);
+                } catch (PasswordVerificationRejectedException e) {
+                    // SCIPIO: the LDAP authentication succeeded; the synchronization is retried at the next login
+                    Debug.logWarning("LDAP password synchronization skipped: " + e.getMessage(), module);
+                    return true;
+                }
             } else {
                 samePassword = currentPassword.equals(password);
             }
@@ -34,6 +34,7 @@ import javax.transaction.Transaction;
 
 import org.apache.tomcat.util.res.StringManager;
 import org.ofbiz.base.crypto.HashCrypt;
+import org.ofbiz.base.crypto.PasswordVerificationRejectedException;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilDateTime;
 import org.ofbiz.base.util.UtilMisc;
@@ -223,7 +224,16 @@ public class LoginServices {
                         // if the password.accept.encrypted.and.plain property in security is set to true allow plain or encrypted passwords
                         // if this is a system account don't bother checking the passwords
                         // if externalAuth passed; this is run as well
-                        if ((!authFatalError && externalAuth) || (useTomcatSSO ? TomcatSSOLogin(request, username, password) : checkPassword(userLogin.getString("currentPassword"), useEncryption, password))) {
+                        // SCIPIO: when the password verification executor is saturated, the password is neither accepted
+                        // nor refused: return an error without counting a failed login
+                        boolean passwordMatches;
+                        try {
+                            passwordMatches = (!authFatalError && externalAuth) || (useTomcatSSO ? TomcatSSOLogin(request, username, password) : checkPassword(userLogin.getString("currentPassword"), useEncryption, password));
+                        } catch (PasswordVerificationRejectedException e) {
+                            Debug.logWarning("[LoginServices.userLogin] : " + e.getMessage(), module);
+                            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "loginservices.password_verification_busy", locale));
+                        }
+                        if (passwordMatches) {
                             Debug.logVerbose("[LoginServices.userLogin] : Password Matched", module);
 
                             // update the hasLoggedOut flag
@@ -904,14 +914,20 @@ public class LoginServices {
         if (!ignoreCurrentPassword) {
             // if the password.accept.encrypted.and.plain property in security is set to true allow plain or encrypted passwords
             // if this is a system account don't bother checking the passwords
-            boolean passwordMatches = checkPassword(userLogin.getString("currentPassword"), useEncryption, currentPassword);
-            if ((currentPassword == null) || (!passwordMatches)) {
-                errMsg = UtilProperties.getMessage(resource,"loginservices.old_password_not_correct_reenter", locale);
-                errorMessageList.add(errMsg);
-            }
-            if (checkPassword(userLogin.getString("currentPassword"), useEncryption, newPassword)) {
-                errMsg = UtilProperties.getMessage(resource,"loginservices.new_password_is_equal_to_old_password", locale);
-                errorMessageList.add(errMsg);
+            try { // SCIPIO: the password verification executor may be saturated
+                boolean passwordMatches = checkPassword(userLogin.getString("currentPassword"), useEncryption, currentPassword);
+                if ((currentPassword == null) || (!passwordMatches)) {
+                    errMsg = UtilProperties.getMessage(resource,"loginservices.old_password_not_correct_reenter", locale);
+                    errorMessageList.add(errMsg);
+                }
+                if (checkPassword(userLogin.getString("currentPassword"), useEncryption, newPassword)) {
+                    errMsg = UtilProperties.getMessage(resource,"loginservices.new_password_is_equal_to_old_password", locale);
+                    errorMessageList.add(errMsg);
+                }
+            } catch (PasswordVerificationRejectedException e) {
+                Debug.logWarning("[LoginServices.checkNewPassword] : " + e.getMessage(), module);
+                errorMessageList.add(UtilProperties.getMessage(resource, "loginservices.password_verification_busy", locale));
+                return;
             }
 
         }
@@ -948,6 +964,10 @@ public class LoginServices {
                         break;
                     }
                 }
+            } catch (PasswordVerificationRejectedException e) { // SCIPIO
+                Debug.logWarning("[LoginServices.checkNewPassword] : " + e.getMessage(), module);
+                errorMessageList.add(UtilProperties.getMessage(resource, "loginservices.password_verification_busy", locale));
+                return;
             } catch (GenericEntityException e) {
                 Debug.logWarning(e, "", module);
                 Map<String, String> messageMap = UtilMisc.toMap("errorMessage", e.getMessage());
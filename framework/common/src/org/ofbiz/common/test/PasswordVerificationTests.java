@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.common.test;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.crypto.HashCrypt;
+import org.ofbiz.base.crypto.PasswordVerifier;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.ServiceUtil;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: Tests the userLogin service when the password verification executor is saturated: the login must fail
+ * with the "try again later" error, without counting a failed login.
+ */
+public class PasswordVerificationTests extends OFBizTestCase {
+
+    private static final String USER_LOGIN_ID = "PWVERIFYTEST_USER";
+    private static final String PASSWORD = "pwverify-test1";
+
+    public PasswordVerificationTests(String name) {
+        super(name);
+    }
+
+    private GenericValue prepareData() throws Exception {
+        GenericValue userLogin = EntityQuery.use(delegator).from("UserLogin").where("userLoginId", USER_LOGIN_ID).queryOne();
+        if (userLogin == null) {
+            userLogin = delegator.makeValue("UserLogin", "userLoginId", USER_LOGIN_ID);
+        }
+        userLogin.set("currentPassword", HashCrypt.pbkdf2HashCrypt("PBKDF2WithHmacSHA256", (byte[]) null, PASSWORD));
+        userLogin.set("enabled", "Y");
+        userLogin.set("successiveFailedLogins", null);
+        userLogin.set("requirePasswordChange", "N");
+        delegator.createOrStore(userLogin);
+        return userLogin;
+    }
+
+    public void testUserLoginRejectedWhenVerifierSaturated() throws Exception {
+        prepareData();
+        ThreadPoolExecutor executor = ExecutionPool.getBoundedExecutor(new ThreadGroup("PasswordVerificationTests"),
+                "password-verify-test", 1, 1, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        PasswordVerifier saturatedVerifier = new PasswordVerifier(executor, 10000, null);
+        PasswordVerifier previousVerifier = HashCrypt.setPasswordVerifier(saturatedVerifier);
+        try {
+            executor.submit(() -> release.await(30, TimeUnit.SECONDS)); // busy thread
+            executor.submit(() -> release.await(30, TimeUnit.SECONDS)); // full queue
+
+            Map<String, Object> result = dispatcher.runSync("userLogin",
+                    UtilMisc.toMap("login.username", USER_LOGIN_ID, "login.password", PASSWORD, "locale", Locale.ENGLISH));
+            assertTrue("userLogin returns an error when the verification is rejected", ServiceUtil.isError(result));
+            assertEquals("Try again later error", UtilProperties.getMessage("SecurityextUiLabels",
+                    "loginservices.password_verification_busy", Locale.ENGLISH), ServiceUtil.getErrorMessage(result));
+            assertFalse("No user login returned", result.containsKey("userLogin"));
+            assertEquals("Verification rejected", 1L, saturatedVerifier.getStats().get("rejected"));
+
+            GenericValue userLogin = EntityQuery.use(delegator).from("UserLogin").where("userLoginId", USER_LOGIN_ID).queryOne();
+            assertNull("Rejected verification is not a failed login", userLogin.get("successiveFailedLogins"));
+            assertEquals("User login still enabled", "Y", userLogin.getString("enabled"));
+
+            release.countDown();
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+            HashCrypt.setPasswordVerifier(previousVerifier);
+            result = dispatcher.runSync("userLogin", UtilMisc.toMap("login.username", USER_LOGIN_ID, "login.password", PASSWORD));
+            assertTrue("userLogin succeeds once the verifier is available", ServiceUtil.isSuccess(result));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+            HashCrypt.setPasswordVerifier(previousVerifier);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.common.test;
+
+import java.sql.Timestamp;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.security.Security;
+import org.ofbiz.security.SecurityFactory;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: Tests the compiled user permissions of the default Security implementation (SecurityFactory): the
+ * permission checks must follow the changes of the security entities, including the bulk ones which don't run the
+ * entity ECAs (removeByAnd, storeByCondition); logs the time of a cached permission check.
+ */
+public class SecurityPermissionTests extends OFBizTestCase {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    private static final String USER_LOGIN_ID = "PERMTEST_USER";
+    private static final String GROUP_ID = "PERMTEST_GROUP";
+    private static final String PERMISSION_ID = "PERMTEST_VIEW";
+
+    public SecurityPermissionTests(String name) {
+        super(name);
+    }
+
+    private GenericValue prepareData() throws Exception {
+        if (EntityQuery.use(delegator).from("UserLogin").where("userLoginId", USER_LOGIN_ID).queryOne() == null) {
+            delegator.create("UserLogin", "userLoginId", USER_LOGIN_ID);
+            delegator.create("SecurityGroup", "groupId", GROUP_ID, "description", "Permission cache test group");
+            delegator.create("SecurityPermission", "permissionId", PERMISSION_ID, "description", "Permission cache test permission");
+            delegator.create("UserLoginSecurityGroup", "userLoginId", USER_LOGIN_ID, "groupId", GROUP_ID,
+                    "fromDate", UtilDateTime.addDaysToTimestamp(UtilDateTime.nowTimestamp(), -1d));
+        }
+        delegator.removeByAnd("SecurityGroupPermission", "groupId", GROUP_ID);
+        delegator.storeByCondition("UserLoginSecurityGroup", UtilMisc.toMap("thruDate", null),
+                EntityCondition.makeCondition("userLoginId", USER_LOGIN_ID));
+        delegator.create("SecurityGroupPermission", "groupId", GROUP_ID, "permissionId", PERMISSION_ID);
+        return EntityQuery.use(delegator).from("UserLogin").where("userLoginId", USER_LOGIN_ID).queryOne();
+    }
+
+    public void testPermissionCacheInvalidation() throws Exception {
+        GenericValue userLogin = prepareData();
+        Security security = SecurityFactory.getInstance(delegator);
+        assertTrue("Permission granted", security.hasPermission(PERMISSION_ID, userLogin));
+        assertTrue("Entity permission granted", security.hasEntityPermission("PERMTEST", "_VIEW", userLogin));
+
+        // Bulk remove of the group permission (no entity ECA)
+        delegator.removeByAnd("SecurityGroupPermission", "groupId", GROUP_ID);
+        assertFalse("Permission revoked by removeByAnd", security.hasPermission(PERMISSION_ID, userLogin));
+
+        delegator.create("SecurityGroupPermission", "groupId", GROUP_ID, "permissionId", PERMISSION_ID);
+        assertTrue("Permission granted again", security.hasPermission(PERMISSION_ID, userLogin));
+
+        // Bulk expiry of the user's group membership (no entity ECA)
+        Timestamp thruDate = new Timestamp(System.currentTimeMillis() - 1000);
+        delegator.storeByCondition("UserLoginSecurityGroup", UtilMisc.toMap("thruDate", thruDate),
+                EntityCondition.makeCondition("userLoginId", USER_LOGIN_ID));
+        assertFalse("Permission revoked by storeByCondition", security.hasPermission(PERMISSION_ID, userLogin));
+
+        delegator.storeByCondition("UserLoginSecurityGroup", UtilMisc.toMap("thruDate", null),
+                EntityCondition.makeCondition("userLoginId", USER_LOGIN_ID));
+        assertTrue("Permission granted again", security.hasPermission(PERMISSION_ID, userLogin));
+    }
+
+    public void testPermissionCheckTime() throws Exception {
+        GenericValue userLogin = prepareData();
+        Security security = SecurityFactory.getInstance(delegator);
+        int count = 200000;
+        boolean granted = true;
+        for (int i = 0; i < count; i++) { // warm up
+            granted &= security.hasPermission(PERMISSION_ID, userLogin);
+        }
+        long startTime = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            granted &= security.hasPermission(PERMISSION_ID, userLogin);
+        }
+        long elapsed = System.nanoTime() - startTime;
+        assertTrue("Permission granted", granted);
+        Debug.logInfo("Cached permission check: " + (elapsed / count) + " ns per hasPermission call (" + count + " calls)", module);
+    }
+}
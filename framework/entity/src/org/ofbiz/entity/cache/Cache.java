@@ -19,6 +19,10 @@
 package org.ofbiz.entity.cache;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilGenerics;
@@ -26,6 +30,7 @@ import org.ofbiz.entity.GenericEntity;
 import org.ofbiz.entity.GenericPK;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.util.EntityUtilProperties;
 
 public class Cache {
 
@@ -35,6 +40,17 @@ public class Cache {
     protected EntityListCache entityListCache;
     protected EntityObjectCache entityObjectCache;
 
+    /**
+     * SCIPIO: The hooks run with the delegator name when the cache lines of an entity are removed, by entity name
+     * (see {@link #addRemoveHook}).
+     */
+    private static final Map<String, List<Consumer<String>>> removeHooks = new ConcurrentHashMap<>();
+    /**
+     * SCIPIO: The hooks run with the delegator name when all the cache lines of an entity, or those matching a condition,
+     * are removed, by entity name (see {@link #addBulkRemoveHook}).
+     */
+    private static final Map<String, List<Consumer<String>>> bulkRemoveHooks = new ConcurrentHashMap<>();
+
     protected String delegatorName;
 
     public Cache(String delegatorName) {
@@ -48,11 +64,23 @@ public class Cache {
         entityCache.clear();
         entityListCache.clear();
         entityObjectCache.clear();
+        EntityUtilProperties.clearSystemPropertySnapshot(delegatorName); // SCIPIO
+        for (List<Consumer<String>> hooks : removeHooks.values()) { // SCIPIO
+            for (Consumer<String> hook : hooks) {
+                hook.accept(delegatorName);
+            }
+        }
+        for (List<Consumer<String>> hooks : bulkRemoveHooks.values()) { // SCIPIO
+            for (Consumer<String> hook : hooks) {
+                hook.accept(delegatorName);
+            }
+        }
     }
 
     public void remove(String entityName) {
         entityCache.remove(entityName);
         entityListCache.remove(entityName);
+        removeHook(entityName, true); // SCIPIO
     }
 
     public GenericValue get(GenericPK pk) {
@@ -94,12 +122,14 @@ public class Cache {
     }
 
     public List<GenericValue> remove(String entityName, EntityCondition condition, List<String> orderBy) {
+        removeHook(entityName, true); // SCIPIO
         entityCache.remove(entityName, condition);
         entityObjectCache.remove(entityName, condition);
         return entityListCache.remove(entityName, condition, orderBy);
     }
 
     public void remove(String entityName, EntityCondition condition) {
+        removeHook(entityName, true); // SCIPIO
         entityCache.remove(entityName, condition);
         entityListCache.remove(entityName, condition);
         entityObjectCache.remove(entityName, condition);
@@ -113,6 +143,7 @@ public class Cache {
         if (Debug.verboseOn()) {
             Debug.logVerbose("Cache remove GenericEntity: " + entity, module);
         }
+        removeHook(entity.getEntityName(), false); // SCIPIO
         GenericValue oldEntity = entityCache.remove(entity.getPrimaryKey());
         // Workaround because AbstractEntityConditionCache.storeHook doesn't work.
         entityListCache.remove(entity);
@@ -124,6 +155,7 @@ public class Cache {
         if (Debug.verboseOn()) {
             Debug.logVerbose("Cache remove GenericPK: " + pk, module);
         }
+        removeHook(pk.getEntityName(), false); // SCIPIO
         GenericValue oldEntity = entityCache.remove(pk);
         // Workaround because AbstractEntityConditionCache.storeHook doesn't work.
         entityListCache.remove(pk);
@@ -132,4 +164,48 @@ public class Cache {
         // entityObjectCache.storeHook(pk, null);
         return oldEntity;
     }
+
+    /**
+     * SCIPIO: Clears the caches derived from the cached values of the given entity, outside of the entity cache.
+     * @param bulk true if all the cache lines of the entity or those matching a condition are removed
+     */
+    protected void removeHook(String entityName, boolean bulk) {
+        if ("SystemProperty".equals(entityName)) {
+            EntityUtilProperties.clearSystemPropertySnapshot(delegatorName);
+        }
+        List<Consumer<String>> hooks = removeHooks.get(entityName);
+        if (hooks != null) {
+            for (Consumer<String> hook : hooks) {
+                hook.accept(delegatorName);
+            }
+        }
+        if (bulk) {
+            hooks = bulkRemoveHooks.get(entityName);
+            if (hooks != null) {
+                for (Consumer<String> hook : hooks) {
+                    hook.accept(delegatorName);
+                }
+            }
+        }
+    }
+
+    /**
+     * SCIPIO: Registers a hook run with the delegator name whenever cache lines of the entity are removed, in all the
+     * delegators: for the local changes, including the bulk ones (removeByAnd, storeByCondition...), and for the
+     * distributed cache clears from other servers; and when all the caches are cleared. For the caches derived from
+     * the cached values of the entity, outside of the entity cache.
+     */
+    public static void addRemoveHook(String entityName, Consumer<String> hook) {
+        removeHooks.computeIfAbsent(entityName, k -> new CopyOnWriteArrayList<>()).add(hook);
+    }
+
+    /**
+     * SCIPIO: Registers a hook run with the delegator name only when all the cache lines of the entity, or those matching
+     * a condition, are removed, in all the delegators: by the bulk operations (removeByAnd, removeByCondition,
+     * storeByCondition...), by the distributed cache clears by condition, and when all the caches are cleared. For the
+     * caches that are kept current value by value (e.g. by entity ECAs) but can't tell which values a bulk change touched.
+     */
+    public static void addBulkRemoveHook(String entityName, Consumer<String> hook) {
+        bulkRemoveHooks.computeIfAbsent(entityName, k -> new CopyOnWriteArrayList<>()).add(hook);
+    }
 }
@@ -76,6 +76,9 @@ public final class Datasource {
     private final String collate; // type = xs:string
     private final String rowFormat;
     private final int maxWorkerPoolSize; // type = xs:integer
+    private final int writeBehindBatchSize; // type = xs:nonNegativeInteger // SCIPIO
+    private final String countMode; // type = xs:string // SCIPIO
+    private final int countCap; // type = xs:nonNegativeInteger // SCIPIO
     private final List<SqlLoadPath> sqlLoadPathList; // <sql-load-path>
     private final List<ReadData> readDataList; // <read-data>
     private final InlineJdbc inlineJdbc; // <inline-jdbc>
@@ -181,6 +184,31 @@ public final class Datasource {
                 throw new GenericEntityConfException("<datasource> element max-worker-pool-size attribute is invalid" + lineNumberText);
             }
         }
+        String writeBehindBatchSize = element.getAttribute("write-behind-batch-size"); // SCIPIO
+        if (writeBehindBatchSize.isEmpty()) {
+            this.writeBehindBatchSize = 100;
+        } else {
+            try {
+                this.writeBehindBatchSize = Math.max(0, Integer.parseInt(writeBehindBatchSize));
+            } catch (NumberFormatException e) {
+                throw new GenericEntityConfException("<datasource> element write-behind-batch-size attribute is invalid" + lineNumberText);
+            }
+        }
+        String countMode = element.getAttribute("count-mode").intern(); // SCIPIO
+        if (countMode.isEmpty()) {
+            countMode = "exact";
+        }
+        this.countMode = countMode;
+        String countCap = element.getAttribute("count-cap"); // SCIPIO
+        if (countCap.isEmpty()) {
+            this.countCap = 1000;
+        } else {
+            try {
+                this.countCap = Math.max(0, Integer.parseInt(countCap));
+            } catch (NumberFormatException e) {
+                throw new GenericEntityConfException("<datasource> element count-cap attribute is invalid" + lineNumberText);
+            }
+        }
         List<? extends Element> sqlLoadPathElementList = UtilXml.childElementList(element, "sql-load-path");
         if (sqlLoadPathElementList.isEmpty()) {
             this.sqlLoadPathList = Collections.emptyList();
@@ -398,6 +426,21 @@ public final class Datasource {
         return this.maxWorkerPoolSize;
     }
 
+    /** SCIPIO: Returns the value of the <code>write-behind-batch-size</code> attribute; 0 disables transaction write-behind for this datasource. */
+    public int getWriteBehindBatchSize() {
+        return this.writeBehindBatchSize;
+    }
+
+    /** SCIPIO: Returns the value of the <code>count-mode</code> attribute: exact, capped or approximate. */
+    public String getCountMode() {
+        return this.countMode;
+    }
+
+    /** SCIPIO: Returns the value of the <code>count-cap</code> attribute, the rows counted past the requested page by the capped count. */
+    public int getCountCap() {
+        return this.countCap;
+    }
+
     /** Returns the <code>&lt;sql-load-path&gt;</code> child elements. */
     public List<SqlLoadPath> getSqlLoadPathList() {
         return this.sqlLoadPathList;
@@ -50,6 +50,10 @@ public final class InlineJdbc extends JdbcElement {
     private final boolean testOnReturn; // type = xs:boolean
     private final boolean testWhileIdle; // type = xs:boolean
     private final String poolXaWrapperClass; // type = xs:string
+    private final int poolLeakThresholdMillis; // type = xs:nonNegativeInteger (SCIPIO)
+    private final boolean poolLeakBorrowTrace; // type = xs:boolean (SCIPIO)
+    private final boolean poolAdaptive; // type = xs:boolean (SCIPIO)
+    private final int poolAdaptiveWaitMillis; // type = xs:nonNegativeInteger (SCIPIO)
 
     InlineJdbc(Element element) throws GenericEntityConfException {
         super(element);
@@ -167,6 +171,29 @@ public final class InlineJdbc extends JdbcElement {
         this.testOnReturn = "true".equals(element.getAttribute("test-on-return"));
         this.testWhileIdle = "true".equals(element.getAttribute("test-while-idle"));
         this.poolXaWrapperClass = element.getAttribute("pool-xa-wrapper-class").intern();
+        // SCIPIO: pool instrumentation
+        String poolLeakThresholdMillis = element.getAttribute("pool-leak-threshold-millis");
+        if (poolLeakThresholdMillis.isEmpty()) {
+            this.poolLeakThresholdMillis = 0;
+        } else {
+            try {
+                this.poolLeakThresholdMillis = Integer.parseInt(poolLeakThresholdMillis);
+            } catch (Exception e) {
+                throw new GenericEntityConfException("<inline-jdbc> element pool-leak-threshold-millis attribute is invalid" + lineNumberText);
+            }
+        }
+        this.poolLeakBorrowTrace = "true".equals(element.getAttribute("pool-leak-borrow-trace"));
+        this.poolAdaptive = "true".equals(element.getAttribute("pool-adaptive"));
+        String poolAdaptiveWaitMillis = element.getAttribute("pool-adaptive-wait-millis");
+        if (poolAdaptiveWaitMillis.isEmpty()) {
+            this.poolAdaptiveWaitMillis = 50;
+        } else {
+            try {
+                this.poolAdaptiveWaitMillis = Integer.parseInt(poolAdaptiveWaitMillis);
+            } catch (Exception e) {
+                throw new GenericEntityConfException("<inline-jdbc> element pool-adaptive-wait-millis attribute is invalid" + lineNumberText);
+            }
+        }
     }
 
     /** Returns the value of the <code>jdbc-driver</code> attribute. */
@@ -268,4 +295,24 @@ public final class InlineJdbc extends JdbcElement {
     public String getPoolXaWrapperClass() {
         return this.poolXaWrapperClass;
     }
+
+    /** SCIPIO: Returns the value of the <code>pool-leak-threshold-millis</code> attribute. */
+    public int getPoolLeakThresholdMillis() {
+        return this.poolLeakThresholdMillis;
+    }
+
+    /** SCIPIO: Returns the value of the <code>pool-leak-borrow-trace</code> attribute. */
+    public boolean getPoolLeakBorrowTrace() {
+        return this.poolLeakBorrowTrace;
+    }
+
+    /** SCIPIO: Returns the value of the <code>pool-adaptive</code> attribute. */
+    public boolean getPoolAdaptive() {
+        return this.poolAdaptive;
+    }
+
+    /** SCIPIO: Returns the value of the <code>pool-adaptive-wait-millis</code> attribute. */
+    public int getPoolAdaptiveWaitMillis() {
+        return this.poolAdaptiveWaitMillis;
+    }
 }
@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.connection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.PooledObjectState;
+import org.apache.commons.pool2.impl.DefaultPooledObjectInfo;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.ofbiz.base.util.Debug;
+
+/**
+ * SCIPIO: Borrow metrics, leak detection and adaptive sizing for a {@link DBCPConnectionFactory} pool (one per helper).
+ * <p>
+ * Borrows are timed by {@link DebugManagedDataSource} into a wait time histogram, so a stalled checkout can be told
+ * apart from a slow database. The periodic {@link #check()} logs the connections borrowed for longer than the
+ * inline-jdbc pool-leak-threshold-millis (with the borrow site if pool-leak-borrow-trace, using the commons-pool
+ * abandoned object tracking), and, with pool-adaptive, resizes the pool maximum between pool-minsize and pool-maxsize.
+ * <p>
+ * The metrics are shown in webtools (Connection Pool Status) through {@link DBCPConnectionFactory#getDataSourceInfo(String)}.
+ */
+public class ConnectionPoolMetrics {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    /** Upper bounds (exclusive) of the borrow wait histogram buckets, in milliseconds; the last bucket has no bound. */
+    private static final long[] WAIT_BUCKET_BOUNDS_MS = { 1, 5, 10, 50, 100, 500, 1000, 5000 };
+
+    private final String helperName;
+    private final GenericObjectPool<?> pool;
+    private final Collection<? extends PooledObject<?>> pooledObjects;
+    private final int minSize;
+    private final int maxSize;
+    private final long leakThresholdMillis;
+    private final boolean adaptive;
+    private final long adaptiveWaitNanos;
+
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder borrowFailureCount = new LongAdder();
+    private final LongAdder borrowWaitNanos = new LongAdder();
+    private final AtomicLong borrowWaitMaxNanos = new AtomicLong();
+    private final LongAdder[] waitBuckets = new LongAdder[WAIT_BUCKET_BOUNDS_MS.length + 1];
+
+    // adaptive sizing interval (reset at each check)
+    private final LongAdder intervalBorrowCount = new LongAdder();
+    private final LongAdder intervalBorrowFailureCount = new LongAdder();
+    private final LongAdder intervalBorrowWaitNanos = new LongAdder();
+    private final AtomicLong intervalPeakActive = new AtomicLong();
+
+    private volatile int leakSuspectCount;
+    private volatile Set<String> reportedLeaks = new HashSet<>();
+    private volatile long lastResizeTime;
+
+    /**
+     * Creates the metrics of the pool; pooledObjects is the live collection of the objects of the pool, kept by its
+     * factory (see {@link DBCPConnectionFactory}), used for the leak detection.
+     */
+    public ConnectionPoolMetrics(String helperName, GenericObjectPool<?> pool, Collection<? extends PooledObject<?>> pooledObjects,
+            int minSize, int maxSize, long leakThresholdMillis, boolean adaptive, long adaptiveWaitMillis) {
+        this.helperName = helperName;
+        this.pool = pool;
+        this.pooledObjects = pooledObjects;
+        this.minSize = Math.max(1, minSize);
+        this.maxSize = Math.max(this.minSize, maxSize);
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.adaptive = adaptive;
+        this.adaptiveWaitNanos = TimeUnit.MILLISECONDS.toNanos(adaptiveWaitMillis);
+        for (int i = 0; i < waitBuckets.length; i++) {
+            waitBuckets[i] = new LongAdder();
+        }
+    }
+
+    public String getHelperName() {
+        return helperName;
+    }
+
+    /** Returns true if {@link #check()} has anything to do (leak detection or adaptive sizing). */
+    public boolean isCheckEnabled() {
+        return leakThresholdMillis > 0 || adaptive;
+    }
+
+    /**
+     * Records a borrow from the pool, successful or not, with the time it took.
+     */
+    public void recordBorrow(long waitNanos, boolean success) {
+        borrowCount.increment();
+        intervalBorrowCount.increment();
+        if (!success) {
+            borrowFailureCount.increment();
+            intervalBorrowFailureCount.increment();
+        }
+        borrowWaitNanos.add(waitNanos);
+        intervalBorrowWaitNanos.add(waitNanos);
+        long maxNanos = borrowWaitMaxNanos.get();
+        while (waitNanos > maxNanos && !borrowWaitMaxNanos.compareAndSet(maxNanos, waitNanos)) {
+            maxNanos = borrowWaitMaxNanos.get();
+        }
+        long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+        int bucket = 0;
+        while (bucket < WAIT_BUCKET_BOUNDS_MS.length && waitMillis >= WAIT_BUCKET_BOUNDS_MS[bucket]) {
+            bucket++;
+        }
+        waitBuckets[bucket].increment();
+        if (adaptive) {
+            long active = pool.getNumActive();
+            long peakActive = intervalPeakActive.get();
+            while (active > peakActive && !intervalPeakActive.compareAndSet(peakActive, active)) {
+                peakActive = intervalPeakActive.get();
+            }
+        }
+    }
+
+    /**
+     * Returns the metrics, with the same keys as the other {@link DebugManagedDataSource#getInfo()} entries.
+     */
+    public Map<String, Object> getInfo() {
+        Map<String, Object> info = new HashMap<>();
+        long borrows = borrowCount.sum();
+        info.put("poolBorrowCount", borrows);
+        info.put("poolBorrowFailureCount", borrowFailureCount.sum());
+        info.put("poolBorrowWaitAvgMillis", (borrows > 0) ? (double) borrowWaitNanos.sum() / borrows / 1000000.0 : 0.0);
+        info.put("poolBorrowWaitMaxMillis", borrowWaitMaxNanos.get() / 1000000.0);
+        info.put("poolBorrowWaitHistogram", getWaitHistogram());
+        info.put("poolLeakThresholdMillis", leakThresholdMillis);
+        info.put("poolLeakSuspectCount", leakSuspectCount);
+        info.put("poolAdaptive", adaptive);
+        info.put("poolConfiguredMaxActive", maxSize);
+        info.put("poolLastResizeTime", lastResizeTime);
+        return info;
+    }
+
+    /**
+     * Returns the borrow wait histogram, as bucket label (e.g. "&lt;10ms") to count, in bucket order.
+     */
+    public Map<String, Long> getWaitHistogram() {
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        for (int i = 0; i < waitBuckets.length; i++) {
+            String label = (i < WAIT_BUCKET_BOUNDS_MS.length) ? "<" + WAIT_BUCKET_BOUNDS_MS[i] + "ms" : ">=" + WAIT_BUCKET_BOUNDS_MS[i - 1] + "ms";
+            histogram.put(label, waitBuckets[i].sum());
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the connections currently borrowed for longer than the leak threshold, with their borrow time and,
+     * if captured, their borrow stack trace; empty if leak detection is disabled.
+     * <p>
+     * NOTE: The pooled objects are checked for the ALLOCATED state, because the borrow and return times can't tell
+     * a borrowed connection from an idle one: commons-pool sets both to the create time on creation, and a borrow
+     * often falls in the same millisecond as the creation or the previous return.
+     */
+    public List<Map<String, Object>> getLeakSuspects() {
+        List<Map<String, Object>> suspects = new ArrayList<>();
+        if (leakThresholdMillis <= 0) {
+            return suspects;
+        }
+        long now = System.currentTimeMillis();
+        for (PooledObject<?> pooledObject : pooledObjects) {
+            long borrowTime = pooledObject.getLastBorrowTime();
+            if (pooledObject.getState() == PooledObjectState.ALLOCATED && (now - borrowTime) > leakThresholdMillis) {
+                DefaultPooledObjectInfo objectInfo = new DefaultPooledObjectInfo(pooledObject);
+                Map<String, Object> suspect = new HashMap<>();
+                suspect.put("connection", objectInfo.getPooledObjectToString());
+                suspect.put("borrowTime", borrowTime);
+                suspect.put("borrowedMillis", now - borrowTime);
+                suspect.put("borrowTrace", objectInfo.getLastBorrowTrace());
+                suspects.add(suspect);
+            }
+        }
+        return suspects;
+    }
+
+    /**
+     * Runs the periodic leak detection and adaptive sizing.
+     */
+    public void check() {
+        if (leakThresholdMillis > 0) {
+            checkLeaks();
+        }
+        if (adaptive) {
+            resize();
+        }
+    }
+
+    private void checkLeaks() {
+        List<Map<String, Object>> suspects = getLeakSuspects();
+        Set<String> reported = new HashSet<>();
+        Set<String> previouslyReported = this.reportedLeaks;
+        for (Map<String, Object> suspect : suspects) {
+            String key = suspect.get("connection") + "@" + suspect.get("borrowTime");
+            reported.add(key);
+            if (!previouslyReported.contains(key)) {
+                String trace = (String) suspect.get("borrowTrace");
+                Debug.logWarning("Connection pool [" + helperName + "]: connection " + suspect.get("connection")
+                        + " borrowed for " + suspect.get("borrowedMillis") + "ms (leak threshold: " + leakThresholdMillis + "ms)"
+                        + (trace != null && !trace.isEmpty() ? "; borrowed at:\n" + trace : "; set pool-leak-borrow-trace to see where it was borrowed"), module);
+            }
+        }
+        this.reportedLeaks = reported;
+        this.leakSuspectCount = suspects.size();
+    }
+
+    private void resize() {
+        long borrows = intervalBorrowCount.sumThenReset();
+        long failures = intervalBorrowFailureCount.sumThenReset();
+        long waitNanos = intervalBorrowWaitNanos.sumThenReset();
+        long peakActive = intervalPeakActive.getAndSet(pool.getNumActive());
+        int maxTotal = pool.getMaxTotal();
+        int newMaxTotal = maxTotal;
+        if (borrows > 0 && (failures > 0 || waitNanos / borrows >= adaptiveWaitNanos)) {
+            // borrowers waited: grow by a quarter
+            newMaxTotal = Math.min(maxSize, maxTotal + Math.max(1, maxTotal / 4));
+        } else if (peakActive < maxTotal / 2) {
+            // less than half used over the interval: shrink by an eighth, keeping room above the peak
+            newMaxTotal = Math.max(Math.max(minSize, (int) peakActive + 1), maxTotal - Math.max(1, maxTotal / 8));
+        }
+        if (newMaxTotal != maxTotal) {
+            pool.setMaxTotal(newMaxTotal);
+            lastResizeTime = System.currentTimeMillis();
+            Debug.logInfo("Connection pool [" + helperName + "]: resized max active from " + maxTotal + " to " + newMaxTotal
+                    + " (interval borrows: " + borrows + ", failures: " + failures + ", average wait: "
+                    + (borrows > 0 ? TimeUnit.NANOSECONDS.toMillis(waitNanos / borrows) : 0) + "ms, peak active: " + peakActive + ")", module);
+        }
+    }
+
+    public long getLastResizeTime() {
+        return lastResizeTime;
+    }
+}
@@ -21,21 +21,29 @@ package org.ofbiz.entity.connection;
 import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import javax.transaction.TransactionManager;
 
 import org.apache.commons.dbcp2.DriverConnectionFactory;
 import org.apache.commons.dbcp2.PoolableConnection;
-import org.apache.commons.dbcp2.PoolableConnectionFactory;
 import org.apache.commons.dbcp2.managed.LocalXAConnectionFactory;
 import org.apache.commons.dbcp2.managed.PoolableManagedConnectionFactory;
 import org.apache.commons.dbcp2.managed.XAConnectionFactory;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.AbandonedConfig;
 import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.entity.GenericEntityConfException;
 import org.ofbiz.entity.GenericEntityException;
@@ -59,6 +67,12 @@ public class DBCPConnectionFactory implements ConnectionFactory {
     protected static final ConcurrentHashMap<String, DebugManagedDataSource<? extends Connection>> dsCache =
             new ConcurrentHashMap<>();
 
+    /** SCIPIO: Interval of the pool leak detection and adaptive sizing checks (ConnectionPoolMetrics.check). */
+    private static final long POOL_CHECK_INTERVAL_SECONDS = 30;
+    private static final ThreadGroup POOL_CHECK_THREAD_GROUP = new ThreadGroup("DBCPConnectionPoolCheck"); // SCIPIO
+    private static volatile ScheduledExecutorService poolCheckExecutor; // SCIPIO
+    private static final Map<String, ScheduledFuture<?>> poolChecks = new ConcurrentHashMap<>(); // SCIPIO
+
     public Connection getConnection(GenericHelperInfo helperInfo, JdbcElement abstractJdbc) throws SQLException, GenericEntityException {
         String cacheKey = helperInfo.getHelperFullName();
         DebugManagedDataSource<? extends Connection> mds = dsCache.get(cacheKey);
@@ -107,7 +121,7 @@ public class DBCPConnectionFactory implements ConnectionFactory {
         XAConnectionFactory xacf = new LocalXAConnectionFactory(txMgr, cf);
 
         // create the pool object factory
-        PoolableConnectionFactory factory = new PoolableManagedConnectionFactory(xacf, null);
+        TrackingPoolableManagedConnectionFactory factory = new TrackingPoolableManagedConnectionFactory(xacf); // SCIPIO: tracks the pooled objects
         factory.setValidationQuery(jdbcElement.getPoolJdbcTestStmt());
         factory.setDefaultReadOnly(false);
         factory.setRollbackOnReturn(false);
@@ -146,24 +160,66 @@ public class DBCPConnectionFactory implements ConnectionFactory {
         poolConfig.setTestOnReturn(jdbcElement.getTestOnReturn());
         poolConfig.setTestWhileIdle(jdbcElement.getTestWhileIdle());
 
+        // SCIPIO: register the pool JMX bean under the helper name, so the pools can be told apart in the exported metrics
+        poolConfig.setJmxNamePrefix(cacheKey.replaceAll("[^A-Za-z0-9_.\\-]", "_"));
+
         GenericObjectPool<PoolableConnection> pool = new GenericObjectPool<PoolableConnection>(factory, poolConfig);
         factory.setPool(pool);
+        if (jdbcElement.getPoolLeakThresholdMillis() > 0 && jdbcElement.getPoolLeakBorrowTrace()) {
+            // SCIPIO: only used to capture the borrow stack traces; abandoned connections are reported, not removed
+            AbandonedConfig abandonedConfig = new AbandonedConfig();
+            abandonedConfig.setLogAbandoned(true);
+            abandonedConfig.setRequireFullStackTrace(true);
+            abandonedConfig.setRemoveAbandonedOnBorrow(false);
+            abandonedConfig.setRemoveAbandonedOnMaintenance(false);
+            pool.setAbandonedConfig(abandonedConfig);
+        }
 
         mds = new DebugManagedDataSource<>(pool, xacf.getTransactionRegistry());
         mds.setAccessToUnderlyingConnectionAllowed(true);
+        ConnectionPoolMetrics metrics = new ConnectionPoolMetrics(cacheKey, pool, factory.getPooledObjects(), minSize, maxSize, jdbcElement.getPoolLeakThresholdMillis(),
+                jdbcElement.getPoolAdaptive(), jdbcElement.getPoolAdaptiveWaitMillis()); // SCIPIO
+        mds.setMetrics(metrics);
 
         // cache the pool
-        dsCache.putIfAbsent(cacheKey, mds);
+        if (dsCache.putIfAbsent(cacheKey, mds) == null && metrics.isCheckEnabled()) { // SCIPIO: schedule the checks
+            poolChecks.put(cacheKey, getPoolCheckExecutor().scheduleWithFixedDelay(() -> {
+                try {
+                    metrics.check();
+                } catch (Throwable t) {
+                    Debug.logError(t, "Error checking connection pool [" + cacheKey + "]", module);
+                }
+            }, POOL_CHECK_INTERVAL_SECONDS, POOL_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS));
+        }
         mds = dsCache.get(cacheKey);
 
         return TransactionUtil.getCursorConnection(helperInfo, mds.getConnection());
     }
 
     public void closeAll() {
+        // SCIPIO: stop the pool checks
+        for (ScheduledFuture<?> poolCheck : poolChecks.values()) {
+            poolCheck.cancel(false);
+        }
+        poolChecks.clear();
         // no methods on the pool to shutdown; so just clearing for GC
         dsCache.clear();
     }
 
+    private static ScheduledExecutorService getPoolCheckExecutor() { // SCIPIO
+        ScheduledExecutorService executor = poolCheckExecutor;
+        if (executor == null) {
+            synchronized (DBCPConnectionFactory.class) {
+                executor = poolCheckExecutor;
+                if (executor == null) {
+                    executor = ExecutionPool.getScheduledExecutor(POOL_CHECK_THREAD_GROUP, "dbcp-pool-check", 1, 0, false);
+                    poolCheckExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
     public static Map<String, Object> getDataSourceInfo(String helperName) {
         Map<String, Object> dataSourceInfo = new HashMap<String, Object>();
         DebugManagedDataSource<? extends Connection> mds = dsCache.get(helperName);
@@ -173,4 +229,47 @@ public class DBCPConnectionFactory implements ConnectionFactory {
         return dataSourceInfo;
     }
 
+    /**
+     * SCIPIO: Returns the connections of the helper's pool borrowed for longer than its pool-leak-threshold-millis,
+     * with their borrow stack trace if pool-leak-borrow-trace; empty if none or leak detection is not enabled.
+     */
+    public static List<Map<String, Object>> getLeakSuspects(String helperName) {
+        DebugManagedDataSource<? extends Connection> mds = dsCache.get(helperName);
+        if (mds == null || mds.getMetrics() == null) {
+            return new ArrayList<>();
+        }
+        return mds.getMetrics().getLeakSuspects();
+    }
+
+    /**
+     * SCIPIO: Connection factory keeping the pooled objects it made, until destroyed, for the leak detection of
+     * {@link ConnectionPoolMetrics}, which needs their state (not exposed by {@link GenericObjectPool#listAllObjects()}).
+     */
+    private static class TrackingPoolableManagedConnectionFactory extends PoolableManagedConnectionFactory {
+        private final Set<PooledObject<PoolableConnection>> pooledObjects = ConcurrentHashMap.newKeySet();
+
+        TrackingPoolableManagedConnectionFactory(XAConnectionFactory connFactory) {
+            super(connFactory, null);
+        }
+
+        Set<PooledObject<PoolableConnection>> getPooledObjects() {
+            return pooledObjects;
+        }
+
+        @Override
+        public synchronized PooledObject<PoolableConnection> makeObject() throws Exception {
+            PooledObject<PoolableConnection> pooledObject = super.makeObject();
+            pooledObjects.add(pooledObject);
+            return pooledObject;
+        }
+
+        @Override
+        public void destroyObject(PooledObject<PoolableConnection> pooledObject) throws Exception {
+            try {
+                super.destroyObject(pooledObject);
+            } finally {
+                pooledObjects.remove(pooledObject);
+            }
+        }
+    }
 }
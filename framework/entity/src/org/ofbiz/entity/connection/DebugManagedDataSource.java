@@ -25,6 +25,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.dbcp2.managed.ManagedDataSource;
+import org.apache.commons.dbcp2.managed.TransactionContext;
 import org.apache.commons.dbcp2.managed.TransactionRegistry;
 import org.apache.commons.pool2.ObjectPool;
 import org.apache.commons.pool2.impl.GenericObjectPool;
@@ -34,8 +35,32 @@ public class DebugManagedDataSource<C extends Connection> extends ManagedDataSou
 
     private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
 
+    private ConnectionPoolMetrics metrics; // SCIPIO
+    private TransactionRegistry transactionRegistry; // SCIPIO
+
     public DebugManagedDataSource(ObjectPool<C> pool, TransactionRegistry transactionRegistry) {
         super(pool, transactionRegistry);
+        this.transactionRegistry = transactionRegistry; // SCIPIO
+    }
+
+    @Override
+    public void setTransactionRegistry(TransactionRegistry transactionRegistry) { // SCIPIO
+        super.setTransactionRegistry(transactionRegistry);
+        this.transactionRegistry = transactionRegistry;
+    }
+
+    /**
+     * SCIPIO: Sets the metrics that borrows are recorded to; must be set before the data source is shared.
+     */
+    public void setMetrics(ConnectionPoolMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * SCIPIO: Returns the metrics of the pool, or null if none.
+     */
+    public ConnectionPoolMetrics getMetrics() {
+        return metrics;
     }
 
     @Override
@@ -48,7 +73,32 @@ public class DebugManagedDataSource<C extends Connection> extends ManagedDataSou
                 if (Debug.verboseOn()) Debug.logVerbose("Borrowing a connection from the pool; used/idle/total: " + super.getPool().getNumActive() + "/" + super.getPool().getNumIdle() + "/" + (super.getPool().getNumActive() + super.getPool().getNumIdle()), module);
             }
         }
-        return super.getConnection();
+        ConnectionPoolMetrics metrics = this.metrics; // SCIPIO: time the borrow
+        if (metrics == null || hasSharedConnection()) {
+            return super.getConnection();
+        }
+        long startTime = System.nanoTime();
+        boolean success = false;
+        try {
+            Connection connection = super.getConnection();
+            success = true;
+            return connection;
+        } finally {
+            metrics.recordBorrow(System.nanoTime() - startTime, success);
+        }
+    }
+
+    /**
+     * SCIPIO: Returns true if the active transaction already holds a connection, which the managed connection
+     * reuses instead of borrowing one from the pool.
+     */
+    private boolean hasSharedConnection() throws SQLException {
+        TransactionRegistry transactionRegistry = this.transactionRegistry;
+        if (transactionRegistry == null) {
+            return false;
+        }
+        TransactionContext transactionContext = transactionRegistry.getActiveTransactionContext();
+        return transactionContext != null && transactionContext.getSharedConnection() != null;
     }
 
     public Map<String, Object> getInfo() {
@@ -63,6 +113,11 @@ public class DebugManagedDataSource<C extends Connection> extends ManagedDataSou
             dataSourceInfo.put("poolMaxWait", objectPool.getMaxWaitMillis());
             dataSourceInfo.put("poolMinEvictableIdleTimeMillis", objectPool.getMinEvictableIdleTimeMillis());
             dataSourceInfo.put("poolMinIdle", objectPool.getMinIdle());
+            dataSourceInfo.put("poolMeanBorrowWaitTimeMillis", objectPool.getMeanBorrowWaitTimeMillis()); // SCIPIO
+            dataSourceInfo.put("poolMaxBorrowWaitTimeMillis", objectPool.getMaxBorrowWaitTimeMillis()); // SCIPIO
+        }
+        if (metrics != null) { // SCIPIO
+            dataSourceInfo.putAll(metrics.getInfo());
         }
         return dataSourceInfo;
     }
@@ -102,9 +102,80 @@ public class GenericDAO {
         fieldsToSave.add(modelEntity.getField(fieldName));
     }
 
+    /**
+     * SCIPIO: Returns the datasource <code>write-behind-batch-size</code>; 0 if write-behind is disabled for it.
+     */
+    int getWriteBehindBatchSize() {
+        return datasource.getWriteBehindBatchSize();
+    }
+
+    /**
+     * SCIPIO: Flushes the transaction write-behind writes that a read of the given entity may observe, or all of
+     * them if modelEntity is null (before other writes).
+     */
+    private static void flushWriteBehind(ModelEntity modelEntity) throws GenericEntityException {
+        WriteBehindQueue writeBehind = WriteBehindQueue.getCurrent();
+        if (writeBehind != null) {
+            writeBehind.flush(modelEntity);
+        }
+    }
+
+    /**
+     * SCIPIO: Executes queued write-behind writes, which must all have the same statement, as one JDBC batch.
+     */
+    void executeWrites(List<WriteBehindQueue.PendingWrite> writes) throws GenericEntityException {
+        WriteBehindQueue.PendingWrite first = writes.get(0);
+        try (SQLProcessor sqlP = new SQLProcessor(first.entity.getDelegator(), helperInfo)) {
+            try {
+                sqlP.prepareStatement(first.sql);
+                int[] counts;
+                if (writes.size() == 1) {
+                    setWriteValues(sqlP, first);
+                    counts = new int[] { sqlP.executeUpdate() };
+                } else {
+                    for (WriteBehindQueue.PendingWrite write : writes) {
+                        setWriteValues(sqlP, write);
+                        sqlP.addBatch();
+                    }
+                    counts = sqlP.executeBatch();
+                }
+                for (int i = 0; i < counts.length && i < writes.size(); i++) {
+                    // NOTE: some drivers only return SUCCESS_NO_INFO for batches
+                    if (counts[i] == 0 && writes.get(i).update) {
+                        throw new GenericEntityNotFoundException("Tried to update an entity that does not exist, entity: " + writes.get(i).entity.toString());
+                    }
+                }
+            } catch (GenericEntityException e) {
+                sqlP.rollback();
+                throw new GenericEntityException("Error while executing " + writes.size() + " write-behind " + (first.update ? "updates" : "inserts")
+                        + " of entity [" + first.modelEntity.getEntityName() + "], first: " + first.entity.toString(), e);
+            }
+        }
+    }
+
+    private void setWriteValues(SQLProcessor sqlP, WriteBehindQueue.PendingWrite write) throws GenericEntityException {
+        SqlJdbcUtil.setValues(sqlP, write.fieldsToSave, write.entity, modelFieldTypeReader);
+        if (write.update) {
+            SqlJdbcUtil.setPkValues(sqlP, write.modelEntity, write.entity, modelFieldTypeReader);
+        }
+    }
+
     public int insert(GenericEntity entity) throws GenericEntityException {
         ModelEntity modelEntity = entity.getModelEntity();
 
+        // SCIPIO: transaction write-behind: queue the insert instead of executing it
+        WriteBehindQueue writeBehind = WriteBehindQueue.getCurrent();
+        if (writeBehind != null) {
+            if (!(modelEntity instanceof ModelViewEntity) && getWriteBehindBatchSize() > 0) {
+                List<ModelField> fieldsToSave = new ArrayList<>(modelEntity.getFieldsUnmodifiable());
+                String sql = makeInsertSql(entity, modelEntity, fieldsToSave);
+                writeBehind.add(this, modelEntity, sql, fieldsToSave, GenericEntity.createGenericEntity(entity), false, getWriteBehindBatchSize());
+                entity.synchronizedWithDatasource();
+                return 1;
+            }
+            writeBehind.flush(null);
+        }
+
         try (SQLProcessor sqlP = new SQLProcessor(entity.getDelegator(), helperInfo)) {
             try {
                 return singleInsert(entity, modelEntity, modelEntity.getFieldsUnmodifiable(), sqlP);
@@ -116,11 +187,10 @@ public class GenericDAO {
         }
     }
 
-    private int singleInsert(GenericEntity entity, ModelEntity modelEntity, List<ModelField> fieldsToSave, SQLProcessor sqlP) throws GenericEntityException {
-        if (modelEntity instanceof ModelViewEntity) {
-            return singleUpdateView(entity, (ModelViewEntity) modelEntity, fieldsToSave, sqlP);
-        }
-
+    /**
+     * SCIPIO: Sets the stamp fields of the entity to insert and returns the INSERT statement (factored out of singleInsert).
+     */
+    private String makeInsertSql(GenericEntity entity, ModelEntity modelEntity, List<ModelField> fieldsToSave) {
         // if we have a STAMP_TX_FIELD or CREATE_STAMP_TX_FIELD then set it with NOW, always do this before the STAMP_FIELD
         // NOTE: these fairly complicated if statements have a few objectives:
         //   1. don't run the TransationUtil.getTransaction*Stamp() methods when we don't need to
@@ -159,7 +229,15 @@ public class GenericDAO {
         modelEntity.colNameString(fieldsToSave, sqlB, "");
         sqlB.append(") VALUES (");
         modelEntity.fieldsStringList(fieldsToSave, sqlB, "?", ", ");
-        String sql = sqlB.append(")").toString();
+        return sqlB.append(")").toString();
+    }
+
+    private int singleInsert(GenericEntity entity, ModelEntity modelEntity, List<ModelField> fieldsToSave, SQLProcessor sqlP) throws GenericEntityException {
+        if (modelEntity instanceof ModelViewEntity) {
+            return singleUpdateView(entity, (ModelViewEntity) modelEntity, fieldsToSave, sqlP);
+        }
+
+        String sql = makeInsertSql(entity, modelEntity, fieldsToSave);
 
         try {
             sqlP.prepareStatement(sql);
@@ -198,6 +276,19 @@ public class GenericDAO {
     }
 
     private int customUpdate(GenericEntity entity, ModelEntity modelEntity, List<ModelField> fieldsToSave) throws GenericEntityException {
+        // SCIPIO: transaction write-behind: queue the update instead of executing it (not for optimistic-locked entities, which must select first)
+        WriteBehindQueue writeBehind = WriteBehindQueue.getCurrent();
+        if (writeBehind != null) {
+            if (!(modelEntity instanceof ModelViewEntity) && !modelEntity.lock() && fieldsToSave.size() > 0 && getWriteBehindBatchSize() > 0) {
+                String sql = makeUpdateSql(entity, modelEntity, fieldsToSave);
+                writeBehind.add(this, modelEntity, sql, fieldsToSave, GenericEntity.createGenericEntity(entity), true, getWriteBehindBatchSize());
+                entity.synchronizedWithDatasource();
+                // NOTE: an update of a value that does not exist fails at flush time
+                return 1;
+            }
+            writeBehind.flush(null);
+        }
+
         try (SQLProcessor sqlP = new SQLProcessor(entity.getDelegator(), helperInfo)) {
         try {
             return singleUpdate(entity, modelEntity, fieldsToSave, sqlP);
@@ -234,6 +325,29 @@ public class GenericDAO {
             }
         }
 
+        String sql = makeUpdateSql(entity, modelEntity, fieldsToSave);
+        int retVal = 0;
+
+        try {
+            sqlP.prepareStatement(sql);
+            SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
+            SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
+            retVal = sqlP.executeUpdate();
+            entity.synchronizedWithDatasource();
+        } catch (GenericEntityException e) {
+            throw new GenericEntityException("Error while updating: " + entity.toString(), e);
+        }
+
+        if (retVal == 0) {
+            throw new GenericEntityNotFoundException("Tried to update an entity that does not exist, entity: " + entity.toString());
+        }
+        return retVal;
+    }
+
+    /**
+     * SCIPIO: Sets the stamp fields of the entity to update and returns the UPDATE statement (factored out of singleUpdate).
+     */
+    private String makeUpdateSql(GenericEntity entity, ModelEntity modelEntity, List<ModelField> fieldsToSave) {
         // if we have a STAMP_TX_FIELD then set it with NOW, always do this before the STAMP_FIELD
         // NOTE: these fairly complicated if statements have a few objectives:
         //   1. don't run the TransationUtil.getTransaction*Stamp() methods when we don't need to
@@ -253,23 +367,7 @@ public class GenericDAO {
         modelEntity.colNameString(fieldsToSave, sql, "", "=?, ", "=?", false);
         sql.append(" WHERE ");
         SqlJdbcUtil.makeWhereStringFromFields(sql, modelEntity.getPkFieldsUnmodifiable(), entity, "AND");
-
-        int retVal = 0;
-
-        try {
-            sqlP.prepareStatement(sql.toString());
-            SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
-            SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
-            retVal = sqlP.executeUpdate();
-            entity.synchronizedWithDatasource();
-        } catch (GenericEntityException e) {
-            throw new GenericEntityException("Error while updating: " + entity.toString(), e);
-        }
-
-        if (retVal == 0) {
-            throw new GenericEntityNotFoundException("Tried to update an entity that does not exist, entity: " + entity.toString());
-        }
-        return retVal;
+        return sql.toString();
     }
 
     public int updateByCondition(Delegator delegator, ModelEntity modelEntity, Map<String, ? extends Object> fieldsToSet, EntityCondition condition) throws GenericEntityException {
@@ -290,6 +388,7 @@ public class GenericDAO {
         if (modelEntity instanceof ModelViewEntity) {
             throw new org.ofbiz.entity.GenericNotImplementedException("Operation updateByCondition not supported yet for view entities");
         }
+        flushWriteBehind(null); // SCIPIO
 
         StringBuilder sql = new StringBuilder("UPDATE ").append(modelEntity.getTableName(datasource));
         sql.append(" SET ");
@@ -469,6 +568,7 @@ public class GenericDAO {
 
     public void select(GenericEntity entity, SQLProcessor sqlP) throws GenericEntityException {
         ModelEntity modelEntity = entity.getModelEntity();
+        flushWriteBehind(modelEntity); // SCIPIO
 
         if (modelEntity.getPksSize() <= 0) {
             throw new GenericEntityException("Entity has no primary keys, cannot select by primary key");
@@ -507,6 +607,7 @@ public class GenericDAO {
 
     public void partialSelect(GenericEntity entity, Set<String> keys) throws GenericEntityException {
         ModelEntity modelEntity = entity.getModelEntity();
+        flushWriteBehind(modelEntity); // SCIPIO
 
         if (modelEntity instanceof ModelViewEntity) {
             throw new org.ofbiz.entity.GenericNotImplementedException("Operation partialSelect not supported yet for view entities");
@@ -578,6 +679,7 @@ public class GenericDAO {
         if (modelEntity == null) {
             return null;
         }
+        flushWriteBehind(modelEntity); // SCIPIO
 
         ModelViewEntity modelViewEntity = null;
         if (modelEntity instanceof ModelViewEntity) {
@@ -743,7 +845,11 @@ public class GenericDAO {
                 Debug.logTiming("Ran query in " + queryTotalTime + " milli-seconds: " + " EntityName: " + modelEntity.getEntityName() + " Sql: " + sql + " where clause:" + whereEntityConditionParams, module);
             }
         }
-        return new EntityListIterator(sqlP, modelEntity, selectFields, modelFieldTypeReader, this, whereEntityCondition, havingEntityCondition, findOptions.getDistinct());
+        EntityListIterator iterator = new EntityListIterator(sqlP, modelEntity, selectFields, modelFieldTypeReader, this, whereEntityCondition, havingEntityCondition, findOptions.getDistinct());
+        // SCIPIO: how the iterator counts its results (getResultsSizeAfterPartialList)
+        iterator.setCountMode(findOptions.getCountMode() != null ? findOptions.getCountMode() : datasource.getCountMode(),
+                findOptions.getCountCap() >= 0 ? findOptions.getCountCap() : datasource.getCountCap(), findOptions.getMaxRows());
+        return iterator;
     }
 
     @Deprecated
@@ -852,6 +958,9 @@ public class GenericDAO {
 
     public List<GenericValue> selectByMultiRelation(GenericValue value, ModelRelation modelRelationOne, ModelEntity modelEntityOne,
         ModelRelation modelRelationTwo, ModelEntity modelEntityTwo, List<String> orderBy) throws GenericEntityException {
+        // SCIPIO: flush the transaction write-behind writes that this join may observe
+        flushWriteBehind(modelEntityOne);
+        flushWriteBehind(modelEntityTwo);
 
         // get the tables names
         String atable = modelEntityOne.getTableName(datasource);
@@ -958,6 +1067,7 @@ public class GenericDAO {
         if (modelEntity == null) {
             return 0;
         }
+        flushWriteBehind(modelEntity); // SCIPIO
 
         // if no find options passed, use default
         if (findOptions == null) {
@@ -1089,6 +1199,122 @@ public class GenericDAO {
 
     /* ====================================================================== */
 
+    /**
+     * SCIPIO: Counts the rows the select of {@link #selectListIteratorByCondition} would return (same DISTINCT,
+     * GROUP BY and HAVING), reading at most <code>maxCount + 1</code> of them, so that the database can stop
+     * early instead of counting a large table.
+     * @return the row count, or <code>maxCount + 1</code> if there are more than <code>maxCount</code> rows
+     */
+    public long selectCappedCountByCondition(Delegator delegator, ModelEntity modelEntity, EntityCondition whereEntityCondition, EntityCondition havingEntityCondition,
+            List<ModelField> selectFields, EntityFindOptions findOptions, int maxCount) throws GenericEntityException {
+        if (modelEntity == null) {
+            return 0;
+        }
+        flushWriteBehind(modelEntity);
+        if (findOptions == null) {
+            findOptions = new EntityFindOptions();
+        }
+        if (UtilValidate.isEmpty(selectFields)) {
+            selectFields = modelEntity.getFieldsUnmodifiable();
+        }
+        ModelViewEntity modelViewEntity = null;
+        if (modelEntity instanceof ModelViewEntity) {
+            modelViewEntity = (ModelViewEntity) modelEntity;
+        }
+
+        StringBuilder sqlBuffer = new StringBuilder("SELECT ");
+        if (findOptions.getDistinct()) {
+            sqlBuffer.append("DISTINCT ");
+            modelEntity.colNameString(selectFields, sqlBuffer, "", ", ", "", datasource.getAliasViewColumns());
+        } else {
+            sqlBuffer.append("1");
+        }
+
+        List<EntityCondition> viewWhereConditions = null;
+        List<EntityCondition> viewHavingConditions = null;
+        if (modelViewEntity != null) {
+            viewWhereConditions = new ArrayList<>();
+            viewHavingConditions = new ArrayList<>();
+            modelViewEntity.populateViewEntityConditionInformation(modelFieldTypeReader, viewWhereConditions, viewHavingConditions, new ArrayList<>(), null);
+        }
+        sqlBuffer.append(SqlJdbcUtil.makeFromClause(modelEntity, modelFieldTypeReader, datasource));
+        List<EntityConditionParam> whereEntityConditionParams = new ArrayList<>();
+        makeConditionWhereString(sqlBuffer, " WHERE ", modelEntity, whereEntityCondition, viewWhereConditions, whereEntityConditionParams);
+        if (modelViewEntity != null) {
+            modelViewEntity.colNameString(modelViewEntity.getGroupBysCopy(selectFields), sqlBuffer, " GROUP BY ", ", ", "", false);
+        }
+        List<EntityConditionParam> havingEntityConditionParams = new ArrayList<>();
+        makeConditionHavingString(sqlBuffer, " HAVING ", modelEntity, havingEntityCondition, viewHavingConditions, havingEntityConditionParams);
+
+        String sql = sqlBuffer.toString();
+        if (Debug.verboseOn()) Debug.logVerbose("Capped count select sql: " + sql, module);
+
+        int maxRows = (maxCount < Integer.MAX_VALUE) ? maxCount + 1 : maxCount;
+        try (SQLProcessor sqlP = new SQLProcessor(delegator, helperInfo)) {
+            sqlP.prepareStatement(sql, true, EntityFindOptions.TYPE_FORWARD_ONLY, EntityFindOptions.CONCUR_READ_ONLY,
+                    Math.min(maxRows, 1000), maxRows);
+            for (EntityConditionParam whereEntityConditionParam: whereEntityConditionParams) {
+                SqlJdbcUtil.setValue(sqlP, whereEntityConditionParam.getModelField(), modelEntity.getEntityName(), whereEntityConditionParam.getFieldValue(), modelFieldTypeReader);
+            }
+            for (EntityConditionParam havingEntityConditionParam: havingEntityConditionParams) {
+                SqlJdbcUtil.setValue(sqlP, havingEntityConditionParam.getModelField(), modelEntity.getEntityName(), havingEntityConditionParam.getFieldValue(), modelFieldTypeReader);
+            }
+            try {
+                sqlP.executeQuery();
+                ResultSet resultSet = sqlP.getResultSet();
+                long count = 0;
+                while (count < maxRows && resultSet.next()) {
+                    count++;
+                }
+                return count;
+            } catch (SQLException e) {
+                throw new GenericDataSourceException("Error getting capped count value", e);
+            }
+        }
+    }
+
+    /**
+     * SCIPIO: Returns the row count of the table of the entity estimated by the database statistics (PostgreSQL
+     * <code>pg_class.reltuples</code>, MySQL/MariaDB <code>information_schema.TABLES.TABLE_ROWS</code>), or -1 if
+     * there is none: view entity, other database, or table never analyzed (no rows).
+     */
+    public long selectApproximateCount(Delegator delegator, ModelEntity modelEntity) throws GenericEntityException {
+        if (modelEntity == null || modelEntity instanceof ModelViewEntity) {
+            return -1;
+        }
+        try (SQLProcessor sqlP = new SQLProcessor(delegator, helperInfo)) {
+            try {
+                String productName = sqlP.getConnection().getMetaData().getDatabaseProductName();
+                if (productName.contains("PostgreSQL")) {
+                    sqlP.prepareStatement("SELECT reltuples FROM pg_class WHERE oid = to_regclass(?)");
+                    sqlP.setValue(modelEntity.getTableName(datasource));
+                } else if (productName.contains("MySQL") || productName.contains("MariaDB")) {
+                    if (UtilValidate.isNotEmpty(datasource.getSchemaName())) {
+                        sqlP.prepareStatement("SELECT TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ?");
+                        sqlP.setValue(datasource.getSchemaName());
+                    } else {
+                        sqlP.prepareStatement("SELECT TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?");
+                    }
+                    sqlP.setValue(modelEntity.getPlainTableName());
+                } else {
+                    return -1;
+                }
+                sqlP.executeQuery();
+                ResultSet resultSet = sqlP.getResultSet();
+                if (resultSet.next()) {
+                    // NOTE: reltuples is a float4
+                    long count = (long) resultSet.getDouble(1);
+                    if (!resultSet.wasNull() && count > 0) {
+                        return count;
+                    }
+                }
+                return -1;
+            } catch (SQLException e) {
+                throw new GenericDataSourceException("Error getting approximate count value", e);
+            }
+        }
+    }
+
     public int delete(GenericEntity entity) throws GenericEntityException {
         try (SQLProcessor sqlP = new SQLProcessor(entity.getDelegator(), helperInfo)) {
 
@@ -1107,6 +1333,7 @@ public class GenericDAO {
         if (modelEntity instanceof ModelViewEntity) {
             throw new org.ofbiz.entity.GenericNotImplementedException("Operation delete not supported yet for view entities");
         }
+        flushWriteBehind(null); // SCIPIO
 
         StringBuilder sql = new StringBuilder().append("DELETE FROM ").append(modelEntity.getTableName(datasource)).append(" WHERE ");
         SqlJdbcUtil.makeWhereStringFromFields(sql, modelEntity.getPkFieldsUnmodifiable(), entity, "AND");
@@ -1137,6 +1364,7 @@ public class GenericDAO {
         if (modelEntity instanceof ModelViewEntity) {
             throw new org.ofbiz.entity.GenericNotImplementedException("Operation deleteByCondition not supported yet for view entities");
         }
+        flushWriteBehind(null); // SCIPIO
 
         StringBuilder sql = new StringBuilder("DELETE FROM ").append(modelEntity.getTableName(this.datasource));
 
@@ -0,0 +1,269 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.datasource;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.entity.GenericEntity;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.model.ModelEntity;
+import org.ofbiz.entity.model.ModelField;
+import org.ofbiz.entity.model.ModelViewEntity;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionFactoryLoader;
+import org.ofbiz.entity.transaction.TransactionUtil;
+
+/**
+ * SCIPIO: Transaction-scoped write-behind queue for {@link GenericDAO} inserts and updates.
+ * <p>
+ * When enabled for a transaction (see {@link TransactionUtil#setWriteBehind(boolean)} or the service
+ * <code>transaction-write-behind</code> attribute), single-value inserts and updates are not executed immediately
+ * but queued here, and executed as JDBC batches of consecutive statements of the same shape (same SQL), in the
+ * original order. The queue is flushed:
+ * <ul>
+ * <li>before any read of an entity with pending writes (including views having it as member),</li>
+ * <li>before any other write (delete, update by condition, view or optimistic-locked updates),</li>
+ * <li>when it holds the datasource <code>write-behind-batch-size</code> writes,</li>
+ * <li>at commit, by {@link TransactionUtil#commit()} (or as synchronization, if committed otherwise).</li>
+ * </ul>
+ * The ordering and constraint semantics are those of the immediate writes, but the errors (duplicate keys, constraints,
+ * updates of missing values) are reported at flush time, where they mark the transaction for rollback; code that
+ * catches such errors to try something else in the same transaction must not enable write-behind. Reads done outside
+ * the entity engine (direct JDBC) must call {@link TransactionUtil#flushWriteBehind()} first.
+ */
+public final class WriteBehindQueue implements Synchronization {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    private static final Map<Transaction, WriteBehindQueue> queues = new ConcurrentHashMap<>();
+    /** Number of active queues, so the lookup is skipped when write-behind is not used at all. */
+    private static final AtomicInteger queueCount = new AtomicInteger();
+
+    private final Transaction transaction;
+    private List<PendingWrite> writes = new ArrayList<>();
+    private final Set<String> pendingEntityNames = new HashSet<>();
+    private boolean enabled = true;
+    private boolean flushing = false;
+    private long writeCount = 0;
+    private long statementCount = 0;
+
+    private WriteBehindQueue(Transaction transaction) {
+        this.transaction = transaction;
+    }
+
+    /**
+     * Enables or disables write-behind for the current transaction; returns false if there is no active transaction.
+     * Disabling flushes the pending writes.
+     */
+    public static boolean setEnabled(boolean enable) throws GenericEntityException {
+        Transaction transaction = getActiveTransaction();
+        if (transaction == null) {
+            return false;
+        }
+        WriteBehindQueue queue = queues.get(transaction);
+        if (enable) {
+            if (queue == null) {
+                queue = new WriteBehindQueue(transaction);
+                try {
+                    transaction.registerSynchronization(queue);
+                } catch (Exception e) {
+                    throw new GenericTransactionException("Could not register write-behind synchronization in transaction", e);
+                }
+                queues.put(transaction, queue);
+                queueCount.incrementAndGet();
+            } else {
+                queue.enabled = true;
+            }
+        } else if (queue != null) {
+            queue.flush(null);
+            queue.enabled = false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the write-behind queue of the current transaction, or null if write-behind is not enabled for it.
+     */
+    public static WriteBehindQueue getCurrent() {
+        if (queueCount.get() == 0) {
+            return null;
+        }
+        Transaction transaction = getActiveTransaction();
+        if (transaction == null) {
+            return null;
+        }
+        WriteBehindQueue queue = queues.get(transaction);
+        return (queue != null && queue.enabled) ? queue : null;
+    }
+
+    /**
+     * Returns the queue of the current transaction even if disabled, for flushing, or null.
+     */
+    static WriteBehindQueue getCurrentForFlush() {
+        if (queueCount.get() == 0) {
+            return null;
+        }
+        Transaction transaction = getActiveTransaction();
+        return (transaction != null) ? queues.get(transaction) : null;
+    }
+
+    private static Transaction getActiveTransaction() {
+        try {
+            TransactionManager tm = TransactionFactoryLoader.getInstance().getTransactionManager();
+            if (tm != null && tm.getStatus() == Status.STATUS_ACTIVE) {
+                return tm.getTransaction();
+            }
+        } catch (SystemException e) {
+            Debug.logError(e, "Could not get the current transaction for write-behind", module);
+        }
+        return null;
+    }
+
+    /**
+     * Flushes the pending writes of the current transaction, if any.
+     */
+    public static void flushCurrent() throws GenericEntityException {
+        WriteBehindQueue queue = getCurrentForFlush();
+        if (queue != null) {
+            queue.flush(null);
+        }
+    }
+
+    /**
+     * Queues a write; the entity must be a copy that will not change anymore.
+     */
+    void add(GenericDAO dao, ModelEntity modelEntity, String sql, List<ModelField> fieldsToSave, GenericEntity entity, boolean update, int batchSize) throws GenericEntityException {
+        writes.add(new PendingWrite(dao, modelEntity, sql, fieldsToSave, entity, update));
+        pendingEntityNames.add(modelEntity.getEntityName());
+        writeCount++;
+        if (writes.size() >= batchSize) {
+            flush(null);
+        }
+    }
+
+    /**
+     * Flushes the pending writes if the given entity may observe them, or in all cases if modelEntity is null.
+     */
+    public void flush(ModelEntity modelEntity) throws GenericEntityException {
+        if (writes.isEmpty() || flushing) {
+            return;
+        }
+        if (modelEntity != null && !isPending(modelEntity)) {
+            return;
+        }
+        List<PendingWrite> toFlush = writes;
+        writes = new ArrayList<>();
+        pendingEntityNames.clear();
+        flushing = true;
+        try {
+            int size = toFlush.size();
+            int start = 0;
+            while (start < size) {
+                PendingWrite first = toFlush.get(start);
+                int batchSize = first.dao.getWriteBehindBatchSize();
+                int end = start + 1;
+                while (end < size && (end - start) < batchSize && toFlush.get(end).isSameStatement(first)) {
+                    end++;
+                }
+                first.dao.executeWrites(toFlush.subList(start, end));
+                statementCount++;
+                start = end;
+            }
+        } finally {
+            flushing = false;
+        }
+    }
+
+    private boolean isPending(ModelEntity modelEntity) {
+        if (modelEntity instanceof ModelViewEntity) {
+            ModelViewEntity modelViewEntity = (ModelViewEntity) modelEntity;
+            for (String alias : modelViewEntity.getMemberModelMemberEntities().keySet()) {
+                ModelEntity memberEntity = modelViewEntity.getMemberModelEntity(alias);
+                if (memberEntity == null || isPending(memberEntity)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return pendingEntityNames.contains(modelEntity.getEntityName());
+    }
+
+    @Override
+    public void beforeCompletion() {
+        // NOTE: normally already flushed by TransactionUtil.commit; this covers commits done directly on the transaction
+        try {
+            flush(null);
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Could not flush write-behind writes before commit; the transaction will be rolled back", module);
+            throw new IllegalStateException("Could not flush write-behind writes before commit: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+        if (queues.remove(transaction) != null) {
+            queueCount.decrementAndGet();
+        }
+        if (!writes.isEmpty() && status == Status.STATUS_COMMITTED) {
+            Debug.logError("Transaction committed with " + writes.size() + " unflushed write-behind writes", module);
+        }
+        writes = new ArrayList<>();
+        if (Debug.verboseOn()) {
+            Debug.logVerbose("Write-behind: " + writeCount + " writes executed as " + statementCount + " statements", module);
+        }
+    }
+
+    /**
+     * A queued insert or update.
+     */
+    static final class PendingWrite {
+        final GenericDAO dao;
+        final ModelEntity modelEntity;
+        final String sql;
+        final List<ModelField> fieldsToSave;
+        final GenericEntity entity;
+        final boolean update;
+
+        PendingWrite(GenericDAO dao, ModelEntity modelEntity, String sql, List<ModelField> fieldsToSave, GenericEntity entity, boolean update) {
+            this.dao = dao;
+            this.modelEntity = modelEntity;
+            this.sql = sql;
+            this.fieldsToSave = fieldsToSave;
+            this.entity = entity;
+            this.update = update;
+        }
+
+        boolean isSameStatement(PendingWrite other) {
+            return dao == other.dao && sql.equals(other.sql);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.pool2.BasePooledObjectFactory;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.entity.connection.ConnectionPoolMetrics;
+
+/**
+ * SCIPIO: Tests the {@link ConnectionPoolMetrics} leak detection on a plain object pool, whose factory tracks its
+ * pooled objects like the DBCPConnectionFactory one.
+ */
+public class ConnectionPoolMetricsTests extends GenericTestCaseBase {
+
+    public ConnectionPoolMetricsTests(String name) {
+        super(name);
+    }
+
+    public void testLeakSuspectsOnlyHeld() throws Exception {
+        PooledItemFactory factory = new PooledItemFactory();
+        GenericObjectPool<PooledItem> pool = new GenericObjectPool<>(factory);
+        try {
+            PooledItem held = pool.borrowObject();
+            PooledItem returned = pool.borrowObject();
+            pool.returnObject(returned);
+            pool.addObject(); // idle, never borrowed
+            assertEquals("Pooled objects", 3, pool.getNumActive() + pool.getNumIdle());
+
+            ConnectionPoolMetrics metrics = new ConnectionPoolMetrics("test", pool, factory.pooledObjects, 1, 10, 5, false, 0);
+            Thread.sleep(50);
+            List<Map<String, Object>> suspects = metrics.getLeakSuspects();
+            assertEquals("Leak suspects", 1, suspects.size());
+            assertEquals("Held connection reported", held.toString(), suspects.get(0).get("connection"));
+
+            pool.returnObject(held);
+            Thread.sleep(10);
+            assertEquals("No leak suspects once returned", 0, metrics.getLeakSuspects().size());
+        } finally {
+            pool.close();
+        }
+    }
+
+    public void testLeakDetectionDisabled() throws Exception {
+        PooledItemFactory factory = new PooledItemFactory();
+        GenericObjectPool<PooledItem> pool = new GenericObjectPool<>(factory);
+        try {
+            pool.borrowObject();
+            ConnectionPoolMetrics metrics = new ConnectionPoolMetrics("test", pool, factory.pooledObjects, 1, 10, 0, false, 0);
+            Thread.sleep(10);
+            assertEquals("No leak suspects when disabled", 0, metrics.getLeakSuspects().size());
+        } finally {
+            pool.close();
+        }
+    }
+
+    private static final class PooledItem {
+        private final int id;
+
+        PooledItem(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public String toString() {
+            return "item-" + id;
+        }
+    }
+
+    private static final class PooledItemFactory extends BasePooledObjectFactory<PooledItem> {
+        private final AtomicInteger nextId = new AtomicInteger();
+        private final Set<PooledObject<PooledItem>> pooledObjects = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public PooledItem create() {
+            return new PooledItem(nextId.incrementAndGet());
+        }
+
+        @Override
+        public PooledObject<PooledItem> wrap(PooledItem item) {
+            PooledObject<PooledItem> pooledObject = new DefaultPooledObject<>(item);
+            pooledObjects.add(pooledObject);
+            return pooledObject;
+        }
+
+        @Override
+        public void destroyObject(PooledObject<PooledItem> pooledObject) {
+            pooledObjects.remove(pooledObject);
+        }
+    }
+}
@@ -58,6 +58,8 @@ import org.ofbiz.entity.model.ModelField;
 import org.ofbiz.entity.testtools.EntityTestCase;
 import org.ofbiz.entity.transaction.GenericTransactionException;
 import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityFindOptions;
+import org.ofbiz.entity.util.EntityKeyset;
 import org.ofbiz.entity.util.EntityListIterator;
 import org.ofbiz.entity.util.EntityQuery;
 import org.ofbiz.entity.util.EntitySaxReader;
@@ -785,6 +787,76 @@ public class EntityTestSuite extends EntityTestCase {
         }
     }
 
+    /*
+     * SCIPIO: This test will verify keyset pagination (EntityQuery.seekAfter) and the capped count of EntityListIterator.
+     */
+    public void testKeysetPagination() throws Exception {
+        try {
+            List<GenericValue> newValues = new LinkedList<>();
+            for (int i = 0; i < TEST_COUNT; i++) {
+                newValues.add(delegator.makeValue("Testing", "testingId", getTestId("T5-", i)));
+            }
+            delegator.storeAll(newValues);
+            EntityCondition condition = EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T5-%");
+            List<String> keysetOrderBy = EntityKeyset.makeOrderBy(delegator.getModelEntity("Testing"), UtilMisc.toList("testingId DESC"));
+            assertEquals("Keyset order-by", UtilMisc.toList("testingId DESC"), keysetOrderBy);
+            assertNull("Keyset order-by not supported for nullable field", EntityKeyset.makeOrderBy(delegator.getModelEntity("Testing"), UtilMisc.toList("description")));
+
+            int pageSize = 100;
+            int i = (int) TEST_COUNT - 1;
+            Map<String, Object> seekKey = null;
+            List<GenericValue> page;
+            do {
+                page = EntityQuery.use(delegator).from("Testing").where(condition).orderBy("testingId DESC")
+                        .seekAfter(seekKey).maxRows(pageSize).queryList();
+                for (GenericValue value : page) {
+                    assertEquals("Keyset page row " + i, getTestId("T5-", i), value.getString("testingId"));
+                    i--;
+                }
+                if (!page.isEmpty()) {
+                    seekKey = EntityKeyset.makeSeekKey(keysetOrderBy, page.get(page.size() - 1));
+                }
+            } while (page.size() == pageSize);
+            assertEquals("Keyset pages cover all rows", -1, i);
+            // Seek key passed through the paginator request parameters, for the page it was made for only
+            Map<String, String> seekParams = EntityKeyset.makeSeekAfterParams(seekKey, 3);
+            assertEquals("Seek key from the request parameters", seekKey, EntityKeyset.getSeekAfterParams(seekParams, 3));
+            assertNull("Seek key of another page ignored", EntityKeyset.getSeekAfterParams(seekParams, 4));
+
+            boolean beganTransaction = TransactionUtil.begin();
+            try (EntityListIterator iterator = EntityQuery.use(delegator).from("Testing").where(condition).orderBy("testingId")
+                    .countMode(EntityFindOptions.COUNT_CAPPED).cursorScrollInsensitive().maxRows(10).queryIterator()) {
+                assertEquals("Capped count below the cap", TEST_COUNT, iterator.getResultsSizeAfterPartialList());
+                assertTrue("Capped count below the cap is exact", iterator.isResultSizeExact());
+            } finally {
+                TransactionUtil.commit(beganTransaction);
+            }
+            // Count cap of 5 rows past the 10 requested rows: stops at 15 + 1 rows
+            beganTransaction = TransactionUtil.begin();
+            try (EntityListIterator iterator = EntityQuery.use(delegator).from("Testing").where(condition).orderBy("testingId")
+                    .countMode(EntityFindOptions.COUNT_CAPPED).countCap(5).cursorScrollInsensitive().maxRows(10).queryIterator()) {
+                assertEquals("Capped count over the cap", 16, iterator.getResultsSizeAfterPartialList());
+                assertFalse("Capped count over the cap is a lower bound", iterator.isResultSizeExact());
+                assertEquals("Partial list within the requested rows", 10, iterator.getPartialList(1, 10).size());
+            } finally {
+                TransactionUtil.commit(beganTransaction);
+            }
+            // Count cap of 0: exact count
+            beganTransaction = TransactionUtil.begin();
+            try (EntityListIterator iterator = EntityQuery.use(delegator).from("Testing").where(condition)
+                    .countMode(EntityFindOptions.COUNT_CAPPED).countCap(0).cursorScrollInsensitive().maxRows(10).queryIterator()) {
+                assertEquals("Capped count with no cap", TEST_COUNT, iterator.getResultsSizeAfterPartialList());
+                assertTrue("Capped count with no cap is exact", iterator.isResultSizeExact());
+            } finally {
+                TransactionUtil.commit(beganTransaction);
+            }
+        } finally {
+            List<GenericValue> entitiesToRemove = EntityQuery.use(delegator).from("Testing")
+                    .where(EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T5-%")).queryList();
+            delegator.removeAll(entitiesToRemove);
+        }
+    }
+
     /*
      * This test will verify transaction rollbacks using TransactionUtil.
      */
@@ -797,6 +869,47 @@ public class EntityTestSuite extends EntityTestCase {
         assertEquals("Test that transaction rollback removes value: ", null, testValueOut);
     }
 
+    /*
+     * SCIPIO: This test will verify that write-behind writes are flushed before reads and at commit.
+     */
+    public void testTransactionWriteBehind() throws Exception {
+        int extraIndex = (int) TEST_COUNT;
+        try {
+            boolean transBegin = TransactionUtil.begin();
+            assertTrue("Write-behind enabled", TransactionUtil.setWriteBehind(true));
+            for (int i = 0; i < TEST_COUNT; i++) {
+                delegator.create(delegator.makeValue("Testing", "testingId", getTestId("T4-", i), "description", "created"));
+            }
+            GenericValue storedValue = delegator.makeValue("Testing", "testingId", getTestId("T4-", 0), "description", "stored");
+            delegator.store(storedValue);
+            storedValue.set("description", "changed after store");
+            List<GenericValue> newlyCreatedValues = EntityQuery.use(delegator).from("Testing")
+                    .where(EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T4-%")).orderBy("testingId").queryList();
+            assertEquals("Write-behind values flushed before read", TEST_COUNT, newlyCreatedValues.size());
+            assertEquals("Write-behind store flushed in order", "stored", newlyCreatedValues.get(0).getString("description"));
+            delegator.create(delegator.makeValue("Testing", "testingId", getTestId("T4-", extraIndex)));
+            TransactionUtil.commit(transBegin);
+            assertNotNull("Write-behind value flushed at commit", EntityQuery.use(delegator).from("Testing").where("testingId", getTestId("T4-", extraIndex)).queryOne());
+
+            GenericTransactionException caught = null;
+            try {
+                transBegin = TransactionUtil.begin();
+                TransactionUtil.setWriteBehind(true);
+                delegator.create(delegator.makeValue("Testing", "testingId", getTestId("T4-", extraIndex + 1)));
+                delegator.create(delegator.makeValue("Testing", "testingId", getTestId("T4-", 0)));
+                TransactionUtil.commit(transBegin);
+            } catch (GenericTransactionException e) {
+                caught = e;
+            }
+            assertNotNull("Write-behind duplicate key reported at commit", caught);
+            assertNull("Write-behind transaction rolled back", EntityQuery.use(delegator).from("Testing").where("testingId", getTestId("T4-", extraIndex + 1)).queryOne());
+        } finally {
+            List<GenericValue> entitiesToRemove = EntityQuery.use(delegator).from("Testing")
+                    .where(EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T4-%")).queryList();
+            delegator.removeAll(entitiesToRemove);
+        }
+    }
+
     /*
      * This test will verify that a transaction which takes longer than the pre-set timeout are rolled back.
      */
@@ -53,6 +53,7 @@ import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.config.model.Datasource;
 import org.ofbiz.entity.config.model.EntityConfig;
 import org.ofbiz.entity.datasource.GenericHelperInfo;
+import org.ofbiz.entity.datasource.WriteBehindQueue;
 import org.ofbiz.entity.jdbc.CursorConnection;
 
 /**
@@ -250,6 +251,15 @@ public final class TransactionUtil implements Status {
                 if (Debug.verboseOn()) Debug.logVerbose("Current status : " + getTransactionStateString(status), module);
 
                 if (status != STATUS_NO_TRANSACTION && status != STATUS_COMMITTING && status != STATUS_COMMITTED && status != STATUS_ROLLING_BACK && status != STATUS_ROLLEDBACK) {
+                    // SCIPIO: execute the pending write-behind writes first, so their errors are reported here
+                    if (status == STATUS_ACTIVE) {
+                        try {
+                            WriteBehindQueue.flushCurrent();
+                        } catch (GenericEntityException e) {
+                            rollback(e);
+                            throw new GenericTransactionException("Could not commit transaction, was rolled back instead because the write-behind writes failed: " + e.getMessage(), e);
+                        }
+                    }
                     ut.commit();
 
                     // clear out the stamps to keep it clean
@@ -396,6 +406,37 @@ public final class TransactionUtil implements Status {
         }
     }
 
+    /**
+     * SCIPIO: Enables or disables write-behind for the current transaction: while enabled, the entity engine queues
+     * single-value inserts and updates and executes them as JDBC batches, at commit or before any read or other
+     * write that could observe them; disabling it flushes the pending writes. Returns false if no transaction is in place.
+     * <p>
+     * Errors of the queued writes (duplicate keys, constraints) are only reported when flushed, so this must not be
+     * used by code that catches them to recover within the same transaction. See {@link WriteBehindQueue}.
+     */
+    public static boolean setWriteBehind(boolean enable) throws GenericTransactionException {
+        try {
+            return WriteBehindQueue.setEnabled(enable);
+        } catch (GenericTransactionException e) {
+            throw e;
+        } catch (GenericEntityException e) {
+            throw new GenericTransactionException("Could not flush write-behind writes: " + e.getMessage(), e);
+        }
+    }
+
+    /** SCIPIO: Returns true if write-behind is enabled for the current transaction. */
+    public static boolean isWriteBehind() {
+        return WriteBehindQueue.getCurrent() != null;
+    }
+
+    /**
+     * SCIPIO: Executes the pending write-behind writes of the current transaction, if any; code that reads through
+     * JDBC directly (not through the entity engine) in a write-behind transaction must call this first.
+     */
+    public static void flushWriteBehind() throws GenericEntityException {
+        WriteBehindQueue.flushCurrent();
+    }
+
     public static Transaction suspend() throws GenericTransactionException {
         try {
             if (TransactionUtil.getStatus() != STATUS_NO_TRANSACTION) {
@@ -41,6 +41,15 @@ public class EntityFindOptions implements java.io.Serializable {
     /** Concurrency constant from the java.sql.ResultSet object for convenience */
     public static final int CONCUR_UPDATABLE = ResultSet.CONCUR_UPDATABLE;
 
+    /** SCIPIO: Count mode: full COUNT of the results (default). */
+    public static final String COUNT_EXACT = "exact";
+
+    /** SCIPIO: Count mode: count stopping a number of rows (datasource count-cap) past the requested page. */
+    public static final String COUNT_CAPPED = "capped";
+
+    /** SCIPIO: Count mode: table statistics for the unconditioned queries of plain entities, else capped. */
+    public static final String COUNT_APPROXIMATE = "approximate";
+
     protected boolean specifyTypeAndConcur = true;
     protected int resultSetType = TYPE_FORWARD_ONLY;
     protected int resultSetConcurrency = CONCUR_READ_ONLY;
@@ -54,6 +63,12 @@ public class EntityFindOptions implements java.io.Serializable {
     /** OFFSET option */
     protected int offset = -1;
 
+    /** SCIPIO: Count mode of the EntityListIterator results size; null for the datasource count-mode */
+    protected String countMode = null;
+
+    /** SCIPIO: Rows counted past the requested page by the capped count; -1 for the datasource count-cap */
+    protected int countCap = -1;
+
     /** Default constructor. Defaults are as follows:
      *      specifyTypeAndConcur = true
      *      resultSetType = TYPE_FORWARD_ONLY
@@ -172,4 +187,28 @@ public class EntityFindOptions implements java.io.Serializable {
     public void setOffset(int offset) {
         this.offset = offset;
     }
+
+    /** SCIPIO: Get the count mode, null for the datasource <code>count-mode</code>. */
+    public String getCountMode() {
+        return countMode;
+    }
+
+    /** SCIPIO: Specifies how {@link EntityListIterator#getResultsSizeAfterPartialList()} counts the results:
+     *      {@link #COUNT_EXACT}, {@link #COUNT_CAPPED} or {@link #COUNT_APPROXIMATE}; null for the datasource <code>count-mode</code>.
+     */
+    public void setCountMode(String countMode) {
+        this.countMode = countMode;
+    }
+
+    /** SCIPIO: Get the count cap, -1 for the datasource <code>count-cap</code>. */
+    public int getCountCap() {
+        return countCap;
+    }
+
+    /** SCIPIO: Specifies the rows counted past the requested page by the {@link #COUNT_CAPPED} count (0 to count
+     *      exactly); -1 for the datasource <code>count-cap</code>.
+     */
+    public void setCountCap(int countCap) {
+        this.countCap = countCap;
+    }
 }
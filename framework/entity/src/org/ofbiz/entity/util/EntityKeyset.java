@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntity;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityFieldValue;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.condition.OrderByItem;
+import org.ofbiz.entity.model.ModelEntity;
+import org.ofbiz.entity.model.ModelField;
+import org.ofbiz.entity.model.ModelViewEntity;
+
+/**
+ * SCIPIO: Keyset ("seek") pagination helpers: instead of skipping the rows of the previous pages with the
+ * cursor (or an OFFSET), the next page is selected by a condition on the order-by fields of the last row of
+ * the previous page, which the database can answer from an index whatever the page depth.
+ * <p>
+ * The order must be total, so the primary key fields are appended to the order-by; and since the SQL
+ * comparisons don't order the nulls, only the primary key and <code>not-null</code> fields are supported,
+ * without functions (<code>UPPER(...)</code>): the methods return null for the other orders, for which the
+ * callers fall back to offset paging. The order-by of a view entity with GROUP BY is not supported either.
+ */
+public final class EntityKeyset {
+
+    /** Request parameter holding the view index of the page the seekAfter key parameters select. */
+    public static final String SEEK_AFTER_INDEX_PARAM = "seekAfterIndex";
+    /** Prefix of the request parameters holding the seekAfter key, one per order-by field. */
+    public static final String SEEK_AFTER_PARAM_PREFIX = "seekAfter_";
+
+    private EntityKeyset() {
+    }
+
+    /**
+     * Returns the order-by made total by appending the missing primary key fields (ascending), or null if
+     * keyset pagination is not supported for the order-by.
+     */
+    public static List<String> makeOrderBy(ModelEntity modelEntity, List<String> orderBy) {
+        if (modelEntity == null || modelEntity.getPksSize() == 0
+                || (modelEntity instanceof ModelViewEntity && ((ModelViewEntity) modelEntity).getGroupBysSize() > 0)) {
+            return null;
+        }
+        List<String> keysetOrderBy = new ArrayList<>();
+        Set<String> fieldNames = new LinkedHashSet<>();
+        if (orderBy != null) {
+            for (String orderByString : orderBy) {
+                if (UtilValidate.isEmpty(orderByString)) {
+                    continue;
+                }
+                OrderByItem item = OrderByItem.parse(orderByString);
+                if (!(item.getValue() instanceof EntityFieldValue)) {
+                    return null;
+                }
+                String fieldName = ((EntityFieldValue) item.getValue()).getFieldName();
+                ModelField modelField = modelEntity.getField(fieldName);
+                if (modelField == null || !(modelField.getIsPk() || modelField.getIsNotNull())) {
+                    return null;
+                }
+                if (fieldNames.add(fieldName)) {
+                    keysetOrderBy.add(item.getDescending() ? fieldName + " DESC" : fieldName);
+                }
+            }
+        }
+        for (String pkFieldName : modelEntity.getPkFieldNames()) {
+            if (fieldNames.add(pkFieldName)) {
+                keysetOrderBy.add(pkFieldName);
+            }
+        }
+        return keysetOrderBy;
+    }
+
+    /**
+     * Returns the condition selecting the rows after the given key in the order of the keyset order-by
+     * (returned by {@link #makeOrderBy}), <code>(a > x) OR (a = x AND b > y)...</code>; or null if the
+     * key doesn't have a valid value for each order-by field. The key values may be strings, they are
+     * converted to the field types.
+     */
+    public static EntityCondition makeSeekCondition(ModelEntity modelEntity, List<String> keysetOrderBy, Map<String, ?> seekKey, Delegator delegator) {
+        if (keysetOrderBy == null || UtilValidate.isEmpty(seekKey)) {
+            return null;
+        }
+        List<String> fieldNames = new ArrayList<>(keysetOrderBy.size());
+        List<Object> values = new ArrayList<>(keysetOrderBy.size());
+        List<Boolean> descending = new ArrayList<>(keysetOrderBy.size());
+        for (String orderByString : keysetOrderBy) {
+            OrderByItem item = OrderByItem.parse(orderByString);
+            String fieldName = ((EntityFieldValue) item.getValue()).getFieldName();
+            Object value = seekKey.get(fieldName);
+            if (UtilValidate.isEmpty(value)) {
+                return null;
+            }
+            try {
+                value = modelEntity.convertFieldValue(modelEntity.getField(fieldName), value, delegator);
+            } catch (IllegalArgumentException e) {
+                return null; // already logged
+            }
+            fieldNames.add(fieldName);
+            values.add(value);
+            descending.add(item.getDescending());
+        }
+        List<EntityCondition> orConditions = new ArrayList<>(fieldNames.size());
+        for (int i = 0; i < fieldNames.size(); i++) {
+            List<EntityCondition> andConditions = new ArrayList<>(i + 1);
+            for (int j = 0; j < i; j++) {
+                andConditions.add(EntityCondition.makeCondition(fieldNames.get(j), EntityOperator.EQUALS, values.get(j)));
+            }
+            if (descending.get(i)) {
+                andConditions.add(EntityCondition.makeCondition(fieldNames.get(i), EntityOperator.LESS_THAN, values.get(i)));
+            } else {
+                andConditions.add(EntityCondition.makeCondition(fieldNames.get(i), EntityOperator.GREATER_THAN, values.get(i)));
+            }
+            orConditions.add(EntityCondition.makeCondition(andConditions, EntityOperator.AND));
+        }
+        return EntityCondition.makeCondition(orConditions, EntityOperator.OR);
+    }
+
+    /**
+     * Returns the key of the given row for the keyset order-by (returned by {@link #makeOrderBy}), to select
+     * the rows after it with {@link #makeSeekCondition}, typically the last row of a page.
+     */
+    public static Map<String, Object> makeSeekKey(List<String> keysetOrderBy, GenericEntity value) {
+        Map<String, Object> seekKey = new LinkedHashMap<>();
+        for (String orderByString : keysetOrderBy) {
+            String fieldName = ((EntityFieldValue) OrderByItem.parse(orderByString).getValue()).getFieldName();
+            seekKey.put(fieldName, value.get(fieldName));
+        }
+        return seekKey;
+    }
+
+    /**
+     * Returns the request parameters carrying the seek key of the page at viewIndex (the key of the last row of
+     * the previous page), to be read back by {@link #getSeekAfterParams}; the values are converted to strings.
+     */
+    public static Map<String, String> makeSeekAfterParams(Map<String, ?> seekKey, int viewIndex) {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put(SEEK_AFTER_INDEX_PARAM, Integer.toString(viewIndex));
+        for (Map.Entry<String, ?> entry : seekKey.entrySet()) {
+            params.put(SEEK_AFTER_PARAM_PREFIX + entry.getKey(), (entry.getValue() != null) ? entry.getValue().toString() : "");
+        }
+        return params;
+    }
+
+    /**
+     * Returns the seek key from the request parameters made by {@link #makeSeekAfterParams}, or null if there is
+     * none or if it was made for another page than viewIndex (e.g. a link to the previous or last page).
+     */
+    public static Map<String, Object> getSeekAfterParams(Map<String, ?> params, int viewIndex) {
+        if (params == null || !Integer.toString(viewIndex).equals(String.valueOf(params.get(SEEK_AFTER_INDEX_PARAM)))) {
+            return null;
+        }
+        Map<String, Object> seekKey = new LinkedHashMap<>();
+        for (Map.Entry<String, ?> entry : params.entrySet()) {
+            if (entry.getKey().startsWith(SEEK_AFTER_PARAM_PREFIX)) {
+                seekKey.put(entry.getKey().substring(SEEK_AFTER_PARAM_PREFIX.length()), entry.getValue());
+            }
+        }
+        return seekKey.isEmpty() ? null : seekKey;
+    }
+}
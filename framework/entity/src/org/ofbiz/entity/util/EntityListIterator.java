@@ -39,6 +39,7 @@ import org.ofbiz.entity.jdbc.SqlJdbcUtil;
 import org.ofbiz.entity.model.ModelEntity;
 import org.ofbiz.entity.model.ModelField;
 import org.ofbiz.entity.model.ModelFieldTypeReader;
+import org.ofbiz.entity.model.ModelViewEntity;
 
 /**
  * Generic Entity Cursor List Iterator for Handling Cursored DB Results
@@ -69,6 +70,12 @@ public class EntityListIterator implements AutoCloseable, ListIterator<GenericVa
 
     private boolean haveShowHasNextWarning = false;
     private Integer resultSize = null;
+    private boolean resultSizeExact = true; // SCIPIO
+    private String countMode = EntityFindOptions.COUNT_EXACT; // SCIPIO
+    private int countCap = 0; // SCIPIO
+    private int countPosition = 0; // SCIPIO: end of the rows requested so far (query maxRows, partial lists)
+    private List<String> keysetOrderBy = null; // SCIPIO
+    private int keysetFirstRowIndex = 0; // SCIPIO
     private final IllegalStateException notClosedStackTraceEx; // SCIPIO: debugging helper
 
     public EntityListIterator(SQLProcessor sqlp, ModelEntity modelEntity, List<ModelField> selectFields, ModelFieldTypeReader modelFieldTypeReader) {
@@ -99,6 +106,19 @@ public class EntityListIterator implements AutoCloseable, ListIterator<GenericVa
         this.delegator = delegator;
     }
 
+    /**
+     * SCIPIO: Sets how {@link #getResultsSizeAfterPartialList()} counts the results, set by {@link GenericDAO}
+     * from the find options and the datasource <code>count-mode</code>.
+     * @param countMode {@link EntityFindOptions#COUNT_EXACT}, {@link EntityFindOptions#COUNT_CAPPED} or {@link EntityFindOptions#COUNT_APPROXIMATE}
+     * @param countCap the rows counted past the requested rows by the capped count, 0 to count exactly
+     * @param maxRows the query max rows, the end of the requested rows
+     */
+    public void setCountMode(String countMode, int countCap, int maxRows) {
+        this.countMode = (countMode != null) ? countMode : EntityFindOptions.COUNT_EXACT;
+        this.countCap = countCap;
+        this.countPosition = Math.max(this.countPosition, maxRows);
+    }
+
     /**
      * Sets the cursor position to just after the last result so that previous() will return the last result.
      *
@@ -468,6 +488,7 @@ public class EntityListIterator implements AutoCloseable, ListIterator<GenericVa
 
             // just in case the caller missed the 1 based thingy
             if (start == 0) start = 1;
+            countPosition = Math.max(countPosition, start - 1 + number); // SCIPIO
 
             // if can't reposition to desired index, throw exception
             if (!this.absolute(start - 1)) {
@@ -495,6 +516,9 @@ public class EntityListIterator implements AutoCloseable, ListIterator<GenericVa
      * If a {@link GenericDAO} is known, the result size will be counted by the
      * database. Otherwise the result size is the last index of the
      * {@link EntityListIterator}.
+     * <p>
+     * SCIPIO: In the capped and approximate count modes (see {@link EntityFindOptions#setCountMode}), the size
+     * may be a lower bound or an estimate, in which case {@link #isResultSizeExact()} returns false.
      *
      * @return the result size or 0 if the result set is empty.
      * @throws GenericEntityException
@@ -523,10 +547,59 @@ public class EntityListIterator implements AutoCloseable, ListIterator<GenericVa
             efo = new EntityFindOptions();
             efo.setDistinct(distinctQuery);
         }
+        // SCIPIO: estimate or capped count
+        if (EntityFindOptions.COUNT_APPROXIMATE.equals(countMode) && whereCondition == null && havingCondition == null
+                && !distinctQuery && !(modelEntity instanceof ModelViewEntity)) {
+            long count = genericDAO.selectApproximateCount(sqlp.getDelegator(), modelEntity);
+            if (count >= 0) {
+                resultSizeExact = false;
+                return Math.min(count, Integer.MAX_VALUE);
+            }
+        }
+        if (!EntityFindOptions.COUNT_EXACT.equals(countMode) && countCap > 0) {
+            int maxCount = (int) Math.min((long) countPosition + countCap, Integer.MAX_VALUE - 1);
+            long count = genericDAO.selectCappedCountByCondition(sqlp.getDelegator(), modelEntity, whereCondition,
+                    havingCondition, selectFields, efo, maxCount);
+            resultSizeExact = (count <= maxCount);
+            return count;
+        }
         return genericDAO.selectCountByCondition(sqlp.getDelegator(), modelEntity, whereCondition,
                 havingCondition, selectFields, efo);
     }
 
+    /**
+     * SCIPIO: Returns false if the size returned by {@link #getResultsSizeAfterPartialList()} is an estimate
+     * (approximate count mode) or a lower bound (capped count mode, more rows than counted); true otherwise.
+     */
+    public boolean isResultSizeExact() {
+        return resultSizeExact;
+    }
+
+    /**
+     * SCIPIO: Marks the iterator as a keyset ("seek") page query, see {@link EntityKeyset}: the rows are ordered
+     * by the given keyset order-by and, if the query selects the rows after a seek key, the first row is the row
+     * at firstRowIndex (0-based) of the whole list; the list renderers then number the rows and make the seek key
+     * of the next page from them.
+     */
+    public void setKeysetPaging(List<String> keysetOrderBy, int firstRowIndex) {
+        this.keysetOrderBy = keysetOrderBy;
+        this.keysetFirstRowIndex = firstRowIndex;
+    }
+
+    /**
+     * SCIPIO: Returns the keyset order-by set by {@link #setKeysetPaging}, or null if not a keyset page query.
+     */
+    public List<String> getKeysetOrderBy() {
+        return keysetOrderBy;
+    }
+
+    /**
+     * SCIPIO: Returns the index of the first row in the whole list set by {@link #setKeysetPaging}, 0 by default.
+     */
+    public int getKeysetFirstRowIndex() {
+        return keysetFirstRowIndex;
+    }
+
     /**
      * Unsupported {@link ListIterator#add(Object)} method.
      */
@@ -73,6 +73,10 @@ public class EntityQuery {
     private List<String> filterByFieldNames = null;
     private boolean searchPkOnly = false;
     private Map<String, Object> fieldMap = null;
+    private Map<String, ?> seekKey = null; // SCIPIO
+    private boolean keyset = false; // SCIPIO
+    private String countMode = null; // SCIPIO
+    private Integer countCap = null; // SCIPIO
 
 
 
@@ -240,6 +244,47 @@ public class EntityQuery {
         return this;
     }
 
+    /** SCIPIO: Enables keyset ("seek") pagination: the order-by is made total by appending the primary key fields, and
+     * only the rows after the given key in this order are returned, which replaces the skipping of the rows of the previous
+     * pages (offset) and stays fast whatever the page depth. The key of the next page is made from the last row of the
+     * current one with {@link EntityKeyset#makeSeekKey}.
+     * <p>
+     * Only supported for the order-by of primary key and <code>not-null</code> fields of named entities (see {@link EntityKeyset});
+     * for the other queries the order-by and condition are left as is.
+     *
+     * NOTE: The seek condition is not applied to {@link #queryCount()}.
+     * @param seekKey - The order-by field values of the last row of the previous page, null or empty for the first page
+     * @return this EntityQuery object, to enable chaining
+     */
+    public EntityQuery seekAfter(Map<String, ?> seekKey) {
+        this.keyset = true;
+        this.seekKey = seekKey;
+        return this;
+    }
+
+    /** SCIPIO: Specifies how the results of {@link #queryIterator()} are counted by {@link EntityListIterator#getResultsSizeAfterPartialList()}:
+     * {@link EntityFindOptions#COUNT_EXACT}, {@link EntityFindOptions#COUNT_CAPPED} or {@link EntityFindOptions#COUNT_APPROXIMATE};
+     * null (default) for the datasource <code>count-mode</code>.
+     *
+     * @param countMode - The count mode
+     * @return this EntityQuery object, to enable chaining
+     */
+    public EntityQuery countMode(String countMode) {
+        this.countMode = countMode;
+        return this;
+    }
+
+    /** SCIPIO: Specifies the rows counted past the requested rows by the {@link EntityFindOptions#COUNT_CAPPED} count
+     * of {@link #queryIterator()}, instead of the datasource <code>count-cap</code>.
+     *
+     * @param countCap - The count cap, 0 to count exactly
+     * @return this EntityQuery object, to enable chaining
+     */
+    public EntityQuery countCap(int countCap) {
+        this.countCap = countCap;
+        return this;
+    }
+
     /** Indicate that the ResultSet object's cursor may move only forward (this is the default behavior)
      *
      * @return this EntityQuery object, to enable chaining
@@ -537,7 +582,9 @@ public class EntityQuery {
             Debug.logWarning("Call to iterator() with cache, ignoring cache", module);
         }
         if (dynamicViewEntity == null) {
-            return delegator.find(entityName, makeWhereCondition(false), havingEntityCondition, fieldsToSelect, orderBy, makeEntityFindOptions());
+            List<String> keysetOrderBy = makeKeysetOrderBy(); // SCIPIO
+            return delegator.find(entityName, makeSeekCondition(makeWhereCondition(false), keysetOrderBy), havingEntityCondition, fieldsToSelect,
+                    (keysetOrderBy != null) ? keysetOrderBy : orderBy, makeEntityFindOptions());
         } else {
             return delegator.findListIteratorByCondition(dynamicViewEntity, makeWhereCondition(false), havingEntityCondition, fieldsToSelect, orderBy, makeEntityFindOptions());
         }
@@ -591,7 +638,9 @@ public class EntityQuery {
         }
         List<GenericValue> result = null;
         if (dynamicViewEntity == null) {
-            result = delegator.findList(entityName, makeWhereCondition(useCache), fieldsToSelect, orderBy, findOptions, useCache);
+            List<String> keysetOrderBy = makeKeysetOrderBy(); // SCIPIO
+            result = delegator.findList(entityName, makeSeekCondition(makeWhereCondition(useCache), keysetOrderBy), fieldsToSelect,
+                    (keysetOrderBy != null) ? keysetOrderBy : orderBy, findOptions, useCache);
         } else {
             try (EntityListIterator it = queryIterator()) {
                 result = it.getCompleteList();
@@ -621,9 +670,38 @@ public class EntityQuery {
         if (distinct != null) {
             findOptions.setDistinct(distinct);
         }
+        if (countMode != null) { // SCIPIO
+            findOptions.setCountMode(countMode);
+        }
+        if (countCap != null) { // SCIPIO
+            findOptions.setCountCap(countCap);
+        }
         return findOptions;
     }
 
+    /** SCIPIO: Returns the keyset order-by if keyset pagination is enabled and supported, otherwise null. */
+    private List<String> makeKeysetOrderBy() {
+        if (!keyset || entityName == null) {
+            return null;
+        }
+        return EntityKeyset.makeOrderBy(delegator.getModelEntity(entityName), orderBy);
+    }
+
+    /** SCIPIO: Adds the keyset seek condition to the where condition, if any. */
+    private EntityCondition makeSeekCondition(EntityCondition whereCondition, List<String> keysetOrderBy) {
+        if (keysetOrderBy == null) {
+            return whereCondition;
+        }
+        EntityCondition seekCondition = EntityKeyset.makeSeekCondition(delegator.getModelEntity(entityName), keysetOrderBy, seekKey, delegator);
+        if (seekCondition == null) {
+            if (UtilValidate.isNotEmpty(seekKey)) {
+                Debug.logWarning("Invalid keyset seek key for entity [" + entityName + "] and order-by " + keysetOrderBy + ": " + seekKey + "; ignoring", module);
+            }
+            return whereCondition;
+        }
+        return (whereCondition != null) ? EntityCondition.makeCondition(whereCondition, seekCondition) : seekCondition;
+    }
+
     private EntityCondition makeWhereCondition(boolean usingCache) {
         if (whereEntityCondition == null && fieldMap != null) {
             if (this.searchPkOnly) {
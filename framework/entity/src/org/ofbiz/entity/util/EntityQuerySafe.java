@@ -101,6 +101,21 @@ public class EntityQuerySafe extends EntityQuery {
         return (EntityQuerySafe) super.orderBy(fields);
     }
 
+    @Override
+    public EntityQuerySafe seekAfter(Map<String, ?> seekKey) {
+        return (EntityQuerySafe) super.seekAfter(seekKey);
+    }
+
+    @Override
+    public EntityQuerySafe countMode(String countMode) {
+        return (EntityQuerySafe) super.countMode(countMode);
+    }
+
+    @Override
+    public EntityQuerySafe countCap(int countCap) {
+        return (EntityQuerySafe) super.countCap(countCap);
+    }
+
     @Override
     public EntityQuerySafe cursorForwardOnly() {
         return (EntityQuerySafe) super.cursorForwardOnly();
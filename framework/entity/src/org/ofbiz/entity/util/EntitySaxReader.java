@@ -18,6 +18,7 @@
  *******************************************************************************/
 package org.ofbiz.entity.util;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
@@ -33,6 +34,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -401,6 +403,9 @@ public class EntitySaxReader extends DefaultHandler {
         long numberRead = 0;
         try {
             is = location.openStream();
+            if (location.getPath().endsWith(".gz")) { // SCIPIO: gzip-compressed entity files (see entityExportAll compress option)
+                is = new GZIPInputStream(new BufferedInputStream(is, 65536));
+            }
             numberRead = this.parse(is, location.toString());
         } finally {
             if (is != null) {
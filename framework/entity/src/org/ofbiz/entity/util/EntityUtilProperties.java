@@ -25,6 +25,7 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.InvalidPropertiesFormatException;
 import java.util.Iterator;
@@ -35,11 +36,13 @@ import java.util.Optional;
 import java.util.Properties;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.base.util.cache.UtilCache;
 import org.ofbiz.base.util.collections.ResourceBundleMapWrapper;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.DelegatorFactory;
@@ -53,6 +56,12 @@ public final class EntityUtilProperties implements Serializable {
 
     private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
 
+    /**
+     * SCIPIO: Snapshots of all the SystemProperty values, per delegator name, so lookups need no entity cache query.
+     */
+    private static final UtilCache<String, SystemPropertySnapshot> systemPropertySnapshotCache = UtilCache.createUtilCache("properties.EntityUtilPropertiesSnapshot", 0, 0, 0, false);
+    private static final AtomicLong systemPropertySnapshotClearCount = new AtomicLong();
+
     private EntityUtilProperties () {}
 
     /**
@@ -102,6 +111,10 @@ public final class EntityUtilProperties implements Serializable {
         if (resource.endsWith(".properties")) {
             resource = resource.substring(0, resource.length() - ".properties".length());
         }
+        // SCIPIO: Served from the per-delegator snapshot of all SystemProperty values, unless its cache is disabled
+        if (systemPropertySnapshotCache.isEnabled()) {
+            return Optional.ofNullable(getSystemPropertySnapshot(delegator).getValue(resource, name));
+        }
         try {
             // SCIPIO: Support for resource name aliases
             EntityCondition resourceAliasCond = ResourceNameAliases.resourceNameAliasConditionMap.get(resource);
@@ -144,6 +157,32 @@ public final class EntityUtilProperties implements Serializable {
         return results;
     }
 
+    /**
+     * SCIPIO: Returns the snapshot of the SystemProperty values of the delegator, loading it if needed.
+     */
+    private static SystemPropertySnapshot getSystemPropertySnapshot(Delegator delegator) {
+        SystemPropertySnapshot snapshot = systemPropertySnapshotCache.get(delegator.getDelegatorName());
+        if (snapshot != null) {
+            return snapshot;
+        }
+        long clearCount = systemPropertySnapshotClearCount.get();
+        snapshot = SystemPropertySnapshot.load(delegator);
+        // NOTE: Only keep the snapshot if no SystemProperty was changed while loading it; otherwise it is used for this call only
+        if (snapshot != null && clearCount == systemPropertySnapshotClearCount.get()) {
+            systemPropertySnapshotCache.put(delegator.getDelegatorName(), snapshot);
+        }
+        return (snapshot != null) ? snapshot : SystemPropertySnapshot.EMPTY;
+    }
+
+    /**
+     * SCIPIO: Clears the snapshot of SystemProperty values of the given delegator, so the next lookup reloads it;
+     * called by the entity cache whenever SystemProperty values are cleared from it (store, remove, distributed clear).
+     */
+    public static void clearSystemPropertySnapshot(String delegatorName) {
+        systemPropertySnapshotClearCount.incrementAndGet();
+        systemPropertySnapshotCache.remove(delegatorName);
+    }
+
     public static boolean propertyValueEquals(String resource, String name, String compareString) {
         return UtilProperties.propertyValueEquals(resource, name, compareString);
     }
@@ -479,6 +518,72 @@ public final class EntityUtilProperties implements Serializable {
         return UtilProperties.xmlToProperties(in, locale, properties);
     }
 
+    /**
+     * SCIPIO: Immutable snapshot of the SystemProperty values of a delegator, by resource and name, holding only the
+     * properties that count as set (see {@link #getEntityPropertyValue}); the values of resource name aliases are
+     * merged into the entries of their resource, with the resource's own values taking precedence.
+     */
+    private static class SystemPropertySnapshot {
+        static final SystemPropertySnapshot EMPTY = new SystemPropertySnapshot(Collections.emptyMap());
+
+        private final Map<String, Map<String, String>> resourceValues;
+
+        private SystemPropertySnapshot(Map<String, Map<String, String>> resourceValues) {
+            this.resourceValues = resourceValues;
+        }
+
+        static SystemPropertySnapshot load(Delegator delegator) {
+            List<GenericValue> systemProperties;
+            try {
+                systemProperties = EntityQuery.use(delegator).from("SystemProperty").queryList();
+            } catch (GenericEntityException e) {
+                Debug.logError("Could not load system properties: " + e.getMessage(), module);
+                return null;
+            }
+            Map<String, Map<String, String>> values = new HashMap<>();
+            for (GenericValue systemProperty : systemProperties) {
+                String value = systemProperty.getString("systemPropertyValue");
+                if (value == null) value = "";
+                if (value.isEmpty() && !Boolean.TRUE.equals(systemProperty.getBoolean("useEmpty"))) {
+                    continue;
+                }
+                String resource = systemProperty.getString("systemResourceId");
+                Map<String, String> nameValues = values.get(resource);
+                if (nameValues == null) {
+                    nameValues = new HashMap<>();
+                    values.put(resource, nameValues);
+                }
+                nameValues.put(systemProperty.getString("systemPropertyId"), value);
+            }
+            Map<String, Map<String, String>> resourceValues = new HashMap<>(values);
+            for (Map.Entry<String, List<String>> entry : UtilProperties.getResourceNameAliasAndReverseAliasMap().entrySet()) {
+                Map<String, String> nameValues = new HashMap<>();
+                for (String alias : entry.getValue()) {
+                    if (values.containsKey(alias)) {
+                        nameValues.putAll(values.get(alias));
+                    }
+                }
+                if (nameValues.isEmpty()) {
+                    continue;
+                }
+                if (values.containsKey(entry.getKey())) {
+                    nameValues.putAll(values.get(entry.getKey()));
+                }
+                resourceValues.put(entry.getKey(), nameValues);
+            }
+            if (Debug.verboseOn()) {
+                Debug.logVerbose("Loaded snapshot of " + systemProperties.size() + " system properties for delegator ["
+                        + delegator.getDelegatorName() + "]", module);
+            }
+            return new SystemPropertySnapshot(resourceValues);
+        }
+
+        String getValue(String resource, String name) {
+            Map<String, String> nameValues = resourceValues.get(resource);
+            return (nameValues != null) ? nameValues.get(name) : null;
+        }
+    }
+
     /**
      * SCIPIO: Resource name alias support core handling.
      * <p>
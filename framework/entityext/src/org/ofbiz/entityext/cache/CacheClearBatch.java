@@ -0,0 +1,276 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entityext.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntity;
+
+/**
+ * SCIPIO: A batch of entity cache clears, coalesced per entity, sent to the other servers as one (compressed) message
+ * by {@link EntityCacheServices} instead of one message per cleared value.
+ * <p>
+ * Repeated clears of the same value or primary key are only kept once; once an entity has more than
+ * the escalation threshold of pending clears, they are replaced by a single clear of all the caches of the entity.
+ * <p>
+ * The values and primary keys are carried as plain field maps (entity name and field values), so that a batch
+ * only contains this class, its inner classes and plain <code>java.lang</code>, <code>java.util</code>,
+ * <code>java.math</code> and <code>java.sql</code> date values, which {@link #fromBytes} enforces when reading it.
+ */
+public class CacheClearBatch implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    /** The classes allowed in a batch besides its own classes and the java.lang and java.util packages (field values). */
+    private static final Set<String> allowedValueClassNames = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "java.math.BigDecimal", "java.math.BigInteger", "java.sql.Timestamp", "java.sql.Date", "java.sql.Time")));
+
+    private final Map<String, EntityClears> entityClears = new LinkedHashMap<>();
+    private int size;
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Returns the number of pending clears, where the clear of all the caches of an entity counts as one. */
+    public int size() {
+        return size;
+    }
+
+    public void addValue(GenericEntity value, int escalateThreshold) {
+        EntityClears clears = getEntityClears(value.getEntityName());
+        if (!clears.all && clears.values.add(toFieldMap(value))) {
+            added(clears, escalateThreshold);
+        }
+    }
+
+    public void addDummyPK(GenericEntity dummyPK, int escalateThreshold) {
+        EntityClears clears = getEntityClears(dummyPK.getEntityName());
+        if (!clears.all && clears.dummyPKs.add(toFieldMap(dummyPK))) {
+            added(clears, escalateThreshold);
+        }
+    }
+
+    public void addPrimaryKey(GenericEntity primaryKey, int escalateThreshold) {
+        EntityClears clears = getEntityClears(primaryKey.getEntityName());
+        if (!clears.all && clears.primaryKeys.add(toFieldMap(primaryKey))) {
+            added(clears, escalateThreshold);
+        }
+    }
+
+    private static HashMap<String, Object> toFieldMap(GenericEntity entity) {
+        HashMap<String, Object> fields = new HashMap<>();
+        for (Map.Entry<String, Object> entry : entity.getAllFields().entrySet()) {
+            Object value = entry.getValue();
+            // only the plain values are sent (NULL_FIELD, blobs and other objects are not needed to find the cache lines)
+            fields.put(entry.getKey(), isAllowedValue(value) ? value : null);
+        }
+        return fields;
+    }
+
+    private static boolean isAllowedValue(Object value) {
+        if (value == null) {
+            return true;
+        }
+        String className = value.getClass().getName();
+        return className.startsWith("java.lang.") && className.indexOf('.', "java.lang.".length()) < 0
+                || allowedValueClassNames.contains(className);
+    }
+
+    private EntityClears getEntityClears(String entityName) {
+        EntityClears clears = entityClears.get(entityName);
+        if (clears == null) {
+            clears = new EntityClears();
+            entityClears.put(entityName, clears);
+        }
+        return clears;
+    }
+
+    private void added(EntityClears clears, int escalateThreshold) {
+        size++;
+        if (escalateThreshold > 0 && clears.size() > escalateThreshold) {
+            size -= clears.size() - 1;
+            clears.setAll();
+        }
+    }
+
+    /**
+     * Clears the caches of the batch in the given delegator, without distributing.
+     */
+    public void clearCaches(Delegator delegator) {
+        for (Map.Entry<String, EntityClears> entry : entityClears.entrySet()) {
+            String entityName = entry.getKey();
+            EntityClears clears = entry.getValue();
+            try {
+                if (clears.all) {
+                    delegator.clearCacheLine(entityName);
+                    continue;
+                }
+                for (Map<String, Object> fields : clears.values) {
+                    delegator.clearCacheLine(delegator.makeValue(entityName, fields), false);
+                }
+                for (Map<String, Object> fields : clears.dummyPKs) {
+                    delegator.clearCacheLineFlexible(delegator.makeValue(entityName, fields), false);
+                }
+                for (Map<String, Object> fields : clears.primaryKeys) {
+                    delegator.clearCacheLine(delegator.makePK(entityName, fields), false);
+                }
+            } catch (IllegalArgumentException e) {
+                // e.g. entity not defined on this server
+                Debug.logWarning("Could not clear the cache lines of entity [" + entityName + "] from a distributed cache clear batch: " + e.toString(), module);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (Map.Entry<String, EntityClears> entry : entityClears.entrySet()) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(entry.getKey()).append('=').append(entry.getValue().all ? "all" : entry.getValue().size());
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * Serializes the batch as compressed bytes, for the transport.
+     */
+    public byte[] toBytes() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(new GZIPOutputStream(bos))) {
+            oos.writeObject(this);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Deserializes a batch from the bytes made by {@link #toBytes()}, reading at most <code>maxInflatedSize</code>
+     * uncompressed bytes, and only the classes a batch is made of.
+     */
+    public static CacheClearBatch fromBytes(byte[] bytes, int maxInflatedSize) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.min(bytes.length * 4, maxInflatedSize));
+        try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            byte[] buffer = new byte[8192];
+            int numBytesRead;
+            while ((numBytesRead = is.read(buffer)) != -1) {
+                if (bos.size() + numBytesRead > maxInflatedSize) {
+                    throw new IOException("Entity cache clear batch exceeds the max inflated size of " + maxInflatedSize + " bytes");
+                }
+                bos.write(buffer, 0, numBytesRead);
+            }
+        }
+        try (ObjectInputStream ois = new BatchObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+            Object batch = ois.readObject();
+            if (!(batch instanceof CacheClearBatch)) {
+                throw new IOException("Invalid entity cache clear batch: " + (batch != null ? batch.getClass().getName() : "null"));
+            }
+            return (CacheClearBatch) batch;
+        }
+    }
+
+    /**
+     * Reads only the classes of a batch: this class and its inner classes, the java.lang and java.util classes
+     * and the allowed field value classes; no proxies.
+     */
+    private static class BatchObjectInputStream extends ObjectInputStream {
+
+        BatchObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass classDesc) throws IOException, ClassNotFoundException {
+            String className = classDesc.getName();
+            String componentName = className;
+            while (componentName.startsWith("[")) {
+                componentName = componentName.substring(1);
+            }
+            if (componentName.startsWith("L") && componentName.endsWith(";")) {
+                componentName = componentName.substring(1, componentName.length() - 1);
+            } else if (componentName.length() == 1 && className.startsWith("[")) {
+                return super.resolveClass(classDesc); // primitive array
+            }
+            if (!isAllowedClassName(componentName)) {
+                throw new InvalidClassException(className, "Class not allowed in an entity cache clear batch");
+            }
+            return super.resolveClass(classDesc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+            throw new InvalidClassException("Proxy classes not allowed in an entity cache clear batch");
+        }
+
+        private static boolean isAllowedClassName(String className) {
+            String batchClassName = CacheClearBatch.class.getName();
+            if (className.equals(batchClassName) || className.startsWith(batchClassName + "$")
+                    || allowedValueClassNames.contains(className)) {
+                return true;
+            }
+            int lastDot = className.lastIndexOf('.');
+            String packageName = (lastDot > 0) ? className.substring(0, lastDot) : "";
+            return "java.lang".equals(packageName) || "java.util".equals(packageName);
+        }
+    }
+
+    private static class EntityClears implements Serializable {
+        private static final long serialVersionUID = 2L;
+
+        boolean all;
+        final Set<HashMap<String, Object>> values = new LinkedHashSet<>();
+        final Set<HashMap<String, Object>> dummyPKs = new LinkedHashSet<>();
+        final Set<HashMap<String, Object>> primaryKeys = new LinkedHashSet<>();
+
+        int size() {
+            return all ? 1 : values.size() + dummyPKs.size() + primaryKeys.size();
+        }
+
+        void setAll() {
+            all = true;
+            values.clear();
+            dummyPKs.clear();
+            primaryKeys.clear();
+        }
+    }
+}
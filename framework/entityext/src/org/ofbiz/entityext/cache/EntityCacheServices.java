@@ -18,10 +18,20 @@
  *******************************************************************************/
 package org.ofbiz.entityext.cache;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntity;
 import org.ofbiz.entity.GenericEntityException;
@@ -34,19 +44,42 @@ import org.ofbiz.entityext.EntityServiceFactory;
 import org.ofbiz.service.DispatchContext;
 import org.ofbiz.service.GenericServiceException;
 import org.ofbiz.service.LocalDispatcher;
+import org.ofbiz.service.ModelService;
 import org.ofbiz.service.ServiceUtil;
 
 /**
  * Entity Engine Cache Services
+ * <p>
+ * SCIPIO: When batching is enabled (entityext.properties: distributedCacheClear.batch.enable), the cache line clears
+ * are not sent one service call each, but collected for a short window (distributedCacheClear.batch.windowMs),
+ * coalesced per entity and sent as one {@link CacheClearBatch} through the distributedClearCacheLineBatch service,
+ * provided that service uses the same transport as the per-line services.
  */
 public class EntityCacheServices implements DistributedCacheClear {
 
     private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
 
+    private static final boolean BATCH_ENABLED = UtilProperties.getPropertyAsBoolean("entityext", "distributedCacheClear.batch.enable", false); // SCIPIO
+    private static final long BATCH_WINDOW_MS = UtilProperties.getPropertyAsLong("entityext", "distributedCacheClear.batch.windowMs", 200L); // SCIPIO
+    private static final int BATCH_MAX_SIZE = UtilProperties.getPropertyAsInteger("entityext", "distributedCacheClear.batch.maxSize", 5000); // SCIPIO
+    private static final int BATCH_ESCALATE_SIZE = UtilProperties.getPropertyAsInteger("entityext", "distributedCacheClear.batch.escalateEntitySize", 1000); // SCIPIO
+    private static final int BATCH_MAX_INFLATED_SIZE = UtilProperties.getPropertyAsInteger("entityext", "distributedCacheClear.batch.maxInflatedBytes", 16 * 1024 * 1024); // SCIPIO
+    /** SCIPIO: The per-line clear services replaced by the batch (the condition clears are not batched). */
+    private static final List<String> BATCHED_LINE_SERVICE_NAMES = Collections.unmodifiableList(Arrays.asList(
+            "distributedClearCacheLineByValue", "distributedClearCacheLineByDummyPK", "distributedClearCacheLineByPrimaryKey"));
+
+    private static final ThreadGroup CACHE_CLEAR_THREAD_GROUP = new ThreadGroup("EntityCacheClearBatch"); // SCIPIO
+    private static volatile ScheduledExecutorService batchExecutor; // SCIPIO
+
     protected Delegator delegator = null;
     protected LocalDispatcher dispatcher = null;
     protected String userLoginId = null;
 
+    private final Object batchLock = new Object(); // SCIPIO
+    private CacheClearBatch pendingBatch = new CacheClearBatch(); // SCIPIO
+    private boolean flushScheduled = false; // SCIPIO
+    private volatile Boolean batchEnabled = null; // SCIPIO: lazily checked, see isBatchEnabled
+
     public EntityCacheServices() {}
 
     public void setDelegator(Delegator delegator, String userLoginId) {
@@ -67,6 +100,10 @@ public class EntityCacheServices implements DistributedCacheClear {
 
     public void distributedClearCacheLine(GenericValue value) {
         // Debug.logInfo("running distributedClearCacheLine for value: " + value, module);
+        if (isBatchEnabled()) { // SCIPIO: coalesce into the pending batch
+            addToBatch(batch -> batch.addValue(value, BATCH_ESCALATE_SIZE));
+            return;
+        }
         if (this.dispatcher == null) {
             Debug.logWarning("No dispatcher is available, somehow the setDelegator (which also creates a dispatcher) was not called, not running distributed cache clear", module);
             return;
@@ -87,6 +124,10 @@ public class EntityCacheServices implements DistributedCacheClear {
 
     public void distributedClearCacheLineFlexible(GenericEntity dummyPK) {
         // Debug.logInfo("running distributedClearCacheLineFlexible for dummyPK: " + dummyPK, module);
+        if (isBatchEnabled()) { // SCIPIO: coalesce into the pending batch
+            addToBatch(batch -> batch.addDummyPK(dummyPK, BATCH_ESCALATE_SIZE));
+            return;
+        }
         if (this.dispatcher == null) {
             Debug.logWarning("No dispatcher is available, somehow the setDelegator (which also creates a dispatcher) was not called, not running distributed cache clear", module);
             return;
@@ -107,6 +148,7 @@ public class EntityCacheServices implements DistributedCacheClear {
 
     public void distributedClearCacheLineByCondition(String entityName, EntityCondition condition) {
         // Debug.logInfo("running distributedClearCacheLineByCondition for (name, condition): " + entityName + ", " + condition + ")", module);
+        // SCIPIO: the condition clears are not batched (the conditions are not sent in the batches), they are rare
         if (this.dispatcher == null) {
             Debug.logWarning("No dispatcher is available, somehow the setDelegator (which also creates a dispatcher) was not called, not running distributed cache clear", module);
             return;
@@ -127,6 +169,10 @@ public class EntityCacheServices implements DistributedCacheClear {
 
     public void distributedClearCacheLine(GenericPK primaryKey) {
         // Debug.logInfo("running distributedClearCacheLine for primaryKey: " + primaryKey, module);
+        if (isBatchEnabled()) { // SCIPIO: coalesce into the pending batch
+            addToBatch(batch -> batch.addPrimaryKey(primaryKey, BATCH_ESCALATE_SIZE));
+            return;
+        }
         if (this.dispatcher == null) {
             Debug.logWarning("No dispatcher is available, somehow the setDelegator (which also creates a dispatcher) was not called, not running distributed cache clear", module);
             return;
@@ -146,6 +192,11 @@ public class EntityCacheServices implements DistributedCacheClear {
     }
 
     public void clearAllCaches() {
+        if (isBatchEnabled()) { // SCIPIO: the pending cache line clears are superseded
+            synchronized (batchLock) {
+                pendingBatch = new CacheClearBatch();
+            }
+        }
         if (this.dispatcher == null) {
             Debug.logWarning("No dispatcher is available, somehow the setDelegator (which also creates a dispatcher) was not called, not running distributed clear all caches", module);
             return;
@@ -164,6 +215,117 @@ public class EntityCacheServices implements DistributedCacheClear {
         }
     }
 
+    /**
+     * SCIPIO: Returns true if the clears are batched: batching is enabled and the distributedClearCacheLineBatch
+     * service uses the same transport (engine and location) as each of the per-line services it replaces;
+     * otherwise, e.g. when the per-line services were changed to a group or http engine but not the batch service,
+     * the per-line services are used, so no clears are lost.
+     */
+    private boolean isBatchEnabled() {
+        Boolean enabled = batchEnabled;
+        if (enabled == null) {
+            enabled = BATCH_ENABLED && isBatchServiceTransportSame();
+            batchEnabled = enabled;
+        }
+        return enabled;
+    }
+
+    private boolean isBatchServiceTransportSame() {
+        if (this.dispatcher == null) {
+            return false;
+        }
+        try {
+            ModelService batchService = this.dispatcher.getDispatchContext().getModelService("distributedClearCacheLineBatch");
+            for (String lineServiceName : BATCHED_LINE_SERVICE_NAMES) {
+                ModelService lineService = this.dispatcher.getDispatchContext().getModelService(lineServiceName);
+                if (!Objects.equals(batchService.engineName, lineService.engineName) || !Objects.equals(batchService.location, lineService.location)) {
+                    Debug.logWarning("Distributed cache clear batching is enabled but the distributedClearCacheLineBatch service (engine ["
+                            + batchService.engineName + "], location [" + batchService.location + "]) does not use the same transport as "
+                            + lineServiceName + " (engine [" + lineService.engineName + "], location [" + lineService.location
+                            + "]); not batching the cache line clears", module);
+                    return false;
+                }
+            }
+            return true;
+        } catch (GenericServiceException e) {
+            Debug.logWarning("Could not check the distributedClearCacheLineBatch service, not batching the cache line clears: " + e.toString(), module);
+        }
+        return false;
+    }
+
+    /**
+     * SCIPIO: Adds a clear to the pending batch, and schedules the batch to be sent at the end of the window, or
+     * right away once it reaches the max size.
+     */
+    private void addToBatch(Consumer<CacheClearBatch> adder) {
+        boolean sendNow;
+        boolean schedule = false;
+        synchronized (batchLock) {
+            adder.accept(pendingBatch);
+            sendNow = (pendingBatch.size() >= BATCH_MAX_SIZE);
+            if (!sendNow && !flushScheduled) {
+                flushScheduled = true;
+                schedule = true;
+            }
+        }
+        if (sendNow) {
+            getBatchExecutor().execute(this::sendPendingBatch);
+        } else if (schedule) {
+            getBatchExecutor().schedule(this::sendPendingBatch, BATCH_WINDOW_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * SCIPIO: Sends the pending batch of cache line clears, if any, using the distributedClearCacheLineBatch service.
+     */
+    public void sendPendingBatch() {
+        CacheClearBatch batch;
+        synchronized (batchLock) {
+            batch = pendingBatch;
+            pendingBatch = new CacheClearBatch();
+            flushScheduled = false;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (this.dispatcher == null) {
+            Debug.logWarning("No dispatcher is available, somehow the setDelegator (which also creates a dispatcher) was not called, not running distributed cache clear", module);
+            return;
+        }
+
+        GenericValue userLogin = getAuthUserLogin();
+        if (userLogin == null) {
+            Debug.logWarning("The userLogin for distributed cache clear was not found with userLoginId [" + userLoginId + "], not clearing remote caches.", module);
+            return;
+        }
+
+        try {
+            byte[] batchBytes = batch.toBytes();
+            if (Debug.verboseOn()) {
+                Debug.logVerbose("Sending distributed cache clear batch (" + batchBytes.length + " bytes): " + batch, module);
+            }
+            this.dispatcher.runAsync("distributedClearCacheLineBatch", UtilMisc.toMap("batch", batchBytes, "userLogin", userLogin), false);
+        } catch (IOException e) {
+            Debug.logError(e, "Error serializing the distributed cache clear batch: " + batch, module);
+        } catch (GenericServiceException e) {
+            Debug.logError(e, "Error running the distributedClearCacheLineBatch service", module);
+        }
+    }
+
+    private static ScheduledExecutorService getBatchExecutor() {
+        ScheduledExecutorService executor = batchExecutor;
+        if (executor == null) {
+            synchronized (EntityCacheServices.class) {
+                executor = batchExecutor;
+                if (executor == null) {
+                    executor = ExecutionPool.getScheduledExecutor(CACHE_CLEAR_THREAD_GROUP, "entity-cache-clear", 1, 0, false);
+                    batchExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
     /**
      * Clear All Entity Caches Service
      * @param dctx The DispatchContext that this service is operating in
@@ -217,4 +379,25 @@ public class EntityCacheServices implements DistributedCacheClear {
         }
         return ServiceUtil.returnSuccess();
     }
+
+    /**
+     * SCIPIO: Clear Cache Line Batch Service: clears the cache lines of a batch sent by another server
+     * (see {@link #sendPendingBatch()}), without distributing.
+     * @param dctx The DispatchContext that this service is operating in
+     * @param context Map containing the input parameters
+     * @return Map with the result of the service, the output parameters
+     */
+    public static Map<String, Object> clearCacheLineBatch(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Delegator delegator = dctx.getDelegator();
+        CacheClearBatch batch;
+        try {
+            batch = CacheClearBatch.fromBytes((byte[]) context.get("batch"), BATCH_MAX_INFLATED_SIZE);
+        } catch (IOException | ClassNotFoundException e) {
+            Debug.logError(e, "Could not read distributed cache clear batch", module);
+            return ServiceUtil.returnError("Could not read distributed cache clear batch: " + e.toString());
+        }
+        if (Debug.infoOn()) Debug.logInfo("Got a clear cache line batch service call: " + batch, module);
+        batch.clearCaches(delegator);
+        return ServiceUtil.returnSuccess();
+    }
 }
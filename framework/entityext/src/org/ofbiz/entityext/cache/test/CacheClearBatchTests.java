@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entityext.cache.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.net.URL;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.zip.GZIPOutputStream;
+
+import org.ofbiz.entity.GenericPK;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entityext.cache.CacheClearBatch;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: Tests the distributed entity cache clear batch ({@link CacheClearBatch}): serialization round trip, rejection
+ * of the classes and sizes a batch can't contain, and the escalation to a clear of all the caches of an entity.
+ */
+public class CacheClearBatchTests extends OFBizTestCase {
+
+    private static final int MAX_INFLATED_SIZE = 16 * 1024 * 1024;
+
+    public CacheClearBatchTests(String name) {
+        super(name);
+    }
+
+    private GenericValue makeTesting(String testingId) {
+        return delegator.makeValue("Testing", "testingId", testingId, "testingTypeId", "CCBTEST", "testingName", "Cache clear batch test",
+                "testingSize", 10L, "testingDate", new Timestamp(System.currentTimeMillis()));
+    }
+
+    private static byte[] gzipObject(Object object) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(new GZIPOutputStream(bos))) {
+            oos.writeObject(object);
+        }
+        return bos.toByteArray();
+    }
+
+    public void testRoundTrip() throws Exception {
+        GenericValue value = makeTesting("CCBTEST_1");
+        GenericPK primaryKey = makeTesting("CCBTEST_2").getPrimaryKey();
+        CacheClearBatch batch = new CacheClearBatch();
+        batch.addValue(value, 0);
+        batch.addValue(value, 0); // coalesced
+        batch.addPrimaryKey(primaryKey, 0);
+        batch.addDummyPK(delegator.makeValue("Testing", "testingTypeId", "CCBTEST"), 0);
+        assertEquals("size", 3, batch.size());
+
+        CacheClearBatch readBatch = CacheClearBatch.fromBytes(batch.toBytes(), MAX_INFLATED_SIZE);
+        assertEquals("size after the round trip", batch.size(), readBatch.size());
+        assertEquals("clears after the round trip", batch.toString(), readBatch.toString());
+
+        // the clears read back find the cache lines of the original values
+        delegator.putInPrimaryKeyCache(value.getPrimaryKey(), value);
+        delegator.putInPrimaryKeyCache(primaryKey, makeTesting("CCBTEST_2"));
+        assertNotNull("value cached", delegator.getFromPrimaryKeyCache(value.getPrimaryKey()));
+        readBatch.clearCaches(delegator);
+        assertNull("value cache line cleared", delegator.getFromPrimaryKeyCache(value.getPrimaryKey()));
+        assertNull("primary key cache line cleared", delegator.getFromPrimaryKeyCache(primaryKey));
+    }
+
+    public void testClassNotAllowed() throws Exception {
+        HashMap<String, Object> payload = new HashMap<>();
+        payload.put("url", new URL("http://localhost/"));
+        try {
+            CacheClearBatch.fromBytes(gzipObject(payload), MAX_INFLATED_SIZE);
+            fail("Class outside the allowlist rejected");
+        } catch (InvalidClassException e) {
+            assertTrue("Rejected class named: " + e.getMessage(), e.getMessage().contains("java.net.URL"));
+        }
+
+        try {
+            CacheClearBatch.fromBytes(gzipObject("not a batch"), MAX_INFLATED_SIZE);
+            fail("Allowed object which is not a batch rejected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testMaxInflatedSize() throws Exception {
+        byte[] inflated = new byte[MAX_INFLATED_SIZE + 1024 * 1024]; // zeros: compresses to a few KB
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (GZIPOutputStream gos = new GZIPOutputStream(bos)) {
+            gos.write(inflated);
+        }
+        byte[] bytes = bos.toByteArray();
+        assertTrue("Compressed payload is small", bytes.length < 1024 * 1024);
+        try {
+            CacheClearBatch.fromBytes(bytes, MAX_INFLATED_SIZE);
+            fail("Payload inflating past the max size rejected");
+        } catch (IOException e) {
+            assertTrue("Max inflated size error: " + e.getMessage(), e.getMessage().contains("max inflated size"));
+        }
+    }
+
+    public void testEscalateToEntityClear() throws Exception {
+        CacheClearBatch batch = new CacheClearBatch();
+        batch.addValue(delegator.makeValue("TestingType", "testingTypeId", "CCBTEST", "description", "Cache clear batch test"), 2);
+        batch.addValue(makeTesting("CCBTEST_1"), 2);
+        batch.addPrimaryKey(makeTesting("CCBTEST_2").getPrimaryKey(), 2);
+        assertEquals("below the threshold", 3, batch.size());
+        assertEquals("clears per entity", "[TestingType=1, Testing=2]", batch.toString());
+
+        batch.addDummyPK(delegator.makeValue("Testing", "testingTypeId", "CCBTEST"), 2);
+        assertEquals("escalated to one entity clear", 2, batch.size());
+        assertEquals("entity clear", "[TestingType=1, Testing=all]", batch.toString());
+        batch.addValue(makeTesting("CCBTEST_3"), 2);
+        assertEquals("later clears of the entity covered", 2, batch.size());
+
+        CacheClearBatch readBatch = CacheClearBatch.fromBytes(batch.toBytes(), MAX_INFLATED_SIZE);
+        assertEquals("entity clear after the round trip", "[TestingType=1, Testing=all]", readBatch.toString());
+
+        GenericValue value = makeTesting("CCBTEST_4");
+        delegator.putInPrimaryKeyCache(value.getPrimaryKey(), value);
+        readBatch.clearCaches(delegator);
+        assertNull("entity cache cleared", delegator.getFromPrimaryKeyCache(value.getPrimaryKey()));
+    }
+}
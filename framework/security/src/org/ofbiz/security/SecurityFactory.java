@@ -18,15 +18,20 @@
  *******************************************************************************/
 package org.ofbiz.security;
 
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
+import javax.transaction.Synchronization;
 
 import org.ofbiz.base.util.Assert;
 import org.ofbiz.base.util.Debug;
@@ -35,10 +40,13 @@ import org.ofbiz.base.util.cache.UtilCache;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.cache.Cache;
 import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.condition.EntityConditionList;
 import org.ofbiz.entity.condition.EntityExpr;
 import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.entity.util.EntityQuery;
 import org.ofbiz.entity.util.EntityUtil;
 
@@ -52,6 +60,22 @@ public final class SecurityFactory {
     // The goal is to remove Delegator references in the Security interface, then we can use a singleton
     // and eliminate the cache.
     private static final UtilCache<String, Security> authorizationCache = UtilCache.createUtilCache("security.AuthorizationCache");
+    /**
+     * SCIPIO: The compiled permissions of the users of the default implementation, by "delegatorName::userLoginId".
+     */
+    private static final UtilCache<String, UserPermissions> userPermissionCache = UtilCache.createUtilCache("security.UserPermissionCache");
+    /**
+     * SCIPIO: The bit index of each permission ID seen in a SecurityGroupPermission, shared by all the {@link UserPermissions}.
+     */
+    private static final Map<String, Integer> permissionIndexes = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextPermissionIndex = new AtomicInteger();
+
+    static {
+        // SCIPIO: Clear the compiled permissions whenever the entity cache of the security entities is cleared,
+        // which covers the bulk operations and the distributed cache clears
+        Cache.addRemoveHook("UserLoginSecurityGroup", delegatorName -> clearUserPermissionsForTransaction(delegatorName, null));
+        Cache.addRemoveHook("SecurityGroupPermission", delegatorName -> clearUserPermissionsForTransaction(delegatorName, null));
+    }
 
     /**
      * Returns a <code>Security</code> instance. The method uses Java's
@@ -84,6 +108,105 @@ public final class SecurityFactory {
 
     private SecurityFactory() {}
 
+    /**
+     * SCIPIO: Clears the compiled permissions of the default <code>Security</code> implementation, for the given user,
+     * or for all the users of the delegator if userLoginId is null.
+     */
+    public static void clearUserPermissions(String delegatorName, String userLoginId) {
+        if (userLoginId != null) {
+            userPermissionCache.remove(getUserPermissionKey(delegatorName, userLoginId));
+            return;
+        }
+        String prefix = delegatorName.concat("::");
+        for (String key : userPermissionCache.getCacheLineKeys()) {
+            if (key.startsWith(prefix)) {
+                userPermissionCache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * SCIPIO: Clears the compiled permissions now and, if a transaction is in place, again when it completes, in case
+     * another thread compiled them from the state before the change in the meantime.
+     */
+    public static void clearUserPermissionsForTransaction(final String delegatorName, final String userLoginId) {
+        clearUserPermissions(delegatorName, userLoginId);
+        try {
+            if (TransactionUtil.isTransactionInPlace()) {
+                TransactionUtil.registerSynchronization(new Synchronization() {
+                    @Override
+                    public void beforeCompletion() {
+                    }
+                    @Override
+                    public void afterCompletion(int status) {
+                        clearUserPermissions(delegatorName, userLoginId);
+                    }
+                });
+            }
+        } catch (GenericTransactionException e) {
+            Debug.logWarning(e, "Could not register the user permission cache clear for the end of the transaction", module);
+        }
+    }
+
+    private static String getUserPermissionKey(String delegatorName, String userLoginId) {
+        return delegatorName.concat("::").concat(userLoginId);
+    }
+
+    /**
+     * SCIPIO: The effective permissions of a user, compiled from its active UserLoginSecurityGroup and their
+     * SecurityGroupPermission into a bit set of the interned permission IDs. Valid until the first fromDate or thruDate
+     * of the user's groups after the time it was built, so group memberships starting or expiring are taken into account.
+     */
+    private static final class UserPermissions {
+        private static final UserPermissions NONE = new UserPermissions(new BitSet(), Long.MAX_VALUE);
+
+        private final BitSet permissions;
+        private final long validUntil;
+
+        private UserPermissions(BitSet permissions, long validUntil) {
+            this.permissions = permissions;
+            this.validUntil = validUntil;
+        }
+
+        static UserPermissions build(Delegator delegator, String userLoginId) throws GenericEntityException {
+            long now = System.currentTimeMillis();
+            long validUntil = Long.MAX_VALUE;
+            BitSet permissions = new BitSet();
+            List<GenericValue> userLoginSecurityGroups = EntityQuery.use(delegator).from("UserLoginSecurityGroup")
+                    .where("userLoginId", userLoginId).cache(true).queryList();
+            for (GenericValue userLoginSecurityGroup : userLoginSecurityGroups) {
+                // Same as EntityUtil.filterByDate
+                Timestamp fromDate = userLoginSecurityGroup.getTimestamp("fromDate");
+                Timestamp thruDate = userLoginSecurityGroup.getTimestamp("thruDate");
+                if (fromDate != null && fromDate.getTime() > now) {
+                    validUntil = Math.min(validUntil, fromDate.getTime());
+                    continue;
+                }
+                if (thruDate != null) {
+                    if (thruDate.getTime() <= now) {
+                        continue;
+                    }
+                    validUntil = Math.min(validUntil, thruDate.getTime());
+                }
+                List<GenericValue> groupPermissions = EntityQuery.use(delegator).from("SecurityGroupPermission")
+                        .where("groupId", userLoginSecurityGroup.get("groupId")).cache(true).queryList();
+                for (GenericValue groupPermission : groupPermissions) {
+                    permissions.set(permissionIndexes.computeIfAbsent(groupPermission.getString("permissionId"), k -> nextPermissionIndex.getAndIncrement()));
+                }
+            }
+            return permissions.isEmpty() && validUntil == Long.MAX_VALUE ? NONE : new UserPermissions(permissions, validUntil);
+        }
+
+        boolean isValid() {
+            return validUntil == Long.MAX_VALUE || System.currentTimeMillis() < validUntil;
+        }
+
+        boolean hasPermission(String permission) {
+            Integer index = permissionIndexes.get(permission);
+            return index != null && permissions.get(index);
+        }
+    }
+
     private static final class OFBizSecurity implements Security {
 
         private Delegator delegator = null;
@@ -99,7 +222,30 @@ public final class SecurityFactory {
         public void clearUserData(GenericValue userLogin) {
             if (userLogin != null) {
                 delegator.getCache().remove("UserLoginSecurityGroup", EntityCondition.makeCondition("userLoginId", EntityOperator.EQUALS, userLogin.getString("userLoginId")));
+                clearUserPermissions(delegator.getDelegatorName(), userLogin.getString("userLoginId")); // SCIPIO
+            }
+        }
+
+        /**
+         * SCIPIO: Returns the compiled permissions of the user, building them if not cached or no longer valid.
+         */
+        private UserPermissions getUserPermissions(GenericValue userLogin) {
+            String userLoginId = userLogin.getString("userLoginId");
+            if (userLoginId == null) {
+                return UserPermissions.NONE;
+            }
+            String key = getUserPermissionKey(delegator.getDelegatorName(), userLoginId);
+            UserPermissions userPermissions = userPermissionCache.get(key);
+            if (userPermissions == null || !userPermissions.isValid()) {
+                try {
+                    userPermissions = UserPermissions.build(delegator, userLoginId);
+                } catch (GenericEntityException e) {
+                    Debug.logWarning(e, module);
+                    return UserPermissions.NONE;
+                }
+                userPermissionCache.put(key, userPermissions);
             }
+            return userPermissions;
         }
 
         @Deprecated
@@ -121,18 +267,9 @@ public final class SecurityFactory {
         @Override
         public boolean hasEntityPermission(String entity, String action, GenericValue userLogin) {
             if (userLogin == null || entity == null || action == null) return false;
-            String permission = entity.concat(action);
-            String adminPermission = entity.concat("_ADMIN");
-            Iterator<GenericValue> iterator = findUserLoginSecurityGroupByUserLoginId(userLogin.getString("userLoginId"));
-            while (iterator.hasNext()) {
-                GenericValue userLoginSecurityGroup = iterator.next();
-                if (securityGroupPermissionExists(userLoginSecurityGroup.getString("groupId"), permission))
-                    return true;
-                if (securityGroupPermissionExists(userLoginSecurityGroup.getString("groupId"), adminPermission))
-                    return true;
-            }
-
-            return false;
+            // SCIPIO: checked against the compiled permissions of the user
+            UserPermissions userPermissions = getUserPermissions(userLogin);
+            return userPermissions.hasPermission(entity.concat(action)) || userPermissions.hasPermission(entity.concat("_ADMIN"));
         }
 
         @Override
@@ -158,16 +295,11 @@ public final class SecurityFactory {
 
         @Override
         public boolean hasPermission(String permission, GenericValue userLogin) {
-            if (userLogin == null) {
+            if (userLogin == null || permission == null) {
                 return false;
             }
-            Iterator<GenericValue> iterator = findUserLoginSecurityGroupByUserLoginId(userLogin.getString("userLoginId"));
-            GenericValue userLoginSecurityGroup = null;
-            while (iterator.hasNext()) {
-                userLoginSecurityGroup = iterator.next();
-                if (securityGroupPermissionExists(userLoginSecurityGroup.getString("groupId"), permission)) return true;
-            }
-            return false;
+            // SCIPIO: checked against the compiled permissions of the user
+            return getUserPermissions(userLogin).hasPermission(permission);
         }
 
         @Override
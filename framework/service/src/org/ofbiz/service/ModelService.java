@@ -192,6 +192,9 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
     /** Override the default transaction timeout, only works if we start the transaction */
     public int transactionTimeout;
 
+    /** SCIPIO: Enable entity write-behind (batched inserts/updates) for the transaction, only works if we start the transaction */
+    public boolean transactionWriteBehind;
+
     /** Sets the max number of times this service will retry when failed (persisted async only) */
     public int maxRetry = -1;
 
@@ -317,6 +320,7 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
             this.useTransaction = true;
         }
         this.transactionTimeout = model.transactionTimeout;
+        this.transactionWriteBehind = model.transactionWriteBehind; // SCIPIO
         this.maxRetry = model.maxRetry;
         this.permissionServiceName = model.permissionServiceName;
         this.permissionMainAction = model.permissionMainAction;
@@ -446,6 +450,7 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         buf.append(useTransaction).append("::");
         buf.append(requireNewTransaction).append("::");
         buf.append(transactionTimeout).append("::");
+        buf.append(transactionWriteBehind).append("::"); // SCIPIO
         buf.append(implServices).append("::");
         buf.append(overrideParameters).append("::");
         buf.append(contextInfo).append("::");
@@ -213,6 +213,7 @@ public class ModelServiceReader implements Serializable {
             Debug.logWarning("In service definition [" + service.name + "] the value use-transaction has been changed from false to true as required when require-new-transaction is set to true", module);
         }
         service.hideResultInLog = !"false".equalsIgnoreCase(serviceElement.getAttribute("hideResultInLog"));
+        service.transactionWriteBehind = "true".equalsIgnoreCase(serviceElement.getAttribute("transaction-write-behind")); // SCIPIO
 
         // set the semaphore sleep/wait times
         String semaphoreWaitStr = UtilXml.checkEmpty(serviceElement.getAttribute("semaphore-wait-seconds"));
@@ -329,6 +329,10 @@ public class ServiceDispatcher {
                 } else {
                     beganTrans = TransactionUtil.begin(modelService.transactionTimeout);
                 }
+                // SCIPIO: entity write-behind, for the transactions begun by this service
+                if (beganTrans && modelService.transactionWriteBehind) {
+                    TransactionUtil.setWriteBehind(true);
+                }
                 // enlist for XAResource debugging
                 if (beganTrans && TransactionUtil.debugResources()) {
                     DebugXaResource dxa = new DebugXaResource(modelService.name);
@@ -37,6 +37,7 @@ import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.serialize.XmlSerializer;
 import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.webapp.stats.VisitWriter;
 
 /**
  * HttpSessionListener that gathers and tracks various information and statistics
@@ -78,10 +79,20 @@ public class ControlEventListener implements HttpSessionListener {
             GenericValue visit = (GenericValue) session.getAttribute("visit");
             if (visit != null) {
                 Delegator delegator = visit.getDelegator();
-                visit = EntityQuery.use(delegator).from("Visit").where("visitId", visit.get("visitId")).queryOne();
-                if (visit != null) {
-                    visit.set("thruDate", new Timestamp(session.getLastAccessedTime()));
-                    visit.store();
+                // SCIPIO: a visit still in the write-behind queue is updated there
+                GenericValue pendingVisit = VisitWriter.getPending(visit.getPrimaryKey());
+                if (pendingVisit != null) {
+                    pendingVisit.set("thruDate", new Timestamp(session.getLastAccessedTime()));
+                    if (!VisitWriter.store(pendingVisit)) {
+                        pendingVisit.store();
+                    }
+                    visit = pendingVisit;
+                } else {
+                    visit = EntityQuery.use(delegator).from("Visit").where("visitId", visit.get("visitId")).queryOne();
+                    if (visit != null) {
+                        visit.set("thruDate", new Timestamp(session.getLastAccessedTime()));
+                        visit.store();
+                    }
                 }
             } else {
                 Debug.logWarning("Could not find visit value object in session " + ControlActivationEventListener.getSessionIdForLog(session) + " that is being destroyed", module);
@@ -54,6 +54,7 @@ import org.ofbiz.service.LocalDispatcher;
 import org.ofbiz.webapp.renderer.RenderTargetUtil;
 import org.ofbiz.webapp.stats.ServerHitBin;
 import org.ofbiz.webapp.stats.VisitHandler;
+import org.ofbiz.webapp.stats.VisitWriter;
 
 import freemarker.ext.servlet.ServletContextHashModel;
 
@@ -77,6 +78,7 @@ public class ControlServlet extends HttpServlet {
     @Override
     public void init(ServletConfig config) throws ServletException {
         super.init(config);
+        VisitWriter.registerWebapp(); // SCIPIO
         if (Debug.infoOn()) {
             ServletContext servletContext = config.getServletContext();
             String webappName = servletContext.getContextPath().length() != 0 ? servletContext.getContextPath().substring(1) : "";
@@ -411,6 +413,7 @@ public class ControlServlet extends HttpServlet {
      */
     @Override
     public void destroy() {
+        VisitWriter.unregisterWebapp(); // SCIPIO: writes the queued visits after the last webapp
         super.destroy();
     }
 
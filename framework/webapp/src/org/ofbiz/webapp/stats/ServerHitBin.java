@@ -490,7 +490,11 @@ public class ServerHitBin {
                 return;
             }
             String visitId = visit.getString("visitId");
-            visit = EntityQuery.use(delegator).from("Visit").where("visitId", visitId).queryOne();
+            // SCIPIO: a visit still in the write-behind queue is not checked; its hit is queued after it (see below)
+            boolean visitPending = VisitWriter.isPending(visit.getPrimaryKey());
+            if (!visitPending) {
+                visit = EntityQuery.use(delegator).from("Visit").where("visitId", visitId).queryOne();
+            }
             if (visit == null) {
                 // GenericValue stored in client session does not exist in database.
                 Debug.logInfo("The Visit GenericValue stored in the client session does not exist in the database, not storing server hit.", module);
@@ -549,6 +553,13 @@ public class ServerHitBin {
             // So prevent entity engine from logging errors; it throws GenericEntityException anyway.
             // TODO?: in future this should be optimized/replaced using Delegator/GenericValue/SqlProcessor logging options. 
             //serverHit.create();
+            if (visitPending) { // SCIPIO: written after the visit, for its foreign key
+                if (VisitWriter.create(serverHit)) {
+                    return;
+                }
+                // Queue full: write the queued visit before creating its hit here
+                VisitWriter.flush();
+            }
             if (Debug.verboseOn()) {
                 serverHit.create();
             } else {
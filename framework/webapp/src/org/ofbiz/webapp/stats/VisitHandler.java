@@ -71,7 +71,7 @@ public class VisitHandler {
                 visitor.set("partyId", userLogin.get("partyId"));
             }
             try {
-                visitor.store();
+                storeValue(visitor); // SCIPIO: write-behind
             } catch (GenericEntityException e) {
                 Debug.logError(e, "Could not update visitor: ", module);
             }
@@ -91,7 +91,7 @@ public class VisitHandler {
             }
 
             try {
-                visit.store();
+                storeValue(visit); // SCIPIO: write-behind
             } catch (GenericEntityException e) {
                 Debug.logError(e, "Could not update visit: ", module);
             }
@@ -170,9 +170,12 @@ public class VisitHandler {
 
                                 // sometimes these values get stale, so check it before we use it
                                 try {
-                                    GenericValue checkVisitor = EntityQuery.use(delegator).from("Visitor").where("visitorId", visitorId).queryOne();
+                                    // SCIPIO: a visitor still in the write-behind queue is not stale
+                                    GenericValue checkVisitor = VisitWriter.isPending(visitor.getPrimaryKey()) ? visitor
+                                            : EntityQuery.use(delegator).from("Visitor").where("visitorId", visitorId).queryOne();
                                     if (checkVisitor == null) {
-                                        GenericValue newVisitor = delegator.create("Visitor", "visitorId", visitorId);
+                                        GenericValue newVisitor = delegator.makeValue("Visitor", "visitorId", visitorId);
+                                        createValue(newVisitor); // SCIPIO: write-behind
                                         session.setAttribute("visitor", newVisitor);
                                     }
                                     visit.set("visitorId", visitorId);
@@ -188,7 +191,9 @@ public class VisitHandler {
                             }
 
                             try {
-                                visit = delegator.createSetNextSeqId(visit);
+                                // SCIPIO: the visitId is allocated from the sequence bank, and the visit queued for write-behind
+                                //visit = delegator.createSetNextSeqId(visit);
+                                visit = createValueSetNextSeqId(delegator, visit);
                                 session.setAttribute("visit", visit);
                             } catch (GenericEntityException e) {
                                 Debug.logError(e, "Could not create new visit:", module);
@@ -207,6 +212,37 @@ public class VisitHandler {
         return null;
     }
 
+    /**
+     * SCIPIO: Sets the next sequenced ID on the value and creates it, through the {@link VisitWriter} write-behind
+     * queue if enabled and not full.
+     */
+    private static GenericValue createValueSetNextSeqId(Delegator delegator, GenericValue value) throws GenericEntityException {
+        if (!VisitWriter.isEnabled()) {
+            return delegator.createSetNextSeqId(value);
+        }
+        value.setNextSeqId();
+        createValue(value);
+        return value;
+    }
+
+    /**
+     * SCIPIO: Creates the value, through the {@link VisitWriter} write-behind queue if enabled and not full.
+     */
+    private static void createValue(GenericValue value) throws GenericEntityException {
+        if (!VisitWriter.create(value)) {
+            value.create();
+        }
+    }
+
+    /**
+     * SCIPIO: Stores the value, through the {@link VisitWriter} write-behind queue if enabled and not full.
+     */
+    private static void storeValue(GenericValue value) throws GenericEntityException {
+        if (!VisitWriter.store(value)) {
+            value.store();
+        }
+    }
+
     public static GenericValue getVisitor(HttpServletRequest request, HttpServletResponse response) {
         // this defaults to true: ie if anything but "false" it will be true
         Delegator delegator = (Delegator) request.getAttribute("delegator");
@@ -248,18 +284,22 @@ public class VisitHandler {
                                 // no visitor cookie? create visitor and send back cookie too
                                 visitor = delegator.makeValue("Visitor");
                                 try {
-                                    delegator.createSetNextSeqId(visitor);
+                                    visitor = createValueSetNextSeqId(delegator, visitor); // SCIPIO: write-behind
                                 } catch (GenericEntityException e) {
                                     Debug.logError(e, "Could not create new visitor:", module);
                                     visitor = null;
                                 }
                             } else {
                                 try {
-                                    visitor = EntityQuery.use(delegator).from("Visitor").where("visitorId", cookieVisitorId).queryOne();
+                                    // SCIPIO: the visitor of a recent session may still be in the write-behind queue
+                                    visitor = VisitWriter.getPending(delegator.makePK("Visitor", "visitorId", cookieVisitorId));
+                                    if (visitor == null) {
+                                        visitor = EntityQuery.use(delegator).from("Visitor").where("visitorId", cookieVisitorId).queryOne();
+                                    }
                                     if (visitor == null) {
                                         // looks like we have an ID that doesn't exist in our database, so we'll create a new one
                                         visitor = delegator.makeValue("Visitor");
-                                        visitor = delegator.createSetNextSeqId(visitor);
+                                        visitor = createValueSetNextSeqId(delegator, visitor); // SCIPIO: write-behind
                                         if (Debug.infoOn()) {
                                             String visitorId = visitor != null ? visitor.getString("visitorId") : "empty visitor";
                                             Debug.logInfo("The visitorId [" + cookieVisitorId + "] found in cookie was invalid, creating new Visitor with ID [" + visitorId + "]", module);
@@ -0,0 +1,469 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.webapp.stats;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericPK;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.transaction.TransactionUtil;
+
+/**
+ * SCIPIO: Write-behind queue for the Visit, Visitor and ServerHit rows written by {@link VisitHandler}
+ * and {@link ServerHitBin}, so the first request of a session does not wait for their inserts.
+ * <p>
+ * The values are queued in order and written by a background thread in batches, one transaction per
+ * batch (the rows of a failed batch are retried one by one); the writes of a value still in the queue
+ * are coalesced, its latest state being written once. The queue is bounded: when it is full, the
+ * callers write synchronously as before, which is counted as an overflow in {@link #getStats()}.
+ * <p>
+ * The queue is written out and its thread stopped when the last webapp (control servlet) is destroyed,
+ * at container stop; the values queued afterward start a new thread.
+ * <p>
+ * Disabled by default; configured by the <code>stats.persist.writeBehind.*</code> settings in serverstats.properties.
+ */
+public final class VisitWriter {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    private static final boolean ENABLED = UtilProperties.getPropertyAsBoolean("serverstats", "stats.persist.writeBehind.enable", false);
+    private static final long OVERFLOW_WARNING_INTERVAL_MS = 60000;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+    private static final ThreadGroup VISIT_WRITER_THREAD_GROUP = new ThreadGroup("VisitWriter");
+    private static final VisitWriter INSTANCE = new VisitWriter(
+            UtilProperties.getPropertyAsInteger("serverstats", "stats.persist.writeBehind.queueSize", 10000),
+            UtilProperties.getPropertyAsInteger("serverstats", "stats.persist.writeBehind.batchSize", 200),
+            UtilProperties.getPropertyAsLong("serverstats", "stats.persist.writeBehind.windowMs", 500L));
+    private static final AtomicInteger webappCount = new AtomicInteger();
+
+    private final int queueSize;
+    private final int batchSize;
+    private final long windowMs;
+    private volatile ScheduledExecutorService executor;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<PendingWrite> queue = new ArrayDeque<>(); // guarded by lock
+    private final Map<GenericPK, PendingWrite> pending = new HashMap<>(); // guarded by lock; latest write per value
+    private boolean flushScheduled = false; // guarded by lock
+
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong overflowCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private volatile int maxQueueSize = 0;
+    private volatile long lastOverflowWarning = 0;
+
+    /**
+     * Creates a queue of the given sizes, with its own thread; the static methods use the one configured in serverstats.properties.
+     */
+    public VisitWriter(int queueSize, int batchSize, long windowMs) {
+        this.queueSize = queueSize;
+        this.batchSize = batchSize;
+        this.windowMs = windowMs;
+    }
+
+    private static class PendingWrite {
+        private final GenericPK primaryKey;
+        private final boolean create;
+        private GenericValue value; // guarded by lock
+        private boolean writing = false; // guarded by lock
+
+        private PendingWrite(GenericPK primaryKey, boolean create, GenericValue value) {
+            this.primaryKey = primaryKey;
+            this.create = create;
+            this.value = value;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Queues the creation of the value, which must have its primary key set.
+     * @return true if queued, false if write-behind is disabled or the queue is full, in which case the caller must create the value itself
+     */
+    public static boolean create(GenericValue value) {
+        return ENABLED && INSTANCE.add(value, true);
+    }
+
+    /**
+     * Queues the update of the value; if the value is still queued, its pending write is updated instead.
+     * @return true if queued, false if write-behind is disabled or the queue is full, in which case the caller must store the value itself
+     */
+    public static boolean store(GenericValue value) {
+        return ENABLED && INSTANCE.add(value, false);
+    }
+
+    /**
+     * Returns true if the value with the given primary key is queued or being written, meaning it may not be in the database yet.
+     */
+    public static boolean isPending(GenericPK primaryKey) {
+        return ENABLED && INSTANCE.hasPending(primaryKey);
+    }
+
+    /**
+     * Returns a copy of the latest queued state of the value with the given primary key, or null if not queued.
+     */
+    public static GenericValue getPending(GenericPK primaryKey) {
+        return ENABLED ? INSTANCE.getPendingValue(primaryKey) : null;
+    }
+
+    /**
+     * Writes all the queued values and waits for them to be written. The values are written by the queue thread,
+     * so they stay in order with the batches it is writing.
+     */
+    public static void flush() {
+        if (ENABLED) {
+            INSTANCE.flushPending();
+        }
+    }
+
+    /**
+     * Returns the write-behind counters: queued, coalesced, written, failed and overflow (synchronous) writes,
+     * batches, current and max queue size.
+     */
+    public static Map<String, Object> getStats() {
+        return INSTANCE.makeStats();
+    }
+
+    /**
+     * Registers a webapp using the queue (control servlet init), see {@link #unregisterWebapp()}.
+     */
+    public static void registerWebapp() {
+        webappCount.incrementAndGet();
+    }
+
+    /**
+     * Unregisters a webapp using the queue (control servlet destroy); when the last one is, at container stop,
+     * writes the queued values and stops the queue thread.
+     */
+    public static void unregisterWebapp() {
+        if (webappCount.decrementAndGet() == 0 && ENABLED) {
+            INSTANCE.shutdown();
+        }
+    }
+
+    /**
+     * Queues the creation or update of the value in this queue, see {@link #create(GenericValue)} and {@link #store(GenericValue)}.
+     */
+    public boolean add(GenericValue value, boolean create) {
+        GenericPK primaryKey = value.getPrimaryKey();
+        GenericValue copy = GenericValue.create(value);
+        boolean schedule = false;
+        boolean writeNow = false;
+        synchronized (lock) {
+            PendingWrite write = pending.get(primaryKey);
+            if (write != null && !write.writing) {
+                write.value = copy;
+                coalescedCount.incrementAndGet();
+                return true;
+            }
+            if (write == null && queue.size() >= queueSize) {
+                overflowCount.incrementAndGet();
+                logOverflow();
+                return false;
+            }
+            // NOTE: a value being written is queued again even over the size, so that its writes stay in order
+            write = new PendingWrite(primaryKey, create, copy);
+            queue.add(write);
+            pending.put(primaryKey, write);
+            queuedCount.incrementAndGet();
+            int size = queue.size();
+            if (size > maxQueueSize) {
+                maxQueueSize = size;
+            }
+            if (size >= batchSize) {
+                writeNow = true;
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                schedule = true;
+            }
+        }
+        try {
+            if (writeNow) {
+                getExecutor().execute(this::writeBatch);
+            } else if (schedule) {
+                getExecutor().schedule(this::writeBatch, windowMs, TimeUnit.MILLISECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            // Shut down meanwhile: written with the next queued value or flush
+            synchronized (lock) {
+                flushScheduled = false;
+            }
+        }
+        return true;
+    }
+
+    private void logOverflow() {
+        long now = System.currentTimeMillis();
+        if (now - lastOverflowWarning >= OVERFLOW_WARNING_INTERVAL_MS) {
+            lastOverflowWarning = now;
+            Debug.logWarning("Visit write-behind queue is full (" + queueSize + " values); writing synchronously. " + makeStats(), module);
+        }
+    }
+
+    /**
+     * Returns true if the value is queued or being written in this queue, see {@link #isPending(GenericPK)}.
+     */
+    public boolean hasPending(GenericPK primaryKey) {
+        synchronized (lock) {
+            return pending.containsKey(primaryKey);
+        }
+    }
+
+    /**
+     * Returns a copy of the latest state of the value queued in this queue, see {@link #getPending(GenericPK)}.
+     */
+    public GenericValue getPendingValue(GenericPK primaryKey) {
+        synchronized (lock) {
+            PendingWrite write = pending.get(primaryKey);
+            return (write != null) ? GenericValue.create(write.value) : null;
+        }
+    }
+
+    /**
+     * Writes all the values of this queue and waits for them, see {@link #flush()}.
+     */
+    public void flushPending() {
+        Future<?> future;
+        try {
+            future = getExecutor().submit(() -> {
+                while (writeBatch() > 0) {
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Debug.logWarning("Could not flush the visit write-behind queue, being shut down: " + makeStats(), module);
+            return;
+        }
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Debug.logWarning("Interrupted while flushing the visit write-behind queue: " + makeStats(), module);
+        } catch (ExecutionException e) {
+            Debug.logError(e.getCause(), "Could not flush the visit write-behind queue: " + makeStats(), module);
+        }
+    }
+
+    /**
+     * Writes the queued values and stops the queue thread; a later write starts a new one.
+     */
+    public void shutdown() {
+        flushPending();
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = this.executor;
+            this.executor = null;
+        }
+        if (executor == null) {
+            return;
+        }
+        // The queue was just written: drop the delayed writes still scheduled instead of waiting for their window,
+        // which would also start a new executor
+        if (executor instanceof ScheduledThreadPoolExecutor) {
+            ((ScheduledThreadPoolExecutor) executor).setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                Debug.logWarning("Visit write-behind queue thread did not stop within " + SHUTDOWN_TIMEOUT_SECONDS + "s: " + makeStats(), module);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int remaining;
+        synchronized (lock) {
+            // The dropped delayed write may have been for values queued after the flush: the next queued value schedules it again
+            flushScheduled = false;
+            remaining = queue.size();
+        }
+        if (remaining > 0) {
+            Debug.logWarning("Visit write-behind queue stopped with " + remaining + " values queued after its flush;"
+                    + " they are written with the next queued value or flush", module);
+        }
+        if (Debug.infoOn()) {
+            Debug.logInfo("Visit write-behind queue stopped: " + makeStats(), module);
+        }
+    }
+
+    /**
+     * Returns the counters of this queue, see {@link #getStats()}.
+     */
+    public Map<String, Object> makeStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queued", queuedCount.get());
+        stats.put("coalesced", coalescedCount.get());
+        stats.put("written", writtenCount.get());
+        stats.put("failed", failedCount.get());
+        stats.put("overflow", overflowCount.get());
+        stats.put("batches", batchCount.get());
+        synchronized (lock) {
+            stats.put("queueSize", queue.size());
+        }
+        stats.put("maxQueueSize", maxQueueSize);
+        return stats;
+    }
+
+    private int writeBatch() {
+        List<PendingWrite> batch;
+        boolean more;
+        synchronized (lock) {
+            batch = new ArrayList<>(Math.min(queue.size(), batchSize));
+            while (batch.size() < batchSize && !queue.isEmpty()) {
+                PendingWrite write = queue.poll();
+                write.writing = true;
+                batch.add(write);
+            }
+            more = !queue.isEmpty();
+            if (!more) {
+                flushScheduled = false;
+            }
+        }
+        if (more) {
+            try {
+                getExecutor().execute(this::writeBatch);
+            } catch (RejectedExecutionException e) {
+                // Shut down meanwhile: written with the next queued value or flush
+            }
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        // Values are kept in order per delegator, so Visitor rows are written before their Visit and Visit before its ServerHit
+        Map<Delegator, List<PendingWrite>> writesByDelegator = new LinkedHashMap<>();
+        synchronized (lock) {
+            for (PendingWrite write : batch) {
+                writesByDelegator.computeIfAbsent(write.value.getDelegator(), k -> new ArrayList<>()).add(write);
+            }
+        }
+        for (Map.Entry<Delegator, List<PendingWrite>> entry : writesByDelegator.entrySet()) {
+            writeAll(entry.getKey(), entry.getValue());
+        }
+        synchronized (lock) {
+            for (PendingWrite write : batch) {
+                if (pending.get(write.primaryKey) == write) {
+                    pending.remove(write.primaryKey);
+                }
+            }
+        }
+        batchCount.incrementAndGet();
+        return batch.size();
+    }
+
+    private void writeAll(Delegator delegator, List<PendingWrite> writes) {
+        boolean beganTransaction = false;
+        try {
+            beganTransaction = TransactionUtil.begin();
+            for (PendingWrite write : writes) {
+                write(delegator, write);
+            }
+            TransactionUtil.commit(beganTransaction);
+            writtenCount.addAndGet(writes.size());
+            return;
+        } catch (GenericEntityException e) {
+            try {
+                TransactionUtil.rollback(beganTransaction, "Error writing visit batch", e);
+            } catch (GenericEntityException e2) {
+                Debug.logError(e2, "Could not rollback visit batch transaction: " + e2.toString(), module);
+            }
+            if (Debug.verboseOn()) {
+                Debug.logVerbose("Could not write visit batch of " + writes.size() + " values, retrying one by one: " + e.toString(), module);
+            }
+        }
+        // Retry each value on its own, so that one failure (e.g. duplicate ServerHit key) does not lose the whole batch
+        for (PendingWrite write : writes) {
+            try {
+                boolean beganRetry = TransactionUtil.begin();
+                try {
+                    write(delegator, write);
+                    TransactionUtil.commit(beganRetry);
+                    writtenCount.incrementAndGet();
+                } catch (GenericEntityException e) {
+                    TransactionUtil.rollback(beganRetry, "Error writing visit value", e);
+                    throw e;
+                }
+            } catch (GenericEntityException e) {
+                failedCount.incrementAndGet();
+                Debug.logWarning("Could not " + (write.create ? "create " : "store ") + write.primaryKey + ": " + e.toString(), module);
+            }
+        }
+    }
+
+    private void write(Delegator delegator, PendingWrite write) throws GenericEntityException {
+        GenericValue value;
+        synchronized (lock) {
+            value = write.value;
+        }
+        if (Debug.verboseOn()) {
+            if (write.create) {
+                delegator.create(value);
+            } else {
+                delegator.store(value);
+            }
+            return;
+        }
+        // Like ServerHitBin, let the failures be reported by the caller (retry) rather than logged by the entity engine
+        try {
+            Debug.setThreadLevelDisableWarningError();
+            if (write.create) {
+                delegator.create(value);
+            } else {
+                delegator.store(value);
+            }
+        } finally {
+            Debug.restoreThreadLevelAllow();
+        }
+    }
+
+    private ScheduledExecutorService getExecutor() {
+        ScheduledExecutorService executor = this.executor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = this.executor;
+                if (executor == null) {
+                    executor = ExecutionPool.getScheduledExecutor(VISIT_WRITER_THREAD_GROUP, "visit-writer", 1, 0, false);
+                    this.executor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+}
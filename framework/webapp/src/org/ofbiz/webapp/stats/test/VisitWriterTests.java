@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.webapp.stats.test;
+
+import java.util.Map;
+
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.testtools.OFBizTestCase;
+import org.ofbiz.webapp.stats.VisitWriter;
+
+/**
+ * SCIPIO: Tests the visit write-behind queue ({@link VisitWriter}): coalescing of the writes of a queued value,
+ * overflow when the queue is full, the flush, and the shutdown.
+ */
+public class VisitWriterTests extends OFBizTestCase {
+
+    private static final long NO_WINDOW_FLUSH_MS = 3600000; // only written by the flush
+
+    public VisitWriterTests(String name) {
+        super(name);
+    }
+
+    private GenericValue makeVisit(String visitId, String webappName) {
+        return delegator.makeValue("Visit", "visitId", visitId, "webappName", webappName, "fromDate", UtilDateTime.nowTimestamp());
+    }
+
+    private GenericValue findVisit(String visitId) throws Exception {
+        return EntityQuery.use(delegator).from("Visit").where("visitId", visitId).queryOne();
+    }
+
+    public void testCoalescing() throws Exception {
+        String visitId = "VWTEST_C_" + System.currentTimeMillis();
+        VisitWriter writer = new VisitWriter(100, 100, NO_WINDOW_FLUSH_MS);
+        try {
+            GenericValue visit = makeVisit(visitId, "first");
+            assertTrue("create queued", writer.add(visit, true));
+            visit.set("webappName", "second");
+            assertTrue("store queued", writer.add(visit, false));
+            visit.set("webappName", "third");
+            assertTrue("store queued", writer.add(visit, false));
+
+            assertTrue("pending", writer.hasPending(visit.getPrimaryKey()));
+            assertEquals("pending value is the latest", "third", writer.getPendingValue(visit.getPrimaryKey()).getString("webappName"));
+            Map<String, Object> stats = writer.makeStats();
+            assertEquals("queued", 1L, stats.get("queued"));
+            assertEquals("coalesced", 2L, stats.get("coalesced"));
+            assertEquals("queue size", 1, stats.get("queueSize"));
+            assertNull("not written before the flush", findVisit(visitId));
+
+            writer.flushPending();
+            assertFalse("not pending after the flush", writer.hasPending(visit.getPrimaryKey()));
+            stats = writer.makeStats();
+            assertEquals("written once", 1L, stats.get("written"));
+            assertEquals("failed", 0L, stats.get("failed"));
+            GenericValue written = findVisit(visitId);
+            assertNotNull("created", written);
+            assertEquals("latest state written", "third", written.getString("webappName"));
+
+            // A value no longer queued is queued again as an update
+            visit.set("webappName", "fourth");
+            assertTrue("store queued", writer.add(visit, false));
+            writer.flushPending();
+            assertEquals("updated", "fourth", findVisit(visitId).getString("webappName"));
+        } finally {
+            writer.shutdown();
+            delegator.removeByAnd("Visit", "visitId", visitId);
+        }
+    }
+
+    public void testOverflow() throws Exception {
+        String visitIdPrefix = "VWTEST_O_" + System.currentTimeMillis() + "_";
+        VisitWriter writer = new VisitWriter(2, 100, NO_WINDOW_FLUSH_MS);
+        try {
+            GenericValue visit1 = makeVisit(visitIdPrefix + "1", "first");
+            GenericValue visit2 = makeVisit(visitIdPrefix + "2", "first");
+            GenericValue visit3 = makeVisit(visitIdPrefix + "3", "first");
+            assertTrue("queued", writer.add(visit1, true));
+            assertTrue("queued", writer.add(visit2, true));
+            assertFalse("queue full: caller writes", writer.add(visit3, true));
+            assertFalse("overflow not queued", writer.hasPending(visit3.getPrimaryKey()));
+            visit1.set("webappName", "second");
+            assertTrue("queued value still coalesced when full", writer.add(visit1, false));
+
+            Map<String, Object> stats = writer.makeStats();
+            assertEquals("overflow", 1L, stats.get("overflow"));
+            assertEquals("queued", 2L, stats.get("queued"));
+            assertEquals("max queue size", 2, stats.get("maxQueueSize"));
+
+            writer.flushPending();
+            assertEquals("written", 2L, writer.makeStats().get("written"));
+            assertEquals("coalesced value written", "second", findVisit(visitIdPrefix + "1").getString("webappName"));
+            assertNotNull("written", findVisit(visitIdPrefix + "2"));
+            assertNull("overflow value left to the caller", findVisit(visitIdPrefix + "3"));
+            assertTrue("queue has room again", writer.add(visit3, true));
+            writer.flushPending();
+            assertNotNull("written", findVisit(visitIdPrefix + "3"));
+        } finally {
+            writer.shutdown();
+            for (int i = 1; i <= 3; i++) {
+                delegator.removeByAnd("Visit", "visitId", visitIdPrefix + i);
+            }
+        }
+    }
+
+    public void testShutdownDropsDelayedWrite() throws Exception {
+        String visitId = "VWTEST_S_" + System.currentTimeMillis();
+        VisitWriter writer = new VisitWriter(100, 100, NO_WINDOW_FLUSH_MS);
+        try {
+            GenericValue visit = makeVisit(visitId, "first");
+            assertTrue("create queued", writer.add(visit, true)); // schedules a write after the window
+            long startTime = System.currentTimeMillis();
+            writer.shutdown();
+            long shutdownMs = System.currentTimeMillis() - startTime;
+            assertTrue("shutdown does not wait for the delayed write (" + shutdownMs + "ms)", shutdownMs < 30000);
+            assertNotNull("written by the shutdown flush", findVisit(visitId));
+            assertFalse("not pending after the shutdown", writer.hasPending(visit.getPrimaryKey()));
+
+            // A value queued after the shutdown schedules its write again, on a new thread
+            visit.set("webappName", "second");
+            assertTrue("store queued after the shutdown", writer.add(visit, false));
+            writer.flushPending();
+            assertEquals("written after the shutdown", "second", findVisit(visitId).getString("webappName"));
+        } finally {
+            writer.shutdown();
+            delegator.removeByAnd("Visit", "visitId", visitId);
+        }
+    }
+}
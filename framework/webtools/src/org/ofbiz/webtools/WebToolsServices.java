@@ -24,6 +24,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.StringReader;
@@ -45,9 +46,15 @@ import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.zip.GZIPOutputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
 
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.location.FlexibleLocation;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.GeneralException;
@@ -75,6 +82,7 @@ import org.ofbiz.entity.model.ModelReader;
 import org.ofbiz.entity.model.ModelRelation;
 import org.ofbiz.entity.model.ModelUtil;
 import org.ofbiz.entity.model.ModelViewEntity;
+import org.ofbiz.entity.transaction.GenericTransactionException;
 import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.entity.util.EntityDataAssert;
 import org.ofbiz.entity.util.EntityDataLoader;
@@ -105,6 +113,8 @@ public class WebToolsServices {
 
     private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
     public static final String resource = "WebtoolsUiLabels";
+    private static final ThreadGroup ENTITY_EXPORT_THREAD_GROUP = new ThreadGroup("WebToolsEntityExport"); // SCIPIO
+    private static final ThreadGroup ENTITY_IMPORT_THREAD_GROUP = new ThreadGroup("WebToolsEntityImport"); // SCIPIO
 
     /**
      * SCIPIO: Helper class for common entity import options.
@@ -312,8 +322,8 @@ public class WebToolsServices {
 
     public static Map<String, Object> entityImportDir(DispatchContext dctx, Map<String, ? extends Object> context) {
         GenericValue userLogin = (GenericValue) context.get("userLogin");
-        LocalDispatcher dispatcher = dctx.getDispatcher();
-        Locale locale = (Locale) context.get("locale");
+        final LocalDispatcher dispatcher = dctx.getDispatcher();
+        final Locale locale = (Locale) context.get("locale");
         List<String> messages = new LinkedList<String>();
 
         String path = (String) context.get("path");
@@ -326,7 +336,7 @@ public class WebToolsServices {
         Object mostlyInserts = context.get("mostlyInserts");
         Object maintainTimeStamps = context.get("maintainTimeStamps");
         Object createDummyFks = context.get("createDummyFks");
-        boolean deleteFiles = checkEntityImportBooleanArg(context.get("deleteFiles"));
+        final boolean deleteFiles = checkEntityImportBooleanArg(context.get("deleteFiles"));
         Object checkDataOnly = context.get("checkDataOnly");
 
         Map<String, Object> placeholderValues = UtilGenerics.checkMap(context.get("placeholderValues"));
@@ -342,19 +352,30 @@ public class WebToolsServices {
             filePause = 0L;
         }
 
+        int parallelism = (context.get("parallelism") != null) ? (Integer) context.get("parallelism") : 1; // SCIPIO
+
         if (UtilValidate.isNotEmpty(path)) {
-            long pauseLong = filePause != null ? filePause : 0;
+            final long pauseLong = filePause != null ? filePause : 0;
             File baseDir = new File(path);
 
             if (baseDir.isDirectory() && baseDir.canRead()) {
                 File[] fileArray = baseDir.listFiles();
                 List<File> files = new LinkedList<File>();
                 for (File file: fileArray) {
-                    if (file.getName().toUpperCase().endsWith("XML")) {
+                    if (file.getName().toUpperCase().endsWith("XML") || file.getName().toUpperCase().endsWith(".XML.GZ")) { // SCIPIO: .xml.gz
                         files.add(file);
                     }
                 }
 
+                final Map<String, Object> parseEntityXmlFileArgs = UtilMisc.toMap("mostlyInserts", mostlyInserts,
+                        "createDummyFks", createDummyFks,
+                        "checkDataOnly", checkDataOnly,
+                        "maintainTimeStamps", maintainTimeStamps,
+                        "txTimeout", txTimeout,
+                        "placeholderValues", placeholderValues,
+                        "userLogin", userLogin);
+                commonOptions.toContext(parseEntityXmlFileArgs); // SCIPIO
+
                 int passes=0;
                 int initialListSize = files.size();
                 int lastUnprocessedFilesCount = 0;
@@ -363,44 +384,69 @@ public class WebToolsServices {
                         files.size() != lastUnprocessedFilesCount) {
                     lastUnprocessedFilesCount = files.size();
                     unprocessedFiles = new LinkedList<File>();
-                    for (File f: files) {
-                        Map<String, Object> parseEntityXmlFileArgs = UtilMisc.toMap("mostlyInserts", mostlyInserts,
-                                "createDummyFks", createDummyFks,
-                                "checkDataOnly", checkDataOnly,
-                                "maintainTimeStamps", maintainTimeStamps,
-                                "txTimeout", txTimeout,
-                                "placeholderValues", placeholderValues,
-                                "userLogin", userLogin);
-                        commonOptions.toContext(parseEntityXmlFileArgs); // SCIPIO
-
+                    // SCIPIO: the files of a pass are imported in parallel if requested; messages are kept in file order
+                    List<EntityImportFileResult> fileResults;
+                    if (parallelism <= 1 || files.size() <= 1) {
+                        fileResults = new ArrayList<>(files.size());
+                        for (File f: files) {
+                            fileResults.add(importEntityFile(dispatcher, f, parseEntityXmlFileArgs, deleteFiles, pauseLong, locale));
+                        }
+                    } else {
+                        ScheduledExecutorService executor = ExecutionPool.getScheduledExecutor(ENTITY_IMPORT_THREAD_GROUP, "entity-import",
+                                Math.min(parallelism, files.size()), 0, true);
                         try {
-                            URL furl = f.toURI().toURL();
-                            parseEntityXmlFileArgs.put("url", furl);
-                            Map<String, Object> outputMap = dispatcher.runSync("parseEntityXmlFile", parseEntityXmlFileArgs);
-                            Long numberRead = (Long) outputMap.get("rowProcessed");
-                            messages.add(UtilProperties.getMessage(resource, "EntityImportNumberOfEntityToBeProcessed", UtilMisc.toMap("numberRead", numberRead.toString(), "fileName", f.getName()), locale));
-                            if (deleteFiles) {
-                                messages.add(UtilProperties.getMessage(resource, "EntityImportDeletFile", UtilMisc.toMap("fileName", f.getName()), locale));
-                                f.delete();
+                            List<Future<EntityImportFileResult>> futures = new ArrayList<>(files.size());
+                            List<File> passFiles = new ArrayList<>(files);
+                            for (final File f: passFiles) {
+                                futures.add(executor.submit(new Callable<EntityImportFileResult>() {
+                                    @Override
+                                    public EntityImportFileResult call() {
+                                        return importEntityFile(dispatcher, f, parseEntityXmlFileArgs, deleteFiles, pauseLong, locale);
+                                    }
+                                }));
                             }
-                        } catch (Exception e) {
-                            unprocessedFiles.add(f);
-                            messages.add(UtilProperties.getMessage(resource, "EntityImportFailedFile", UtilMisc.toMap("fileName", f.getName()), locale));
-                        }
-                        // pause in between files
-                        if (pauseLong > 0) {
-                            Debug.logInfo("Pausing for [" + pauseLong + "] seconds - " + UtilDateTime.nowTimestamp(), module);
-                            try {
-                                Thread.sleep((pauseLong * 1000));
-                            } catch (InterruptedException ie) {
-                                Debug.logInfo("Pause finished - " + UtilDateTime.nowTimestamp(), module);
+                            // NOTE: a failed or interrupted import is recorded as a failed file, retried by the next pass
+                            fileResults = new ArrayList<>(files.size());
+                            boolean interrupted = false;
+                            for (int i = 0; i < futures.size(); i++) {
+                                Future<EntityImportFileResult> future = futures.get(i);
+                                File f = passFiles.get(i);
+                                if (interrupted) {
+                                    future.cancel(true);
+                                    fileResults.add(makeFailedImportFileResult(f, "interrupted", locale));
+                                    continue;
+                                }
+                                try {
+                                    fileResults.add(future.get());
+                                } catch (ExecutionException e) {
+                                    Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+                                    Debug.logError(cause, "Could not import file [" + f + "]", module);
+                                    fileResults.add(makeFailedImportFileResult(f, cause.toString(), locale));
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                    interrupted = true;
+                                    future.cancel(true);
+                                    fileResults.add(makeFailedImportFileResult(f, "interrupted", locale));
+                                }
                             }
+                        } finally {
+                            executor.shutdown();
+                        }
+                    }
+                    for (EntityImportFileResult fileResult : fileResults) {
+                        messages.addAll(fileResult.messages);
+                        if (!fileResult.success) {
+                            unprocessedFiles.add(fileResult.file);
                         }
                     }
                     files = unprocessedFiles;
                     passes++;
                     messages.add(UtilProperties.getMessage(resource, "EntityImportPassedFile", UtilMisc.toMap("passes", passes), locale));
                     Debug.logInfo("Pass " + passes + " complete", module);
+                    if (Thread.currentThread().isInterrupted()) { // SCIPIO: no further passes once interrupted
+                        Debug.logWarning("Interrupted after pass " + passes + "; not retrying the " + files.size() + " failed files", module);
+                        break;
+                    }
                 }
                 lastUnprocessedFilesCount=unprocessedFiles.size();
                 messages.add("---------------------------------------");
@@ -422,6 +468,66 @@ public class WebToolsServices {
         return resp;
     }
 
+    /**
+     * SCIPIO: Result of the import of one file by entityImportDir.
+     */
+    private static class EntityImportFileResult {
+        final File file;
+        final boolean success;
+        final List<String> messages = new ArrayList<>(2);
+
+        EntityImportFileResult(File file, boolean success) {
+            this.file = file;
+            this.success = success;
+        }
+    }
+
+    /**
+     * SCIPIO: Result of a file whose import task failed or was interrupted, so that it is retried and reported like a failed import.
+     */
+    private static EntityImportFileResult makeFailedImportFileResult(File f, String reason, Locale locale) {
+        EntityImportFileResult result = new EntityImportFileResult(f, false);
+        result.messages.add(UtilProperties.getMessage(resource, "EntityImportFailedFile", UtilMisc.toMap("fileName", f.getName()), locale) + " (" + reason + ")");
+        return result;
+    }
+
+    /**
+     * SCIPIO: Imports one file for entityImportDir through the parseEntityXmlFile service (which commits the file in its own
+     * transaction), reporting the rows and throughput; failed files are retried by entityImportDir in the next pass.
+     */
+    private static EntityImportFileResult importEntityFile(LocalDispatcher dispatcher, File f, Map<String, Object> parseEntityXmlFileArgs,
+            boolean deleteFiles, long pauseLong, Locale locale) {
+        EntityImportFileResult result;
+        try {
+            Map<String, Object> fileArgs = new HashMap<>(parseEntityXmlFileArgs);
+            fileArgs.put("url", f.toURI().toURL());
+            long startTime = System.currentTimeMillis();
+            Map<String, Object> outputMap = dispatcher.runSync("parseEntityXmlFile", fileArgs);
+            long totalTime = System.currentTimeMillis() - startTime;
+            Long numberRead = (Long) outputMap.get("rowProcessed");
+            result = new EntityImportFileResult(f, true);
+            result.messages.add(UtilProperties.getMessage(resource, "EntityImportNumberOfEntityToBeProcessed", UtilMisc.toMap("numberRead", numberRead.toString(), "fileName", f.getName()), locale)
+                    + " (" + totalTime + " ms, " + (totalTime > 0 ? (numberRead * 1000 / totalTime) : numberRead) + " rows/s)");
+            if (deleteFiles) {
+                result.messages.add(UtilProperties.getMessage(resource, "EntityImportDeletFile", UtilMisc.toMap("fileName", f.getName()), locale));
+                f.delete();
+            }
+        } catch (Exception e) {
+            result = new EntityImportFileResult(f, false);
+            result.messages.add(UtilProperties.getMessage(resource, "EntityImportFailedFile", UtilMisc.toMap("fileName", f.getName()), locale));
+        }
+        // pause in between files
+        if (pauseLong > 0) {
+            Debug.logInfo("Pausing for [" + pauseLong + "] seconds - " + UtilDateTime.nowTimestamp(), module);
+            try {
+                Thread.sleep((pauseLong * 1000));
+            } catch (InterruptedException ie) {
+                Debug.logInfo("Pause finished - " + UtilDateTime.nowTimestamp(), module);
+            }
+        }
+        return result;
+    }
+
     public static Map<String, Object> entityImportReaders(DispatchContext dctx, Map<String, Object> context) {
         String readers = (String) context.get("readers");
         String overrideDelegator = (String) context.get("overrideDelegator");
@@ -586,19 +692,27 @@ public class WebToolsServices {
     }
 
     public static Map<String, Object> entityExportAll(DispatchContext dctx, Map<String, ? extends Object> context) {
-        Delegator delegator = dctx.getDelegator();
+        final Delegator delegator = dctx.getDelegator();
         Locale locale = (Locale) context.get("locale");
         String outpath = (String)context.get("outpath"); // mandatory
-        Timestamp fromDate = (Timestamp)context.get("fromDate");
+        final Timestamp fromDate = (Timestamp)context.get("fromDate");
         Integer txTimeout = (Integer)context.get("txTimeout");
         if (txTimeout == null) {
             txTimeout = 7200;
         }
+        // SCIPIO: parallel, compressed and chunked export options
+        int parallelism = (context.get("parallelism") != null) ? (Integer) context.get("parallelism") : 1;
+        String compressType = (String) context.get("compress");
+        if (UtilValidate.isNotEmpty(compressType) && !"gzip".equals(compressType)) {
+            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "WebtoolsExportUnsupportedCompression", UtilMisc.toMap("compress", compressType), locale));
+        }
+        final boolean compress = "gzip".equals(compressType);
+        final long maxRecordsPerFile = (context.get("maxRecordsPerFile") != null) ? (Long) context.get("maxRecordsPerFile") : 0;
 
         List<String> results = new LinkedList<String>();
 
         if (UtilValidate.isNotEmpty(outpath)) {
-            File outdir = new File(outpath);
+            final File outdir = new File(outpath);
             if (!outdir.exists()) {
                 outdir.mkdir();
             }
@@ -611,67 +725,55 @@ public class WebToolsServices {
                 } catch (Exception exc) {
                     return ServiceUtil.returnError(UtilProperties.getMessage(resource, "EntityImportErrorRetrievingEntityNames", locale));
                 }
+                // SCIPIO: entities are exported by a helper, in parallel if requested; results are kept in entity name order
                 int fileNumber = 1;
-
-                for (String curEntityName: passedEntityNames) {
-                    long numberWritten = 0;
-                    EntityListIterator values = null;
-
+                if (parallelism <= 1) {
+                    for (String curEntityName: passedEntityNames) {
+                        results.addAll(exportEntity(delegator, curEntityName, fileNumber, outdir, fromDate, compress, maxRecordsPerFile));
+                        fileNumber++;
+                    }
+                } else {
+                    ScheduledExecutorService executor = ExecutionPool.getScheduledExecutor(ENTITY_EXPORT_THREAD_GROUP, "entity-export",
+                            Math.min(parallelism, passedEntityNames.size()), 0, true);
                     try {
-                        ModelEntity me = delegator.getModelEntity(curEntityName);
-                        if (me instanceof ModelViewEntity) {
-                            results.add("["+fileNumber +"] [vvv] " + curEntityName + " skipping view entity");
-                            continue;
-                        }
-
-                        boolean beganTx = TransactionUtil.begin();
-                        // some databases don't support cursors, or other problems may happen, so if there is an error here log it and move on to get as much as possible
-                        try {
-                            List<EntityCondition> conds = new LinkedList<EntityCondition>();
-                            if (UtilValidate.isNotEmpty(fromDate)) {
-                                conds.add(EntityCondition.makeCondition("createdStamp", EntityOperator.GREATER_THAN_EQUAL_TO, fromDate));
-                            }
-                            values = EntityQuery.use(delegator).from(curEntityName).where(conds).orderBy(me.getPkFieldNames()).queryIterator();
-                        } catch (Exception entityEx) {
-                            results.add("["+fileNumber +"] [xxx] Error when writing " + curEntityName + ": " + entityEx);
-                            continue;
-                        }
-
-                        //Don't bother writing the file if there's nothing
-                        //to put into it
-                        GenericValue value = values.next();
-                        if (value != null) {
-                            PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(outdir, curEntityName +".xml")), "UTF-8")));
-                            writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-                            writer.println("<entity-engine-xml>");
-
-                            do {
-                                value.writeXmlText(writer, "");
-                                numberWritten++;
-                                if (numberWritten % 500 == 0) {
-                                    TransactionUtil.commit(beganTx);
-                                    beganTx = TransactionUtil.begin();
+                        List<Future<List<String>>> futures = new ArrayList<>(passedEntityNames.size());
+                        List<String> entityNames = new ArrayList<>(passedEntityNames);
+                        for (final String curEntityName: entityNames) {
+                            final int curFileNumber = fileNumber++;
+                            futures.add(executor.submit(new Callable<List<String>>() {
+                                @Override
+                                public List<String> call() {
+                                    return exportEntity(delegator, curEntityName, curFileNumber, outdir, fromDate, compress, maxRecordsPerFile);
                                 }
-                            } while ((value = values.next()) != null);
-                            writer.println("</entity-engine-xml>");
-                            writer.close();
-                            results.add("["+fileNumber +"] [" + numberWritten + "] " + curEntityName + " wrote " + numberWritten + " records");
-                        } else {
-                            results.add("["+fileNumber +"] [---] " + curEntityName + " has no records, not writing file");
+                            }));
                         }
-                        values.close();
-                        TransactionUtil.commit(beganTx);
-                    } catch (Exception ex) {
-                        if (values != null) {
+                        // NOTE: a failed or interrupted export is reported in the results like the other export errors
+                        boolean interrupted = false;
+                        for (int i = 0; i < futures.size(); i++) {
+                            Future<List<String>> future = futures.get(i);
+                            String curEntityName = entityNames.get(i);
+                            int curFileNumber = i + 1;
+                            if (interrupted) {
+                                future.cancel(true);
+                                results.add("[" + curFileNumber + "] [xxx] Error when writing " + curEntityName + ": interrupted");
+                                continue;
+                            }
                             try {
-                                values.close();
-                            } catch (Exception exc) {
-                                //Debug.warning();
+                                results.addAll(future.get());
+                            } catch (ExecutionException e) {
+                                Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+                                Debug.logError(cause, "Could not export entity [" + curEntityName + "]", module);
+                                results.add("[" + curFileNumber + "] [xxx] Error when writing " + curEntityName + ": " + cause);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                interrupted = true;
+                                future.cancel(true);
+                                results.add("[" + curFileNumber + "] [xxx] Error when writing " + curEntityName + ": interrupted");
                             }
                         }
-                        results.add("["+fileNumber +"] [xxx] Error when writing " + curEntityName + ": " + ex);
+                    } finally {
+                        executor.shutdown();
                     }
-                    fileNumber++;
                 }
             } else {
                 results.add("Path not found or no write access.");
@@ -684,6 +786,119 @@ public class WebToolsServices {
         return resp;
     }
 
+    /**
+     * SCIPIO: Exports the records of one entity to outdir/[entityName].xml, or to [entityName].[chunk].xml files of
+     * at most maxRecordsPerFile records each if maxRecordsPerFile is greater than zero, gzip-compressed (.xml.gz) if requested.
+     * Returns the result lines for the entityExportAll results list; errors are reported there rather than thrown,
+     * so that as much data as possible gets exported.
+     */
+    private static List<String> exportEntity(Delegator delegator, String curEntityName, int fileNumber, File outdir,
+            Timestamp fromDate, boolean compress, long maxRecordsPerFile) {
+        List<String> results = new ArrayList<>();
+        long numberWritten = 0;
+        int chunkCount = 0;
+        long startTime = System.currentTimeMillis();
+        EntityListIterator values = null;
+        PrintWriter writer = null;
+        boolean beganTx = false;
+        try {
+            ModelEntity me = delegator.getModelEntity(curEntityName);
+            if (me instanceof ModelViewEntity) {
+                results.add("["+fileNumber +"] [vvv] " + curEntityName + " skipping view entity");
+                return results;
+            }
+
+            beganTx = TransactionUtil.begin();
+            // some databases don't support cursors, or other problems may happen, so if there is an error here log it and move on to get as much as possible
+            try {
+                List<EntityCondition> conds = new LinkedList<EntityCondition>();
+                if (UtilValidate.isNotEmpty(fromDate)) {
+                    conds.add(EntityCondition.makeCondition("createdStamp", EntityOperator.GREATER_THAN_EQUAL_TO, fromDate));
+                }
+                values = EntityQuery.use(delegator).from(curEntityName).where(conds).orderBy(me.getPkFieldNames()).queryIterator();
+            } catch (Exception entityEx) {
+                results.add("["+fileNumber +"] [xxx] Error when writing " + curEntityName + ": " + entityEx);
+                TransactionUtil.rollback(beganTx, "Error when writing " + curEntityName, entityEx);
+                return results;
+            }
+
+            //Don't bother writing the file if there's nothing
+            //to put into it
+            GenericValue value = values.next();
+            if (value != null) {
+                long chunkWritten = 0;
+                do {
+                    if (writer == null) {
+                        chunkCount++;
+                        writer = openEntityExportWriter(outdir, curEntityName, (maxRecordsPerFile > 0) ? chunkCount : 0, compress);
+                    }
+                    value.writeXmlText(writer, "");
+                    numberWritten++;
+                    chunkWritten++;
+                    if (numberWritten % 500 == 0) {
+                        writer.flush();
+                        TransactionUtil.commit(beganTx);
+                        beganTx = TransactionUtil.begin();
+                    }
+                    if (maxRecordsPerFile > 0 && chunkWritten >= maxRecordsPerFile) {
+                        closeEntityExportWriter(writer);
+                        writer = null;
+                        chunkWritten = 0;
+                    }
+                } while ((value = values.next()) != null);
+                if (writer != null) {
+                    closeEntityExportWriter(writer);
+                    writer = null;
+                }
+                long totalTime = System.currentTimeMillis() - startTime;
+                results.add("["+fileNumber +"] [" + numberWritten + "] " + curEntityName + " wrote " + numberWritten + " records"
+                        + (chunkCount > 1 ? " in " + chunkCount + " files" : "") + " (" + totalTime + " ms)");
+            } else {
+                results.add("["+fileNumber +"] [---] " + curEntityName + " has no records, not writing file");
+            }
+            values.close();
+            TransactionUtil.commit(beganTx);
+        } catch (Exception ex) {
+            if (values != null) {
+                try {
+                    values.close();
+                } catch (Exception exc) {
+                    //Debug.warning();
+                }
+            }
+            if (writer != null) {
+                writer.close();
+            }
+            try {
+                TransactionUtil.rollback(beganTx, "Error when writing " + curEntityName, ex); // SCIPIO: don't leave the transaction on the thread
+            } catch (GenericTransactionException e) {
+                Debug.logError(e, "Could not roll back the export transaction of " + curEntityName, module);
+            }
+            results.add("["+fileNumber +"] [xxx] Error when writing " + curEntityName + ": " + ex);
+        }
+        return results;
+    }
+
+    private static PrintWriter openEntityExportWriter(File outdir, String entityName, int chunk, boolean compress) throws IOException {
+        String fileName = entityName + (chunk > 0 ? "." + String.format("%05d", chunk) : "") + ".xml" + (compress ? ".gz" : "");
+        OutputStream out = new FileOutputStream(new File(outdir, fileName));
+        if (compress) {
+            out = new GZIPOutputStream(out, 65536);
+        }
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")));
+        writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        writer.println("<entity-engine-xml>");
+        return writer;
+    }
+
+    private static void closeEntityExportWriter(PrintWriter writer) throws IOException {
+        writer.println("</entity-engine-xml>");
+        writer.close();
+        if (writer.checkError()) {
+            throw new IOException("Error writing entity export file");
+        }
+    }
+
     /** Get entity reference data. Returns the number of entities in
      * <code>numberOfEntities</code> and a List of Maps -
      * <code>packagesList</code>.
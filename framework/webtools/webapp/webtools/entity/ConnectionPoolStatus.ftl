@@ -18,6 +18,12 @@ code package.
         <@th>Min Idle</@th>
         <@th>Min Evictable Idle Time</@th>
         <@th>Max Wait</@th>
+        <#-- SCIPIO: borrow metrics -->
+        <@th>Borrows</@th>
+        <@th>Borrow Failures</@th>
+        <@th>Avg Borrow Wait (ms)</@th>
+        <@th>Max Borrow Wait (ms)</@th>
+        <@th>Leak Suspects</@th>
     </@tr>
     </@thead>
     <#if (groups?has_content)>
@@ -36,9 +42,63 @@ code package.
                         <@td>${dataSourceInfo.poolMinIdle!}</@td>
                         <@td>${dataSourceInfo.poolMinEvictableIdleTimeMillis!}</@td>
                         <@td>${dataSourceInfo.poolMaxWait!}</@td>
+                        <@td>${dataSourceInfo.poolBorrowCount!}</@td>
+                        <@td>${dataSourceInfo.poolBorrowFailureCount!}</@td>
+                        <@td>${(dataSourceInfo.poolBorrowWaitAvgMillis?string("0.###"))!}</@td>
+                        <@td>${(dataSourceInfo.poolBorrowWaitMaxMillis?string("0.###"))!}</@td>
+                        <@td><#if (dataSourceInfo.poolLeakThresholdMillis!0) gt 0>${dataSourceInfo.poolLeakSuspectCount!}<#else>-</#if></@td>
                     </@tr>
                 </#if>
             </#if>
         </#list>
     </#if>
 </@table>
+
+<#-- SCIPIO: borrow wait histograms and leak suspects -->
+<#if (groups?has_content)>
+  <#list groups as group>
+    <#assign helper = delegator.getGroupHelperName(group)!/>
+    <#if (helper?has_content)>
+      <#assign dataSourceInfo = Static["org.ofbiz.entity.connection.DBCPConnectionFactory"].getDataSourceInfo(helper)!/>
+      <#if (dataSourceInfo.poolBorrowWaitHistogram)?has_content>
+        <@heading level=2>${helper}</@heading>
+        <@table type="data-list" class="+light-grid ${styles.table_spacing_tiny_hint!}">
+          <@thead>
+            <@tr class="header-row">
+              <#list dataSourceInfo.poolBorrowWaitHistogram?keys as bucket>
+                <@th>${bucket}</@th>
+              </#list>
+            </@tr>
+          </@thead>
+          <@tr>
+            <#list dataSourceInfo.poolBorrowWaitHistogram?values as bucketCount>
+              <@td>${bucketCount}</@td>
+            </#list>
+          </@tr>
+        </@table>
+        <#if dataSourceInfo.poolAdaptive!false>
+          <p>Adaptive max active: ${dataSourceInfo.poolMaxActive!} (configured: ${dataSourceInfo.poolConfiguredMaxActive!})</p>
+        </#if>
+        <#assign leakSuspects = Static["org.ofbiz.entity.connection.DBCPConnectionFactory"].getLeakSuspects(helper)!/>
+        <#if leakSuspects?has_content>
+          <@table type="data-list" autoAltRows=true class="+light-grid ${styles.table_spacing_tiny_hint!}">
+            <@thead>
+              <@tr class="header-row">
+                <@th>Connection</@th>
+                <@th>Borrowed (ms)</@th>
+                <@th>Borrowed At</@th>
+              </@tr>
+            </@thead>
+            <#list leakSuspects as leakSuspect>
+              <@tr>
+                <@td>${leakSuspect.connection!}</@td>
+                <@td>${leakSuspect.borrowedMillis!}</@td>
+                <@td><#if leakSuspect.borrowTrace?has_content><pre>${leakSuspect.borrowTrace}</pre><#else>-</#if></@td>
+              </@tr>
+            </#list>
+          </@table>
+        </#if>
+      </#if>
+    </#if>
+  </#list>
+</#if>
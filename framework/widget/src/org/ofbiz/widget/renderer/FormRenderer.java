@@ -995,7 +995,7 @@ public class FormRenderer {
             listFormHandler.notifyHasList(); // SCIPIO
 
             // render item rows
-            int itemIndex = -1;
+            int itemIndex = Paginator.getFirstItemIndex(obj) - 1; // SCIPIO: keyset page queries start at their first row
             Object item = null;
             context.put("wholeFormContext", context);
             Map<String, Object> previousItem = new HashMap<>();
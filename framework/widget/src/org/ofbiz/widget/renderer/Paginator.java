@@ -30,6 +30,7 @@ import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.base.util.collections.PagedList;
 import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.util.EntityKeyset;
 import org.ofbiz.entity.util.EntityListIterator;
 import org.ofbiz.widget.WidgetWorker;
 import org.ofbiz.widget.model.ModelForm;
@@ -59,11 +60,15 @@ public final class Paginator {
         int lowIndex = 0;
         int highIndex = 0;
         int listSize = modelForm.getOverrideListSize(context);
+        boolean listSizeExact = true; // SCIPIO
+        Map<String, Object> listSeekNext = null; // SCIPIO
         if (listSize > 0) {
         } else if (entryList instanceof EntityListIterator) {
             EntityListIterator iter = (EntityListIterator) entryList;
             try {
-                listSize = iter.getResultsSizeAfterPartialList();
+                // SCIPIO: a keyset page query counts the rows from its first row
+                listSize = getFirstItemIndex(entryList) + iter.getResultsSizeAfterPartialList();
+                listSizeExact = iter.isResultSizeExact(); // SCIPIO: capped or approximate count (datasource count-mode)
             } catch (GenericEntityException e) {
                 Debug.logError(e, "Error getting list size", module);
                 listSize = 0;
@@ -88,6 +93,9 @@ public final class Paginator {
             viewSize = getViewSize(modelForm, context);
             lowIndex = viewIndex * viewSize;
             highIndex = (viewIndex + 1) * viewSize;
+            if (entryList instanceof EntityListIterator && highIndex < listSize) {
+                listSeekNext = getSeekNext((EntityListIterator) entryList, lowIndex, viewSize); // SCIPIO
+            }
         } else {
             viewIndex = 0;
             viewSize = ModelForm.MAX_PAGE_SIZE;
@@ -95,10 +103,51 @@ public final class Paginator {
             highIndex = ModelForm.MAX_PAGE_SIZE;
         }
         context.put("listSize", listSize);
+        context.put("listSizeExact", listSizeExact); // SCIPIO
         context.put("viewIndex", viewIndex);
         context.put("viewSize", viewSize);
         context.put("lowIndex", lowIndex);
         context.put("highIndex", highIndex);
+        context.put("listSeekNext", listSeekNext); // SCIPIO
+    }
+
+    /**
+     * SCIPIO: Returns the index in the whole list of the first item of the list or iterator: the first row index of
+     * a keyset page query ({@link EntityListIterator#getKeysetFirstRowIndex()}), 0 otherwise.
+     */
+    public static int getFirstItemIndex(Object entryList) {
+        return (entryList instanceof EntityListIterator) ? ((EntityListIterator) entryList).getKeysetFirstRowIndex() : 0;
+    }
+
+    /**
+     * SCIPIO: Returns the seek key of the page after the one at lowIndex, from its last row, for a keyset page query
+     * (see {@link EntityKeyset}); null for other iterators or if the page is not full.
+     * The iterator is rewound.
+     */
+    private static Map<String, Object> getSeekNext(EntityListIterator iter, int lowIndex, int viewSize) {
+        List<String> keysetOrderBy = iter.getKeysetOrderBy();
+        if (keysetOrderBy == null || viewSize <= 0) {
+            return null;
+        }
+        try {
+            try {
+                if (iter.absolute(lowIndex + viewSize - iter.getKeysetFirstRowIndex())) {
+                    return EntityKeyset.makeSeekKey(keysetOrderBy, iter.currentGenericValue());
+                }
+            } finally {
+                iter.beforeFirst();
+            }
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Error getting the keyset seek key of the next page", module);
+        }
+        return null;
+    }
+
+    /**
+     * SCIPIO: Returns the seek key of the next page set by {@link #getListLimits}, or null.
+     */
+    public static Map<String, Object> getListSeekNext(Map<String, Object> context) {
+        return UtilGenerics.checkMap(context.get("listSeekNext"));
     }
 
     public static int getListSize(Map<String, Object> context) {
@@ -217,7 +266,7 @@ public final class Paginator {
         }
 
         // count item rows
-        int itemIndex = -1;
+        int itemIndex = getFirstItemIndex(obj) - 1; // SCIPIO: keyset page queries start at their first row
         Object item = safeNext(iter);
         while (item != null && itemIndex < highIndex) {
             itemIndex++;
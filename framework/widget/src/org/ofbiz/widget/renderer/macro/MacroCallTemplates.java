@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.widget.renderer.macro;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.base.util.template.FreeMarkerWorker;
+
+import freemarker.core.Environment;
+import freemarker.template.SimpleScalar;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateSequenceModel;
+
+/**
+ * SCIPIO: Pre-parsed, parameterized templates for the macro calls built as FTL source by the Macro*Renderer classes.
+ * <p>
+ * The renderers build each macro call (<code>&lt;@renderField name=r"..." value="..." /&gt;</code>) as FTL text, which
+ * used to be parsed into a new Template for every field, label and container rendered. Here the string literals of a
+ * call are replaced by references to an argument sequence, which gives the "shape" of the call: the macro name, the
+ * argument names and the non-string values. The template of each shape is parsed once and kept in the
+ * <code>widget.macro.callTemplateCache</code> UtilCache, and each call only sets the arguments and includes it.
+ * <p>
+ * Calls that contain string interpolations or that cannot be scanned are parsed per call, as before; setting
+ * the cache <code>enabled=false</code> (cache.properties) does the same for all calls.
+ */
+public final class MacroCallTemplates {
+
+    private static final Debug.OfbizLogger module = Debug.getOfbizLogger(java.lang.invoke.MethodHandles.lookup().lookupClass());
+
+    /** The variable holding the string arguments of the current call. */
+    public static final String ARGS_VAR = "_scpMacroCallArgs";
+
+    private static final String ARGS_REF_PREFIX = ARGS_VAR + "[";
+
+    private static final UtilCache<String, Template> callTemplateCache = UtilCache.createUtilCache("widget.macro.callTemplateCache", 0, 5000, 0, false);
+
+    private MacroCallTemplates() {}
+
+    /**
+     * Executes the macro call FTL source in the environment, using the pre-parsed template of its shape if possible,
+     * otherwise parsing the source as a template with the given name.
+     */
+    public static void includeMacroCall(Environment environment, String macro, String templateName) throws TemplateException, IOException {
+        if (callTemplateCache.isEnabled()) {
+            List<String> args = new ArrayList<>();
+            String shape = makeShape(macro, args);
+            if (shape != null) {
+                Template template = callTemplateCache.get(shape);
+                if (template == null) {
+                    template = new Template("macroCall", new StringReader(shape), FreeMarkerWorker.getDefaultOfbizConfig());
+                    callTemplateCache.put(shape, template);
+                }
+                // NOTE: saved and restored, in case argument evaluation renders another macro call in this environment
+                TemplateModel savedArgs = environment.getGlobalVariable(ARGS_VAR);
+                environment.setGlobalVariable(ARGS_VAR, new StringArgs(args));
+                try {
+                    FreeMarkerWorker.includeTemplate(template, environment);
+                } finally {
+                    environment.setGlobalVariable(ARGS_VAR, savedArgs);
+                }
+                return;
+            }
+        }
+        Template template = new Template(templateName, new StringReader(macro), FreeMarkerWorker.getDefaultOfbizConfig());
+        FreeMarkerWorker.includeTemplate(template, environment);
+    }
+
+    /**
+     * Returns the shape of the macro call source, with the string literals within its FTL tags replaced by references
+     * to {@link #ARGS_VAR}, adding their values to args; returns null if the source contains a string literal with
+     * interpolations or that cannot be decoded.
+     */
+    public static String makeShape(String macro, List<String> args) {
+        int length = macro.length();
+        StringBuilder shape = new StringBuilder(length);
+        boolean inTag = false;
+        int depth = 0;
+        int i = 0;
+        while (i < length) {
+            char c = macro.charAt(i);
+            if (!inTag) {
+                if (c == '<' && macro.startsWith("<#--", i)) {
+                    int end = macro.indexOf("-->", i + 4);
+                    if (end < 0) {
+                        return null;
+                    }
+                    shape.append(macro, i, end + 3);
+                    i = end + 3;
+                    continue;
+                }
+                if (c == '<' && i + 1 < length && (macro.charAt(i + 1) == '@' || macro.charAt(i + 1) == '#')) {
+                    inTag = true;
+                    depth = 0;
+                    shape.append(macro, i, i + 2);
+                    i += 2;
+                    continue;
+                }
+                shape.append(c);
+                i++;
+                continue;
+            }
+            if (c == '"' || c == '\'') {
+                int end = decodeStringLiteral(macro, i + 1, c, args);
+                if (end < 0) {
+                    return null;
+                }
+                shape.append(ARGS_REF_PREFIX).append(args.size() - 1).append(']');
+                i = end + 1;
+                continue;
+            }
+            if (c == 'r' && i + 1 < length && (macro.charAt(i + 1) == '"' || macro.charAt(i + 1) == '\'')
+                    && (i == 0 || !Character.isJavaIdentifierPart(macro.charAt(i - 1)))) {
+                char quote = macro.charAt(i + 1);
+                int end = macro.indexOf(quote, i + 2);
+                if (end < 0) {
+                    return null;
+                }
+                args.add(macro.substring(i + 2, end));
+                shape.append(ARGS_REF_PREFIX).append(args.size() - 1).append(']');
+                i = end + 1;
+                continue;
+            }
+            if (c == '(' || c == '[' || c == '{') {
+                depth++;
+            } else if (c == ')' || c == ']' || c == '}') {
+                depth--;
+            } else if (c == '>' && depth <= 0) {
+                inTag = false;
+            }
+            shape.append(c);
+            i++;
+        }
+        return shape.toString();
+    }
+
+    /**
+     * Decodes the non-raw FTL string literal starting after its opening quote at start, adding its value to args;
+     * returns the index of the closing quote, or -1 if unterminated, invalid or interpolated.
+     */
+    private static int decodeStringLiteral(String macro, int start, char quote, List<String> args) {
+        int length = macro.length();
+        StringBuilder value = new StringBuilder();
+        int i = start;
+        while (i < length) {
+            char c = macro.charAt(i);
+            if (c == quote) {
+                args.add(value.toString());
+                return i;
+            }
+            if ((c == '$' || c == '#') && i + 1 < length && macro.charAt(i + 1) == '{') {
+                return -1; // interpolation
+            }
+            if (c == '[' && i + 1 < length && macro.charAt(i + 1) == '=') {
+                return -1; // interpolation (square bracket syntax)
+            }
+            if (c != '\\') {
+                value.append(c);
+                i++;
+                continue;
+            }
+            if (i + 1 >= length) {
+                return -1;
+            }
+            char e = macro.charAt(i + 1);
+            i += 2;
+            switch (e) {
+            case '"': case '\'': case '\\': case '{': case '=':
+                value.append(e);
+                break;
+            case 'n':
+                value.append('\n');
+                break;
+            case 'r':
+                value.append('\r');
+                break;
+            case 't':
+                value.append('\t');
+                break;
+            case 'b':
+                value.append('\b');
+                break;
+            case 'f':
+                value.append('\f');
+                break;
+            case 'l':
+                value.append('<');
+                break;
+            case 'g':
+                value.append('>');
+                break;
+            case 'a':
+                value.append('&');
+                break;
+            case 'x':
+                int hexEnd = i;
+                while (hexEnd < length && hexEnd < i + 4 && Character.digit(macro.charAt(hexEnd), 16) >= 0) {
+                    hexEnd++;
+                }
+                if (hexEnd == i) {
+                    return -1;
+                }
+                value.append((char) Integer.parseInt(macro.substring(i, hexEnd), 16));
+                i = hexEnd;
+                break;
+            default:
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The string arguments of a call, as a sequence.
+     */
+    private static final class StringArgs implements TemplateSequenceModel {
+        private final List<String> args;
+
+        StringArgs(List<String> args) {
+            this.args = args;
+        }
+
+        @Override
+        public TemplateModel get(int index) throws TemplateModelException {
+            return (index >= 0 && index < args.size()) ? new SimpleScalar(args.get(index)) : null;
+        }
+
+        @Override
+        public int size() throws TemplateModelException {
+            return args.size();
+        }
+    }
+}
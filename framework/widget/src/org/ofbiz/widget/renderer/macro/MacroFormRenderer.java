@@ -19,8 +19,6 @@
 package org.ofbiz.widget.renderer.macro;
 
 import java.io.IOException;
-import java.io.Reader;
-import java.io.StringReader;
 import java.io.StringWriter;
 import java.rmi.server.UID;
 import java.sql.Timestamp;
@@ -54,6 +52,7 @@ import org.ofbiz.base.util.string.FlexibleStringExpander;
 import org.ofbiz.base.util.template.FreeMarkerWorker;
 import org.ofbiz.base.util.template.FtlScriptFormatter;
 import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.util.EntityKeyset;
 import org.ofbiz.webapp.control.RequestHandler;
 import org.ofbiz.webapp.taglib.ContentUrlTag;
 import org.ofbiz.widget.WidgetWorker;
@@ -178,10 +177,8 @@ public final class MacroFormRenderer implements FormStringRenderer {
     private void executeMacro(Appendable writer, String macro) throws IOException { // SCIPIO: modified for exception
         try {
             Environment environment = getEnvironment(writer);
-            Reader templateReader = new StringReader(macro);
-            Template template = new Template(new UID().toString(), templateReader, FreeMarkerWorker.getDefaultOfbizConfig());
-            templateReader.close();
-            FreeMarkerWorker.includeTemplate(template, environment); // SCIPIO: use FreeMarkerWorker instead of Environment directly
+            // SCIPIO: use the cached template of the call shape instead of parsing each call
+            MacroCallTemplates.includeMacroCall(environment, macro, new UID().toString());
         } catch (TemplateException | IOException e) {
             Debug.logError(e, "Error rendering screen thru ftl macro: " + macro, module);
             handleError(writer, e); // SCIPIO
@@ -226,6 +223,24 @@ public final class MacroFormRenderer implements FormStringRenderer {
      */
     @SuppressWarnings("unused")
     @Deprecated
+    /**
+     * SCIPIO: Strips the keyset seek key params of the current page from the query string, see
+     * {@link EntityKeyset#makeSeekAfterParams}.
+     */
+    private static String stripSeekAfterParamsFromQueryString(String queryString) {
+        if (UtilValidate.isEmpty(queryString)) {
+            return queryString;
+        }
+        Set<String> paramNames = new HashSet<>();
+        for (String token : queryString.split("&(amp;)?")) {
+            String name = token.split("=", 2)[0];
+            if (EntityKeyset.SEEK_AFTER_INDEX_PARAM.equals(name) || name.startsWith(EntityKeyset.SEEK_AFTER_PARAM_PREFIX)) {
+                paramNames.add(name);
+            }
+        }
+        return paramNames.isEmpty() ? queryString : UtilHttp.stripNamedParamsFromQueryString(queryString, paramNames);
+    }
+
     private static String encodeDoubleQuotes(String htmlString) {
         return htmlString.replaceAll("\"", "\\\\\"");
     }
@@ -2612,6 +2627,18 @@ public final class MacroFormRenderer implements FormStringRenderer {
         paramNames.add(viewIndexParam);
         paramNames.add(viewSizeParam);
         queryString = UtilHttp.stripNamedParamsFromQueryString(queryString, paramNames);
+        // SCIPIO: keyset seek key of the next page, only for the next link (see Paginator.getListLimits)
+        queryString = stripSeekAfterParamsFromQueryString(queryString);
+        String seekNextParams = "";
+        Map<String, Object> listSeekNext = Paginator.getListSeekNext(context);
+        if (listSeekNext != null) {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, String> param : EntityKeyset.makeSeekAfterParams(listSeekNext, viewIndex + 1).entrySet()) {
+                sb.append("&amp;").append(UtilCodec.getEncoder("url").encode(param.getKey()))
+                        .append('=').append(UtilCodec.getEncoder("url").encode(param.getValue()));
+            }
+            seekNextParams = sb.toString();
+        }
         String anchor = "";
         String paginateAnchor = modelForm.getPaginateTargetAnchor();
         if (UtilValidate.isNotEmpty(paginateAnchor)) {
@@ -2669,6 +2696,7 @@ public final class MacroFormRenderer implements FormStringRenderer {
             // Prepare params for prototype.js
             prepLinkText = prepLinkText.replace("?", "");
             prepLinkText = prepLinkText.replace("&amp;", "&");
+            seekNextParams = seekNextParams.replace("&amp;", "&"); // SCIPIO
         }
         String linkText;
         String paginateStyle = modelForm.getPaginateStyle();
@@ -2724,9 +2752,9 @@ public final class MacroFormRenderer implements FormStringRenderer {
         // Next button
         if (highIndex < listSize) {
             if (ajaxEnabled) {
-                ajaxNextUrl = createAjaxParamsFromUpdateAreas(updateAreas, prepLinkText + (viewIndex + 1) + anchor, context);
+                ajaxNextUrl = createAjaxParamsFromUpdateAreas(updateAreas, prepLinkText + (viewIndex + 1) + seekNextParams + anchor, context);
             } else {
-                linkText = prepLinkText + (viewIndex + 1) + anchor;
+                linkText = prepLinkText + (viewIndex + 1) + seekNextParams + anchor;
                 nextUrl = rh.makeLink(this.request, this.response, urlPath + linkText);
             }
         }
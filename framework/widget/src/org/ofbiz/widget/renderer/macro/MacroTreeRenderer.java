@@ -19,8 +19,6 @@
 package org.ofbiz.widget.renderer.macro;
 
 import java.io.IOException;
-import java.io.Reader;
-import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.List;
 import java.util.Map;
@@ -108,12 +106,9 @@ public class MacroTreeRenderer implements TreeStringRenderer {
     private void executeMacro(Appendable writer, String macro) throws IOException {
         try {
             Environment environment = getEnvironment(writer);
-            Reader templateReader = new StringReader(macro);
             // FIXME: I am using a Date as an hack to provide a unique name for the template...
-            Template template = new Template((new java.util.Date()).toString(), templateReader,
-                    FreeMarkerWorker.getDefaultOfbizConfig());
-            templateReader.close();
-            FreeMarkerWorker.includeTemplate(template, environment); // SCIPIO: use FreeMarkerWorker instead of Environment
+            // SCIPIO: use the cached template of the call shape instead of parsing each call
+            MacroCallTemplates.includeMacroCall(environment, macro, (new java.util.Date()).toString());
         } catch (TemplateException | IOException e) {
             Debug.logError(e, "Error rendering tree thru ftl", module);
             handleError(writer, e); // SCIPIO
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.widget.test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.base.util.template.FreeMarkerWorker;
+import org.ofbiz.widget.renderer.macro.MacroCallTemplates;
+
+import freemarker.core.Environment;
+import freemarker.template.Template;
+
+/**
+ * SCIPIO: Checks that the macro calls rendered through the cached call shapes of {@link MacroCallTemplates}
+ * give the same output as the per-call parsing they replace.
+ */
+public class MacroCallTemplatesTests extends GenericTestCaseBase {
+
+    private static final String LIBRARY = "<#macro renderField name=\"\" value=\"\" title=\"\" count=0 flag=false attribs={} items=[]>"
+            + "[${name}|${value}|${title}|${count}|${flag?c}|<#list attribs?keys as key>${key}=${attribs[key]};</#list>"
+            + "|<#list items as item>${item};</#list>]<#nested></#macro>";
+
+    private static final String[] CALLS = {
+        "<@renderField name=\"field1\" value=\"value 1\" />",
+        "<@renderField name=\"field1\" value=\"other value\" />",
+        "<@renderField name='single' value=r\"raw ${notInterpolated} \\n\" title=r'raw single' />",
+        "<@renderField name=\"escapes\" value=\"quote \\\" apos \\' tab \\t nl \\n \\l\\g\\a \\x41\\x00e9 \\{ \\\\\" />",
+        "<@renderField name=\"types\" count=42 flag=true attribs={\"b\":\"2\", \"a\":\"1\"} items=[\"x\", \"y\", 'z'] />",
+        "<@renderField name=\"nested (paren) > gt\" attribs={\"k\":\"v > w\"}><#-- comment \"not an arg\" -->body</@renderField>",
+        "text before <@renderField name=\"first\" /> text between \"quoted text\" <@renderField name=\"second\" />",
+        "<#assign localVar=\"assigned\"><@renderField name=localVar value=\"after assign\" />",
+        "<@renderField name=\"empty\" value=\"\" title='' />",
+        // interpolated arguments, parsed per call
+        "<@renderField name=\"interp\" value=\"${contextValue}\" />",
+        "<@renderField name=\"interp\" value=\"prefix #{contextNumber} suffix\" title=\"${contextValue?upper_case}\" />",
+        "<@renderField name=\"interp\" value=\"[=contextValue]\" />",
+    };
+
+    public MacroCallTemplatesTests(String name) {
+        super(name);
+    }
+
+    public void testShapeArgs() throws Exception {
+        List<String> args = new ArrayList<>();
+        String shape = MacroCallTemplates.makeShape(CALLS[3], args);
+        assertNotNull("Shape of a call with escapes", shape);
+        assertEquals("Decoded arguments", list("escapes", "quote \" apos ' tab \t nl \n <>& A\u00e9 { \\"), args);
+        List<String> otherArgs = new ArrayList<>();
+        assertEquals("Same shape for calls differing in their string arguments", MacroCallTemplates.makeShape(CALLS[0], new ArrayList<String>()),
+                MacroCallTemplates.makeShape(CALLS[1], otherArgs));
+        assertEquals("Arguments of the second call", list("field1", "other value"), otherArgs);
+        assertNull("No shape for an interpolated call", MacroCallTemplates.makeShape(CALLS[9], new ArrayList<String>()));
+    }
+
+    public void testOutputParity() throws Exception {
+        for (int pass = 0; pass < 2; pass++) { // second pass uses the cached shapes
+            for (String call : CALLS) {
+                assertEquals("Output of " + call, renderParsed(call), renderCached(call));
+            }
+        }
+    }
+
+    private static Map<String, Object> makeDataModel() {
+        Map<String, Object> dataModel = new HashMap<>();
+        dataModel.put("contextValue", "context \"value\" <b>");
+        dataModel.put("contextNumber", 12);
+        return dataModel;
+    }
+
+    private static Environment makeEnvironment(StringWriter out) throws Exception {
+        Template library = new Template("library", new StringReader(LIBRARY), FreeMarkerWorker.getDefaultOfbizConfig());
+        Environment environment = library.createProcessingEnvironment(makeDataModel(), out);
+        environment.process();
+        return environment;
+    }
+
+    private static String renderParsed(String call) throws Exception {
+        StringWriter out = new StringWriter();
+        Environment environment = makeEnvironment(out);
+        FreeMarkerWorker.includeTemplate(new Template("call", new StringReader(call), FreeMarkerWorker.getDefaultOfbizConfig()), environment);
+        return out.toString();
+    }
+
+    private static String renderCached(String call) throws Exception {
+        StringWriter out = new StringWriter();
+        Environment environment = makeEnvironment(out);
+        MacroCallTemplates.includeMacroCall(environment, call, "call");
+        return out.toString();
+    }
+}